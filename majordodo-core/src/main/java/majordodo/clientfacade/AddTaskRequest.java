@@ -36,8 +36,17 @@ public class AddTaskRequest {
     public final String slot;
     public final String codepool;
     public final String mode;
+    /**
+     * Maximum execution time on the worker, in milliseconds. Zero means that
+     * the default of the worker for the tasktype applies
+     */
+    public final long maxExecutionTime;
 
     public AddTaskRequest(long transaction, String taskType, String userId, String parameter, int maxattemps, long deadline, String slot, int attempts,String codepool,String mode) {
+        this(transaction, taskType, userId, parameter, maxattemps, deadline, slot, attempts, codepool, mode, 0);
+    }
+
+    public AddTaskRequest(long transaction, String taskType, String userId, String parameter, int maxattemps, long deadline, String slot, int attempts, String codepool, String mode, long maxExecutionTime) {
         this.transaction = transaction;
         this.attempt = attempts;
         this.taskType = taskType;
@@ -48,6 +57,7 @@ public class AddTaskRequest {
         this.slot = slot;
         this.codepool=codepool;
         this.mode=mode;
+        this.maxExecutionTime = maxExecutionTime;
     }
 
 }
@@ -35,6 +35,106 @@ public class BrokerStatusView {
     private long errorTasks;
     private long finishedTasks;
     private long runningTasks;
+    private long leaderSince;
+    private long takeoverTime = -1;
+    private long timeToFirstAssignment = -1;
+    private long lastCheckpointTime;
+    private long editsSinceCheckpoint;
+    private long bytesSinceCheckpoint;
+    private long estimatedReplayTime;
+
+    /**
+     * Timestamp of the moment this broker started the leadership takeover
+     *
+     * @return 0 if the broker never acquired leadership
+     */
+    public long getLeaderSince() {
+        return leaderSince;
+    }
+
+    public void setLeaderSince(long leaderSince) {
+        this.leaderSince = leaderSince;
+    }
+
+    /**
+     * Time in milliseconds needed to rebuild the runtime status (heap, slots,
+     * workers) after acquiring leadership
+     *
+     * @return -1 if the broker is not leader
+     */
+    public long getTakeoverTime() {
+        return takeoverTime;
+    }
+
+    public void setTakeoverTime(long takeoverTime) {
+        this.takeoverTime = takeoverTime;
+    }
+
+    /**
+     * Time in milliseconds from leadership acquisition to the first task
+     * assigned to a worker
+     *
+     * @return -1 if no task has been assigned yet
+     */
+    public long getTimeToFirstAssignment() {
+        return timeToFirstAssignment;
+    }
+
+    public void setTimeToFirstAssignment(long timeToFirstAssignment) {
+        this.timeToFirstAssignment = timeToFirstAssignment;
+    }
+
+    /**
+     * Timestamp of the last checkpoint
+     *
+     * @return
+     */
+    public long getLastCheckpointTime() {
+        return lastCheckpointTime;
+    }
+
+    public void setLastCheckpointTime(long lastCheckpointTime) {
+        this.lastCheckpointTime = lastCheckpointTime;
+    }
+
+    /**
+     * Number of edits which would be replayed at recovery
+     *
+     * @return
+     */
+    public long getEditsSinceCheckpoint() {
+        return editsSinceCheckpoint;
+    }
+
+    public void setEditsSinceCheckpoint(long editsSinceCheckpoint) {
+        this.editsSinceCheckpoint = editsSinceCheckpoint;
+    }
+
+    /**
+     * Size in bytes of the log which would be replayed at recovery
+     *
+     * @return
+     */
+    public long getBytesSinceCheckpoint() {
+        return bytesSinceCheckpoint;
+    }
+
+    public void setBytesSinceCheckpoint(long bytesSinceCheckpoint) {
+        this.bytesSinceCheckpoint = bytesSinceCheckpoint;
+    }
+
+    /**
+     * Estimated time in milliseconds to replay the log at recovery
+     *
+     * @return
+     */
+    public long getEstimatedReplayTime() {
+        return estimatedReplayTime;
+    }
+
+    public void setEstimatedReplayTime(long estimatedReplayTime) {
+        this.estimatedReplayTime = estimatedReplayTime;
+    }
 
     public long getWaitingTasks() {
         return waitingTasks;
@@ -87,6 +87,19 @@ public class ClientFacade {
         broker.rollbackTransaction(id);
     }
 
+    /**
+     * Requests the cancellation of a running task. The worker interrupts the
+     * execution and the task ends in ERROR status, without further attempts
+     *
+     * @param taskId
+     * @return true if the task was running and the cancel request has been
+     * sent to the worker
+     * @throws Exception
+     */
+    public boolean cancelTask(long taskId) throws Exception {
+        return broker.cancelTask(taskId);
+    }
+
     public List<TaskStatusView> getAllTasks() {
         return broker.getBrokerStatus().getAllTasks();
     }
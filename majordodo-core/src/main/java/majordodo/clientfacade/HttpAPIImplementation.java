@@ -113,6 +113,13 @@ public class HttpAPIImplementation {
                     resultMap.put("errortasks", status.getErrorTasks());
                     resultMap.put("waitingtasks", status.getWaitingTasks());
                     resultMap.put("finishedtasks", status.getFinishedTasks());
+                    resultMap.put("leadersince", status.getLeaderSince());
+                    resultMap.put("takeovertime", status.getTakeoverTime());
+                    resultMap.put("timetofirstassignment", status.getTimeToFirstAssignment());
+                    resultMap.put("lastcheckpoint", status.getLastCheckpointTime());
+                    resultMap.put("editssincecheckpoint", status.getEditsSinceCheckpoint());
+                    resultMap.put("bytessincecheckpoint", status.getBytesSinceCheckpoint());
+                    resultMap.put("estimatedreplaytime", status.getEstimatedReplayTime());
                 } else {
                     resultMap.put("status", "not_started");
                     resultMap.put("version", Broker.VERSION());
@@ -479,6 +486,11 @@ public class HttpAPIImplementation {
                         if (mode != null && mode.trim().isEmpty()) {
                             mode = null;
                         }
+                        String _maxExecutionTime = (String) data.get("maxExecutionTime");
+                        long maxExecutionTime = 0;
+                        if (_maxExecutionTime != null) {
+                            maxExecutionTime = Long.parseLong(_maxExecutionTime);
+                        }
 
                         if (auth_user.getRole() != UserRole.ADMINISTRATOR
                             && !auth_user.getUserId().equals(user)) {
@@ -488,7 +500,7 @@ public class HttpAPIImplementation {
 
                         SubmitTaskResult result;
                         try {
-                            result = broker.getClient().submitTask(new AddTaskRequest(transaction, type, user, parameters, maxattempts, deadline, slot, attempt, codepool, mode));
+                            result = broker.getClient().submitTask(new AddTaskRequest(transaction, type, user, parameters, maxattempts, deadline, slot, attempt, codepool, mode, maxExecutionTime));
                             long taskId = result.getTaskId();
                             resultMap.put("taskId", taskId);
                             resultMap.put("result", result.getOutcome());
@@ -548,8 +560,13 @@ public class HttpAPIImplementation {
                                 if (mode != null && mode.trim().isEmpty()) {
                                     mode = null;
                                 }
+                                String _maxExecutionTime = (String) task.get("maxExecutionTime");
+                                long maxExecutionTime = 0;
+                                if (_maxExecutionTime != null) {
+                                    maxExecutionTime = Long.parseLong(_maxExecutionTime);
+                                }
 
-                                requests.add(new AddTaskRequest(transaction, type, user, parameters, maxattempts, deadline, slot, attempt, codepool, mode));
+                                requests.add(new AddTaskRequest(transaction, type, user, parameters, maxattempts, deadline, slot, attempt, codepool, mode, maxExecutionTime));
                             }
                             try {
                                 List<SubmitTaskResult> addresults = broker.getClient().submitTasks(requests);
@@ -581,6 +598,26 @@ public class HttpAPIImplementation {
                         break;
                     }
 
+                    case "cancelTask": {
+                        String error = "";
+                        long taskId = Long.parseLong(data.get("taskId") + "");
+                        if (auth_user.getRole() != UserRole.ADMINISTRATOR) {
+                            resp.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Majordodo broker API");
+                            return;
+                        }
+                        boolean cancelled = false;
+                        try {
+                            cancelled = broker.getClient().cancelTask(taskId);
+                        } catch (Exception err) {
+                            LOGGER.log(Level.SEVERE, "error for " + data, err);
+                            error = err + "";
+                        }
+                        resultMap.put("taskId", taskId);
+                        resultMap.put("cancelled", cancelled);
+                        resultMap.put("ok", error.isEmpty());
+                        resultMap.put("error", error);
+                        break;
+                    }
                     case "beginTransaction": {
                         String error = null;
                         long transactionId = 0;
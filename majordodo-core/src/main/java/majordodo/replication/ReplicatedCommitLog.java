@@ -40,7 +40,6 @@ import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
@@ -94,6 +93,7 @@ public class ReplicatedCommitLog extends StatusChangesLog {
     private volatile CommitFileWriter writer;
     private long currentLedgerId = 0;
     private long lastSequenceNumber = -1;
+    private int lastSubSequenceNumber = 0;
     private Path snapshotsDirectory;
     private LedgersInfo actualLedgersList;
     private int ensemble = 1;
@@ -102,6 +102,8 @@ public class ReplicatedCommitLog extends StatusChangesLog {
     private long ledgersRetentionPeriod = 1000 * 60 * 60 * 24;
     private long maxLogicalLogFileSize = 1024 * 1024 * 256;
     private long writtenBytes = 0;
+    private int maxPackedEntrySize = 1024 * 1024;
+    private boolean writeLegacyFormat = true;
 
     @Override
     public String getSharedSecret() {
@@ -121,6 +123,49 @@ public class ReplicatedCommitLog extends StatusChangesLog {
         this.maxLogicalLogFileSize = maxLogicalLogFileSize;
     }
 
+    /**
+     * Number of bytes written to the actual ledger
+     *
+     * @return
+     */
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    public int getMaxPackedEntrySize() {
+        return maxPackedEntrySize;
+    }
+
+    /**
+     * Maximum size of a log entry which contains more than one edit, edits
+     * logged together are packed in the same entry. Set to 0 in order to write
+     * each edit in its own entry
+     *
+     * @param maxPackedEntrySize
+     */
+    public void setMaxPackedEntrySize(int maxPackedEntrySize) {
+        this.maxPackedEntrySize = maxPackedEntrySize;
+    }
+
+    @Override
+    public boolean isWriteLegacyFormat() {
+        return writeLegacyFormat;
+    }
+
+    /**
+     * Write edits using the legacy format, which can be read by brokers
+     * running older versions of Majordodo. This is the default, in order to
+     * allow rolling upgrades of the cluster. Packed entries need the actual
+     * format, so in legacy mode each edit is written in its own entry. The same
+     * applies to snapshots, which are written without the dictionary of the
+     * strings repeated among tasks
+     *
+     * @param writeLegacyFormat
+     */
+    public void setWriteLegacyFormat(boolean writeLegacyFormat) {
+        this.writeLegacyFormat = writeLegacyFormat;
+    }
+
     public LedgersInfo getActualLedgersList() {
         return actualLedgersList;
     }
@@ -184,9 +229,10 @@ public class ReplicatedCommitLog extends StatusChangesLog {
         public long writeEntry(StatusEdit edit) throws LogNotAvailableException, BKException.BKLedgerClosedException, BKException.BKLedgerFencedException, BKNotEnoughBookiesException {
             long _start = System.currentTimeMillis();
             try {
-                byte[] serialize = edit.serialize();
+                byte[] serialize = serializeEdit(edit);
                 writtenBytes += serialize.length;
                 long res = this.out.addEntry(serialize);
+                trackEdit(edit, serialize.length);
                 if (writtenBytes > maxLogicalLogFileSize) {
                     LOGGER.log(Level.SEVERE, "{0} bytes written to ledger. need to open a new one", writtenBytes);
                     openNewLedger();
@@ -223,24 +269,45 @@ public class ReplicatedCommitLog extends StatusChangesLog {
             }
         }
 
-        private List<Long> writeEntries(List<StatusEdit> edits) throws LogNotAvailableException, BKException.BKLedgerClosedException, BKException.BKLedgerFencedException, BKNotEnoughBookiesException {
+        private List<LogSequenceNumber> writeEntries(List<StatusEdit> edits) throws LogNotAvailableException, BKException.BKLedgerClosedException, BKException.BKLedgerFencedException, BKNotEnoughBookiesException {
             int size = edits.size();
+            // writing can cause the roll of the ledger
+            long ledgerId = getLedgerId();
             if (size == 0) {
                 return Collections.emptyList();
             } else if (size == 1) {
-                return Arrays.asList(writeEntry(edits.get(0)));
+                return Arrays.asList(new LogSequenceNumber(ledgerId, writeEntry(edits.get(0))));
             }
             long _start = System.currentTimeMillis();
             try {
-                Holder<Exception> exception = new Holder<>();
-                CountDownLatch latch = new CountDownLatch(edits.size());
-                List<Long> res = new ArrayList<>(edits.size());
+                // edits are grouped in entries, each entry will hold at most maxPackedEntrySize bytes
+                boolean pack = maxPackedEntrySize > 0 && !writeLegacyFormat;
+                List<byte[]> entries = new ArrayList<>();
+                List<Integer> editsPerEntry = new ArrayList<>();
+                int first = 0;
+                int entrySize = 0;
                 for (int i = 0; i < size; i++) {
-                    res.add(null);
+                    int editSize = pack ? edits.get(i).serializedSize() + StatusEdit.PACKED_ENTRY_EDIT_OVERHEAD : Integer.MAX_VALUE;
+                    if (i > first && (!pack || entrySize + editSize > maxPackedEntrySize)) {
+                        entries.add(serializeEntry(edits.subList(first, i)));
+                        editsPerEntry.add(i - first);
+                        first = i;
+                        entrySize = 0;
+                    }
+                    entrySize += editSize;
                 }
-                for (int i = 0; i < size; i++) {
-                    StatusEdit edit = edits.get(i);
-                    byte[] serialize = edit.serialize();
+                entries.add(serializeEntry(edits.subList(first, size)));
+                editsPerEntry.add(size - first);
+
+                int numEntries = entries.size();
+                Holder<Exception> exception = new Holder<>();
+                CountDownLatch latch = new CountDownLatch(numEntries);
+                List<Long> entryIds = new ArrayList<>(numEntries);
+                for (int i = 0; i < numEntries; i++) {
+                    entryIds.add(null);
+                }
+                for (int i = 0; i < numEntries; i++) {
+                    byte[] serialize = entries.get(i);
                     writtenBytes += serialize.length;
                     this.out.asyncAddEntry(serialize, new AsyncCallback.AddCallback() {
                         @Override
@@ -249,13 +316,13 @@ public class ReplicatedCommitLog extends StatusChangesLog {
                             if (rc != BKException.Code.OK) {
                                 BKException error = BKException.create(rc);
                                 exception.value = error;
-                                res.set(index, null);
-                                for (int j = 0; j < edits.size(); j++) {
+                                entryIds.set(index, null);
+                                for (int j = 0; j < numEntries; j++) {
                                     // early exit
                                     latch.countDown();
                                 }
                             } else {
-                                res.set(index, entryId);
+                                entryIds.set(index, entryId);
                                 latch.countDown();
                             }
 
@@ -266,9 +333,20 @@ public class ReplicatedCommitLog extends StatusChangesLog {
                 if (exception.value != null) {
                     throw exception.value;
                 }
-                for (Long l : res) {
-                    if (l == null) {
-                        throw new RuntimeException("bug ! " + res);
+                trackEntries(edits, entries, editsPerEntry);
+                List<LogSequenceNumber> res = new ArrayList<>(size);
+                for (int i = 0; i < numEntries; i++) {
+                    Long entryId = entryIds.get(i);
+                    if (entryId == null) {
+                        throw new RuntimeException("bug ! " + entryIds);
+                    }
+                    int count = editsPerEntry.get(i);
+                    if (count == 1) {
+                        res.add(new LogSequenceNumber(ledgerId, entryId));
+                    } else {
+                        for (int j = 1; j <= count; j++) {
+                            res.add(new LogSequenceNumber(ledgerId, entryId, j));
+                        }
                     }
                 }
                 if (writtenBytes > maxLogicalLogFileSize) {
@@ -294,6 +372,41 @@ public class ReplicatedCommitLog extends StatusChangesLog {
                 LOGGER.log(Level.FINEST, "writeEntries " + edits.size() + " time " + (_end - _start) + " ms");
             }
         }
+
+        /**
+         * Accounts the edits written, noop edits are not accounted, as in
+         * {@link #trackEdit(majordodo.task.StatusEdit, long) }. The size of a
+         * packed entry is accounted as a whole if it contains at least one
+         * edit which is not a noop
+         */
+        private void trackEntries(List<StatusEdit> edits, List<byte[]> entries, List<Integer> editsPerEntry) {
+            int first = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                int count = editsPerEntry.get(i);
+                int accounted = 0;
+                for (int j = first; j < first + count; j++) {
+                    if (edits.get(j).editType != StatusEdit.TYPE_NOOP) {
+                        accounted++;
+                    }
+                }
+                if (accounted > 0) {
+                    trackEdits(accounted, entries.get(i).length);
+                }
+                first += count;
+            }
+        }
+
+        private byte[] serializeEntry(List<StatusEdit> edits) {
+            if (edits.size() == 1) {
+                return serializeEdit(edits.get(0));
+            } else {
+                return StatusEdit.serializePackedEntry(edits);
+            }
+        }
+
+        private byte[] serializeEdit(StatusEdit edit) {
+            return writeLegacyFormat ? edit.serializeLegacyFormat() : edit.serialize();
+        }
     }
 
     private final ConnectionRequestInfo brokerConnectionRequestInfo = new ConnectionRequestInfo() {
@@ -327,6 +440,11 @@ public class ReplicatedCommitLog extends StatusChangesLog {
             return 0;
         }
 
+        @Override
+        public int getPrefetchTasks() {
+            return 0;
+        }
+
         @Override
         public Map<String, Integer> getMaxThreadsByTaskType() {
             return Collections.emptyMap();
@@ -435,12 +553,10 @@ public class ReplicatedCommitLog extends StatusChangesLog {
                     throw new LogNotAvailableException(new Exception("no ledger opened for writing"));
                 }
                 try {
-                    List<Long> newSequenceNumbers = writer.writeEntries(edits);
-                    lastSequenceNumber = newSequenceNumbers.stream().max(Comparator.naturalOrder()).get();
-                    List<LogSequenceNumber> res = new ArrayList<>();
-                    for (Long newSequenceNumber : newSequenceNumbers) {
-                        res.add(new LogSequenceNumber(currentLedgerId, newSequenceNumber));
-                    }
+                    List<LogSequenceNumber> res = writer.writeEntries(edits);
+                    LogSequenceNumber last = res.get(res.size() - 1);
+                    lastSequenceNumber = last.sequenceNumber;
+                    lastSubSequenceNumber = last.subSequenceNumber;
                     return res;
                 } catch (BKException.BKLedgerClosedException closed) {
                     LOGGER.log(Level.SEVERE, "ledger has been closed, need to open a new ledger", closed);
@@ -479,9 +595,11 @@ public class ReplicatedCommitLog extends StatusChangesLog {
                     throw new LogNotAvailableException(new Exception("no ledger opened for writing"));
                 }
                 try {
+                    long ledgerId = writer.getLedgerId();
                     long newSequenceNumber = writer.writeEntry(edit);
                     lastSequenceNumber = newSequenceNumber;
-                    return new LogSequenceNumber(currentLedgerId, newSequenceNumber);
+                    lastSubSequenceNumber = 0;
+                    return new LogSequenceNumber(ledgerId, newSequenceNumber);
                 } catch (BKException.BKLedgerClosedException closed) {
                     LOGGER.log(Level.SEVERE, "ledger has been closed, need to open a new ledger", closed);
                     Thread.sleep(1000);
@@ -564,7 +682,7 @@ public class ReplicatedCommitLog extends StatusChangesLog {
                     long lastAddConfirmed = handle.getLastAddConfirmed();
                     LOGGER.log(Level.SEVERE, "Recovering from ledger " + ledgerId + ", first=" + first, " lastAddConfirmed=" + lastAddConfirmed);
                     final int BATCH_SIZE = 10000;
-                    if (lastAddConfirmed > 0) {
+                    if (lastAddConfirmed >= 0) {
 
                         for (long b = first; b <= lastAddConfirmed;) {
                             long start = b;
@@ -588,13 +706,20 @@ public class ReplicatedCommitLog extends StatusChangesLog {
                                     try {
                                         while (seq.hasMoreElements()) {
                                             LedgerEntry entry = seq.nextElement();
-                                            LogSequenceNumber number = new LogSequenceNumber(ledgerId, entry.getEntryId());
-                                            StatusEdit statusEdit = StatusEdit.read(entry.getEntry());
-                                            if (number.after(snapshotSequenceNumber)) {
-                                                LOGGER.log(Level.FINEST, "RECOVER ENTRY {0}, {1}", new Object[]{number, statusEdit});
-                                                consumer.accept(number, statusEdit);
-                                            } else {
-                                                LOGGER.log(Level.FINEST, "SKIP ENTRY {0}<{1}, {2}", new Object[]{number, snapshotSequenceNumber, statusEdit});
+                                            byte[] entryData = entry.getEntry();
+                                            List<StatusEdit> statusEdits = StatusEdit.readEntry(entryData);
+                                            boolean packed = StatusEdit.isPackedEntry(entryData);
+                                            int editSize = entryData.length / Math.max(1, statusEdits.size());
+                                            for (int i = 0; i < statusEdits.size(); i++) {
+                                                StatusEdit statusEdit = statusEdits.get(i);
+                                                LogSequenceNumber number = new LogSequenceNumber(ledgerId, entry.getEntryId(), packed ? i + 1 : 0);
+                                                if (number.after(snapshotSequenceNumber)) {
+                                                    LOGGER.log(Level.FINEST, "RECOVER ENTRY {0}, {1}", new Object[]{number, statusEdit});
+                                                    consumer.accept(number, statusEdit);
+                                                    trackEdit(statusEdit, editSize);
+                                                } else {
+                                                    LOGGER.log(Level.FINEST, "SKIP ENTRY {0}<{1}, {2}", new Object[]{number, snapshotSequenceNumber, statusEdit});
+                                                }
                                             }
                                         }
                                     } catch (Throwable errorOccurred) {
@@ -707,7 +832,7 @@ public class ReplicatedCommitLog extends StatusChangesLog {
         try (OutputStream out = Files.newOutputStream(snapshotfilename_tmp);
             BufferedOutputStream bout = new BufferedOutputStream(out, 64 * 1024);
             GZIPOutputStream zout = new GZIPOutputStream(bout)) {
-            BrokerStatusSnapshot.serializeSnapshot(snapshotData, zout);
+            BrokerStatusSnapshot.serializeSnapshot(snapshotData, zout, !writeLegacyFormat);
         } catch (IOException err) {
             throw new LogNotAvailableException(err);
         }
@@ -940,12 +1065,14 @@ public class ReplicatedCommitLog extends StatusChangesLog {
         }
 
         try {
-            long nextEntry = skipPast.sequenceNumber + 1;
+            // a snapshot could have been taken in the middle of a packed entry, so the entry must be read again
+            long nextEntry = skipPast.subSequenceNumber > 0 ? skipPast.sequenceNumber : skipPast.sequenceNumber + 1;
             LOGGER.log(Level.SEVERE, "followTheLeader skipPast:{0} toRead: {1} actualList:{2}, nextEntry:{3}", new Object[]{skipPast, toRead, actualList, nextEntry});
             for (Long previous : toRead) {
                 //LOGGER.log(Level.SEVERE, "followTheLeader openLedger " + previous + " nextEntry:" + nextEntry);
 
-                List<Map.Entry<Long, StatusEdit>> buffer = new ArrayList<>();
+                List<Map.Entry<LogSequenceNumber, StatusEdit>> buffer = new ArrayList<>();
+                List<Integer> bufferSizes = new ArrayList<>();
 
                 // first of all we read data from the leader
                 try (LedgerHandle lh = bookKeeper.openLedgerNoRecovery(previous,
@@ -962,8 +1089,16 @@ public class ReplicatedCommitLog extends StatusChangesLog {
                             LedgerEntry e = entries.nextElement();
                             long entryId = e.getEntryId();
                             byte[] entryData = e.getEntry();
-                            StatusEdit statusEdit = StatusEdit.read(entryData);
-                            buffer.add(new AbstractMap.SimpleImmutableEntry<>(entryId, statusEdit));
+                            List<StatusEdit> statusEdits = StatusEdit.readEntry(entryData);
+                            boolean packed = StatusEdit.isPackedEntry(entryData);
+                            int editSize = entryData.length / Math.max(1, statusEdits.size());
+                            for (int i = 0; i < statusEdits.size(); i++) {
+                                LogSequenceNumber number = new LogSequenceNumber(previous, entryId, packed ? i + 1 : 0);
+                                if (number.after(skipPast)) {
+                                    buffer.add(new AbstractMap.SimpleImmutableEntry<>(number, statusEdits.get(i)));
+                                    bufferSizes.add(editSize);
+                                }
+                            }
                         }
                     }
                 } catch (BKException.BKLedgerRecoveryException | BKBookieHandleNotAvailableException temporaryError) {
@@ -976,15 +1111,19 @@ public class ReplicatedCommitLog extends StatusChangesLog {
                 }
 
                 // use the entry
-                for (Map.Entry<Long, StatusEdit> entry : buffer) {
-                    long entryId = entry.getKey();
+                for (int i = 0; i < buffer.size(); i++) {
+                    Map.Entry<LogSequenceNumber, StatusEdit> entry = buffer.get(i);
+                    LogSequenceNumber number = entry.getKey();
                     StatusEdit statusEdit = entry.getValue();
-                    LOGGER.log(Level.FINEST, "entry {0},{1} -> {2}", new Object[]{previous, entryId, statusEdit});
-                    LogSequenceNumber number = new LogSequenceNumber(previous, entryId);
+                    LOGGER.log(Level.FINEST, "entry {0} -> {1}", new Object[]{number, statusEdit});
                     consumer.accept(number, statusEdit);
+                    trackEdit(statusEdit, bufferSizes.get(i));
                     lastSequenceNumber = number.sequenceNumber;
+                    lastSubSequenceNumber = number.subSequenceNumber;
                     currentLedgerId = number.ledgerId;
                 }
+                // following ledgers are read from the beginning
+                nextEntry = 0;
             }
         } catch (InterruptedException | IOException | BKException err) {
             err.printStackTrace();
@@ -1000,7 +1139,7 @@ public class ReplicatedCommitLog extends StatusChangesLog {
 
     @Override
     public LogSequenceNumber getLastSequenceNumber() {
-        return new LogSequenceNumber(currentLedgerId, lastSequenceNumber);
+        return new LogSequenceNumber(currentLedgerId, lastSequenceNumber, lastSubSequenceNumber);
     }
 
 }
@@ -27,11 +27,14 @@ package majordodo.task;
 public final class AssignedTask {
 
     public final long taskid;
-    public final String[] resourceIds;
+    /**
+     * Ids of the resources, see {@link ResourceIds}
+     */
+    public final int[] resourceIds;
     public final String resources;
 
     @edu.umd.cs.findbugs.annotations.SuppressWarnings(value = "EI_EXPOSE_REP2")
-    public AssignedTask(long taskid, String[] resourceIds, String resources) {
+    public AssignedTask(long taskid, int[] resourceIds, String resources) {
         this.taskid = taskid;
         this.resourceIds = resourceIds;
         this.resources = resources;
@@ -32,6 +32,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
@@ -119,7 +120,9 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
     public final TasksHeap tasksHeap;
     private final BrokerStatus brokerStatus;
     private final StatusChangesLog log;
-    private final ResourceUsageCounters globalResourceUsageCounters = new ResourceUsageCounters();
+    private final ResourceUsageCounters globalResourceUsageCounters;
+    private final Set<Long> cancelledTasks = ConcurrentHashMap.newKeySet();
+    private final WorkerSelectionPolicy workerSelectionPolicy;
     private final BrokerServerEndpoint acceptor;
     private final ClientFacade client;
     private volatile boolean started;
@@ -137,6 +140,14 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
         return globalResourceUsageCounters;
     }
 
+    ResourceIds getResourceIds() {
+        return tasksHeap.getResourceIds();
+    }
+
+    StatusChangesLog getLog() {
+        return log;
+    }
+
     public BrokerConfiguration getConfiguration() {
         return configuration;
     }
@@ -161,6 +172,8 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
         this.client = new ClientFacade(this);
         this.brokerStatus = new BrokerStatus(log);
         this.tasksHeap = tasksHeap;
+        this.globalResourceUsageCounters = new ResourceUsageCounters(tasksHeap.getResourceIds());
+        this.workerSelectionPolicy = createWorkerSelectionPolicy(configuration.getWorkerSelectionPolicy());
         this.log = log;
         this.log.setFailureListener(this);
         this.checkpointScheduler = new CheckpointScheduler(configuration, this);
@@ -174,6 +187,10 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
     }
 
     private boolean recoveryInProgress = false;
+    private volatile long leaderSince;
+    private volatile long takeoverTime = -1;
+    private volatile long timeToFirstAssignment = -1;
+    private HotStandby hotStandby;
 
     public void start() {
         LOGGER.log(Level.SEVERE, "Booting Majordodo Broker, version {0}", VERSION());
@@ -192,6 +209,11 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
         } finally {
             recoveryInProgress = false;
         }
+        if (configuration.isHotStandby()) {
+            hotStandby = new HotStandby(tasksHeap, globalResourceUsageCounters);
+            hotStandby.boot(TasksAtBoot.collect(brokerStatus.getTasksAtBoot()));
+            brokerStatus.setTaskStatusListener(hotStandby);
+        }
         // checkpoint must startboth in leader mode and in follower mode
         this.checkpointScheduler.start();
         this.brokerLifeThread.start();
@@ -222,30 +244,24 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
                     return;
                 }
                 LOGGER.log(Level.SEVERE, "Starting as leader");
+                leaderSince = System.currentTimeMillis();
                 brokerStatus.recoverForLeadership();
+                if (hotStandby != null) {
+                    brokerStatus.setTaskStatusListener(null);
+                    hotStandby.flush(true);
+                }
 
-                Map<String, Long> busySlots = new HashMap<>();
-                for (Task task : brokerStatus.getTasksAtBoot()) {
-                    switch (task.getStatus()) {
-                        case Task.STATUS_WAITING:
-                            LOGGER.log(Level.SEVERE, "Task {0}, {1}, user={2}, slot={3} is to be scheduled (status=waiting)", new Object[]{task.getTaskId(), task.getType(), task.getUserId(), task.getSlot()});
-                            tasksHeap.insertTask(task.getTaskId(), task.getType(), task.getUserId());
-                            if (task.getSlot() != null && !task.getSlot().isEmpty()) {
-                                busySlots.put(task.getSlot(), task.getTaskId());
-                            }
-                            break;
-                        case Task.STATUS_RUNNING:
-                            LOGGER.log(Level.SEVERE, "Task {0}, {1}, user={2}, slot={3} is in running status", new Object[]{task.getTaskId(), task.getType(), task.getUserId(), task.getSlot()});
-                            if (task.getSlot() != null && !task.getSlot().isEmpty()) {
-                                busySlots.put(task.getSlot(), task.getTaskId());
-                            }
-                            break;
-                        default:
-                            // not interesting
-                            break;
-
+                TasksAtBoot tasksAtBoot = TasksAtBoot.collect(brokerStatus.getTasksAtBoot());
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    for (Task task : tasksAtBoot.waitingTasks) {
+                        LOGGER.log(Level.FINE, "Task {0}, {1}, user={2}, slot={3} is to be scheduled (status=waiting)", new Object[]{task.getTaskId(), task.getType(), task.getUserId(), task.getSlot()});
                     }
                 }
+                LOGGER.log(Level.SEVERE, "{0} tasks to be scheduled (status=waiting), {1} tasks in running status", new Object[]{tasksAtBoot.waitingTasks.size(), tasksAtBoot.getRunningTasksCount()});
+                if (hotStandby == null) {
+                    tasksHeap.insertTasks(tasksAtBoot.waitingTasks);
+                }
+                Map<String, Long> busySlots = tasksAtBoot.busySlots;
                 for (Transaction t : brokerStatus.getTransactionsAtBoot()) {
                     if (t.getPreparedTasks() != null) {
                         for (Task task : t.getPreparedTasks()) {
@@ -260,8 +276,10 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
                 brokerStatus.startWriting();
                 Map<String, Collection<Long>> deadWorkerTasks = new HashMap<>();
                 List<String> workersConnectedAtBoot = new ArrayList<>();
-                workers.start(brokerStatus, deadWorkerTasks, workersConnectedAtBoot, globalResourceUsageCounters);
+                workers.start(brokerStatus, tasksAtBoot.runningTasksByWorker, tasksAtBoot.otherTasksByWorker, deadWorkerTasks, workersConnectedAtBoot, hotStandby == null ? globalResourceUsageCounters : null);
                 started = true;
+                takeoverTime = System.currentTimeMillis() - leaderSince;
+                LOGGER.log(Level.SEVERE, "Leadership takeover completed in {0} ms", takeoverTime);
                 for (Map.Entry<String, Collection<Long>> workerTasksToRecovery : deadWorkerTasks.entrySet()) {
                     tasksNeedsRecoveryDueToWorkerDeath(workerTasksToRecovery.getValue(), workerTasksToRecovery.getKey());
                 }
@@ -353,6 +371,10 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
             workerResourceLimits, workerResourceUsageCounters, globalResourceLimits, globalResourceUsageCounters
         );
         long now = System.currentTimeMillis();
+        if (timeToFirstAssignment < 0 && !tasks.isEmpty()) {
+            timeToFirstAssignment = now - leaderSince;
+            LOGGER.log(Level.SEVERE, "First task assigned {0} ms after leadership acquisition", timeToFirstAssignment);
+        }
         List<StatusEdit> edits = new ArrayList<>();
         for (AssignedTask entry : tasks) {
             long taskId = entry.taskid;
@@ -361,6 +383,8 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
                 StatusEdit edit = StatusEdit.ASSIGN_TASK_TO_WORKER(taskId, workerId, task.getAttempts() + 1, entry.resources);
                 edits.add(edit);
             }
+            // a cancellation never applies to a new attempt
+            cancelledTasks.remove(taskId);
             globalResourceUsageCounters.useResources(entry.resourceIds);
         }
         this.brokerStatus.applyModifications(edits);
@@ -370,6 +394,65 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
         return tasks;
     }
 
+    /**
+     * Assigns tasks to many workers, with a single scan of the heap and a
+     * single batch of modifications to the status
+     *
+     * @param requests
+     * @return tasks assigned to each worker
+     * @throws LogNotAvailableException
+     */
+    Map<String, List<AssignedTask>> assignTasksToWorkers(List<WorkerSchedulingRequest> requests) throws LogNotAvailableException {
+        if (!started || requests.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, Integer> globalResourceLimits = globalResourceLimitsConfiguration.getGlobalResourceLimits();
+        long start = System.currentTimeMillis();
+        Map<String, List<AssignedTask>> tasks = tasksHeap.takeTasksForWorkers(requests, globalResourceLimits, globalResourceUsageCounters, workerSelectionPolicy);
+        long now = System.currentTimeMillis();
+        if (timeToFirstAssignment < 0 && !tasks.isEmpty()) {
+            timeToFirstAssignment = now - leaderSince;
+            LOGGER.log(Level.SEVERE, "First task assigned {0} ms after leadership acquisition", timeToFirstAssignment);
+        }
+        List<StatusEdit> edits = new ArrayList<>();
+        for (Map.Entry<String, List<AssignedTask>> forWorker : tasks.entrySet()) {
+            String workerId = forWorker.getKey();
+            for (AssignedTask entry : forWorker.getValue()) {
+                long taskId = entry.taskid;
+                Task task = this.brokerStatus.getTask(taskId);
+                if (task != null) {
+                    StatusEdit edit = StatusEdit.ASSIGN_TASK_TO_WORKER(taskId, workerId, task.getAttempts() + 1, entry.resources);
+                    edits.add(edit);
+                }
+                // a cancellation never applies to a new attempt
+                cancelledTasks.remove(taskId);
+                globalResourceUsageCounters.useResources(entry.resourceIds);
+            }
+        }
+        this.brokerStatus.applyModifications(edits);
+
+        long end = System.currentTimeMillis();
+        LOGGER.log(Level.FINER, "assignTasksToWorkers workers {3} count {4} take: {0}, assign:{1}, total:{2}", new Object[]{now - start, end - now, end - start, requests.size(), edits.size()});
+        return tasks;
+    }
+
+    static WorkerSelectionPolicy createWorkerSelectionPolicy(String policy) {
+        if (policy == null || policy.isEmpty() || BrokerConfiguration.WORKER_SELECTION_ROUNDROBIN.equals(policy)) {
+            return null;
+        }
+        if (BrokerConfiguration.WORKER_SELECTION_LEASTLOADED.equals(policy)) {
+            return new LeastLoadedWorkerSelectionPolicy();
+        }
+        if (BrokerConfiguration.WORKER_SELECTION_POWEROFTWOCHOICES.equals(policy)) {
+            return new PowerOfTwoChoicesWorkerSelectionPolicy();
+        }
+        try {
+            return (WorkerSelectionPolicy) Class.forName(policy, true, Thread.currentThread().getContextClassLoader()).newInstance();
+        } catch (ReflectiveOperationException | ClassCastException err) {
+            throw new IllegalArgumentException("invalid workerSelectionPolicy " + policy, err);
+        }
+    }
+
     public void checkpoint() throws LogNotAvailableException {
         checkpoint(true);
     }
@@ -439,10 +522,7 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
             throw new IllegalActionException(result.error);
         }
         List<Task> preparedtasks = (List<Task>) result.data;
-        for (Task task : preparedtasks) {
-            this.tasksHeap.insertTask(task.getTaskId(), task.getType(), task.getUserId());
-        }
-
+        this.tasksHeap.insertTasks(preparedtasks);
     }
 
     private void assertBrokerAvailableForClients() throws LogNotAvailableException {
@@ -483,6 +563,13 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
         res.setWaitingTasks(brokerStatus.getStats().getWaitingTasks());
         res.setErrorTasks(brokerStatus.getStats().getErrorTasks());
         res.setFinishedTasks(brokerStatus.getStats().getFinishedTasks());
+        res.setLeaderSince(leaderSince);
+        res.setTakeoverTime(takeoverTime);
+        res.setTimeToFirstAssignment(timeToFirstAssignment);
+        res.setLastCheckpointTime(brokerStatus.getLastCheckpointTime());
+        res.setEditsSinceCheckpoint(brokerStatus.getEditsSinceCheckpoint());
+        res.setBytesSinceCheckpoint(brokerStatus.getBytesSinceCheckpoint());
+        res.setEstimatedReplayTime(brokerStatus.getEstimatedReplayTime());
         return res;
     }
 
@@ -589,11 +676,11 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
         assertBrokerAvailableForClients();
         Long taskId = brokerStatus.nextTaskId();
         if (request.transaction > 0) {
-            StatusEdit addTask = StatusEdit.PREPARE_ADD_TASK(request.transaction, taskId, request.taskType, request.data, request.userId, request.maxattempts, request.deadline, request.slot, request.attempt, request.codepool, request.mode);
+            StatusEdit addTask = StatusEdit.PREPARE_ADD_TASK(request.transaction, taskId, request.taskType, request.data, request.userId, request.maxattempts, request.deadline, request.slot, request.attempt, request.codepool, request.mode, request.maxExecutionTime);
             BrokerStatus.ModificationResult result = this.brokerStatus.applyModification(addTask);
             return new AddTaskResult((Long) result.data, result.error);
         } else {
-            StatusEdit addTask = StatusEdit.ADD_TASK(taskId, request.taskType, request.data, request.userId, request.maxattempts, request.deadline, request.slot, request.attempt, request.codepool, request.mode);
+            StatusEdit addTask = StatusEdit.ADD_TASK(taskId, request.taskType, request.data, request.userId, request.maxattempts, request.deadline, request.slot, request.attempt, request.codepool, request.mode, request.maxExecutionTime);
             BrokerStatus.ModificationResult result = this.brokerStatus.applyModification(addTask);
             taskId = (Long) result.data;
             if (taskId > 0 && result.error == null) {
@@ -611,14 +698,15 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
         for (AddTaskRequest request : requests) {
             Long taskId = brokerStatus.nextTaskId();
             if (request.transaction > 0) {
-                StatusEdit addTask = StatusEdit.PREPARE_ADD_TASK(request.transaction, taskId, request.taskType, request.data, request.userId, request.maxattempts, request.deadline, request.slot, request.attempt, request.codepool, request.mode);
+                StatusEdit addTask = StatusEdit.PREPARE_ADD_TASK(request.transaction, taskId, request.taskType, request.data, request.userId, request.maxattempts, request.deadline, request.slot, request.attempt, request.codepool, request.mode, request.maxExecutionTime);
                 edits.add(addTask);
             } else {
-                StatusEdit addTask = StatusEdit.ADD_TASK(taskId, request.taskType, request.data, request.userId, request.maxattempts, request.deadline, request.slot, request.attempt, request.codepool, request.mode);
+                StatusEdit addTask = StatusEdit.ADD_TASK(taskId, request.taskType, request.data, request.userId, request.maxattempts, request.deadline, request.slot, request.attempt, request.codepool, request.mode, request.maxExecutionTime);
                 edits.add(addTask);
             }
         }
         List<BrokerStatus.ModificationResult> batch = this.brokerStatus.applyModifications(edits);
+        List<Task> toSchedule = new ArrayList<>(size);
         if (LOGGER.isLoggable(Level.FINEST)) {
             LOGGER.log(Level.FINEST, "addTasks {0}", requests);
             LOGGER.log(Level.FINEST, "addTasks results {0}", batch);
@@ -631,11 +719,16 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
                 res.add(new AddTaskResult(taskId != null ? taskId : 0, result.error));
             } else {
                 if (taskId != null && taskId > 0 && result.error == null) {
-                    this.tasksHeap.insertTask(taskId, addTask.taskType, addTask.userid);
+                    Task task = new Task();
+                    task.setTaskId(taskId);
+                    task.setType(addTask.taskType);
+                    task.setUserId(addTask.userid);
+                    toSchedule.add(task);
                 }
                 res.add(new AddTaskResult(taskId != null ? taskId : 0, result.error));
             }
         }
+        this.tasksHeap.insertTasks(toSchedule);
         return res;
     }
 
@@ -643,6 +736,8 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
         if (tasksId.isEmpty()) {
             return;
         }
+        // the worker died before reporting the outcome of the cancellation, tasks are recovered as usual
+        cancelledTasks.removeAll(tasksId);
         List<TaskFinishedData> data = new ArrayList<>();
         tasksId.forEach(
             taskId -> {
@@ -668,16 +763,13 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
             long taskId = taskData.taskid;
             int finalstatus = taskData.finalStatus;
             String result = taskData.result;
+            boolean cancelled = cancelledTasks.remove(taskId);
             Task task = this.brokerStatus.getTask(taskId);
             if (task == null) {
                 LOGGER.log(Level.SEVERE, "taskFinished {0}, task does not exist", taskId);
                 continue;
             }
-            String resources = task.getResources();
-            String[] resourceIds = null;
-            if (resources != null) {
-                resourceIds = resources.split(",");
-            }
+            int[] resourceIds = getResourceIds().resolveList(task.getResources());
             workers.getWorkerManager(workerId).taskFinished(taskId, resourceIds);
             globalResourceUsageCounters.releaseResources(resourceIds);
 
@@ -695,7 +787,12 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
                     int maxAttepts = task.getMaxattempts();
                     int attempt = task.getAttempts();
                     long deadline = task.getExecutionDeadline();
-                    if (maxAttepts > 0 && attempt >= maxAttepts) {
+                    if (cancelled) {
+                        // cancelled tasks are never retried
+                        LOGGER.log(Level.SEVERE, "taskFinished {0}, task was cancelled ({1})", new Object[]{taskId, result});
+                        StatusEdit edit = StatusEdit.TASK_STATUS_CHANGE(taskId, workerId, Task.STATUS_ERROR, result);
+                        edits.add(edit);
+                    } else if (maxAttepts > 0 && attempt >= maxAttepts) {
                         // too many attempts
                         LOGGER.log(Level.SEVERE, "taskFinished {0} {4}, too many attempts {1}/{2} ({3})", new Object[]{taskId, attempt, maxAttepts, task.getResult() + "", Task.statusToString(task.getStatus())});
                         StatusEdit edit = StatusEdit.TASK_STATUS_CHANGE(taskId, workerId, Task.STATUS_ERROR, result);
@@ -715,7 +812,21 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
                     }
                     break;
                 }
-                case Task.STATUS_WAITING:
+                case Task.STATUS_WAITING: {
+                    if (cancelled) {
+                        // released after the cancel request, it must not run again
+                        LOGGER.log(Level.SEVERE, "taskFinished {0}, task was cancelled, released by worker {1} ({2})", new Object[]{taskId, workerId, result});
+                        StatusEdit edit = StatusEdit.TASK_STATUS_CHANGE(taskId, workerId, Task.STATUS_ERROR, "task cancelled, " + result);
+                        edits.add(edit);
+                        break;
+                    }
+                    // released by the worker without being executed
+                    LOGGER.log(Level.INFO, "taskFinished {0}, released by worker {1} ({2})", new Object[]{taskId, workerId, result});
+                    StatusEdit edit = StatusEdit.TASK_RELEASED(taskId, workerId, task.getAttempts(), result);
+                    edits.add(edit);
+                    toSchedule.add(task);
+                    break;
+                }
                 case Task.STATUS_RUNNING:
                     // impossible
                     throw new IllegalStateException("bad finalstatus:" + finalstatus);
@@ -724,11 +835,40 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
         brokerStatus.applyModifications(edits);
         for (Task task : toSchedule) {
             LOGGER.log(Level.SEVERE, "Schedule task for recovery {0} {1} {2} ({3})", new Object[]{task.getTaskId(), task.getType(), task.getUserId(), task.getResult() + ""});
-            this.tasksHeap.insertTask(task.getTaskId(), task.getType(), task.getUserId());
         }
+        this.tasksHeap.insertTasks(toSchedule);
 
     }
 
+    /**
+     * Asks the worker which is running the task to cancel the execution. The
+     * worker will report the task as finished in ERROR status and the task
+     * will not be scheduled again
+     *
+     * @param taskId
+     * @return true if the task is running and the cancel request has been
+     * sent to the worker
+     * @throws LogNotAvailableException
+     */
+    public boolean cancelTask(long taskId) throws LogNotAvailableException {
+        assertBrokerAvailableForClients();
+        Task task = this.brokerStatus.getTask(taskId);
+        if (task == null || task.getStatus() != Task.STATUS_RUNNING) {
+            LOGGER.log(Level.INFO, "cancelTask {0}, task is not running", taskId);
+            return false;
+        }
+        WorkerManager manager = workers.getWorkerManagerNoCreate(task.getWorkerId());
+        if (manager == null) {
+            return false;
+        }
+        cancelledTasks.add(taskId);
+        if (!manager.cancelTask(taskId)) {
+            cancelledTasks.remove(taskId);
+            return false;
+        }
+        return true;
+    }
+
     public void workerConnected(String workerId, String processId, String nodeLocation, Set<Long> actualRunningTasks, long timestamp) throws LogNotAvailableException {
         StatusEdit edit = StatusEdit.WORKER_CONNECTED(workerId, processId, nodeLocation, actualRunningTasks, timestamp);
         this.brokerStatus.applyModification(edit);
@@ -751,6 +891,9 @@ public final class Broker implements AutoCloseable, JVMBrokerSupportInterface, B
     public void declareWorkerDead(String workerId, long timestamp) throws LogNotAvailableException {
         StatusEdit edit = StatusEdit.WORKER_DIED(workerId, timestamp);
         this.brokerStatus.applyModification(edit);
+        if (!cancelledTasks.isEmpty()) {
+            cancelledTasks.removeAll(brokerStatus.getRunningTasksAssignedToWorker(workerId));
+        }
     }
 
     private volatile boolean failed;
@@ -47,7 +47,9 @@ public class BrokerConfiguration {
     private int checkpointTime = 1000 * 60 * 10;
 
     /**
-     * Maximum time to wait for a checkpoint. Defaults to 10 minutes
+     * Maximum time to wait for a checkpoint. Defaults to 10 minutes. This is a
+     * fallback for the size based triggers, checkpoints are skipped if nothing
+     * changed
      *
      * @return
      */
@@ -59,6 +61,70 @@ public class BrokerConfiguration {
         this.checkpointTime = checkpointTime;
     }
 
+    private long checkpointMaxEdits = 0;
+
+    /**
+     * Number of edits written to the log which triggers a checkpoint. 0 means
+     * 'no limit'. Defaults to 0
+     *
+     * @return
+     */
+    public long getCheckpointMaxEdits() {
+        return checkpointMaxEdits;
+    }
+
+    public void setCheckpointMaxEdits(long checkpointMaxEdits) {
+        this.checkpointMaxEdits = checkpointMaxEdits;
+    }
+
+    private long checkpointMaxLogSize = 0;
+
+    /**
+     * Size in bytes of the log written since the last checkpoint which triggers
+     * a checkpoint. 0 means 'no limit'. Defaults to 0
+     *
+     * @return
+     */
+    public long getCheckpointMaxLogSize() {
+        return checkpointMaxLogSize;
+    }
+
+    public void setCheckpointMaxLogSize(long checkpointMaxLogSize) {
+        this.checkpointMaxLogSize = checkpointMaxLogSize;
+    }
+
+    private int checkpointMaxReplayTime = 1000 * 60;
+
+    /**
+     * Target maximum time to replay the log at recovery, a checkpoint is
+     * triggered when the estimated replay time exceeds this value. 0 means 'no
+     * limit'. Defaults to 1 minute
+     *
+     * @return
+     */
+    public int getCheckpointMaxReplayTime() {
+        return checkpointMaxReplayTime;
+    }
+
+    public void setCheckpointMaxReplayTime(int checkpointMaxReplayTime) {
+        this.checkpointMaxReplayTime = checkpointMaxReplayTime;
+    }
+
+    private int checkpointCheckPeriod = 1000;
+
+    /**
+     * Period for checking checkpoint triggers. Defaults to 1 second
+     *
+     * @return
+     */
+    public int getCheckpointCheckPeriod() {
+        return checkpointCheckPeriod;
+    }
+
+    public void setCheckpointCheckPeriod(int checkpointCheckPeriod) {
+        this.checkpointCheckPeriod = checkpointCheckPeriod;
+    }
+
     private int finishedTasksRetention = 1000 * 60 * 10;
 
     /**
@@ -177,6 +243,57 @@ public class BrokerConfiguration {
         this.workersThreadpoolSize = workersThreadpoolSize;
     }
 
+    /**
+     * Keep the TasksHeap and resource usage counters up to date while
+     * following the leader, this way a follower can start to assign tasks to
+     * workers as soon as it becomes leader, at the cost of running the
+     * TaskPropertiesMapperFunction on followers too
+     */
+    private boolean hotStandby;
+
+    public boolean isHotStandby() {
+        return hotStandby;
+    }
+
+    public void setHotStandby(boolean hotStandby) {
+        this.hotStandby = hotStandby;
+    }
+
+    /**
+     * Assign tasks to all the workers in a single scheduling round, with a
+     * single scan of the TasksHeap, instead of letting each worker scan the
+     * heap
+     */
+    private boolean globalSchedulingRound;
+
+    public boolean isGlobalSchedulingRound() {
+        return globalSchedulingRound;
+    }
+
+    public void setGlobalSchedulingRound(boolean globalSchedulingRound) {
+        this.globalSchedulingRound = globalSchedulingRound;
+    }
+
+    public static final String WORKER_SELECTION_ROUNDROBIN = "roundrobin";
+    public static final String WORKER_SELECTION_LEASTLOADED = "leastloaded";
+    public static final String WORKER_SELECTION_POWEROFTWOCHOICES = "poweroftwochoices";
+
+    /**
+     * How the global scheduling round distributes tasks among workers:
+     * roundrobin, leastloaded, poweroftwochoices or the name of a class which
+     * implements {@link WorkerSelectionPolicy}. Load based policies use the
+     * load reported by workers
+     */
+    private String workerSelectionPolicy = WORKER_SELECTION_ROUNDROBIN;
+
+    public String getWorkerSelectionPolicy() {
+        return workerSelectionPolicy;
+    }
+
+    public void setWorkerSelectionPolicy(String workerSelectionPolicy) {
+        this.workerSelectionPolicy = workerSelectionPolicy;
+    }
+
     public void read(Map<String, Object> properties) {
         ReflectionUtils.apply(properties, this);
     }
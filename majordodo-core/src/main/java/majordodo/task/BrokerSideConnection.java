@@ -133,6 +133,17 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
         return channel != null && channel.isValid();
     }
 
+    /**
+     * Tells whether the outbound buffer of the connection is able to accept
+     * new messages
+     *
+     * @return
+     */
+    public boolean isWritable() {
+        Channel _channel = channel;
+        return _channel != null && _channel.isWritable();
+    }
+
     @Override
     public void messageReceived(Message message) {
         lastReceivedMessageTs = System.currentTimeMillis();
@@ -239,6 +250,7 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
 
                 Set<Long> actualRunningTasks = (Set<Long>) message.parameters.getOrDefault("actualRunningTasks", Collections.emptySet());
                 Integer maxThreads = (Integer) message.parameters.getOrDefault("maxThreads", 0);
+                Integer prefetchTasks = (Integer) message.parameters.getOrDefault("prefetchTasks", 0);
                 Map<String, Integer> maxThreadsByTaskType = (Map<String, Integer>) message.parameters.getOrDefault("maxThreadsByTaskType", Collections.emptyMap());
                 List<Integer> groups = (List<Integer>) message.parameters.getOrDefault("groups", Collections.emptyList());
                 Set<Integer> excludedGroups = (Set<Integer>) message.parameters.getOrDefault("excludedGroups", Collections.emptySet());
@@ -274,7 +286,7 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
                 broker.getAcceptor().connectionAccepted(this);
                 if (isWorker) {
                     this.manager = broker.getWorkers().getWorkerManager(clientId);
-                    manager.applyConfiguration(maxThreads, maxThreadsByTaskType, groups, excludedGroups, resourceLimits);
+                    manager.applyConfiguration(maxThreads, prefetchTasks, maxThreadsByTaskType, groups, excludedGroups, resourceLimits);
                     manager.activateConnection(this);
                 }
                 answerConnectionAccepted(message);
@@ -307,6 +319,8 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
                 try {
                     broker.tasksFinished(clientId, finishedTasksInfo);
                     _channel.sendReplyMessage(message, Message.ACK(workerProcessId));
+                    // the worker has free slots now
+                    broker.getWorkers().wakeUp();
                 } catch (LogNotAvailableException error) {
                     _channel.sendReplyMessage(message, Message.ERROR(workerProcessId, error));
                     LOGGER.log(Level.SEVERE, "error", error);
@@ -325,6 +339,7 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
                 }
                 String processId = (String) message.parameters.getOrDefault("processId", "");
                 Integer maxThreads = (Integer) message.parameters.getOrDefault("maxThreads", 0);
+                Integer prefetchTasks = (Integer) message.parameters.getOrDefault("prefetchTasks", 0);
                 Map<String, Integer> maxThreadsByTaskType = (Map<String, Integer>) message.parameters.getOrDefault("maxThreadsByTaskType", Collections.emptyMap());
                 List<Integer> groups = (List<Integer>) message.parameters.getOrDefault("groups", Collections.emptyList());
                 Set<Integer> excludedGroups = (Set<Integer>) message.parameters.getOrDefault("excludedGroups", Collections.emptySet());
@@ -340,7 +355,11 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
                     return;
                 }
                 this.manager = broker.getWorkers().getWorkerManager(clientId);
-                manager.applyConfiguration(maxThreads, maxThreadsByTaskType, groups, excludedGroups, resourceLimits);
+                manager.applyConfiguration(maxThreads, prefetchTasks, maxThreadsByTaskType, groups, excludedGroups, resourceLimits);
+                manager.setLoad(new WorkerLoad(
+                    ((Number) message.parameters.getOrDefault("systemLoad", -1)).intValue(),
+                    ((Number) message.parameters.getOrDefault("freeMemory", -1L)).longValue(),
+                    ((Number) message.parameters.getOrDefault("taskLatency", 0L)).longValue()));
                 break;
             case Message.TYPE_WORKER_SHUTDOWN:
                 if (!authenticated && requireAuthentication) {
@@ -354,7 +373,10 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
                     break;
                 }
                 LOGGER.log(Level.SEVERE, "worker " + clientId + " at " + location + ", processid " + workerProcessId + " sent shutdown message");
-                /// ignore
+                if (manager != null) {
+                    // tasks given back by the worker must not be assigned again to it
+                    manager.workerShuttingDown();
+                }
                 break;
             case Message.TYPE_SNAPSHOT_DOWNLOAD_REQUEST:
                 if (!authenticated && requireAuthentication) {
@@ -374,7 +396,7 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
                     byte[] data;
                     try (ByteArrayOutputStream out = new ByteArrayOutputStream();
                         GZIPOutputStream zout = new GZIPOutputStream(out)) {
-                        BrokerStatusSnapshot.serializeSnapshot(snapshot, zout);
+                        BrokerStatusSnapshot.serializeSnapshot(snapshot, zout, !broker.getLog().isWriteLegacyFormat());
                         zout.close();
                         data = out.toByteArray();
                     } catch (IOException err) {
@@ -472,6 +494,9 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
         if (task.getCodepool() != null) {
             params.put("codepool", task.getCodepool());
         }
+        if (task.getMaxExecutionTime() > 0) {
+            params.put("maxExecutionTime", task.getMaxExecutionTime());
+        }
         channel.sendOneWayMessage(Message.TYPE_TASK_ASSIGNED(workerProcessId, params), new SendResultCallback() {
 
             @Override
@@ -481,6 +506,18 @@ public class BrokerSideConnection implements ChannelEventListener, ServerSideCon
         });
     }
 
+    public void sendCancelTask(long taskId) {
+        channel.sendOneWayMessage(Message.CANCEL_TASK(workerProcessId, taskId), new SendResultCallback() {
+
+            @Override
+            public void messageSent(Message originalMessage, Throwable error) {
+                if (error != null) {
+                    LOGGER.log(Level.SEVERE, "worker " + clientId + " cancel of task " + taskId + " failed", error);
+                }
+            }
+        });
+    }
+
     public void workerDied() {
         LOGGER.log(Level.SEVERE, "worker " + clientId + " connection " + this + ": workerDied");
         if (channel != null) {
@@ -40,6 +40,7 @@ import majordodo.clientfacade.CodePoolView;
 import majordodo.clientfacade.ResourceStatusView;
 import majordodo.clientfacade.TransactionStatus;
 import majordodo.codepools.CodePool;
+import majordodo.utils.LongObjectHashMap;
 
 /**
  * Replicated status of the broker. Each broker, leader or follower, contains a copy of this status. The status is
@@ -51,7 +52,12 @@ public class BrokerStatus {
 
     private static final Logger LOGGER = Logger.getLogger(BrokerStatus.class.getName());
 
-    private final Map<Long, Task> tasks = new HashMap<>();
+    // edits per millisecond, used when recovery did not replay enough edits to measure it
+    private static final double DEFAULT_REPLAY_RATE = 100;
+    private static final int MIN_EDITS_FOR_REPLAY_RATE = 1000;
+
+    // modified only under the write lock, point lookups do not need locks
+    private final LongObjectHashMap<Task> tasks = new LongObjectHashMap<>();
     private final Map<Long, Transaction> transactions = new HashMap<>();
 
     private final Map<String, WorkerStatus> workers = new HashMap<>();
@@ -64,8 +70,47 @@ public class BrokerStatus {
     private final StatusChangesLog log;
     private LogSequenceNumber lastLogSequenceNumber;
     private final AtomicInteger checkpointsCount = new AtomicInteger();
+    private volatile long lastCheckpointTime = System.currentTimeMillis();
+    // edits per millisecond, measured at recovery
+    private volatile double replayRate = DEFAULT_REPLAY_RATE;
     private final SlotsManager slotsManager = new SlotsManager();
     private final BrokerStatusStats stats = new BrokerStatusStats();
+    private final TaskDictionary dictionary = new TaskDictionary();
+    private volatile TaskStatusListener taskStatusListener;
+
+    /**
+     * Receives notifications about changes of status of tasks while applying
+     * edits. Notifications are sent inside the write lock of the status, so
+     * implementations must be very fast
+     */
+    interface TaskStatusListener {
+
+        /**
+         * The status of a task changed
+         *
+         * @param task
+         * @param oldStatus previous status, -1 for new tasks
+         * @param newStatus
+         */
+        void taskStatusChanged(Task task, int oldStatus, int newStatus);
+
+        /**
+         * Called after each batch of edits received while following the
+         * leader, out of the lock
+         */
+        void followerCycleCompleted();
+    }
+
+    void setTaskStatusListener(TaskStatusListener taskStatusListener) {
+        this.taskStatusListener = taskStatusListener;
+    }
+
+    private void fireTaskStatusChanged(Task task, int oldStatus, int newStatus) {
+        TaskStatusListener listener = taskStatusListener;
+        if (listener != null) {
+            listener.taskStatusChanged(task, oldStatus, newStatus);
+        }
+    }
 
     public WorkerStatus getWorkerStatus(String workerId) {
         return workers.get(workerId);
@@ -263,9 +308,74 @@ public class BrokerStatus {
         }
         purgeAbandonedCodePools();
 
+        // edits logged from now on could be not included in the snapshot
+        long edits = log.getEditsSinceCheckpoint();
+        long bytes = log.getBytesSinceCheckpoint();
         BrokerStatusSnapshot snapshot = createSnapshot();
 
         this.log.checkpoint(snapshot);
+        this.log.checkpointCompleted(edits, bytes);
+        lastCheckpointTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Timestamp of the last checkpoint, or of the boot of the broker
+     *
+     * @return
+     */
+    public long getLastCheckpointTime() {
+        return lastCheckpointTime;
+    }
+
+    /**
+     * Number of edits which would be replayed at recovery
+     *
+     * @return
+     */
+    public long getEditsSinceCheckpoint() {
+        return log.getEditsSinceCheckpoint();
+    }
+
+    /**
+     * Size of the log which would be replayed at recovery
+     *
+     * @return
+     */
+    public long getBytesSinceCheckpoint() {
+        return log.getBytesSinceCheckpoint();
+    }
+
+    /**
+     * Estimated time in milliseconds to replay the log at recovery, based on
+     * the replay rate measured at boot
+     *
+     * @return
+     */
+    public long getEstimatedReplayTime() {
+        return (long) (log.getEditsSinceCheckpoint() / replayRate);
+    }
+
+    /**
+     * Tells whether the status holds data which is expired only by a
+     * checkpoint, that is open transactions and code pools with a ttl
+     *
+     * @return
+     */
+    public boolean hasDataToPurgeAtCheckpoint() {
+        lock.readLock().lock();
+        try {
+            if (!transactions.isEmpty()) {
+                return true;
+            }
+            for (CodePool codePool : codePools.values()) {
+                if (codePool.getTtl() > 0) {
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     public BrokerStatusSnapshot createSnapshot() {
@@ -308,9 +418,8 @@ public class BrokerStatus {
             boolean allowExpire = this.log.isLeader() && this.log.isWritable();
             // tasks are only purged from memry, not from logs
             // in case of broker restart it may re-appear
-            for (Iterator<Map.Entry<Long, Task>> it = tasks.entrySet().iterator(); it.hasNext();) {
-                Map.Entry<Long, Task> taskEntry = it.next();
-                Task t = taskEntry.getValue();
+            for (Iterator<Task> it = tasks.values().iterator(); it.hasNext();) {
+                Task t = it.next();
                 switch (t.getStatus()) {
                     case Task.STATUS_WAITING:
                         if (expiredcount < maxExpiredPerCycle && allowExpire) {
@@ -350,6 +459,10 @@ public class BrokerStatus {
                         LOGGER.log(Level.INFO, "following the leader {0} {1}", new Object[]{logSeqNumber, edit});
                         applyEdit(logSeqNumber, edit);
                     });
+                TaskStatusListener listener = taskStatusListener;
+                if (listener != null) {
+                    listener.followerCycleCompleted();
+                }
                 Thread.sleep(1000);
             }
         } catch (LogNotAvailableException err) {
@@ -406,6 +519,33 @@ public class BrokerStatus {
         LOGGER.log(Level.SEVERE, "After recoverForLeadership maxTaskId=" + maxTaskId + ", maxTransactionId=" + maxTransactionId + ", lastLogSequenceNumber=" + lastLogSequenceNumber);
     }
 
+    /**
+     * Counts running tasks, by worker and by tasktype, with a single scan of
+     * the status
+     *
+     * @return workerId -> tasktype -> count
+     */
+    Map<String, Map<String, Integer>> countRunningTasksByWorker() {
+        Map<String, Map<String, Integer>> result = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            tasks.values().forEach(t -> {
+                if (t.getStatus() != Task.STATUS_RUNNING || t.getWorkerId() == null) {
+                    return;
+                }
+                Map<String, Integer> forWorker = result.get(t.getWorkerId());
+                if (forWorker == null) {
+                    forWorker = new HashMap<>();
+                    result.put(t.getWorkerId(), forWorker);
+                }
+                forWorker.merge(t.getType(), 1, Integer::sum);
+            });
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
     int applyRunningTasksFilterToAssignTasksRequest(String workerId, Map<String, Integer> availableSpace) {
         lock.readLock().lock();
         try {
@@ -606,12 +746,13 @@ public class BrokerStatus {
                     if (workerId == null || workerId.isEmpty()) {
                         throw new RuntimeException("bug " + edit);
                     }
-                    task.setWorkerId(workerId.intern());
+                    task.setWorkerId(dictionary.canonical(workerId));
                     if (resources != null) {
                         task.setResources(resources.intern());
                     }
                     task.setAttempts(edit.attempt);
                     stats.taskStatusChange(oldStatus, task.getStatus());
+                    fireTaskStatusChanged(task, oldStatus, Task.STATUS_RUNNING);
                     return new ModificationResult(num, null, null);
                 }
                 case StatusEdit.TYPE_TASK_STATUS_CHANGE: {
@@ -623,6 +764,10 @@ public class BrokerStatus {
                     int oldStatus = task.getStatus();
                     task.setStatus(edit.taskStatus);
                     task.setResult(edit.result);
+                    if (edit.attempt > 0 && task.getAttempts() == edit.attempt) {
+                        // released by the worker without being executed
+                        task.setAttempts(edit.attempt - 1);
+                    }
                     if (task.getSlot() != null) {
                         switch (edit.taskStatus) {
                             case Task.STATUS_FINISHED:
@@ -637,6 +782,7 @@ public class BrokerStatus {
                     }
 
                     stats.taskStatusChange(oldStatus, edit.taskStatus);
+                    fireTaskStatusChanged(task, oldStatus, edit.taskStatus);
 
                     return new ModificationResult(num, null, null);
                 }
@@ -657,6 +803,7 @@ public class BrokerStatus {
                     for (Task task : transaction.getPreparedTasks()) {
                         tasks.put(task.getTaskId(), task);
                         stats.taskStatusChange(-1, task.getStatus());
+                        fireTaskStatusChanged(task, -1, task.getStatus());
                     }
                     transactions.remove(edit.transactionId);
                     return new ModificationResult(num, transaction.getPreparedTasks(), null);
@@ -686,21 +833,23 @@ public class BrokerStatus {
                     }
                     task.setCreatedTimestamp(System.currentTimeMillis());
                     task.setParameter(edit.parameter);
-                    task.setType(edit.taskType.intern());
+                    task.setType(dictionary.canonical(edit.taskType));
                     task.setUserId(edit.userid.intern());
                     if (edit.codepool != null) {
-                        task.setCodepool(edit.codepool.intern());
+                        task.setCodepool(dictionary.canonical(edit.codepool));
                     }
                     if (edit.mode != null) {
-                        task.setMode(edit.mode.intern());
+                        task.setMode(dictionary.canonical(edit.mode));
                     }
                     task.setStatus(Task.STATUS_WAITING);
                     task.setMaxattempts(edit.maxattempts);
                     task.setAttempts(edit.attempt);
                     task.setExecutionDeadline(edit.executionDeadline);
+                    task.setMaxExecutionTime(edit.maxExecutionTime);
                     task.setSlot(edit.slot);
                     tasks.put(edit.taskId, task);
                     stats.taskStatusChange(-1, task.getStatus());
+                    fireTaskStatusChanged(task, -1, task.getStatus());
 
                     if (edit.slot != null) {
                         // we need this, for log-replay on recovery and on followers
@@ -721,18 +870,19 @@ public class BrokerStatus {
                     }
                     task.setCreatedTimestamp(System.currentTimeMillis());
                     task.setParameter(edit.parameter);
-                    task.setType(edit.taskType.intern());
+                    task.setType(dictionary.canonical(edit.taskType));
                     task.setUserId(edit.userid.intern());
                     if (edit.codepool != null) {
-                        task.setCodepool(edit.codepool.intern());
+                        task.setCodepool(dictionary.canonical(edit.codepool));
                     }
                     if (edit.mode != null) {
-                        task.setMode(edit.mode.intern());
+                        task.setMode(dictionary.canonical(edit.mode));
                     }
                     task.setStatus(Task.STATUS_WAITING);
                     task.setMaxattempts(edit.maxattempts);
                     task.setAttempts(edit.attempt);
                     task.setExecutionDeadline(edit.executionDeadline);
+                    task.setMaxExecutionTime(edit.maxExecutionTime);
                     task.setSlot(edit.slot);
                     if (edit.slot != null) {
                         // we need this, for log-replay on recovery and on followers
@@ -806,6 +956,19 @@ public class BrokerStatus {
         return stats;
     }
 
+    private void canonicalize(Task task) {
+        task.setType(dictionary.canonical(task.getType()));
+        task.setWorkerId(dictionary.canonical(task.getWorkerId()));
+        task.setCodepool(dictionary.canonical(task.getCodepool()));
+        task.setMode(dictionary.canonical(task.getMode()));
+        if (task.getUserId() != null) {
+            task.setUserId(task.getUserId().intern());
+        }
+        if (task.getResources() != null) {
+            task.setResources(task.getResources().intern());
+        }
+    }
+
     public void recover() {
 
         try {
@@ -817,6 +980,7 @@ public class BrokerStatus {
             this.lastLogSequenceNumber = snapshot.getActualLogSequenceNumber();
             Map<String, Long> busySlots = new HashMap<>();
             for (Task task : snapshot.getTasks()) {
+                canonicalize(task);
                 long taskId = task.getTaskId();
                 this.tasks.put(taskId, task);
                 if (maxTaskId < taskId) {
@@ -845,19 +1009,30 @@ public class BrokerStatus {
                 if (maxTransactionId < transactionId) {
                     maxTransactionId = transactionId;
                 }
+                if (tx.getPreparedTasks() != null) {
+                    tx.getPreparedTasks().forEach(this::canonicalize);
+                }
                 this.transactions.put(transactionId, tx);
             }
             for (CodePool codePool : snapshot.getCodePools()) {
                 this.codePools.put(codePool.getId(), codePool);
             }
             this.slotsManager.loadBusySlots(busySlots);
+            AtomicInteger replayed = new AtomicInteger();
+            long _start = System.currentTimeMillis();
             log.recovery(snapshot.getActualLogSequenceNumber(),
                 (logSeqNumber, edit) -> {
                     applyEdit(logSeqNumber, edit);
+                    replayed.incrementAndGet();
                     if (brokerFailed) {
                         throw new RuntimeException("broker failed");
                     }
                 }, false);
+            long replayTime = System.currentTimeMillis() - _start;
+            if (replayed.get() >= MIN_EDITS_FOR_REPLAY_RATE) {
+                replayRate = replayed.get() / (double) Math.max(1, replayTime);
+            }
+            LOGGER.log(Level.SEVERE, "Replayed " + replayed.get() + " edits in " + replayTime + " ms");
             newTaskId.set(maxTaskId + 1);
             newTransactionId.set(maxTransactionId + 1);
         } catch (LogNotAvailableException err) {
@@ -880,23 +1055,11 @@ public class BrokerStatus {
     }
 
     public Task getTask(long taskId) {
-        lock.readLock().lock();
-        try {
-            return tasks.get(taskId);
-        } finally {
-            lock.readLock().unlock();
-        }
+        return tasks.get(taskId);
     }
 
     public TaskStatusView getTaskStatus(long taskId) {
-        Task task;
-        lock.readLock().lock();
-        try {
-            task = tasks.get(taskId);
-        } finally {
-            lock.readLock().unlock();
-        }
-
+        Task task = tasks.get(taskId);
         TaskStatusView s = createTaskStatusView(task);
         return s;
     }
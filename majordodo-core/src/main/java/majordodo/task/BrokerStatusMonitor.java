@@ -93,6 +93,8 @@ public class BrokerStatusMonitor {
                     + ", running:" + brokerStatusView.getRunningTasks()
                     + ", error:" + brokerStatusView.getErrorTasks()
                     + ", finished:" + brokerStatusView.getFinishedTasks() + ","
+                    + "takeover:" + brokerStatusView.getTakeoverTime() + " ms, first assignment:" + brokerStatusView.getTimeToFirstAssignment() + " ms,"
+                    + "since last checkpoint: " + brokerStatusView.getEditsSinceCheckpoint() + " edits, " + brokerStatusView.getBytesSinceCheckpoint() + " bytes, estimated replay " + brokerStatusView.getEstimatedReplayTime() + " ms, "
                     + "Transactions: count " + transactions.getTransactions().size() + ", oldest " + oldestTransaction + ", "
                     + "TasksHeap: size " + heap.getTasks().size() + ", first " + first + ", last " + last + ", "
                     + "Slots: " + slots.getBusySlots().size());
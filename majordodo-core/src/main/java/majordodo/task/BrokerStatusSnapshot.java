@@ -40,7 +40,7 @@ import org.codehaus.jackson.JsonToken;
  */
 public class BrokerStatusSnapshot {
 
-    private static void serializeTransaction(Transaction transaction, JsonGenerator g) throws IOException {
+    private static void serializeTransaction(Transaction transaction, JsonGenerator g, SnapshotDictionary dictionary) throws IOException {
         g.writeStartObject();
         writeSimpleProperty(g, "id", transaction.getTransactionId());
         writeSimpleProperty(g, "creationTimestamp", transaction.getCreationTimestamp());
@@ -49,13 +49,43 @@ public class BrokerStatusSnapshot {
             g.writeFieldName("preparedTasks");
             g.writeStartArray();
             for (Task t : transaction.getPreparedTasks()) {
-                serializeTask(t, g);
+                serializeTask(t, g, dictionary);
             }
             g.writeEndArray();
         }
         g.writeEndObject();
     }
 
+    /**
+     * Strings repeated among the tasks of a snapshot, tasks refer to them using
+     * the position in the list
+     */
+    private static final class SnapshotDictionary {
+
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> positions = new HashMap<>();
+
+        void add(Task task) {
+            add(task.getType());
+            add(task.getUserId());
+            add(task.getWorkerId());
+            add(task.getResources());
+            add(task.getCodepool());
+            add(task.getMode());
+        }
+
+        private void add(String value) {
+            if (value != null && !positions.containsKey(value)) {
+                positions.put(value, strings.size());
+                strings.add(value);
+            }
+        }
+
+        int getPosition(String value) {
+            return positions.get(value);
+        }
+    }
+
     private static void serializeCodePool(CodePool transaction, JsonGenerator g) throws IOException {
         g.writeStartObject();
         writeSimpleProperty(g, "id", transaction.getId());
@@ -153,12 +183,15 @@ public class BrokerStatusSnapshot {
 
         long ledgerId = 0;
         long sequenceNumber = 0;
+        int subSequenceNumber = 0;
         long maxTaskId = 0;
         long maxTransactionId = 0;
         List< Transaction> transactions = new ArrayList<>();
         List<CodePool> codePools = new ArrayList<>();
         List<Task> tasks = new ArrayList<>();
         List<WorkerStatus> workers = new ArrayList<>();
+        // strings repeated among the tasks of the snapshot
+        String[] dictionary = new String[0];
         nextToken(jParser);
 
         while (jParser.nextToken() != JsonToken.END_OBJECT) {
@@ -173,6 +206,11 @@ public class BrokerStatusSnapshot {
                     sequenceNumber = Long.parseLong(readValue(jParser)); // display mkyong
                     break;
                 }
+                case "subSequenceNumber": {
+                    nextToken(jParser);
+                    subSequenceNumber = Integer.parseInt(readValue(jParser));
+                    break;
+                }
                 case "maxTaskId": {
                     nextToken(jParser);
                     maxTaskId = Long.parseLong(readValue(jParser)); // display mkyong                                        
@@ -183,10 +221,19 @@ public class BrokerStatusSnapshot {
                     maxTransactionId = Long.parseLong(readValue(jParser)); // display mkyong
                     break;
                 }
+                case "dictionary": {
+                    nextToken(jParser); // field name
+                    List<String> strings = new ArrayList<>();
+                    while (jParser.nextToken() != JsonToken.END_ARRAY) {
+                        strings.add(readValue(jParser));
+                    }
+                    dictionary = strings.toArray(new String[strings.size()]);
+                    break;
+                }
                 case "transactions": {
                     nextToken(jParser); // field name                                        
                     while (jParser.nextToken() != JsonToken.END_ARRAY) {
-                        Transaction transaction = readTransaction(jParser);
+                        Transaction transaction = readTransaction(jParser, dictionary);
                         transactions.add(transaction);
                     }
                     break;
@@ -194,7 +241,7 @@ public class BrokerStatusSnapshot {
                 case "tasks": {
                     nextToken(jParser); // field name                                        
                     while (jParser.nextToken() != JsonToken.END_ARRAY) {
-                        Task task = readTask(jParser);
+                        Task task = readTask(jParser, dictionary);
                         tasks.add(task);
                     }
                     break;
@@ -228,7 +275,7 @@ public class BrokerStatusSnapshot {
                     throw new IOException("Unexpected field " + jParser.getCurrentName());
             }
         }
-        BrokerStatusSnapshot res = new BrokerStatusSnapshot(maxTaskId, maxTransactionId, new LogSequenceNumber(ledgerId, sequenceNumber));
+        BrokerStatusSnapshot res = new BrokerStatusSnapshot(maxTaskId, maxTransactionId, new LogSequenceNumber(ledgerId, sequenceNumber, subSequenceNumber));
         res.setTransactions(transactions);
         res.setWorkers(workers);
         res.setTasks(tasks);
@@ -286,7 +333,7 @@ public class BrokerStatusSnapshot {
         return res;
     }
 
-    private static Transaction readTransaction(JsonParser jParser) throws IOException {
+    private static Transaction readTransaction(JsonParser jParser, String[] dictionary) throws IOException {
         long creationTimestamp = 0;
         long id = 0;
         List<Task> preparedTasks = new ArrayList<>();
@@ -304,7 +351,7 @@ public class BrokerStatusSnapshot {
                 case "preparedTasks":
                     nextToken(jParser);
                     while (jParser.nextToken() != JsonToken.END_ARRAY) {
-                        Task task = readTask(jParser);
+                        Task task = readTask(jParser, dictionary);
                         preparedTasks.add(task);
                     }
                     break;
@@ -355,7 +402,7 @@ public class BrokerStatusSnapshot {
 
     }
 
-    private static Task readTask(JsonParser jParser) throws NumberFormatException, IOException {
+    private static Task readTask(JsonParser jParser, String[] dictionary) throws NumberFormatException, IOException {
         Task task = new Task();
         while (jParser.nextToken() != JsonToken.END_OBJECT) {
             switch (jParser.getCurrentName() + "") {
@@ -381,7 +428,7 @@ public class BrokerStatusSnapshot {
                     break;
                 case "resources":
                     nextToken(jParser);
-                    task.setResources(readValue(jParser).intern());
+                    task.setResources(readValue(jParser));
                     break;
                 case "parameter":
                     nextToken(jParser);
@@ -393,23 +440,23 @@ public class BrokerStatusSnapshot {
                     break;
                 case "userId":
                     nextToken(jParser);
-                    task.setUserId(readValue(jParser).intern());
+                    task.setUserId(readValue(jParser));
                     break;
                 case "codepool":
                     nextToken(jParser);
-                    task.setCodepool(readValue(jParser).intern());
+                    task.setCodepool(readValue(jParser));
                     break;
                 case "mode":
                     nextToken(jParser);
-                    task.setMode(readValue(jParser).intern());
+                    task.setMode(readValue(jParser));
                     break;
                 case "type":
                     nextToken(jParser);
-                    task.setType(readValue(jParser).intern());
+                    task.setType(readValue(jParser));
                     break;
                 case "workerId":
                     nextToken(jParser);
-                    task.setWorkerId(readValue(jParser).intern());
+                    task.setWorkerId(readValue(jParser));
                     break;
                 case "createdTimestamp":
                     nextToken(jParser);
@@ -419,6 +466,34 @@ public class BrokerStatusSnapshot {
                     nextToken(jParser);
                     task.setExecutionDeadline(Long.parseLong(readValue(jParser)));
                     break;
+                case "maxExecutionTime":
+                    nextToken(jParser);
+                    task.setMaxExecutionTime(Long.parseLong(readValue(jParser)));
+                    break;
+                case "typeRef":
+                    nextToken(jParser);
+                    task.setType(dictionary[Integer.parseInt(readValue(jParser))]);
+                    break;
+                case "userIdRef":
+                    nextToken(jParser);
+                    task.setUserId(dictionary[Integer.parseInt(readValue(jParser))]);
+                    break;
+                case "workerIdRef":
+                    nextToken(jParser);
+                    task.setWorkerId(dictionary[Integer.parseInt(readValue(jParser))]);
+                    break;
+                case "resourcesRef":
+                    nextToken(jParser);
+                    task.setResources(dictionary[Integer.parseInt(readValue(jParser))]);
+                    break;
+                case "codepoolRef":
+                    nextToken(jParser);
+                    task.setCodepool(dictionary[Integer.parseInt(readValue(jParser))]);
+                    break;
+                case "modeRef":
+                    nextToken(jParser);
+                    task.setMode(dictionary[Integer.parseInt(readValue(jParser))]);
+                    break;
                 default:
                     throw new IOException("Unexpected field " + jParser.getCurrentName());
             }
@@ -440,6 +515,21 @@ public class BrokerStatusSnapshot {
     }
 
     public static void serializeSnapshot(BrokerStatusSnapshot snapshotData, OutputStream out) throws IOException {
+        serializeSnapshot(snapshotData, out, false);
+    }
+
+    /**
+     * Writes the snapshot. Using the dictionary repeated strings of tasks are
+     * written only once, but the snapshot cannot be read by brokers running
+     * older versions of Majordodo
+     *
+     * @param snapshotData
+     * @param out
+     * @param useDictionary
+     * @throws IOException
+     * @see majordodo.replication.ReplicatedCommitLog#setWriteLegacyFormat(boolean)
+     */
+    public static void serializeSnapshot(BrokerStatusSnapshot snapshotData, OutputStream out, boolean useDictionary) throws IOException {
         JsonFactory f = new JsonFactory();
         JsonGenerator g = f.createJsonGenerator(out);
         g.writeStartObject();
@@ -447,13 +537,39 @@ public class BrokerStatusSnapshot {
 
         writeSimpleProperty(g, "ledgerid", actualLogSequenceNumber.ledgerId);
         writeSimpleProperty(g, "sequenceNumber", actualLogSequenceNumber.sequenceNumber);
+        if (actualLogSequenceNumber.subSequenceNumber > 0) {
+            writeSimpleProperty(g, "subSequenceNumber", actualLogSequenceNumber.subSequenceNumber);
+        }
         writeSimpleProperty(g, "maxTaskId", snapshotData.maxTaskId);
         writeSimpleProperty(g, "maxTransactionId", snapshotData.maxTransactionId);
+
+        SnapshotDictionary dictionary = null;
+        if (useDictionary) {
+            dictionary = new SnapshotDictionary();
+            for (Task task : snapshotData.getTasks()) {
+                dictionary.add(task);
+            }
+            for (Transaction t : snapshotData.getTransactions()) {
+                if (t.getPreparedTasks() != null) {
+                    for (Task task : t.getPreparedTasks()) {
+                        dictionary.add(task);
+                    }
+                }
+            }
+        }
+        if (dictionary != null && !dictionary.strings.isEmpty()) {
+            g.writeFieldName("dictionary");
+            g.writeStartArray();
+            for (String string : dictionary.strings) {
+                g.writeString(string);
+            }
+            g.writeEndArray();
+        }
         if (!snapshotData.getTasks().isEmpty()) {
             g.writeFieldName("tasks");
             g.writeStartArray();
             for (Task task : snapshotData.getTasks()) {
-                serializeTask(task, g);
+                serializeTask(task, g, dictionary);
             }
             g.writeEndArray();
         }
@@ -470,7 +586,7 @@ public class BrokerStatusSnapshot {
             g.writeFieldName("transactions");
             g.writeStartArray();
             for (Transaction t : snapshotData.getTransactions()) {
-                serializeTransaction(t, g);
+                serializeTransaction(t, g, dictionary);
             }
             g.writeEndArray();
         }
@@ -487,7 +603,18 @@ public class BrokerStatusSnapshot {
         g.flush();
     }
 
-    private static void serializeTask(Task task, JsonGenerator g) throws IOException {
+    private static void writeTaskProperty(JsonGenerator g, String name, String value, SnapshotDictionary dictionary) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (dictionary != null) {
+            writeSimpleProperty(g, name + "Ref", dictionary.getPosition(value));
+        } else {
+            writeSimpleProperty(g, name, value);
+        }
+    }
+
+    private static void serializeTask(Task task, JsonGenerator g, SnapshotDictionary dictionary) throws IOException {
         g.writeStartObject();
 
         writeSimpleProperty(g, "id", task.getTaskId());
@@ -496,21 +623,18 @@ public class BrokerStatusSnapshot {
         writeSimpleProperty(g, "slot", task.getSlot());
         writeSimpleProperty(g, "attempts", task.getAttempts());
         writeSimpleProperty(g, "executionDeadline", task.getExecutionDeadline());
+        if (task.getMaxExecutionTime() > 0) {
+            writeSimpleProperty(g, "maxExecutionTime", task.getMaxExecutionTime());
+        }
         writeSimpleProperty(g, "parameter", task.getParameter());
         writeSimpleProperty(g, "result", task.getResult());
-        writeSimpleProperty(g, "userId", task.getUserId());
-        if (task.getResources() != null) {
-            writeSimpleProperty(g, "resources", task.getResources());
-        }
-        if (task.getCodepool() != null) {
-            writeSimpleProperty(g, "codepool", task.getCodepool());
-        }
-        if (task.getMode() != null) {
-            writeSimpleProperty(g, "mode", task.getMode());
-        }
+        writeTaskProperty(g, "userId", task.getUserId(), dictionary);
+        writeTaskProperty(g, "resources", task.getResources(), dictionary);
+        writeTaskProperty(g, "codepool", task.getCodepool(), dictionary);
+        writeTaskProperty(g, "mode", task.getMode(), dictionary);
         writeSimpleProperty(g, "createdTimestamp", task.getCreatedTimestamp());
-        writeSimpleProperty(g, "type", task.getType());
-        writeSimpleProperty(g, "workerId", task.getWorkerId());
+        writeTaskProperty(g, "type", task.getType(), dictionary);
+        writeTaskProperty(g, "workerId", task.getWorkerId(), dictionary);
         g.writeEndObject();
     }
 
@@ -0,0 +1,128 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Memoizes the results of a TaskPropertiesMapperFunction. Results are cached
+ * by (tasktype, userid), so the wrapped function must not depend on the id of
+ * the task. Cached values are kept until they are explicitly invalidated or
+ * refreshed by {@link TasksHeap#recomputeGroups() }
+ *
+ * @author enrico.olivelli
+ */
+public final class CachingTaskPropertiesMapperFunction implements TaskPropertiesMapperFunction {
+
+    private final TaskPropertiesMapperFunction delegate;
+    private final ConcurrentHashMap<Key, TaskProperties> cache = new ConcurrentHashMap<>();
+
+    public CachingTaskPropertiesMapperFunction(TaskPropertiesMapperFunction delegate) {
+        this.delegate = delegate;
+    }
+
+    public TaskPropertiesMapperFunction getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public TaskProperties getTaskProperties(long taskid, String taskType, String userid) {
+        Key key = new Key(taskType, userid);
+        TaskProperties result = cache.get(key);
+        if (result == null) {
+            result = delegate.getTaskProperties(taskid, taskType, userid);
+            TaskProperties other = cache.putIfAbsent(key, result);
+            if (other != null) {
+                result = other;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Drops every cached value
+     */
+    public void invalidate() {
+        cache.clear();
+    }
+
+    /**
+     * Drops the cached value for the given key
+     *
+     * @param taskType
+     * @param userid
+     */
+    public void invalidate(String taskType, String userid) {
+        cache.remove(new Key(taskType, userid));
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * Calls the wrapped function and replaces the cached value
+     *
+     * @param taskid
+     * @param taskType
+     * @param userid
+     * @return the new value, or null if it equals the previously cached one
+     */
+    TaskProperties refresh(long taskid, String taskType, String userid) {
+        TaskProperties result = delegate.getTaskProperties(taskid, taskType, userid);
+        TaskProperties previous = cache.put(new Key(taskType, userid), result);
+        if (previous != null
+            && previous.groupId == result.groupId
+            && Arrays.equals(previous.resources, result.resources)) {
+            return null;
+        }
+        return result;
+    }
+
+    private static final class Key {
+
+        private final String taskType;
+        private final String userid;
+        private final int hashCode;
+
+        Key(String taskType, String userid) {
+            this.taskType = taskType;
+            this.userid = userid;
+            this.hashCode = Objects.hashCode(taskType) * 31 + Objects.hashCode(userid);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Objects.equals(taskType, other.taskType) && Objects.equals(userid, other.userid);
+        }
+
+    }
+}
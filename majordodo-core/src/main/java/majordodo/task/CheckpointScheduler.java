@@ -58,7 +58,11 @@ public class CheckpointScheduler {
         @Override
         public void run() {
             try {
-                broker.checkpoint();
+                String reason = checkpointReason();
+                if (reason != null) {
+                    LOGGER.log(Level.INFO, "checkpoint triggered by {0}", reason);
+                    broker.checkpoint();
+                }
             } catch (LogNotAvailableException error) {
                 LOGGER.log(Level.SEVERE, "fatal error during checkpoint", error);
             }
@@ -66,8 +70,38 @@ public class CheckpointScheduler {
 
     }
 
+    /**
+     * Checks the triggers for a checkpoint
+     *
+     * @return the reason of the checkpoint, null if no checkpoint is needed
+     */
+    String checkpointReason() {
+        BrokerStatus status = broker.getBrokerStatus();
+        long edits = status.getEditsSinceCheckpoint();
+        if (configuration.getCheckpointMaxEdits() > 0 && edits >= configuration.getCheckpointMaxEdits()) {
+            return edits + " edits since last checkpoint";
+        }
+        long bytes = status.getBytesSinceCheckpoint();
+        if (configuration.getCheckpointMaxLogSize() > 0 && bytes >= configuration.getCheckpointMaxLogSize()) {
+            return bytes + " bytes of log since last checkpoint";
+        }
+        long replayTime = status.getEstimatedReplayTime();
+        if (configuration.getCheckpointMaxReplayTime() > 0 && replayTime >= configuration.getCheckpointMaxReplayTime()) {
+            return "estimated replay time " + replayTime + " ms";
+        }
+        long elapsed = System.currentTimeMillis() - status.getLastCheckpointTime();
+        if (elapsed >= configuration.getCheckpointTime()) {
+            // no need to checkpoint if nothing changed
+            if (edits > 0 || status.hasDataToPurgeAtCheckpoint()) {
+                return elapsed + " ms since last checkpoint";
+            }
+        }
+        return null;
+    }
+
     public void start() {
-        this.timer.scheduleAtFixedRate(new Checkpoint(), configuration.getCheckpointTime(), configuration.getCheckpointTime(), TimeUnit.MILLISECONDS);
+        long period = Math.max(1, Math.min(configuration.getCheckpointCheckPeriod(), configuration.getCheckpointTime()));
+        this.timer.scheduleWithFixedDelay(new Checkpoint(), period, period, TimeUnit.MILLISECONDS);
     }
 
     public void stop() {
@@ -22,13 +22,14 @@ package majordodo.task;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -42,10 +43,12 @@ import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import majordodo.utils.FileUtils;
@@ -66,7 +69,6 @@ public class FileCommitLog extends StatusChangesLog {
     private long currentLedgerId = 0;
     private boolean writable = false;
     private long maxLogFileSize = 1024 * 1024;
-    private long writtenBytes = 0;
 
     private final int MAX_UNSYNCHED_BATCH = 1000;
     private final int MAX_SYNCH_TIME = 10;
@@ -77,57 +79,137 @@ public class FileCommitLog extends StatusChangesLog {
     private final BlockingQueue<StatusEditHolderFuture> writeQueue = new LinkedBlockingQueue<>(100000);
 
     private final ReentrantLock snapshotLock = new ReentrantLock();
+    private final AtomicLong syncCount = new AtomicLong();
 
+    // legacy stream format, still readable at recovery
     private final static byte ENTRY_START = 13;
     private final static byte ENTRY_END = 25;
+    private static final int ENTRY_BUFFER_SIZE = 4096;
+
+    // segment format: header, then entries [length][sequence number][payload][crc32 of sequence number and payload]
+    // segments are preallocated with zeroes, a zero length marks the end of data
+    private static final long SEGMENT_MAGIC = 0x4d4a44445345474cL;
+    private static final int SEGMENT_VERSION = 1;
+    private static final int SEGMENT_HEADER_SIZE = 8 + 4;
+    private static final int SEGMENT_ENTRY_OVERHEAD = 4 + 8 + 4;
+    private static final int WRITE_BUFFER_SIZE = 256 * 1024;
+    private static final int PREALLOCATE_CHUNK_SIZE = 1024 * 1024;
 
     private class CommitFileWriter implements AutoCloseable {
 
+        // reused for every entry, the file is written by a single thread
+        private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private final CRC32 crc = new CRC32();
+
         final long ledgerId;
         long sequenceNumber;
-        FileOutputStream fOut;
-        DataOutputStream out;
-        Path filename;
+        final FileChannel channel;
+        final Path filename;
+        final long segmentSize;
+        long position;
 
-        private CommitFileWriter(long ledgerId, long sequenceNumber) throws IOException {
+        private CommitFileWriter(long ledgerId, long sequenceNumber, long minSize) throws IOException {
             this.ledgerId = ledgerId;
             this.sequenceNumber = sequenceNumber;
             filename = logDirectory.resolve(String.format("%016x", ledgerId) + LOGFILEEXTENSION).toAbsolutePath();
-            // in case of IOException the stream is not opened, not need to close it
+            // in case of IOException the channel is not opened, not need to close it
             LOGGER.log(Level.SEVERE, "starting new file {0} ", filename);
             File file = filename.toFile();
             if (file.isFile()) {
                 throw new IOException("File " + file.getAbsolutePath() + " already exists");
             }
-            this.fOut = new FileOutputStream(file);
-            this.out = new DataOutputStream(
-                new BufferedOutputStream(
-                    this.fOut
-                )
-            );
-            writtenBytes = 0;
+            this.segmentSize = Math.max(maxLogFileSize, minSize + SEGMENT_HEADER_SIZE);
+            this.channel = FileChannel.open(filename, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            try {
+                preallocate();
+                position = SEGMENT_HEADER_SIZE;
+                channel.position(position);
+            } catch (IOException err) {
+                channel.close();
+                throw err;
+            }
         }
 
-        public void writeEntry(long seqnumber, StatusEdit edit) throws IOException {
-            byte[] serialize = edit.serialize();
-            this.out.writeByte(ENTRY_START);
-            this.out.writeLong(seqnumber);
-            this.out.writeInt(serialize.length);
-            this.out.write(serialize);
-            this.out.writeByte(ENTRY_END);
-            writtenBytes += (1 + 8 + 4 + serialize.length + 1);
+        private void preallocate() throws IOException {
+            // filling the file with zeroes makes data blocks and file size durable once,
+            // so that later synchs only need to flush data and not metadata
+            ByteBuffer zeroes = ByteBuffer.allocateDirect(PREALLOCATE_CHUNK_SIZE);
+            long pos = 0;
+            while (pos < segmentSize) {
+                zeroes.clear();
+                zeroes.limit((int) Math.min(PREALLOCATE_CHUNK_SIZE, segmentSize - pos));
+                while (zeroes.hasRemaining()) {
+                    pos += channel.write(zeroes, pos);
+                }
+            }
+            // the header is durable before the file is used, a segment without entries is still a valid segment
+            ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+            header.putLong(SEGMENT_MAGIC);
+            header.putInt(SEGMENT_VERSION);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+
+        boolean hasSpaceFor(int entrySize) {
+            return position + entrySize <= segmentSize;
+        }
+
+        public void writeEntry(long seqnumber, StatusEdit edit, int size) throws IOException {
+            int entrySize = SEGMENT_ENTRY_OVERHEAD + size;
+            if (writeBuffer.remaining() < entrySize) {
+                flush();
+            }
+            if (writeBuffer.remaining() < entrySize) {
+                ByteBuffer buffer = ByteBuffer.allocate(entrySize);
+                encodeEntry(buffer, seqnumber, edit, size);
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } else {
+                encodeEntry(writeBuffer, seqnumber, edit, size);
+            }
+            position += entrySize;
+        }
+
+        private void encodeEntry(ByteBuffer buffer, long seqnumber, StatusEdit edit, int size) {
+            int start = buffer.position();
+            buffer.putInt(size);
+            buffer.putLong(seqnumber);
+            edit.serializeTo(buffer);
+            ByteBuffer checked = buffer.duplicate();
+            checked.position(start + 4);
+            checked.limit(start + 4 + 8 + size);
+            crc.reset();
+            crc.update(checked);
+            buffer.putInt((int) crc.getValue());
+        }
+
+        private void flush() throws IOException {
+            writeBuffer.flip();
+            while (writeBuffer.hasRemaining()) {
+                channel.write(writeBuffer);
+            }
+            writeBuffer.clear();
         }
 
         public void synch() throws IOException {
-            this.out.flush();
-            this.fOut.getFD().sync();
+            flush();
+            // the file has been preallocated, no need to flush metadata
+            channel.force(false);
         }
 
         @Override
         public void close() throws LogNotAvailableException {
             try {
-                out.close();
-                fOut.close();
+                try {
+                    synch();
+                } finally {
+                    channel.close();
+                }
             } catch (IOException err) {
                 throw new LogNotAvailableException(err);
             }
@@ -138,27 +220,179 @@ public class FileCommitLog extends StatusChangesLog {
 
         LogSequenceNumber logSequenceNumber;
         StatusEdit statusEdit;
+        int size;
 
-        public StatusEditWithSequenceNumber(LogSequenceNumber logSequenceNumber, StatusEdit statusEdit) {
+        public StatusEditWithSequenceNumber(LogSequenceNumber logSequenceNumber, StatusEdit statusEdit, int size) {
             this.logSequenceNumber = logSequenceNumber;
             this.statusEdit = statusEdit;
+            this.size = size;
+        }
+
+    }
+
+    private interface LogFileReader extends AutoCloseable {
+
+        StatusEditWithSequenceNumber nextEntry() throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    private static boolean isSegmentFile(Path filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(filename, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    return false;
+                }
+            }
+            header.flip();
+            return header.getLong() == SEGMENT_MAGIC;
+        }
+    }
+
+    /**
+     * A preallocated segment whose header never reached the disk contains only
+     * zeroes, it does not contain any entry. A torn header is tolerated only on
+     * the last file
+     */
+    private static boolean isEmptySegment(Path filename, boolean lastFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(filename, StandardOpenOption.READ)) {
+            ByteBuffer data = ByteBuffer.allocate(PREALLOCATE_CHUNK_SIZE);
+            long pos = 0;
+            while (true) {
+                data.clear();
+                int read = channel.read(data, pos);
+                if (read < 0) {
+                    return true;
+                }
+                for (int i = 0; i < read; i++) {
+                    byte b = data.get(i);
+                    if (pos + i == 0 && b == ENTRY_START) {
+                        // legacy format
+                        return false;
+                    }
+                    if (b != 0 && (!lastFile || pos + i >= SEGMENT_HEADER_SIZE)) {
+                        return false;
+                    }
+                }
+                pos += read;
+            }
+        }
+    }
+
+    private LogFileReader openReader(long ledgerId, boolean lastFile) throws IOException {
+        Path filename = logDirectory.resolve(String.format("%016x", ledgerId) + LOGFILEEXTENSION);
+        if (isSegmentFile(filename)) {
+            return new CommitFileReader(ledgerId, lastFile);
+        } else if (isEmptySegment(filename, lastFile)) {
+            LOGGER.log(Level.SEVERE, "file {0} is an empty segment, without header", filename);
+            return new LogFileReader() {
+                @Override
+                public StatusEditWithSequenceNumber nextEntry() {
+                    return null;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        } else {
+            return new LegacyCommitFileReader(ledgerId, lastFile);
         }
+    }
+
+    private class CommitFileReader implements LogFileReader {
 
+        private final MappedByteBuffer data;
+        private final CRC32 crc = new CRC32();
+        private byte[] entryBuffer = new byte[ENTRY_BUFFER_SIZE];
+        final long ledgerId;
+        final boolean lastFile;
+
+        private CommitFileReader(long ledgerId, boolean lastFile) throws IOException {
+            this.ledgerId = ledgerId;
+            this.lastFile = lastFile;
+            Path filename = logDirectory.resolve(String.format("%016x", ledgerId) + LOGFILEEXTENSION);
+            try (FileChannel channel = FileChannel.open(filename, StandardOpenOption.READ)) {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("file " + filename + " is too big (" + size + " bytes)");
+                }
+                // the mapping remains valid after closing the channel
+                this.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            long magic = data.getLong();
+            int version = data.getInt();
+            if (magic != SEGMENT_MAGIC || version != SEGMENT_VERSION) {
+                throw new IOException("file " + filename + " has an unsupported format, version " + version);
+            }
+        }
+
+        @Override
+        public StatusEditWithSequenceNumber nextEntry() throws IOException {
+            if (data.remaining() < 4) {
+                return null;
+            }
+            int start = data.position();
+            int len = data.getInt();
+            if (len == 0) {
+                // preallocated space, no more entries
+                return null;
+            }
+            if (len < 0 || data.remaining() < 8 + len + 4) {
+                return corruptedEntry(start, "bad entry length " + len);
+            }
+            ByteBuffer checked = data.duplicate();
+            checked.limit(start + 4 + 8 + len);
+            crc.reset();
+            crc.update(checked);
+            long seqNumber = data.getLong();
+            if (entryBuffer.length < len) {
+                entryBuffer = new byte[Math.max(len, entryBuffer.length * 2)];
+            }
+            data.get(entryBuffer, 0, len);
+            int checksum = data.getInt();
+            if (checksum != (int) crc.getValue()) {
+                return corruptedEntry(start, "bad checksum");
+            }
+            StatusEdit edit = StatusEdit.read(entryBuffer, 0, len);
+            return new StatusEditWithSequenceNumber(new LogSequenceNumber(ledgerId, seqNumber), edit, SEGMENT_ENTRY_OVERHEAD + len);
+        }
+
+        private StatusEditWithSequenceNumber corruptedEntry(int position, String reason) throws IOException {
+            // a torn write at the end of the last file is an entry which was never acked, we can ignore it
+            // it is important that this is the last file in the set
+            if (lastFile) {
+                LOGGER.log(Level.SEVERE, "found unfinished entry in file " + this.ledgerId + " at position " + position + ". entry was not acked. ignoring (" + reason + ")");
+                data.position(data.limit());
+                return null;
+            } else {
+                throw new IOException("corrupted entry in file " + this.ledgerId + " at position " + position + ": " + reason);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
     }
 
-    private class CommitFileReader implements AutoCloseable {
+    private class LegacyCommitFileReader implements LogFileReader {
 
         DataInputStream in;
+        private byte[] entryBuffer = new byte[ENTRY_BUFFER_SIZE];
         long ledgerId;
         boolean lastFile;
 
-        private CommitFileReader(long ledgerId, boolean lastFile) throws IOException {
+        private LegacyCommitFileReader(long ledgerId, boolean lastFile) throws IOException {
             this.ledgerId = ledgerId;
+            this.lastFile = lastFile;
             Path filename = logDirectory.resolve(String.format("%016x", ledgerId) + LOGFILEEXTENSION);
             // in case of IOException the stream is not opened, not need to close it
             this.in = new DataInputStream(Files.newInputStream(filename, StandardOpenOption.READ));
         }
 
+        @Override
         public StatusEditWithSequenceNumber nextEntry() throws IOException {
             byte entryStart;
             try {
@@ -172,17 +406,19 @@ public class FileCommitLog extends StatusChangesLog {
                 }
                 long seqNumber = this.in.readLong();
                 int len = this.in.readInt();
-                byte[] data = new byte[len];
-                int rr = this.in.read(data);
-                if (rr != data.length) {
-                    return null;
+                if (len < 0) {
+                    throw new IOException("corrupted stream");
+                }
+                if (entryBuffer.length < len) {
+                    entryBuffer = new byte[Math.max(len, entryBuffer.length * 2)];
                 }
+                this.in.readFully(entryBuffer, 0, len);
                 int entryEnd = this.in.readByte();
                 if (entryEnd != ENTRY_END) {
                     throw new IOException("corrupted stream");
                 }
-                StatusEdit edit = StatusEdit.read(data);
-                return new StatusEditWithSequenceNumber(new LogSequenceNumber(ledgerId, seqNumber), edit);
+                StatusEdit edit = StatusEdit.read(entryBuffer, 0, len);
+                return new StatusEditWithSequenceNumber(new LogSequenceNumber(ledgerId, seqNumber), edit, 1 + 8 + 4 + len + 1);
             } catch (EOFException truncatedLog) {
                 // if we hit EOF the entry has not been written, and so not acked, we can ignore it and say that the file is finished
                 // it is important that this is the last file in the set
@@ -195,12 +431,13 @@ public class FileCommitLog extends StatusChangesLog {
             }
         }
 
+        @Override
         public void close() throws IOException {
             in.close();
         }
     }
 
-    private void openNewLedger() throws LogNotAvailableException {
+    private void openNewLedger(long minSize) throws LogNotAvailableException {
 
         try {
             if (writer != null) {
@@ -209,7 +446,7 @@ public class FileCommitLog extends StatusChangesLog {
             }
             ensureDirectories();
 
-            writer = new CommitFileWriter(++currentLedgerId, -1);
+            writer = new CommitFileWriter(++currentLedgerId, -1, minSize);
 
         } catch (IOException err) {
             throw new LogNotAvailableException(err);
@@ -230,31 +467,27 @@ public class FileCommitLog extends StatusChangesLog {
         @Override
         public void run() {
             try {
-                openNewLedger();
+                openNewLedger(0);
                 int count = 0;
                 List<StatusEditHolderFuture> doneEntries = new ArrayList<>();
                 while (!closed || !writeQueue.isEmpty()) {
                     StatusEditHolderFuture entry = writeQueue.poll(MAX_SYNCH_TIME, TimeUnit.MILLISECONDS);
-                    boolean timedOut = false;
-                    if (entry != null) {
+                    // group commit: write everything which is already waiting, then synch once
+                    while (entry != null) {
                         writeEntry(entry);
                         doneEntries.add(entry);
                         count++;
-                    } else {
-                        timedOut = true;
+                        entry = count < MAX_UNSYNCHED_BATCH ? writeQueue.poll() : null;
                     }
-                    if (timedOut || count >= MAX_UNSYNCHED_BATCH) {
-                        count = 0;
-                        if (!doneEntries.isEmpty()) {
-                            synch();
-                            for (StatusEditHolderFuture e : doneEntries) {
-                                if (e.synch) {
-                                    e.synchDone();
-                                }
+                    count = 0;
+                    if (!doneEntries.isEmpty()) {
+                        synch();
+                        for (StatusEditHolderFuture e : doneEntries) {
+                            if (e.synch) {
+                                e.synchDone();
                             }
-                            doneEntries.clear();
                         }
-
+                        doneEntries.clear();
                     }
                 }
             } catch (Throwable t) {
@@ -312,13 +545,16 @@ public class FileCommitLog extends StatusChangesLog {
                 throw new IOException("not yet writable");
             }
 
-            long newSequenceNumber = ++writer.sequenceNumber;
-            writer.writeEntry(newSequenceNumber, entry.entry);
-
-            if (writtenBytes > maxLogFileSize) {
-                openNewLedger();
+            int size = entry.entry.serializedSize();
+            if (!writer.hasSpaceFor(SEGMENT_ENTRY_OVERHEAD + size)) {
+                openNewLedger(SEGMENT_ENTRY_OVERHEAD + size);
+                writer = this.writer;
             }
 
+            long newSequenceNumber = ++writer.sequenceNumber;
+            writer.writeEntry(newSequenceNumber, entry.entry, size);
+            trackEdit(entry.entry, SEGMENT_ENTRY_OVERHEAD + size);
+
             entry.done(new LogSequenceNumber(writer.ledgerId, newSequenceNumber));
         } catch (IOException | LogNotAvailableException err) {
             entry.error(err);
@@ -330,6 +566,16 @@ public class FileCommitLog extends StatusChangesLog {
             return;
         }
         writer.synch();
+        syncCount.incrementAndGet();
+    }
+
+    /**
+     * Number of times the log has been synched to disk
+     *
+     * @return
+     */
+    public long getSyncCount() {
+        return syncCount.get();
     }
 
     @Override
@@ -395,13 +641,14 @@ public class FileCommitLog extends StatusChangesLog {
                 if (ledgerId > currentLedgerId) {
                     currentLedgerId = ledgerId;
                 }
-                try (CommitFileReader reader = new CommitFileReader(ledgerId, lastFile)) {
+                try (LogFileReader reader = openReader(ledgerId, lastFile)) {
                     StatusEditWithSequenceNumber n = reader.nextEntry();
                     while (n != null) {
 
                         if (n.logSequenceNumber.after(snapshotSequenceNumber)) {
                             LOGGER.log(Level.FINE, "RECOVER ENTRY {0}, {1}", new Object[]{n.logSequenceNumber, n.statusEdit});
                             consumer.accept(n.logSequenceNumber, n.statusEdit);
+                            trackEdit(n.statusEdit, n.size);
                         } else {
                             LOGGER.log(Level.FINE, "SKIP ENTRY {0}, {1}", new Object[]{n.logSequenceNumber, n.statusEdit});
                         }
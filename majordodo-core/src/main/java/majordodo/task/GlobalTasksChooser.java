@@ -0,0 +1,325 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntToDoubleFunction;
+import majordodo.utils.IntCounter;
+
+/**
+ * Chooses tasks for many workers with a single pass over the TasksHeap.
+ * <p>
+ * During the scan tasks are grouped by (group, tasktype), keeping at most as
+ * many tasks for each bucket as the total free capacity of the workers. Then
+ * workers take one task at a time, in round robin. Each worker takes the
+ * oldest task of the group with the highest priority, honouring the space
+ * for each tasktype and both the worker and the global limits on resources,
+ * as {@link TasksChooser} does for a single worker. With a
+ * {@link WorkerSelectionPolicy} the worker which takes the next task is
+ * choosen by load score instead of in round robin
+ *
+ * @author enrico.olivelli
+ */
+final class GlobalTasksChooser {
+
+    static final class Worker {
+
+        final String workerId;
+        final List<Integer> groups;
+        final Set<Integer> excludedGroups;
+        final boolean matchAllGroups;
+        final Map<Integer, Integer> availableSpace;
+        final Map<Integer, IntCounter> availableResources;
+        int max;
+        int availableSpaceForAnyTask;
+        final List<TasksChooser.Entry> choosen = new ArrayList<>();
+        int runningTasks;
+        int maxThreads;
+        WorkerLoad load = WorkerLoad.UNKNOWN;
+
+        Worker(String workerId, int max, List<Integer> groups, Set<Integer> excludedGroups, Map<Integer, Integer> availableSpace, Map<Integer, IntCounter> availableResources) {
+            this.workerId = workerId;
+            this.max = max;
+            this.groups = groups;
+            this.excludedGroups = excludedGroups;
+            this.matchAllGroups = groups.contains(Task.GROUP_ANY);
+            this.availableSpace = new HashMap<>(availableSpace);
+            Integer forAny = this.availableSpace.remove(TasksHeap.TASKTYPE_ANYTASK);
+            this.availableSpaceForAnyTask = forAny != null ? forAny : 0;
+            this.availableResources = availableResources;
+        }
+
+        private boolean acceptsTaskType(int tasktype) {
+            Integer space = availableSpace.get(tasktype);
+            return space != null || availableSpaceForAnyTask > 0;
+        }
+
+        private void taskChoosen(int tasktype) {
+            max--;
+            Integer space = availableSpace.get(tasktype);
+            if (space == null) {
+                availableSpaceForAnyTask--;
+            } else if (space > 1) {
+                availableSpace.put(tasktype, space - 1);
+            } else {
+                // like in Broker, when the space for a tasktype is exhausted the worker can still run it as "any" task
+                availableSpace.remove(tasktype);
+            }
+        }
+
+        private boolean hasSpace() {
+            return max > 0 && (availableSpaceForAnyTask > 0 || !availableSpace.isEmpty());
+        }
+
+        /**
+         * Declares the load of the worker, used by the
+         * {@link WorkerSelectionPolicy}
+         *
+         * @param runningTasks
+         * @param load
+         */
+        void setLoad(int runningTasks, WorkerLoad load) {
+            this.runningTasks = runningTasks;
+            this.maxThreads = runningTasks + max;
+            this.load = load;
+        }
+
+        private double score(long defaultLatency) {
+            return load.score(runningTasks + choosen.size(), maxThreads, defaultLatency);
+        }
+    }
+
+    private static final class Bucket {
+
+        final int groupid;
+        final int tasktype;
+        final List<TasksChooser.Entry> entries = new ArrayList<>();
+        final BitSet taken = new BitSet();
+        int head;
+
+        Bucket(int groupid, int tasktype) {
+            this.groupid = groupid;
+            this.tasktype = tasktype;
+        }
+    }
+
+    private final List<Worker> workers;
+    private final Map<Integer, IntCounter> globalAvailableResources;
+    private final Map<Long, Bucket> buckets = new HashMap<>();
+    private final Map<Integer, List<Bucket>> bucketsByGroup = new HashMap<>();
+    private final List<Bucket> allBuckets = new ArrayList<>();
+    private final int maxEntriesPerBucket;
+    private final boolean anyWorkerMatchesAllGroups;
+    private final Set<Integer> explicitGroups = new HashSet<>();
+    private final boolean anyWorkerRunsAnyTask;
+    private final Set<Integer> acceptedTaskTypes = new HashSet<>();
+    private final WorkerSelectionPolicy selectionPolicy;
+
+    GlobalTasksChooser(List<Worker> workers, Map<Integer, IntCounter> globalAvailableResources) {
+        this(workers, globalAvailableResources, null);
+    }
+
+    GlobalTasksChooser(List<Worker> workers, Map<Integer, IntCounter> globalAvailableResources, WorkerSelectionPolicy selectionPolicy) {
+        this.workers = workers;
+        this.selectionPolicy = selectionPolicy;
+        this.globalAvailableResources = globalAvailableResources;
+        int total = 0;
+        boolean matchAll = false;
+        boolean runsAny = false;
+        for (Worker worker : workers) {
+            total += worker.max;
+            matchAll |= worker.matchAllGroups;
+            runsAny |= worker.availableSpaceForAnyTask > 0;
+            explicitGroups.addAll(worker.groups);
+            acceptedTaskTypes.addAll(worker.availableSpace.keySet());
+        }
+        this.maxEntriesPerBucket = total;
+        this.anyWorkerMatchesAllGroups = matchAll;
+        this.anyWorkerRunsAnyTask = runsAny;
+    }
+
+    void accept(int position, TasksHeap.TaskEntry entry) {
+        int idgroup = entry.groupid;
+        int tasktype = entry.tasktype;
+        if (!anyWorkerMatchesAllGroups && !explicitGroups.contains(idgroup)) {
+            return;
+        }
+        if (!anyWorkerRunsAnyTask && !acceptedTaskTypes.contains(tasktype)) {
+            return;
+        }
+        long key = (((long) idgroup) << 32) | (tasktype & 0xffffffffL);
+        Bucket bucket = buckets.get(key);
+        if (bucket == null) {
+            bucket = new Bucket(idgroup, tasktype);
+            buckets.put(key, bucket);
+            allBuckets.add(bucket);
+            List<Bucket> forGroup = bucketsByGroup.get(idgroup);
+            if (forGroup == null) {
+                forGroup = new ArrayList<>();
+                bucketsByGroup.put(idgroup, forGroup);
+            }
+            forGroup.add(bucket);
+        }
+        if (bucket.entries.size() < maxEntriesPerBucket) {
+            // entries are scanned in order of position, so buckets are sorted from the oldest task
+            bucket.entries.add(new TasksChooser.Entry(position, entry.taskid, 0, entry.resources));
+        }
+    }
+
+    /**
+     * Assigns tasks to workers
+     *
+     * @return the workers, with the choosen tasks
+     */
+    List<Worker> choose() {
+        if (allBuckets.isEmpty()) {
+            return workers;
+        }
+        List<Worker> active = new ArrayList<>();
+        for (Worker worker : workers) {
+            if (worker.hasSpace()) {
+                active.add(worker);
+            }
+        }
+        if (selectionPolicy != null) {
+            chooseByLoad(active);
+            return workers;
+        }
+        while (!active.isEmpty()) {
+            for (Iterator<Worker> it = active.iterator(); it.hasNext();) {
+                Worker worker = it.next();
+                // resources and tasks only decrease during a round, a worker which cannot take a task is done
+                if (!chooseOne(worker) || !worker.hasSpace()) {
+                    it.remove();
+                }
+            }
+        }
+        return workers;
+    }
+
+    private void chooseByLoad(List<Worker> active) {
+        // workers which did not report the latency of tasks yet are given the average one
+        long totalLatency = 0;
+        int withLatency = 0;
+        for (Worker worker : workers) {
+            if (worker.load.taskLatency > 0) {
+                totalLatency += worker.load.taskLatency;
+                withLatency++;
+            }
+        }
+        long defaultLatency = withLatency > 0 ? totalLatency / withLatency : 1;
+        IntToDoubleFunction score = (int index) -> active.get(index).score(defaultLatency);
+        while (!active.isEmpty()) {
+            int index = selectionPolicy.select(active.size(), score);
+            Worker worker = active.get(index);
+            if (!chooseOne(worker) || !worker.hasSpace()) {
+                active.remove(index);
+            }
+        }
+    }
+
+    private boolean chooseOne(Worker worker) {
+        for (int idgroup : worker.groups) {
+            if (idgroup == Task.GROUP_ANY) {
+                continue;
+            }
+            if (chooseOldest(worker, bucketsByGroup.getOrDefault(idgroup, Collections.emptyList()))) {
+                return true;
+            }
+        }
+        if (worker.matchAllGroups) {
+            return chooseOldest(worker, allBuckets);
+        }
+        return false;
+    }
+
+    private boolean chooseOldest(Worker worker, List<Bucket> candidates) {
+        Bucket bestBucket = null;
+        int bestIndex = -1;
+        int bestPosition = Integer.MAX_VALUE;
+        for (Bucket bucket : candidates) {
+            if (!worker.acceptsTaskType(bucket.tasktype)) {
+                continue;
+            }
+            if (worker.matchAllGroups && worker.excludedGroups.contains(bucket.groupid) && !worker.groups.contains(bucket.groupid)) {
+                continue;
+            }
+            int index = firstAvailable(bucket, worker);
+            if (index >= 0 && bucket.entries.get(index).position < bestPosition) {
+                bestBucket = bucket;
+                bestIndex = index;
+                bestPosition = bucket.entries.get(index).position;
+            }
+        }
+        if (bestBucket == null) {
+            return false;
+        }
+        TasksChooser.Entry entry = bestBucket.entries.get(bestIndex);
+        bestBucket.taken.set(bestIndex);
+        while (bestBucket.head < bestBucket.entries.size() && bestBucket.taken.get(bestBucket.head)) {
+            bestBucket.head++;
+        }
+        if (entry.resources != null) {
+            for (int idresource : entry.resources) {
+                decrement(worker.availableResources, idresource);
+                decrement(globalAvailableResources, idresource);
+            }
+        }
+        worker.taskChoosen(bestBucket.tasktype);
+        worker.choosen.add(entry);
+        return true;
+    }
+
+    private int firstAvailable(Bucket bucket, Worker worker) {
+        for (int i = bucket.taken.nextClearBit(bucket.head); i < bucket.entries.size(); i = bucket.taken.nextClearBit(i + 1)) {
+            int[] resources = bucket.entries.get(i).resources;
+            if (resources == null || hasSpace(worker.availableResources, resources) && hasSpace(globalAvailableResources, resources)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean hasSpace(Map<Integer, IntCounter> availableResources, int[] resources) {
+        for (int idresource : resources) {
+            IntCounter spaceForResource = availableResources.get(idresource);
+            if (spaceForResource != null && spaceForResource.count <= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void decrement(Map<Integer, IntCounter> availableResources, int idresource) {
+        IntCounter spaceForResource = availableResources.get(idresource);
+        if (spaceForResource != null) {
+            spaceForResource.count--;
+        }
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the TasksHeap and the global resource usage counters in sync with the
+ * status while the broker is following the leader. Modifications are buffered
+ * and applied to the heap in batches at the end of each cycle of
+ * followTheLeader
+ *
+ * @author enrico.olivelli
+ */
+final class HotStandby implements BrokerStatus.TaskStatusListener {
+
+    private static final Logger LOGGER = Logger.getLogger(HotStandby.class.getName());
+
+    /**
+     * Removing tasks from the heap needs a full scan, so removals are
+     * accumulated until this threshold is reached. Stale entries are never
+     * assigned while following the leader
+     */
+    static final int REMOVE_BATCH_SIZE = 1000;
+
+    private final TasksHeap heap;
+    private final ResourceUsageCounters globalResourceUsageCounters;
+    private final Map<Long, Task> toInsert = new LinkedHashMap<>();
+    private final Set<Long> toRemove = new HashSet<>();
+
+    HotStandby(TasksHeap heap, ResourceUsageCounters globalResourceUsageCounters) {
+        this.heap = heap;
+        this.globalResourceUsageCounters = globalResourceUsageCounters;
+    }
+
+    /**
+     * Loads the status recovered at boot
+     *
+     * @param tasksAtBoot
+     */
+    void boot(TasksAtBoot tasksAtBoot) {
+        heap.insertTasks(tasksAtBoot.waitingTasks);
+        for (List<Task> running : tasksAtBoot.runningTasksByWorker.values()) {
+            for (Task task : running) {
+                globalResourceUsageCounters.useResources(heap.getResourceIds().resolveList(task.getResources()));
+            }
+        }
+        LOGGER.log(Level.SEVERE, "Hot standby: {0} tasks loaded in the heap, {1} running tasks", new Object[]{tasksAtBoot.waitingTasks.size(), tasksAtBoot.getRunningTasksCount()});
+    }
+
+    @Override
+    public synchronized void taskStatusChanged(Task task, int oldStatus, int newStatus) {
+        long taskId = task.getTaskId();
+        if (oldStatus != Task.STATUS_WAITING && newStatus == Task.STATUS_WAITING) {
+            if (!toRemove.remove(taskId)) {
+                toInsert.put(taskId, task);
+            }
+            // else the entry is still in the heap
+        } else if (oldStatus == Task.STATUS_WAITING && newStatus != Task.STATUS_WAITING) {
+            if (toInsert.remove(taskId) == null) {
+                toRemove.add(taskId);
+            }
+        }
+        if (oldStatus != Task.STATUS_RUNNING && newStatus == Task.STATUS_RUNNING) {
+            globalResourceUsageCounters.useResources(heap.getResourceIds().resolveList(task.getResources()));
+        } else if (oldStatus == Task.STATUS_RUNNING && newStatus != Task.STATUS_RUNNING) {
+            globalResourceUsageCounters.releaseResources(heap.getResourceIds().resolveList(task.getResources()));
+        }
+    }
+
+    @Override
+    public void followerCycleCompleted() {
+        flush(false);
+    }
+
+    /**
+     * Applies buffered modifications to the heap
+     *
+     * @param force if true pending removals are applied even if the batch is
+     * small, this must be done before becoming leader
+     */
+    synchronized void flush(boolean force) {
+        if (!toRemove.isEmpty() && (force || toRemove.size() >= REMOVE_BATCH_SIZE)) {
+            heap.removeTasks(toRemove);
+            toRemove.clear();
+        }
+        if (!toInsert.isEmpty()) {
+            heap.insertTasks(toInsert.values());
+            toInsert.clear();
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Each task goes to the worker with the lowest load score
+ *
+ * @author enrico.olivelli
+ */
+public class LeastLoadedWorkerSelectionPolicy implements WorkerSelectionPolicy {
+
+    @Override
+    public int select(int count, IntToDoubleFunction score) {
+        int best = 0;
+        double bestScore = score.applyAsDouble(0);
+        for (int i = 1; i < count; i++) {
+            double s = score.applyAsDouble(i);
+            if (s < bestScore) {
+                best = i;
+                bestScore = s;
+            }
+        }
+        return best;
+    }
+
+}
@@ -28,21 +28,37 @@ public final class LogSequenceNumber {
 
     public final long ledgerId;
     public final long sequenceNumber;
+    /**
+     * Position of the edit inside a log entry which contains more than one
+     * edit, starting from 1. It is 0 for entries with a single edit
+     */
+    public final int subSequenceNumber;
 
     @Override
     public String toString() {
+        if (subSequenceNumber > 0) {
+            return ledgerId + "," + sequenceNumber + "," + subSequenceNumber;
+        }
         return ledgerId + "," + sequenceNumber;
     }
 
     public LogSequenceNumber(long ledgerId, long sequenceNumber) {
+        this(ledgerId, sequenceNumber, 0);
+    }
+
+    public LogSequenceNumber(long ledgerId, long sequenceNumber, int subSequenceNumber) {
         this.ledgerId = ledgerId;
         this.sequenceNumber = sequenceNumber;
+        this.subSequenceNumber = subSequenceNumber;
     }
 
     public boolean after(LogSequenceNumber snapshotSequenceNumber) {
         if (this.ledgerId < snapshotSequenceNumber.ledgerId) {
             return false;
         } else if (this.ledgerId == snapshotSequenceNumber.ledgerId) {
+            if (this.sequenceNumber == snapshotSequenceNumber.sequenceNumber) {
+                return this.subSequenceNumber > snapshotSequenceNumber.subSequenceNumber;
+            }
             return this.sequenceNumber > snapshotSequenceNumber.sequenceNumber;
         } else {
             return true;
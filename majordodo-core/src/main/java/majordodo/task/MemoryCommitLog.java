@@ -52,6 +52,7 @@ public class MemoryCommitLog extends StatusChangesLog {
             long newNumber = ++sequenceNumber;
             LogSequenceNumber snum = new LogSequenceNumber(0, newNumber);
             log.add(new MemoryLogLine(snum, action));
+            trackEdit(action, 0);
             return snum;
         } finally {
             lock.unlock();
@@ -87,6 +88,7 @@ public class MemoryCommitLog extends StatusChangesLog {
             for (MemoryLogLine line : logatboot) {
                 if (line.logSequenceNumber.after(snapshotSequenceNumber)) {
                     consumer.accept(line.logSequenceNumber, line.edit);
+                    trackEdit(line.edit, 0);
                 }
             };
         }
@@ -0,0 +1,59 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Each task goes to the less loaded of two workers choosen at random. Scores
+ * are computed only for two workers, and workers which report stale load are
+ * not all flooded at once
+ *
+ * @author enrico.olivelli
+ */
+public class PowerOfTwoChoicesWorkerSelectionPolicy implements WorkerSelectionPolicy {
+
+    private final Random random;
+
+    public PowerOfTwoChoicesWorkerSelectionPolicy() {
+        this(null);
+    }
+
+    public PowerOfTwoChoicesWorkerSelectionPolicy(Random random) {
+        this.random = random;
+    }
+
+    @Override
+    public int select(int count, IntToDoubleFunction score) {
+        if (count == 1) {
+            return 0;
+        }
+        Random r = random != null ? random : ThreadLocalRandom.current();
+        int first = r.nextInt(count);
+        int second = r.nextInt(count - 1);
+        if (second >= first) {
+            second++;
+        }
+        return score.applyAsDouble(first) <= score.applyAsDouble(second) ? first : second;
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Registry of the integer ids assigned to resources. Each {@link TasksHeap}
+ * owns its registry, ids are shared by the heap and by the
+ * {@link ResourceUsageCounters} of the same broker, they are assigned
+ * incrementally starting from 1 and never released
+ *
+ * @author enrico.olivelli
+ */
+final class ResourceIds {
+
+    /**
+     * Maximum number of distinct resources
+     */
+    static final int MAX_RESOURCES = 1024 * 1024;
+
+    /**
+     * Maximum number of parsed resource lists kept in cache
+     */
+    static final int MAX_CACHED_LISTS = 16 * 1024;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, int[]> lists = new ConcurrentHashMap<>();
+    private volatile AtomicReferenceArray<String> names = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    private volatile int maxId;
+
+    /**
+     * Returns the id of the resource, assigning a new one if needed
+     *
+     * @param resource
+     * @return
+     */
+    int resolve(String resource) {
+        Integer id = ids.get(resource);
+        if (id != null) {
+            return id;
+        }
+        synchronized (ids) {
+            id = ids.get(resource);
+            if (id != null) {
+                return id;
+            }
+            int newId = maxId + 1;
+            if (newId > MAX_RESOURCES) {
+                throw new IllegalStateException("too many resources, max " + MAX_RESOURCES);
+            }
+            AtomicReferenceArray<String> current = names;
+            if (newId >= current.length()) {
+                AtomicReferenceArray<String> grown = new AtomicReferenceArray<>(Math.min(current.length() * 2, MAX_RESOURCES + 1));
+                for (int i = 1; i < newId; i++) {
+                    grown.set(i, current.get(i));
+                }
+                current = grown;
+                names = grown;
+            }
+            current.set(newId, resource);
+            ids.put(resource, newId);
+            maxId = newId;
+            return newId;
+        }
+    }
+
+    /**
+     * Resolves a comma separated list of resources, as stored in
+     * {@link Task#getResources() }. Results are cached, up to
+     * {@link #MAX_CACHED_LISTS} distinct lists, so a list is usually parsed
+     * only the first time it is seen
+     *
+     * @param resources
+     * @return the ids, null if there are no resources
+     */
+    int[] resolveList(String resources) {
+        if (resources == null || resources.isEmpty()) {
+            return null;
+        }
+        int[] result = lists.get(resources);
+        if (result == null) {
+            String[] split = resources.split(",");
+            result = new int[split.length];
+            for (int i = 0; i < split.length; i++) {
+                result[i] = resolve(split[i]);
+            }
+            if (lists.size() < MAX_CACHED_LISTS) {
+                lists.putIfAbsent(resources, result);
+            }
+        }
+        return result;
+    }
+
+    String getName(int id) {
+        // maxId is written after the name, so any id up to maxId is visible here
+        return id <= maxId ? names.get(id) : null;
+    }
+
+    int getMaxId() {
+        return maxId;
+    }
+}
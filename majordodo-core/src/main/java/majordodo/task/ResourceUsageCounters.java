@@ -19,82 +19,114 @@
  */
 package majordodo.task;
 
-import java.util.Arrays;
-import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
-import majordodo.utils.IntCounter;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
- * Counters on resources usage
+ * Counters on resources usage. Counters are indexed by the ids assigned by the
+ * {@link ResourceIds} of the broker and can be updated by any thread without
+ * locks
  *
  * @author enrico.olivelli
  */
 public class ResourceUsageCounters {
 
-    Map<String, IntCounter> counters = new HashMap<>();
-    ConcurrentLinkedQueue<String> releasedResources = new ConcurrentLinkedQueue<>();
-    ConcurrentLinkedQueue<String> usedResources = new ConcurrentLinkedQueue<>();
-    AtomicBoolean clearRequested = new AtomicBoolean();
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // each page contains pairs (count, used), "used" is 1 if the resource has ever been counted
+    private final AtomicReferenceArray<AtomicIntegerArray> pages = new AtomicReferenceArray<>((ResourceIds.MAX_RESOURCES >> PAGE_SHIFT) + 1);
+    private final ResourceIds resourceIds;
+
+    /**
+     * Creates counters not bound to the ids of a broker, that is counters
+     * which are never incremented
+     */
+    public ResourceUsageCounters() {
+        this(new ResourceIds());
+    }
+
+    ResourceUsageCounters(ResourceIds resourceIds) {
+        this.resourceIds = resourceIds;
+    }
 
     public Map<String, Integer> getCountersView() {
-        while (true) {
-            try {
-                Map<String, Integer> copy = new HashMap<>();
-                for (Map.Entry<String, IntCounter> counter : counters.entrySet()) {
-                    copy.put(counter.getKey(), counter.getValue().count);
-                }
-                return copy;
-            } catch (ConcurrentModificationException ok) {
+        Map<String, Integer> copy = new HashMap<>();
+        int maxId = resourceIds.getMaxId();
+        for (int id = 1; id <= maxId; id++) {
+            AtomicIntegerArray page = pages.get(id >> PAGE_SHIFT);
+            if (page == null) {
+                id |= PAGE_MASK;
+                continue;
+            }
+            int pos = (id & PAGE_MASK) << 1;
+            if (page.get(pos + 1) != 0) {
+                copy.put(resourceIds.getName(id), page.get(pos));
             }
         }
+        return copy;
     }
 
-    void updateResourceCounters() {
-        // write access to "counters" is done only here, inside the writeLock of "TasksHeap"        
-        if (clearRequested.compareAndSet(true, false)) {
-            for (IntCounter c : counters.values()) {
-                c.count = 0;
-            }
+    /**
+     * Actual usage of a resource
+     *
+     * @param id
+     * @return
+     */
+    int getCount(int id) {
+        AtomicIntegerArray page = pages.get(id >> PAGE_SHIFT);
+        if (page == null) {
+            return 0;
         }
-        for (String id = releasedResources.poll(); id != null; id = releasedResources.poll()) {
-            IntCounter count = counters.get(id);
-            if (count != null) {
-                count.count--;
-            } else {
-                count = new IntCounter();
-                count.count = -1;
-                counters.put(id, count);
+        return page.get((id & PAGE_MASK) << 1);
+    }
+
+    void clear() {
+        for (int i = 0; i < pages.length(); i++) {
+            AtomicIntegerArray page = pages.get(i);
+            if (page != null) {
+                for (int pos = 0; pos < PAGE_SIZE * 2; pos += 2) {
+                    page.set(pos, 0);
+                }
             }
         }
-        for (String id = usedResources.poll(); id != null; id = usedResources.poll()) {
-            IntCounter count = counters.get(id);
-            if (count == null) {
-                count = new IntCounter();
-                counters.put(id, count);
+    }
+
+    void useResources(int[] resourceIds) {
+        if (resourceIds != null) {
+            for (int id : resourceIds) {
+                add(id, 1);
             }
-            count.count++;
         }
     }
 
-    void clear() {
-        clearRequested.set(true);
+    void releaseResources(int[] resourceIds) {
+        if (resourceIds != null) {
+            for (int id : resourceIds) {
+                add(id, -1);
+            }
+        }
     }
 
-    void useResources(String[] resourceIds) {
-        // this method can be called by any thread, but real write access to "counters" is to be done only inside the writeLock of "TasksHeap"
-        if (resourceIds != null) {
-            usedResources.addAll(Arrays.asList(resourceIds));
+    private void add(int id, int delta) {
+        AtomicIntegerArray page = getPage(id >> PAGE_SHIFT);
+        int pos = (id & PAGE_MASK) << 1;
+        page.addAndGet(pos, delta);
+        if (page.get(pos + 1) == 0) {
+            page.lazySet(pos + 1, 1);
         }
     }
 
-    void releaseResources(String[] resourceIds) {
-        // this method can be called by any thread, but real write access to "counters" is to be done only inside the writeLock of "TasksHeap"
-        if (resourceIds != null) {
-            releasedResources.addAll(Arrays.asList(resourceIds));
+    private AtomicIntegerArray getPage(int index) {
+        AtomicIntegerArray page = pages.get(index);
+        if (page == null) {
+            pages.compareAndSet(index, null, new AtomicIntegerArray(PAGE_SIZE * 2));
+            page = pages.get(index);
         }
+        return page;
     }
 
 }
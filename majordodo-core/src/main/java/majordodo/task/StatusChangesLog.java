@@ -21,6 +21,7 @@ package majordodo.task;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 
 /**
@@ -31,6 +32,8 @@ import java.util.function.BiConsumer;
 public abstract class StatusChangesLog implements AutoCloseable {
 
     protected BrokerFailureListener failureListener;
+    private final AtomicLong editsSinceCheckpoint = new AtomicLong();
+    private final AtomicLong bytesSinceCheckpoint = new AtomicLong();
 
     public String getSharedSecret() {
         return null;
@@ -53,6 +56,62 @@ public abstract class StatusChangesLog implements AutoCloseable {
         }
     }
 
+    /**
+     * Accounts edits which have been written to (or replayed from) the log and
+     * which would be replayed at the next recovery
+     *
+     * @param edits
+     * @param bytes
+     */
+    protected final void trackEdits(long edits, long bytes) {
+        editsSinceCheckpoint.addAndGet(edits);
+        bytesSinceCheckpoint.addAndGet(bytes);
+    }
+
+    /**
+     * Accounts a single edit. Noop edits, written periodically by the leader,
+     * are not accounted, so that an idle broker does not need checkpoints
+     *
+     * @param edit
+     * @param bytes
+     */
+    protected final void trackEdit(StatusEdit edit, long bytes) {
+        if (edit.editType != StatusEdit.TYPE_NOOP) {
+            trackEdits(1, bytes);
+        }
+    }
+
+    /**
+     * Number of edits added to the log since the last checkpoint
+     *
+     * @return
+     */
+    public final long getEditsSinceCheckpoint() {
+        return editsSinceCheckpoint.get();
+    }
+
+    /**
+     * Size in bytes of the edits added to the log since the last checkpoint
+     *
+     * @return
+     */
+    public final long getBytesSinceCheckpoint() {
+        return bytesSinceCheckpoint.get();
+    }
+
+    /**
+     * Notifies that a checkpoint has been completed. Counters are decremented
+     * by the values observed before taking the snapshot, in order not to lose
+     * edits logged during the checkpoint
+     *
+     * @param edits
+     * @param bytes
+     */
+    public final void checkpointCompleted(long edits, long bytes) {
+        editsSinceCheckpoint.addAndGet(-edits);
+        bytesSinceCheckpoint.addAndGet(-bytes);
+    }
+
     public abstract LogSequenceNumber logStatusEdit(StatusEdit edit) throws LogNotAvailableException;
 
     public abstract void recovery(LogSequenceNumber snapshotSequenceNumber, BiConsumer<LogSequenceNumber, StatusEdit> consumer, boolean fencing) throws LogNotAvailableException;
@@ -67,6 +126,16 @@ public abstract class StatusChangesLog implements AutoCloseable {
 
     public abstract BrokerStatusSnapshot loadBrokerStatusSnapshot() throws LogNotAvailableException;
 
+    /**
+     * Whether data shared with other brokers must be readable by brokers
+     * running older versions of Majordodo
+     *
+     * @return
+     */
+    public boolean isWriteLegacyFormat() {
+        return true;
+    }
+
     @Override
     public void close() throws LogNotAvailableException {
     }
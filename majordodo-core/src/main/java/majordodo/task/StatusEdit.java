@@ -25,8 +25,14 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -94,6 +100,7 @@ public final class StatusEdit {
     public long timestamp;
     public long transactionId;
     public long executionDeadline;
+    public long maxExecutionTime;
     public String parameter;
     public String userid;
     public String workerId;
@@ -109,7 +116,7 @@ public final class StatusEdit {
 
     @Override
     public String toString() {
-        return "StatusEdit{" + "editType=" + editType + " " + typeToString(editType) + ", taskType=" + taskType + ", taskId=" + taskId + ", taskStatus=" + taskStatus + ", attempt=" + attempt + ", maxattempts=" + maxattempts + ", timestamp=" + timestamp + ", transactionId=" + transactionId + ", executionDeadline=" + executionDeadline + ", parameter=" + parameter + ", userid=" + userid + ", workerId=" + workerId + ", workerLocation=" + workerLocation + ", workerProcessId=" + workerProcessId + ", result=" + result + ", slot=" + slot + ", actualRunningTasks=" + actualRunningTasks + '}';
+        return "StatusEdit{" + "editType=" + editType + " " + typeToString(editType) + ", taskType=" + taskType + ", taskId=" + taskId + ", taskStatus=" + taskStatus + ", attempt=" + attempt + ", maxattempts=" + maxattempts + ", timestamp=" + timestamp + ", transactionId=" + transactionId + ", executionDeadline=" + executionDeadline + ", maxExecutionTime=" + maxExecutionTime + ", parameter=" + parameter + ", userid=" + userid + ", workerId=" + workerId + ", workerLocation=" + workerLocation + ", workerProcessId=" + workerProcessId + ", result=" + result + ", slot=" + slot + ", actualRunningTasks=" + actualRunningTasks + '}';
     }
 
     private static void append(StringBuilder v, String key, Object value) {
@@ -150,6 +157,9 @@ public final class StatusEdit {
         if (executionDeadline > 0) {
             append(res, "executionDeadline", tsFormatter.format(new java.util.Date(executionDeadline)));
         }
+        if (maxExecutionTime > 0) {
+            append(res, "maxExecutionTime", maxExecutionTime);
+        }
         if (workerLocation != null && !workerLocation.isEmpty()) {
             append(res, "workerLocation", workerLocation);
         }
@@ -233,7 +243,27 @@ public final class StatusEdit {
         return action;
     }
 
+    /**
+     * The task goes back to waiting status and the given attempt, which was
+     * counted at assignment but never executed, is given back
+     *
+     * @param taskId
+     * @param workerId
+     * @param attempt
+     * @param result
+     * @return
+     */
+    public static final StatusEdit TASK_RELEASED(long taskId, String workerId, int attempt, String result) {
+        StatusEdit action = TASK_STATUS_CHANGE(taskId, workerId, Task.STATUS_WAITING, result);
+        action.attempt = attempt;
+        return action;
+    }
+
     public static final StatusEdit ADD_TASK(long taskId, String taskType, String taskParameter, String userid, int maxattempts, long executionDeadline, String slot, int attempt, String codePool, String mode) {
+        return ADD_TASK(taskId, taskType, taskParameter, userid, maxattempts, executionDeadline, slot, attempt, codePool, mode, 0);
+    }
+
+    public static final StatusEdit ADD_TASK(long taskId, String taskType, String taskParameter, String userid, int maxattempts, long executionDeadline, String slot, int attempt, String codePool, String mode, long maxExecutionTime) {
         StatusEdit action = new StatusEdit();
         action.editType = TYPE_ADD_TASK;
         action.attempt = attempt;
@@ -246,10 +276,15 @@ public final class StatusEdit {
         action.executionDeadline = executionDeadline;
         action.codepool = codePool;
         action.mode = mode;
+        action.maxExecutionTime = maxExecutionTime;
         return action;
     }
 
     public static final StatusEdit PREPARE_ADD_TASK(long transactionId, long taskId, String taskType, String taskParameter, String userid, int maxattempts, long executionDeadline, String slot, int attempts, String codePool, String mode) {
+        return PREPARE_ADD_TASK(transactionId, taskId, taskType, taskParameter, userid, maxattempts, executionDeadline, slot, attempts, codePool, mode, 0);
+    }
+
+    public static final StatusEdit PREPARE_ADD_TASK(long transactionId, long taskId, String taskType, String taskParameter, String userid, int maxattempts, long executionDeadline, String slot, int attempts, String codePool, String mode, long maxExecutionTime) {
         StatusEdit action = new StatusEdit();
         action.editType = TYPE_PREPARE_ADD_TASK;
         action.attempt = attempts;
@@ -263,6 +298,7 @@ public final class StatusEdit {
         action.executionDeadline = executionDeadline;
         action.codepool = codePool;
         action.mode = mode;
+        action.maxExecutionTime = maxExecutionTime;
         return action;
     }
 
@@ -293,7 +329,474 @@ public final class StatusEdit {
         return action;
     }
 
+    /**
+     * Version of the binary format written by {@link #serialize() }. Edits in
+     * the legacy format start with the type of the edit, written as a short,
+     * so their first byte is always 0
+     */
+    static final byte FORMAT_V2 = 2;
+
+    /**
+     * Marker of log entries which contain more than one edit
+     */
+    static final byte FORMAT_PACKED = 3;
+
+    private static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Number of bytes added to the size of each edit in order to store it in a
+     * packed entry (at most)
+     */
+    public static final int PACKED_ENTRY_EDIT_OVERHEAD = 5;
+
+    /**
+     * Serializes a list of edits as a single log entry
+     *
+     * @param edits
+     * @return
+     * @see #readEntry(byte[])
+     */
+    public static byte[] serializePackedEntry(List<StatusEdit> edits) {
+        int count = edits.size();
+        int[] sizes = new int[count];
+        int size = 1 + varLongSize(count);
+        for (int i = 0; i < count; i++) {
+            sizes[i] = edits.get(i).serializedSize();
+            size += varLongSize(sizes[i]) + sizes[i];
+        }
+        byte[] res = new byte[size];
+        BufferOutput out = new BufferOutput(ByteBuffer.wrap(res));
+        out.writeByte(FORMAT_PACKED);
+        out.writeVarLong(count);
+        for (int i = 0; i < count; i++) {
+            out.writeVarLong(sizes[i]);
+            edits.get(i).write(out);
+        }
+        return res;
+    }
+
+    /**
+     * Tells whether the log entry has been written using
+     * {@link #serializePackedEntry(java.util.List) }
+     *
+     * @param data
+     * @return
+     */
+    public static boolean isPackedEntry(byte[] data) {
+        return data.length > 0 && data[0] == FORMAT_PACKED;
+    }
+
+    /**
+     * Reads all the edits contained in a log entry, packed or not
+     *
+     * @param data
+     * @return
+     * @throws IOException
+     */
+    public static List<StatusEdit> readEntry(byte[] data) throws IOException {
+        if (!isPackedEntry(data)) {
+            return Collections.singletonList(read(data));
+        }
+        Input in = new Input(data, 1, data.length - 1);
+        int count = in.readVarInt();
+        if (count < 0) {
+            throw new IOException("corrupted entry, count " + count);
+        }
+        List<StatusEdit> res = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int len = in.readVarInt();
+            in.ensure(len);
+            res.add(read(data, in.pos, len));
+            in.pos += len;
+        }
+        return res;
+    }
+
+    /**
+     * Serializes the edit using the actual format
+     *
+     * @return
+     * @see #serializeTo(java.nio.ByteBuffer)
+     */
     public byte[] serialize() {
+        byte[] res = new byte[serializedSize()];
+        serializeTo(ByteBuffer.wrap(res));
+        return res;
+    }
+
+    /**
+     * Exact number of bytes needed by {@link #serializeTo(java.nio.ByteBuffer)
+     * }
+     *
+     * @return
+     */
+    public int serializedSize() {
+        SizeOutput size = new SizeOutput();
+        write(size);
+        return size.size;
+    }
+
+    /**
+     * Serializes the edit at the current position of the buffer, the buffer
+     * must have at least {@link #serializedSize() } bytes remaining
+     *
+     * @param buffer
+     */
+    public void serializeTo(ByteBuffer buffer) {
+        write(new BufferOutput(buffer));
+    }
+
+    private static String nonNull(String s) {
+        return s != null ? s : "";
+    }
+
+    private void write(Output out) {
+        // null strings are written as empty strings, as in the legacy format
+        out.writeByte(FORMAT_V2);
+        out.writeByte((byte) editType);
+        switch (this.editType) {
+            case TYPE_BEGIN_TRANSACTION:
+                out.writeVarLong(transactionId);
+                out.writeVarLong(timestamp);
+                break;
+            case TYPE_COMMIT_TRANSACTION:
+            case TYPE_ROLLBACK_TRANSACTION:
+                out.writeVarLong(transactionId);
+                break;
+            case TYPE_PREPARE_ADD_TASK:
+                out.writeVarLong(transactionId);
+            // fall through
+            case TYPE_ADD_TASK:
+                out.writeVarLong(taskId);
+                out.writeString(nonNull(userid));
+                out.writeVarLong(taskStatus);
+                out.writeString(nonNull(taskType));
+                out.writeVarLong(maxattempts);
+                out.writeVarLong(attempt);
+                out.writeVarLong(executionDeadline);
+                out.writeString(nonNull(parameter));
+                out.writeString(nonNull(slot));
+                out.writeString(nonNull(codepool));
+                out.writeString(nonNull(mode));
+                // optional trailing field
+                if (maxExecutionTime > 0) {
+                    out.writeVarLong(maxExecutionTime);
+                }
+                break;
+            case TYPE_WORKER_CONNECTED:
+                out.writeString(nonNull(workerId));
+                out.writeString(nonNull(workerLocation));
+                out.writeString(nonNull(workerProcessId));
+                out.writeVarLong(timestamp);
+                out.writeVarLong(actualRunningTasks.size());
+                for (Long task : actualRunningTasks) {
+                    out.writeVarLong(task);
+                }
+                break;
+            case TYPE_WORKER_DIED:
+            case TYPE_WORKER_DISCONNECTED:
+                out.writeString(nonNull(workerId));
+                out.writeVarLong(timestamp);
+                break;
+            case TYPE_ASSIGN_TASK_TO_WORKER:
+                out.writeString(nonNull(workerId));
+                out.writeVarLong(taskId);
+                out.writeVarLong(attempt);
+                out.writeString(nonNull(resources));
+                break;
+            case TYPE_TASK_STATUS_CHANGE:
+                out.writeVarLong(taskId);
+                out.writeVarLong(taskStatus);
+                out.writeString(nonNull(workerId));
+                out.writeString(nonNull(result));
+                // optional trailing field, the released attempt
+                if (attempt > 0) {
+                    out.writeVarLong(attempt);
+                }
+                break;
+            case TYPE_NOOP:
+                break;
+            case TYPE_DELETECODEPOOL:
+                out.writeString(nonNull(codepool));
+                break;
+            case TYPE_CREATECODEPOOL:
+                out.writeString(nonNull(codepool));
+                out.writeVarLong(timestamp);
+                out.writeVarLong(executionDeadline);
+                out.writeVarLong(payload.length);
+                out.writeBytes(payload);
+                break;
+            default:
+                throw new UnsupportedOperationException();
+        }
+    }
+
+    private static StatusEdit read(Input in) throws IOException {
+        StatusEdit res = new StatusEdit();
+        res.editType = in.readByte();
+        switch (res.editType) {
+            case TYPE_PREPARE_ADD_TASK:
+            case TYPE_ADD_TASK: {
+                if (res.editType == TYPE_PREPARE_ADD_TASK) {
+                    res.transactionId = in.readVarLong();
+                }
+                res.taskId = in.readVarLong();
+                res.userid = in.readString();
+                res.taskStatus = in.readVarInt();
+                res.taskType = in.readString();
+                res.maxattempts = in.readVarInt();
+                res.attempt = in.readVarInt();
+                res.executionDeadline = in.readVarLong();
+                res.parameter = in.readString();
+                String slot = in.readString();
+                if (!slot.isEmpty()) {
+                    res.slot = slot;
+                }
+                String codepool = in.readString();
+                if (!codepool.isEmpty()) {
+                    res.codepool = codepool;
+                }
+                String mode = in.readString();
+                if (!mode.isEmpty()) {
+                    res.mode = mode;
+                }
+                if (in.pos < in.end) {
+                    res.maxExecutionTime = in.readVarLong();
+                }
+                break;
+            }
+            case TYPE_WORKER_DIED:
+            case TYPE_WORKER_DISCONNECTED:
+                res.workerId = in.readString();
+                res.timestamp = in.readVarLong();
+                break;
+            case TYPE_WORKER_CONNECTED: {
+                res.workerId = in.readString();
+                res.workerLocation = in.readString();
+                res.workerProcessId = in.readString();
+                res.timestamp = in.readVarLong();
+                int count = in.readVarInt();
+                res.actualRunningTasks = new HashSet<>();
+                for (int i = 0; i < count; i++) {
+                    res.actualRunningTasks.add(in.readVarLong());
+                }
+                break;
+            }
+            case TYPE_ASSIGN_TASK_TO_WORKER:
+                res.workerId = in.readString();
+                res.taskId = in.readVarLong();
+                res.attempt = in.readVarInt();
+                res.resources = in.readString();
+                break;
+            case TYPE_TASK_STATUS_CHANGE:
+                res.taskId = in.readVarLong();
+                res.taskStatus = in.readVarInt();
+                res.workerId = in.readString();
+                res.result = in.readString();
+                if (in.pos < in.end) {
+                    res.attempt = in.readVarInt();
+                }
+                break;
+            case TYPE_BEGIN_TRANSACTION:
+                res.transactionId = in.readVarLong();
+                res.timestamp = in.readVarLong();
+                break;
+            case TYPE_COMMIT_TRANSACTION:
+            case TYPE_ROLLBACK_TRANSACTION:
+                res.transactionId = in.readVarLong();
+                break;
+            case TYPE_NOOP:
+                break;
+            case TYPE_DELETECODEPOOL:
+                res.codepool = in.readString();
+                break;
+            case TYPE_CREATECODEPOOL:
+                res.codepool = in.readString();
+                res.timestamp = in.readVarLong();
+                res.executionDeadline = in.readVarLong();
+                res.payload = in.readBytes(in.readVarInt());
+                break;
+            default:
+                throw new UnsupportedOperationException("editType=" + res.editType);
+        }
+        return res;
+    }
+
+    private static abstract class Output {
+
+        abstract void writeByte(byte b);
+
+        abstract void writeBytes(byte[] b);
+
+        void writeVarLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((byte) value);
+        }
+
+        void writeString(String s) {
+            int len = s.length();
+            int utf8len = 0;
+            for (int i = 0; i < len; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    utf8len++;
+                } else if (c < 0x800) {
+                    utf8len += 2;
+                } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    utf8len += 4;
+                    i++;
+                } else if (Character.isSurrogate(c)) {
+                    // malformed, written as '?' like String.getBytes does
+                    utf8len++;
+                } else {
+                    utf8len += 3;
+                }
+            }
+            writeVarLong(utf8len);
+            writeUTF8(s, utf8len);
+        }
+
+        abstract void writeUTF8(String s, int utf8len);
+    }
+
+    private static final class SizeOutput extends Output {
+
+        int size;
+
+        @Override
+        void writeByte(byte b) {
+            size++;
+        }
+
+        @Override
+        void writeBytes(byte[] b) {
+            size += b.length;
+        }
+
+        @Override
+        void writeUTF8(String s, int utf8len) {
+            size += utf8len;
+        }
+    }
+
+    private static final class BufferOutput extends Output {
+
+        final ByteBuffer buffer;
+
+        BufferOutput(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        void writeByte(byte b) {
+            buffer.put(b);
+        }
+
+        @Override
+        void writeBytes(byte[] b) {
+            buffer.put(b);
+        }
+
+        @Override
+        void writeUTF8(String s, int utf8len) {
+            int len = s.length();
+            for (int i = 0; i < len; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buffer.put((byte) c);
+                } else if (c < 0x800) {
+                    buffer.put((byte) (0xC0 | (c >> 6)));
+                    buffer.put((byte) (0x80 | (c & 0x3F)));
+                } else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                    buffer.put((byte) (0xF0 | (codePoint >> 18)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+                    buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+                } else if (Character.isSurrogate(c)) {
+                    buffer.put((byte) '?');
+                } else {
+                    buffer.put((byte) (0xE0 | (c >> 12)));
+                    buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                    buffer.put((byte) (0x80 | (c & 0x3F)));
+                }
+            }
+        }
+    }
+
+    private static final class Input {
+
+        final byte[] data;
+        int pos;
+        final int end;
+
+        Input(byte[] data, int offset, int length) {
+            this.data = data;
+            this.pos = offset;
+            this.end = offset + length;
+        }
+
+        private void ensure(int len) throws IOException {
+            if (len < 0 || pos + len > end) {
+                throw new EOFException("truncated edit, need " + len + " bytes at position " + pos);
+            }
+        }
+
+        byte readByte() throws IOException {
+            ensure(1);
+            return data[pos++];
+        }
+
+        long readVarLong() throws IOException {
+            long res = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                res |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return res;
+                }
+            }
+            throw new IOException("malformed varint");
+        }
+
+        int readVarInt() throws IOException {
+            return (int) readVarLong();
+        }
+
+        String readString() throws IOException {
+            int len = readVarInt();
+            ensure(len);
+            String res = new String(data, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return res;
+        }
+
+        byte[] readBytes(int len) throws IOException {
+            ensure(len);
+            byte[] res = Arrays.copyOfRange(data, pos, pos + len);
+            pos += len;
+            return res;
+        }
+    }
+
+    /**
+     * Serializes the edit using the legacy format, which was written by
+     * Majordodo before the introduction of {@link #FORMAT_V2} and which can be
+     * read by older versions
+     *
+     * @return
+     */
+    public byte[] serializeLegacyFormat() {
         try {
             ByteArrayOutputStream out = new ByteArrayOutputStream();
             DataOutputStream doo = new DataOutputStream(out);
@@ -337,6 +840,9 @@ public final class StatusEdit {
                     } else {
                         doo.writeUTF("");
                     }
+                    if (maxExecutionTime > 0) {
+                        doo.writeLong(maxExecutionTime);
+                    }
                     break;
                 case TYPE_PREPARE_ADD_TASK:
                     doo.writeLong(transactionId);
@@ -367,6 +873,9 @@ public final class StatusEdit {
                     } else {
                         doo.writeUTF("");
                     }
+                    if (maxExecutionTime > 0) {
+                        doo.writeLong(maxExecutionTime);
+                    }
                     break;
                 case TYPE_WORKER_CONNECTED:
                     doo.writeUTF(workerId);
@@ -404,6 +913,9 @@ public final class StatusEdit {
                     } else {
                         doo.writeUTF("");
                     }
+                    if (attempt > 0) {
+                        doo.writeInt(attempt);
+                    }
                     break;
                 case TYPE_NOOP:
                     break;
@@ -429,8 +941,30 @@ public final class StatusEdit {
     }
 
     public static StatusEdit read(byte[] data) throws IOException {
+        return read(data, 0, data.length);
+    }
+
+    /**
+     * Reads an edit, written with the actual format or with the legacy format
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @return
+     * @throws IOException
+     */
+    public static StatusEdit read(byte[] data, int offset, int length) throws IOException {
+        if (length > 0 && data[offset] == FORMAT_V2) {
+            Input in = new Input(data, offset + 1, length - 1);
+            return read(in);
+        } else {
+            return readLegacyFormat(data, offset, length);
+        }
+    }
+
+    private static StatusEdit readLegacyFormat(byte[] data, int offset, int length) throws IOException {
         StatusEdit res = new StatusEdit();
-        ByteArrayInputStream in = new ByteArrayInputStream(data);
+        ByteArrayInputStream in = new ByteArrayInputStream(data, offset, length);
         DataInputStream doo = new DataInputStream(in);
         res.editType = doo.readShort();
         switch (res.editType) {
@@ -458,6 +992,10 @@ public final class StatusEdit {
                     }
                 } catch (EOFException legacy) {
                 }
+                try {
+                    res.maxExecutionTime = doo.readLong();
+                } catch (EOFException legacy) {
+                }
                 break;
             }
             case TYPE_PREPARE_ADD_TASK: {
@@ -485,6 +1023,10 @@ public final class StatusEdit {
                     }
                 } catch (EOFException legacy) {
                 }
+                try {
+                    res.maxExecutionTime = doo.readLong();
+                } catch (EOFException legacy) {
+                }
                 break;
             }
             case TYPE_WORKER_DIED:
@@ -517,6 +1059,10 @@ public final class StatusEdit {
                 res.taskStatus = doo.readInt();
                 res.workerId = doo.readUTF();
                 res.result = doo.readUTF();
+                try {
+                    res.attempt = doo.readInt();
+                } catch (EOFException legacy) {
+                }
                 break;
             case TYPE_BEGIN_TRANSACTION:
                 res.transactionId = doo.readLong();
@@ -61,6 +61,8 @@ public class Task {
                 return STATUS_ERROR;
             case TaskExecutorStatus.FINISHED:
                 return STATUS_FINISHED;
+            case TaskExecutorStatus.RELEASED:
+                return STATUS_WAITING;
             default:
                 throw new IllegalArgumentException(status + "");
         }
@@ -86,21 +88,24 @@ public class Task {
         return "Task{" + "type=" + type + ", parameter=" + parameter + ", result=" + result + ", createdTimestamp=" + createdTimestamp + ", status=" + status + " " + statusToString(status) + ", taskId=" + taskId + ", userId=" + userId + ", workerId=" + workerId + '}';
     }
 
+    // canonical instances, see TaskDictionary
     private String type;
+    private String workerId;
+    private String codepool;
+    private String mode;
+    // values chosen by clients, not bounded, interned by BrokerStatus
+    private String userId;
+    private String resources;
     private String parameter;
     private String result;
+    private String slot;
     private long createdTimestamp;
-    private int status;
     private long taskId;
-    private String userId;
-    private String workerId;
+    private long executionDeadline;
+    private long maxExecutionTime;
     private int maxattempts;
     private int attempts;
-    private long executionDeadline;
-    private String slot;
-    private String codepool;
-    private String mode;
-    private String resources;
+    private int status;
 
     public String getResources() {
         return resources;
@@ -158,6 +163,20 @@ public class Task {
         this.executionDeadline = executionDeadline;
     }
 
+    /**
+     * Maximum execution time on the worker, in milliseconds, zero means that
+     * the default of the worker applies
+     *
+     * @return
+     */
+    public long getMaxExecutionTime() {
+        return maxExecutionTime;
+    }
+
+    public void setMaxExecutionTime(long maxExecutionTime) {
+        this.maxExecutionTime = maxExecutionTime;
+    }
+
     public String getWorkerId() {
         return workerId;
     }
@@ -235,6 +254,7 @@ public class Task {
         copy.attempts = this.attempts;
         copy.maxattempts = this.maxattempts;
         copy.executionDeadline = this.executionDeadline;
+        copy.maxExecutionTime = this.maxExecutionTime;
         copy.slot = this.slot;
         copy.resources = this.resources;
         return copy;
@@ -0,0 +1,77 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of the strings which are repeated among the tasks of a broker and
+ * have few distinct values (type, worker, codepool, mode). Tasks share the
+ * canonical instance of each string. The dictionary is bounded, as these values
+ * are chosen by clients: when it is full strings are no more canonicalized
+ *
+ * @author enrico.olivelli
+ */
+final class TaskDictionary {
+
+    static final int DEFAULT_MAX_SIZE = 64 * 1024;
+
+    private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<>();
+    private final int maxSize;
+
+    TaskDictionary() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    TaskDictionary(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the canonical instance of the string
+     *
+     * @param value
+     * @return the canonical instance, or the value itself if the dictionary is
+     * full
+     */
+    String canonical(String value) {
+        if (value == null) {
+            return null;
+        }
+        String canonical = strings.get(value);
+        if (canonical != null) {
+            return canonical;
+        }
+        if (strings.size() >= maxSize) {
+            return value;
+        }
+        canonical = strings.putIfAbsent(value, value);
+        return canonical != null ? canonical : value;
+    }
+
+    /**
+     * Number of distinct strings in the dictionary
+     *
+     * @return
+     */
+    int size() {
+        return strings.size();
+    }
+}
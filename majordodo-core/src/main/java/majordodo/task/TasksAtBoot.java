@@ -0,0 +1,115 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classification of the tasks known by the broker at the time it becomes
+ * leader. The status is scanned only once, partitions of the set of tasks are
+ * processed in parallel using the common fork-join pool
+ *
+ * @author enrico.olivelli
+ */
+final class TasksAtBoot {
+
+    final List<Task> waitingTasks = new ArrayList<>();
+    final Map<String, Long> busySlots = new HashMap<>();
+    final Map<String, List<Task>> runningTasksByWorker = new HashMap<>();
+    // tasks which are assigned to a worker but not in RUNNING status
+    final Map<String, List<Task>> otherTasksByWorker = new HashMap<>();
+
+    /**
+     * Scans the given tasks. The collection must not be modified during the
+     * scan
+     *
+     * @param tasks
+     * @return
+     */
+    static TasksAtBoot collect(Collection<Task> tasks) {
+        TasksAtBoot result = tasks.parallelStream().collect(TasksAtBoot::new, TasksAtBoot::accept, TasksAtBoot::merge);
+        // tasks will enter the heap in order of submission
+        result.waitingTasks.sort(Comparator.comparingLong(Task::getTaskId));
+        return result;
+    }
+
+    private void accept(Task task) {
+        if (task.getStatus() != Task.STATUS_RUNNING && task.getWorkerId() != null) {
+            addForWorker(otherTasksByWorker, task);
+        }
+        switch (task.getStatus()) {
+            case Task.STATUS_WAITING:
+                waitingTasks.add(task);
+                break;
+            case Task.STATUS_RUNNING:
+                if (task.getWorkerId() != null) {
+                    addForWorker(runningTasksByWorker, task);
+                }
+                break;
+            default:
+                // not interesting
+                return;
+        }
+        if (task.getSlot() != null && !task.getSlot().isEmpty()) {
+            busySlots.put(task.getSlot(), task.getTaskId());
+        }
+    }
+
+    private static void addForWorker(Map<String, List<Task>> tasksByWorker, Task task) {
+        List<Task> forWorker = tasksByWorker.get(task.getWorkerId());
+        if (forWorker == null) {
+            forWorker = new ArrayList<>();
+            tasksByWorker.put(task.getWorkerId(), forWorker);
+        }
+        forWorker.add(task);
+    }
+
+    private void merge(TasksAtBoot other) {
+        waitingTasks.addAll(other.waitingTasks);
+        busySlots.putAll(other.busySlots);
+        mergeByWorker(runningTasksByWorker, other.runningTasksByWorker);
+        mergeByWorker(otherTasksByWorker, other.otherTasksByWorker);
+    }
+
+    private static void mergeByWorker(Map<String, List<Task>> tasksByWorker, Map<String, List<Task>> other) {
+        for (Map.Entry<String, List<Task>> entry : other.entrySet()) {
+            List<Task> forWorker = tasksByWorker.get(entry.getKey());
+            if (forWorker == null) {
+                tasksByWorker.put(entry.getKey(), entry.getValue());
+            } else {
+                forWorker.addAll(entry.getValue());
+            }
+        }
+    }
+
+    int getRunningTasksCount() {
+        int count = 0;
+        for (List<Task> forWorker : runningTasksByWorker.values()) {
+            count += forWorker.size();
+        }
+        return count;
+    }
+
+}
@@ -21,6 +21,7 @@ package majordodo.task;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -51,7 +52,13 @@ public class TasksHeap {
 
     private static final Logger LOGGER = Logger.getLogger(TasksHeap.class.getName());
 
-    private static final int TASKTYPE_ANYTASK = 0;
+    static final int TASKTYPE_ANYTASK = 0;
+
+    /**
+     * Batches bigger than this threshold will compute task properties using
+     * the common fork-join pool
+     */
+    private static final int PARALLEL_MAPPING_THRESHOLD = 10000;
 
     private int actualsize;
     private int fragmentation;
@@ -62,10 +69,8 @@ public class TasksHeap {
     private TaskEntry[] actuallist;
     private final TaskPropertiesMapperFunction resourceMapper;
     private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock(true);
-    private final Map<String, Integer> resourceMappings = new HashMap<>();
-    private final Map<Integer, String> resourceIdMappings = new HashMap<>();
+    private final ResourceIds resourceIds = new ResourceIds();
     private final Map<String, int[]> resourcesListPool = new HashMap<>();
-    private final Map<int[], String[]> resourcesIdsListPool = new HashMap<>();
     private final Map<int[], String> resourcesStringListPool = new HashMap<>();
 
     public int getAutoGrowPercent() {
@@ -101,6 +106,16 @@ public class TasksHeap {
         this.maxFragmentation = size / 4;
     }
 
+    /**
+     * Ids of the resources, shared with the {@link ResourceUsageCounters} of
+     * the broker
+     *
+     * @return
+     */
+    ResourceIds getResourceIds() {
+        return resourceIds;
+    }
+
     public int getMaxFragmentation() {
         return maxFragmentation;
     }
@@ -110,17 +125,32 @@ public class TasksHeap {
     }
 
     public void removeExpiredTasks(Set<Long> taskid) {
+        removeTasks(taskid);
+    }
+
+    /**
+     * Removes a set of tasks from the heap. The whole heap is scanned, so it
+     * is better to call this method with big batches of tasks
+     *
+     * @param taskid
+     */
+    public void removeTasks(Set<Long> taskid) {
         lock.writeLock().lock();
         try {
-            for (TaskEntry entry : actuallist) {
-                if (taskid.contains(entry.taskid)) {
+            for (int i = minValidPosition; i < actualsize; i++) {
+                TaskEntry entry = this.actuallist[i];
+                if (entry.taskid > 0 && taskid.contains(entry.taskid)) {
                     entry.taskid = 0;
                     entry.tasktype = 0;
                     entry.userid = null;
                     entry.groupid = 0;
                     entry.resources = null;
+                    this.fragmentation++;
                 }
             }
+            if (this.fragmentation > maxFragmentation) {
+                runCompaction();
+            }
         } finally {
             lock.writeLock().unlock();
         }
@@ -131,12 +161,20 @@ public class TasksHeap {
     private int newIdtaskType = 0;
 
     private void doAutoGrow() {
-        int delta = (int) (((actuallist.length * 1L * autoGrowPercent)) / 100);
-        if (delta <= 0) {
-            // be sure taht we always increment by one, in tore to have space for a new task
-            delta = 1;
+        ensureCapacity(actualsize + 1);
+    }
+
+    private void ensureCapacity(int requiredSize) {
+        // this method must be invoked inside a writeLock
+        if (requiredSize <= actuallist.length) {
+            return;
         }
+        int delta = (int) (((actuallist.length * 1L * autoGrowPercent)) / 100);
         int newSize = actuallist.length + delta;
+        if (newSize < requiredSize) {
+            // be sure that we always have space for all the new tasks
+            newSize = requiredSize;
+        }
         LOGGER.log(Level.SEVERE, "doAutoGrow size {0}, newsize {1}", new Object[]{size, newSize});
         TaskEntry[] newList = new TaskEntry[newSize];
         System.arraycopy(actuallist, 0, newList, 0, actuallist.length);
@@ -149,37 +187,72 @@ public class TasksHeap {
 
     public void insertTask(long taskid, String tasktype, String userid) {
         TaskProperties taskProperties = resourceMapper.getTaskProperties(taskid, tasktype, userid);
-        int groupid = taskProperties.groupId;
-        String[] resourceIds = taskProperties.resources;
         lock.writeLock().lock();
         try {
-            int[] resources = convertResourceList(resourceIds);
             if (actualsize == size) {
                 doAutoGrow();
             }
-            Integer taskTypeId = taskTypesIds.get(tasktype);
-            if (taskTypeId == null) {
-                taskTypeId = ++newIdtaskType;
-                taskTypesIds.put(tasktype, taskTypeId);
-                taskTypes.put(taskTypeId, tasktype);
+            appendEntry(taskid, tasktype, userid, taskProperties);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Inserts a batch of tasks. Task properties are computed out of the lock
+     * (in parallel for big batches), then the heap is grown at most once and
+     * all the entries are appended under a single acquisition of the write
+     * lock
+     *
+     * @param tasks
+     */
+    public void insertTasks(Collection<Task> tasks) {
+        int count = tasks.size();
+        if (count == 0) {
+            return;
+        }
+        Task[] toInsert = tasks.toArray(new Task[count]);
+        TaskProperties[] properties = new TaskProperties[count];
+        if (count > PARALLEL_MAPPING_THRESHOLD) {
+            // TaskPropertiesMapperFunction is required to be thread safe
+            Arrays.parallelSetAll(properties, i -> resourceMapper.getTaskProperties(toInsert[i].getTaskId(), toInsert[i].getType(), toInsert[i].getUserId()));
+        } else {
+            for (int i = 0; i < count; i++) {
+                Task task = toInsert[i];
+                properties[i] = resourceMapper.getTaskProperties(task.getTaskId(), task.getType(), task.getUserId());
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(actualsize + count);
+            for (int i = 0; i < count; i++) {
+                Task task = toInsert[i];
+                appendEntry(task.getTaskId(), task.getType(), task.getUserId(), properties[i]);
             }
-            TaskEntry entry = this.actuallist[actualsize++];
-            entry.taskid = taskid;
-            entry.tasktype = taskTypeId;
-            entry.userid = userid;
-            entry.groupid = groupid;
-            entry.resources = resources;
         } finally {
             lock.writeLock().unlock();
         }
     }
 
-    String resolveTaskType(int tasktype) {
-        return taskTypes.get(tasktype);
+    private void appendEntry(long taskid, String tasktype, String userid, TaskProperties taskProperties) {
+        // this method must be invoked inside a writeLock
+        int[] resources = convertResourceList(taskProperties.resources);
+        Integer taskTypeId = taskTypesIds.get(tasktype);
+        if (taskTypeId == null) {
+            taskTypeId = ++newIdtaskType;
+            taskTypesIds.put(tasktype, taskTypeId);
+            taskTypes.put(taskTypeId, tasktype);
+        }
+        TaskEntry entry = this.actuallist[actualsize++];
+        entry.taskid = taskid;
+        entry.tasktype = taskTypeId;
+        entry.userid = userid;
+        entry.groupid = taskProperties.groupId;
+        entry.resources = resources;
     }
 
-    private String[] convertResourceListToIds(int[] resourceIds) {
-        return resourcesIdsListPool.get(resourceIds);
+    String resolveTaskType(int tasktype) {
+        return taskTypes.get(tasktype);
     }
 
     private String convertResourceListString(int[] resourceIds) {
@@ -199,15 +272,13 @@ public class TasksHeap {
         int[] result = new int[resourceIds.length];
         int i = 0;
         for (String s : resourceIds) {
-            Integer id = resolveResourceId(s);
-            result[i++] = id;
+            result[i++] = this.resourceIds.resolve(s);
         }
         /* we are going to pool the array for two reasons:
          - limit memory usage
          - have the ability to compare arrays using reference comparisons
          */
         resourcesListPool.put(key, result);
-        resourcesIdsListPool.put(result, resourceIds);
         resourcesStringListPool.put(result, Stream.of(resourceIds).collect(Collectors.joining(",")));
         return result;
     }
@@ -261,20 +332,111 @@ public class TasksHeap {
         }
     }
 
+    /**
+     * Recomputes group and resources of every task in the heap. Mappings are
+     * computed outside the lock, the lock is held only to write the entries
+     * which actually changed
+     */
     public void recomputeGroups() {
+        if (resourceMapper instanceof CachingTaskPropertiesMapperFunction) {
+            recomputeGroupsByKey((CachingTaskPropertiesMapperFunction) resourceMapper);
+            return;
+        }
+        long[] taskids;
+        String[] tasktypes;
+        String[] userids;
+        int start;
+        lock.readLock().lock();
+        try {
+            start = minValidPosition;
+            int count = actualsize - start;
+            taskids = new long[count];
+            tasktypes = new String[count];
+            userids = new String[count];
+            for (int i = 0; i < count; i++) {
+                TaskEntry entry = this.actuallist[start + i];
+                taskids[i] = entry.taskid;
+                tasktypes[i] = taskTypes.get(entry.tasktype);
+                userids[i] = entry.userid;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        int count = taskids.length;
+        TaskProperties[] properties = new TaskProperties[count];
+        for (int i = 0; i < count; i++) {
+            if (taskids[i] > 0) {
+                properties[i] = resourceMapper.getTaskProperties(taskids[i], tasktypes[i], userids[i]);
+            }
+        }
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < count; i++) {
+                int pos = start + i;
+                if (properties[i] == null || pos >= actualsize) {
+                    continue;
+                }
+                TaskEntry entry = this.actuallist[pos];
+                // the entry could have been assigned or moved by a compaction, it will be processed at next run
+                if (entry.taskid == taskids[i]) {
+                    applyTaskProperties(entry, properties[i]);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void recomputeGroupsByKey(CachingTaskPropertiesMapperFunction mapper) {
+        // tasktype -> userid -> a taskid
+        Map<Integer, Map<String, Long>> keys = new HashMap<>();
+        Map<Integer, String> typeNames;
+        lock.readLock().lock();
+        try {
+            for (int i = minValidPosition; i < actualsize; i++) {
+                TaskEntry entry = this.actuallist[i];
+                if (entry.taskid > 0) {
+                    Map<String, Long> forType = keys.get(entry.tasktype);
+                    if (forType == null) {
+                        forType = new HashMap<>();
+                        keys.put(entry.tasktype, forType);
+                    }
+                    forType.putIfAbsent(entry.userid, entry.taskid);
+                }
+            }
+            typeNames = new HashMap<>(taskTypes);
+        } finally {
+            lock.readLock().unlock();
+        }
+        Map<Integer, Map<String, TaskProperties>> changed = new HashMap<>();
+        for (Map.Entry<Integer, Map<String, Long>> forType : keys.entrySet()) {
+            String tasktype = typeNames.get(forType.getKey());
+            for (Map.Entry<String, Long> key : forType.getValue().entrySet()) {
+                TaskProperties properties = mapper.refresh(key.getValue(), tasktype, key.getKey());
+                if (properties != null) {
+                    Map<String, TaskProperties> changedForType = changed.get(forType.getKey());
+                    if (changedForType == null) {
+                        changedForType = new HashMap<>();
+                        changed.put(forType.getKey(), changedForType);
+                    }
+                    changedForType.put(key.getKey(), properties);
+                }
+            }
+        }
+        if (changed.isEmpty()) {
+            return;
+        }
         lock.writeLock().lock();
         try {
             for (int i = minValidPosition; i < actualsize; i++) {
                 TaskEntry entry = this.actuallist[i];
                 if (entry.taskid > 0) {
-                    TaskProperties taskProperties = resourceMapper.getTaskProperties(entry.taskid, taskTypes.get(entry.tasktype), entry.userid);
-                    int newGroup = taskProperties.groupId;
-                    int[] resources = convertResourceList(taskProperties.resources);
-                    // we can compare the "resources" array using the reference because we are pooling them
-                    if (entry.groupid != newGroup || entry.resources != resources) {
-                        // let's limit writes on memory, most often group/resources does not change
-                        entry.groupid = newGroup;
-                        entry.resources = resources;
+                    Map<String, TaskProperties> changedForType = changed.get(entry.tasktype);
+                    if (changedForType != null) {
+                        TaskProperties properties = changedForType.get(entry.userid);
+                        if (properties != null) {
+                            applyTaskProperties(entry, properties);
+                        }
                     }
                 }
             }
@@ -283,6 +445,18 @@ public class TasksHeap {
         }
     }
 
+    private void applyTaskProperties(TaskEntry entry, TaskProperties taskProperties) {
+        // this method must be invoked inside a writeLock
+        int newGroup = taskProperties.groupId;
+        int[] resources = convertResourceList(taskProperties.resources);
+        // we can compare the "resources" array using the reference because we are pooling them
+        if (entry.groupid != newGroup || entry.resources != resources) {
+            // let's limit writes on memory, most often group/resources does not change
+            entry.groupid = newGroup;
+            entry.resources = resources;
+        }
+    }
+
     public void runCompaction() {
         LOGGER.log(Level.FINEST, "running compaction,"
             + "fragmentation " + fragmentation + ", actualsize " + actualsize
@@ -341,7 +515,6 @@ public class TasksHeap {
         Map<Integer, IntCounter> availableResourcesCounters = new HashMap<>();
 
         // takeTasks for a single worker is guaranteed to be executed not concurrenly, we can run this code out of the lock
-        workerResourceUsageCounters.updateResourceCounters();
         if (workerResourceLimits != null && !workerResourceLimits.isEmpty()) {
             computeAvailableResources(workerResourceLimits, availableResourcesCounters, workerResourceUsageCounters);
         }
@@ -349,8 +522,6 @@ public class TasksHeap {
         lock.writeLock().lock();
         try {
 
-            // global counters but be modified only inside the "global" lock
-            globalResourceUsageCounters.updateResourceCounters();
             if (globalResourceLimits != null && !globalResourceLimits.isEmpty()) {
                 computeAvailableResources(globalResourceLimits, availableResourcesCounters, globalResourceUsageCounters);
             }
@@ -381,7 +552,7 @@ public class TasksHeap {
                     entry.tasktype = 0;
                     entry.userid = null;
                     this.fragmentation++;
-                    result.add(new AssignedTask(choosenentry.taskid, convertResourceListToIds(entry.resources), convertResourceListString(entry.resources)));
+                    result.add(new AssignedTask(choosenentry.taskid, entry.resources, convertResourceListString(entry.resources)));
                     if (pos == minValidPosition) {
                         minValidPosition++;
                     }
@@ -397,6 +568,101 @@ public class TasksHeap {
 
     }
 
+    /**
+     * Chooses tasks for many workers, scanning the heap only once
+     *
+     * @param requests
+     * @param globalResourceLimits
+     * @param globalResourceUsageCounters
+     * @return tasks assigned to each worker, workers without tasks are not
+     * present
+     * @see GlobalTasksChooser
+     */
+    Map<String, List<AssignedTask>> takeTasksForWorkers(List<WorkerSchedulingRequest> requests,
+        Map<String, Integer> globalResourceLimits, ResourceUsageCounters globalResourceUsageCounters) {
+        return takeTasksForWorkers(requests, globalResourceLimits, globalResourceUsageCounters, null);
+    }
+
+    /**
+     * Chooses tasks for many workers, scanning the heap only once
+     *
+     * @param requests
+     * @param globalResourceLimits
+     * @param globalResourceUsageCounters
+     * @param selectionPolicy order of the workers, null means round robin
+     * @return tasks assigned to each worker, workers without tasks are not
+     * present
+     */
+    Map<String, List<AssignedTask>> takeTasksForWorkers(List<WorkerSchedulingRequest> requests,
+        Map<String, Integer> globalResourceLimits, ResourceUsageCounters globalResourceUsageCounters,
+        WorkerSelectionPolicy selectionPolicy) {
+        List<Map<Integer, IntCounter>> workersResources = new ArrayList<>(requests.size());
+        for (WorkerSchedulingRequest request : requests) {
+            Map<Integer, IntCounter> availableResourcesCounters = new HashMap<>();
+            if (request.resourceLimits != null && !request.resourceLimits.isEmpty()) {
+                computeAvailableResources(request.resourceLimits, availableResourcesCounters, request.resourceUsageCounters);
+            }
+            workersResources.add(availableResourcesCounters);
+        }
+        lock.writeLock().lock();
+        try {
+            Map<Integer, IntCounter> globalAvailableResources = new HashMap<>();
+            if (globalResourceLimits != null && !globalResourceLimits.isEmpty()) {
+                computeAvailableResources(globalResourceLimits, globalAvailableResources, globalResourceUsageCounters);
+            }
+            List<GlobalTasksChooser.Worker> workers = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                WorkerSchedulingRequest request = requests.get(i);
+                Map<Integer, Integer> availableSpaceByTaskTaskId = new HashMap<>();
+                for (Map.Entry<String, Integer> entry : request.availableSpace.entrySet()) {
+                    Integer typeId = Task.TASKTYPE_ANY.equals(entry.getKey()) ? TASKTYPE_ANYTASK : taskTypesIds.get(entry.getKey());
+                    if (typeId != null) {
+                        availableSpaceByTaskTaskId.put(typeId, entry.getValue());
+                    }
+                }
+                GlobalTasksChooser.Worker worker = new GlobalTasksChooser.Worker(request.workerId, request.max, request.groups, request.excludedGroups,
+                    availableSpaceByTaskTaskId, workersResources.get(i));
+                worker.setLoad(request.runningTasks, request.load);
+                workers.add(worker);
+            }
+            GlobalTasksChooser chooser = new GlobalTasksChooser(workers, globalAvailableResources, selectionPolicy);
+            for (int i = minValidPosition; i < actualsize; i++) {
+                TaskEntry entry = this.actuallist[i];
+                if (entry.taskid > 0) {
+                    chooser.accept(i, entry);
+                }
+            }
+            Map<String, List<AssignedTask>> result = new HashMap<>();
+            for (GlobalTasksChooser.Worker worker : chooser.choose()) {
+                if (worker.choosen.isEmpty()) {
+                    continue;
+                }
+                List<AssignedTask> forWorker = new ArrayList<>(worker.choosen.size());
+                for (TasksChooser.Entry choosenentry : worker.choosen) {
+                    int pos = choosenentry.position;
+                    TaskEntry entry = this.actuallist[pos];
+                    if (entry.taskid == choosenentry.taskid) {
+                        entry.taskid = 0;
+                        entry.tasktype = 0;
+                        entry.userid = null;
+                        this.fragmentation++;
+                        forWorker.add(new AssignedTask(choosenentry.taskid, entry.resources, convertResourceListString(entry.resources)));
+                    }
+                }
+                result.put(worker.workerId, forWorker);
+            }
+            while (minValidPosition < actualsize && actuallist[minValidPosition].taskid == 0) {
+                minValidPosition++;
+            }
+            if (this.fragmentation > maxFragmentation) {
+                runCompaction();
+            }
+            return result;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
     private void computeAvailableResources(
             Map<String, Integer> limitsConfigurations,
             Map<Integer, IntCounter> availableResourcesCounters,
@@ -405,38 +671,21 @@ public class TasksHeap {
             String resourceId = limitFromConfiguration.getKey();
             int limitOnResource = limitFromConfiguration.getValue();
             if (limitOnResource > 0) {
-                Integer idresource = resolveResourceId(resourceId);
+                int idresource = resourceIds.resolve(resourceId);
                 IntCounter availableForResource = availableResourcesCounters.get(idresource);
-                IntCounter actualUsage = actualUsages.counters.get(resourceId);
+                int actualUsage = actualUsages.getCount(idresource);
                 if (availableForResource != null) {
                     // resource already limited
-                    if (actualUsage != null) {
-                        int newLimit = limitOnResource - actualUsage.count;
-                        availableForResource.count = Math.min(availableForResource.count, newLimit);
-                    } else {
-                        availableForResource.count = Math.min(availableForResource.count, limitOnResource);
-                    }
+                    int newLimit = limitOnResource - actualUsage;
+                    availableForResource.count = Math.min(availableForResource.count, newLimit);
                 } else {
                     // new resource, limit is the configured one minus the actual usage
-                    availableForResource = new IntCounter(limitOnResource);
+                    availableForResource = new IntCounter(limitOnResource - actualUsage);
                     availableResourcesCounters.put(idresource, availableForResource);
-                    if (actualUsage != null) {
-                        availableForResource.count -= actualUsage.count;
-                    }
                 }
             }
 
         }
     }
 
-    private Integer resolveResourceId(String resourceId) {
-        Integer idresource = resourceMappings.get(resourceId);
-        if (idresource == null) {
-            idresource = resourceMappings.size() + 1;
-            resourceMappings.put(resourceId, idresource);
-            resourceIdMappings.put(idresource, resourceId);
-        }
-        return idresource;
-    }
-
 }
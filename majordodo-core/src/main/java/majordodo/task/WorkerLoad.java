@@ -0,0 +1,87 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+/**
+ * Load of a worker, as reported in the last WORKER_PING
+ *
+ * @author enrico.olivelli
+ */
+public final class WorkerLoad {
+
+    public static final WorkerLoad UNKNOWN = new WorkerLoad(-1, -1, 0);
+
+    /**
+     * Under this amount of free memory (bytes) the score of a worker is
+     * doubled
+     */
+    static final long LOW_FREE_MEMORY = 64 * 1024 * 1024;
+
+    /**
+     * System load average per processor, in percent, -1 if not available
+     */
+    public final int systemLoad;
+    /**
+     * Free heap memory, in bytes, -1 if not available
+     */
+    public final long freeMemory;
+    /**
+     * Recent average execution time of tasks, in milliseconds, 0 if not
+     * available
+     */
+    public final long taskLatency;
+
+    public WorkerLoad(int systemLoad, long freeMemory, long taskLatency) {
+        this.systemLoad = systemLoad;
+        this.freeMemory = freeMemory;
+        this.taskLatency = taskLatency;
+    }
+
+    /**
+     * Load score, lower is better. It is the expected time a new task waits
+     * for a thread of the worker (running tasks by thread, multiplied by the
+     * latency of tasks), increased when the host is overloaded or short of
+     * memory
+     *
+     * @param runningTasks tasks running on the worker, including the ones
+     * assigned during the actual round
+     * @param maxThreads capacity of the worker
+     * @param defaultLatency latency to be used if the worker did not report
+     * it
+     * @return
+     */
+    public double score(int runningTasks, int maxThreads, long defaultLatency) {
+        double latency = taskLatency > 0 ? taskLatency : Math.max(1, defaultLatency);
+        double score = (runningTasks + 1.0) / Math.max(1, maxThreads) * latency;
+        if (systemLoad > 100) {
+            score = score * systemLoad / 100;
+        }
+        if (freeMemory >= 0 && freeMemory < LOW_FREE_MEMORY) {
+            score = score * 2;
+        }
+        return score;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkerLoad{" + "systemLoad=" + systemLoad + ", freeMemory=" + freeMemory + ", taskLatency=" + taskLatency + '}';
+    }
+
+}
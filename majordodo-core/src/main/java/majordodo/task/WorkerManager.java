@@ -43,15 +43,17 @@ public class WorkerManager {
 
     private final String workerId;
     private final Broker broker;
-    private BrokerSideConnection connection;
+    private volatile BrokerSideConnection connection;
     private final int maxWorkerIdleTime;
-    private final ResourceUsageCounters resourceUsageCounters = new ResourceUsageCounters();
+    private final ResourceUsageCounters resourceUsageCounters;
 
     private int maxThreads = 0;
+    private int prefetchTasks = 0;
     private Map<String, Integer> maxThreadsByTaskType = Collections.emptyMap();
     private List<Integer> groups = Collections.emptyList();
     private Set<Integer> excludedGroups = Collections.emptySet();
     private Map<String, Integer> resourceLimis = Collections.emptyMap();
+    private volatile WorkerLoad load = WorkerLoad.UNKNOWN;
 
     private long lastActivity = System.currentTimeMillis();
 
@@ -62,20 +64,39 @@ public class WorkerManager {
         this.workerId = workerId;
         this.broker = broker;
         this.maxWorkerIdleTime = broker.getConfiguration().getMaxWorkerIdleTime();
+        this.resourceUsageCounters = new ResourceUsageCounters(broker.getResourceIds());
     }
 
+    /**
+     * Applies the configuration sent by the worker. The prefetch window is
+     * added both to maxThreads and to each limit by tasktype: tasks assigned
+     * beyond the worker threads are queued on the worker, for the broker they
+     * are running tasks like the others
+     *
+     * @param maxThreads
+     * @param prefetchTasks
+     * @param maxThreadsByTaskType
+     * @param groups
+     * @param excludedGroups
+     * @param resourceLimis
+     */
     public void applyConfiguration(int maxThreads,
+        int prefetchTasks,
         Map<String, Integer> maxThreadsByTaskType,
         List<Integer> groups,
         Set<Integer> excludedGroups,
         Map<String, Integer> resourceLimis) {
-        LOGGER.log(Level.FINEST, "{0} applyConfiguration maxThreads {1} ", new Object[]{workerId, maxThreads});
-        this.maxThreads = maxThreads;
+        LOGGER.log(Level.FINEST, "{0} applyConfiguration maxThreads {1} prefetchTasks {2}", new Object[]{workerId, maxThreads, prefetchTasks});
+        int prefetch = Math.max(0, prefetchTasks);
+        this.maxThreads = maxThreads + prefetch;
+        this.prefetchTasks = prefetch;
         Map<String, Integer> maxThreadsByTaskTypeNoZero = new HashMap<>(maxThreadsByTaskType);
         for (Iterator<Map.Entry<String, Integer>> it = maxThreadsByTaskTypeNoZero.entrySet().iterator(); it.hasNext();) {
             Map.Entry<String, Integer> entry = it.next();
             if (entry.getValue() == null || entry.getValue() <= 0) {
                 it.remove();
+            } else {
+                entry.setValue(entry.getValue() + prefetch);
             }
         }
         this.maxThreadsByTaskType = maxThreadsByTaskTypeNoZero;
@@ -84,6 +105,64 @@ public class WorkerManager {
         this.resourceLimis = resourceLimis;
     }
 
+    public WorkerLoad getLoad() {
+        return load;
+    }
+
+    public void setLoad(WorkerLoad load) {
+        this.load = load;
+    }
+
+    /**
+     * Computes the free capacity of the worker for the global scheduling round
+     *
+     * @param runningTasksByType running tasks for the worker, by tasktype
+     * @return null if the worker cannot receive tasks now
+     */
+    WorkerSchedulingRequest createSchedulingRequest(Map<String, Integer> runningTasksByType) {
+        BrokerSideConnection _connection = connection;
+        if (_connection == null) {
+            return null;
+        }
+        if (!_connection.isWritable()) {
+            // slow consumer, do not pile up new tasks in the outbound buffer
+            LOGGER.log(Level.FINE, "{0} channel is not writable, skipping scheduling round", workerId);
+            return null;
+        }
+        WorkerStatus status = broker.getBrokerStatus().getWorkerStatus(workerId);
+        if (status == null || status.getStatus() != WorkerStatus.STATUS_CONNECTED) {
+            return null;
+        }
+        int max = this.maxThreads;
+        int runningCount = 0;
+        Map<String, Integer> availableSpace = new HashMap<>(this.maxThreadsByTaskType);
+        if (runningTasksByType != null) {
+            // same rules of BrokerStatus#applyRunningTasksFilterToAssignTasksRequest
+            for (Map.Entry<String, Integer> running : runningTasksByType.entrySet()) {
+                max -= running.getValue();
+                runningCount += running.getValue();
+                Integer count = availableSpace.get(running.getKey());
+                if (count != null) {
+                    int newCount = count - running.getValue();
+                    if (newCount > 0) {
+                        availableSpace.put(running.getKey(), newCount);
+                    } else {
+                        availableSpace.remove(running.getKey());
+                    }
+                }
+            }
+        }
+        if (max <= 0 || availableSpace.isEmpty()) {
+            return null;
+        }
+        return new WorkerSchedulingRequest(workerId, max, availableSpace, groups, excludedGroups, resourceLimis, resourceUsageCounters, runningCount, load);
+    }
+
+    void tasksAssigned(List<AssignedTask> tasks) {
+        tasks.forEach(this::taskAssigned);
+        LOGGER.log(Level.INFO, "{0} assigned {1} tasks", new Object[]{workerId, tasks.size()});
+    }
+
     private void requestNewTasks() {
         long _start = System.currentTimeMillis();
         int max = this.maxThreads;
@@ -110,6 +189,36 @@ public class WorkerManager {
         }
     }
 
+    /**
+     * The worker is shutting down, no more tasks will be assigned to it until
+     * it sends again its configuration
+     */
+    public void workerShuttingDown() {
+        LOGGER.log(Level.INFO, "{0} workerShuttingDown", workerId);
+        this.maxThreads = 0;
+        this.maxThreadsByTaskType = Collections.emptyMap();
+    }
+
+    /**
+     * Sends a cancel request to the worker for a running task
+     *
+     * @param taskId
+     * @return false if the worker is not connected
+     */
+    public boolean cancelTask(long taskId) {
+        BrokerSideConnection _connection = connection;
+        if (_connection == null || !_connection.isWritable()) {
+            LOGGER.log(Level.SEVERE, "{0} cancelTask {1}, worker not connected", new Object[]{workerId, taskId});
+            return false;
+        }
+        _connection.sendCancelTask(taskId);
+        return true;
+    }
+
+    public String getWorkerId() {
+        return workerId;
+    }
+
     public Broker getBroker() {
         return broker;
     }
@@ -186,9 +295,16 @@ public class WorkerManager {
                     lastActivity = connection.getLastReceivedMessageTs();
                 }
                 LOGGER.log(Level.FINEST, "wakeup {0}, lastActivity {1}  taskToBeSubmittedToRemoteWorker {2} tasksRunningOnRemoteWorker {3}", new Object[]{workerId, new java.util.Date(lastActivity), taskToBeSubmittedToRemoteWorker, tasksRunningOnRemoteWorker});
-                requestNewTasks();
+                if (!connection.isWritable()) {
+                    // tasks already assigned will be sent as soon as the outbound buffer drains
+                    LOGGER.log(Level.FINE, "wakeup {0} -> channel is not writable", workerId);
+                    return;
+                }
+                if (!broker.getConfiguration().isGlobalSchedulingRound()) {
+                    requestNewTasks();
+                }
                 int max = 100;
-                while (max-- > 0) {
+                while (max-- > 0 && connection.isWritable()) {
                     AssignedTask taskToBeSubmitted = taskToBeSubmittedToRemoteWorker.poll();
                     if (taskToBeSubmitted != null) {
                         long taskId = taskToBeSubmitted.taskid;
@@ -272,11 +388,15 @@ public class WorkerManager {
         }
     }
 
-    void taskFinished(long taskId, String[] resourceIds) {
+    void taskFinished(long taskId, int[] resourceIds) {
         tasksRunningOnRemoteWorker.remove(taskId);
         resourceUsageCounters.releaseResources(resourceIds);
     }
 
+    public int getPrefetchTasks() {
+        return prefetchTasks;
+    }
+
     public ResourceUsageCounters getResourceUsageCounters() {
         return resourceUsageCounters;
     }
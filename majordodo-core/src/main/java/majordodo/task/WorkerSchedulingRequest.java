@@ -0,0 +1,64 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Free capacity of a worker, used by the global scheduling round
+ *
+ * @author enrico.olivelli
+ */
+final class WorkerSchedulingRequest {
+
+    final String workerId;
+    final int max;
+    final Map<String, Integer> availableSpace;
+    final List<Integer> groups;
+    final Set<Integer> excludedGroups;
+    final Map<String, Integer> resourceLimits;
+    final ResourceUsageCounters resourceUsageCounters;
+    final int runningTasks;
+    final WorkerLoad load;
+
+    WorkerSchedulingRequest(String workerId, int max, Map<String, Integer> availableSpace, List<Integer> groups, Set<Integer> excludedGroups, Map<String, Integer> resourceLimits, ResourceUsageCounters resourceUsageCounters) {
+        this(workerId, max, availableSpace, groups, excludedGroups, resourceLimits, resourceUsageCounters, 0, WorkerLoad.UNKNOWN);
+    }
+
+    WorkerSchedulingRequest(String workerId, int max, Map<String, Integer> availableSpace, List<Integer> groups, Set<Integer> excludedGroups, Map<String, Integer> resourceLimits, ResourceUsageCounters resourceUsageCounters, int runningTasks, WorkerLoad load) {
+        this.workerId = workerId;
+        this.max = max;
+        this.availableSpace = availableSpace;
+        this.groups = groups;
+        this.excludedGroups = excludedGroups;
+        this.resourceLimits = resourceLimits;
+        this.resourceUsageCounters = resourceUsageCounters;
+        this.runningTasks = runningTasks;
+        this.load = load;
+    }
+
+    @Override
+    public String toString() {
+        return "WorkerSchedulingRequest{" + "workerId=" + workerId + ", max=" + max + ", availableSpace=" + availableSpace + ", runningTasks=" + runningTasks + ", load=" + load + '}';
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Chooses which worker takes the next task during a global scheduling round,
+ * using the load score of the workers
+ *
+ * @author enrico.olivelli
+ * @see WorkerLoad#score(int, int, long)
+ * @see BrokerConfiguration#getWorkerSelectionPolicy()
+ */
+public interface WorkerSelectionPolicy {
+
+    /**
+     * Chooses a worker among the ones which still have free capacity
+     *
+     * @param count number of candidate workers
+     * @param score load score of each candidate, lower is better. Scores
+     * change during the round, as tasks are assigned
+     * @return the index of the choosen worker
+     */
+    public int select(int count, IntToDoubleFunction score);
+
+}
@@ -63,9 +63,8 @@ public class Workers {
         });
     }
 
-    public void start(BrokerStatus statusAtBoot, Map<String, Collection<Long>> deadWorkerTasks, List<String> connectedAtBoot, ResourceUsageCounters globalResourceUsageCounters) {
+    public void start(BrokerStatus statusAtBoot, Map<String, List<Task>> runningTasksByWorker, Map<String, List<Task>> otherTasksByWorker, Map<String, Collection<Long>> deadWorkerTasks, List<String> connectedAtBoot, ResourceUsageCounters globalResourceUsageCounters) {
         Collection<WorkerStatus> workersAtBoot = statusAtBoot.getWorkersAtBoot();
-        Collection<Task> tasksAtBoot = statusAtBoot.getTasksAtBoot();
         for (WorkerStatus workerStatus : workersAtBoot) {
             String workerId = workerStatus.getWorkerId();
             WorkerManager manager = getWorkerManager(workerId);
@@ -75,24 +74,27 @@ public class Workers {
             Set<Long> toRecoverForWorker = new HashSet<>();
             deadWorkerTasks.put(workerId, toRecoverForWorker);
             LOGGER.log(Level.SEVERE, "Booting workerManager for workerId:{0}, actual status: {1} {2}", new Object[]{workerStatus.getWorkerId(), workerStatus.getStatus(), WorkerStatus.statusToString(workerStatus.getStatus())});
-            for (Task task : tasksAtBoot) {
-                if (workerId.equals(task.getWorkerId())) {
-                    if (task.getStatus() == Task.STATUS_RUNNING) {
-                        if (workerStatus.getStatus() == WorkerStatus.STATUS_DEAD) {
-                            LOGGER.log(Level.FINE, "workerId:{0} should be running task {1}, but worker is DEAD", new Object[]{workerStatus.getWorkerId(), task.getTaskId()});
-                            toRecoverForWorker.add(task.getTaskId());
-                        } else {
-                            String resources = task.getResources();
-                            LOGGER.log(Level.FINE, "Booting workerId:" + workerStatus.getWorkerId() + " should be running task " + task.getTaskId() + ", resources " + resources);
-                            String[] resourceIds = null;
-                            if (resources != null) {
-                                resourceIds = resources.split(",");
-                            }
-                            manager.taskRunningDuringBrokerBoot(new AssignedTask(task.getTaskId(), resourceIds, resources));
-                            globalResourceUsageCounters.useResources(resourceIds);
-                        }
-                    } else {
-                        LOGGER.log(Level.SEVERE, "workerId:" + workerStatus.getWorkerId() + " task " + task.getTaskId() + " is assigned to worker, but in status " + Task.statusToString(task.getStatus()));
+            List<Task> otherTasks = otherTasksByWorker.get(workerId);
+            if (otherTasks != null) {
+                for (Task task : otherTasks) {
+                    LOGGER.log(Level.SEVERE, "workerId:" + workerStatus.getWorkerId() + " task " + task.getTaskId() + " is assigned to worker, but in status " + Task.statusToString(task.getStatus()));
+                }
+            }
+            List<Task> runningTasks = runningTasksByWorker.get(workerId);
+            if (runningTasks == null) {
+                continue;
+            }
+            for (Task task : runningTasks) {
+                if (workerStatus.getStatus() == WorkerStatus.STATUS_DEAD) {
+                    LOGGER.log(Level.FINE, "workerId:{0} should be running task {1}, but worker is DEAD", new Object[]{workerStatus.getWorkerId(), task.getTaskId()});
+                    toRecoverForWorker.add(task.getTaskId());
+                } else {
+                    String resources = task.getResources();
+                    LOGGER.log(Level.FINE, "Booting workerId:" + workerStatus.getWorkerId() + " should be running task " + task.getTaskId() + ", resources " + resources);
+                    int[] resourceIds = broker.getResourceIds().resolveList(resources);
+                    manager.taskRunningDuringBrokerBoot(new AssignedTask(task.getTaskId(), resourceIds, resources));
+                    if (globalResourceUsageCounters != null) {
+                        globalResourceUsageCounters.useResources(resourceIds);
                     }
                 }
             }
@@ -126,6 +128,9 @@ public class Workers {
                     } finally {
                         lock.readLock().unlock();
                     }
+                    if (broker.getConfiguration().isGlobalSchedulingRound()) {
+                        runSchedulingRound(managers);
+                    }
                     for (WorkerManager man : managers) {
                         if (!man.isThreadAssigned()) {
                             man.threadAssigned();
@@ -145,6 +150,40 @@ public class Workers {
         }
     }
 
+    /**
+     * Assigns tasks to all the workers which have free capacity, the heap is
+     * scanned only once. Tasks will be sent to workers by
+     * {@link WorkerManager#operation() }
+     *
+     * @param managers
+     */
+    private void runSchedulingRound(Collection<WorkerManager> managers) {
+        if (broker.isStopped() || !broker.isWritable()) {
+            return;
+        }
+        try {
+            Map<String, Map<String, Integer>> runningTasks = broker.getBrokerStatus().countRunningTasksByWorker();
+            List<WorkerSchedulingRequest> requests = new ArrayList<>();
+            Map<String, WorkerManager> requestingManagers = new HashMap<>();
+            for (WorkerManager man : managers) {
+                WorkerSchedulingRequest request = man.createSchedulingRequest(runningTasks.get(man.getWorkerId()));
+                if (request != null) {
+                    requests.add(request);
+                    requestingManagers.put(request.workerId, man);
+                }
+            }
+            if (requests.isEmpty()) {
+                return;
+            }
+            Map<String, List<AssignedTask>> assigned = broker.assignTasksToWorkers(requests);
+            for (Map.Entry<String, List<AssignedTask>> forWorker : assigned.entrySet()) {
+                requestingManagers.get(forWorker.getKey()).tasksAssigned(forWorker.getValue());
+            }
+        } catch (Exception error) {
+            LOGGER.log(Level.SEVERE, "error during scheduling round", error);
+        }
+    }
+
     public void wakeUp() {
         synchronized (waitForEvent) {
             waitForEvent.notify();
@@ -0,0 +1,265 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.utils;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Open addressing hash map with primitive long keys.
+ * <p>
+ * Only one thread at a time can modify the map (writers must be serialized
+ * by the caller, for instance using a lock), but {@link #get(long) } can be
+ * called by any thread without locks and without allocating objects.
+ * Iteration is weakly consistent, unless the caller prevents concurrent
+ * modifications. Key 0 is not allowed
+ *
+ * @author enrico.olivelli
+ */
+public final class LongObjectHashMap<V> {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final class Table<V> {
+
+        final AtomicLongArray keys;
+        final AtomicReferenceArray<V> values;
+        final int mask;
+
+        Table(int capacity) {
+            this.keys = new AtomicLongArray(capacity);
+            this.values = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        int capacity() {
+            return mask + 1;
+        }
+    }
+
+    private volatile Table<V> table;
+    private volatile int size;
+    // slots with a key, including removed entries
+    private int used;
+
+    public LongObjectHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongObjectHashMap(int expectedSize) {
+        this.table = new Table<>(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        // load factor is at most 0.75, after a resize it is at most 0.5
+        long capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2L) {
+            capacity <<= 1;
+        }
+        if (capacity > (1 << 30)) {
+            throw new IllegalStateException("map too big, " + expectedSize + " entries");
+        }
+        return (int) capacity;
+    }
+
+    private static int hash(long key) {
+        // finalizer of MurmurHash3
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    public V get(long key) {
+        Table<V> t = this.table;
+        int mask = t.mask;
+        int i = hash(key) & mask;
+        while (true) {
+            long k = t.keys.get(i);
+            if (k == key) {
+                return t.values.get(i);
+            }
+            if (k == 0) {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    public V put(long key, V value) {
+        if (key == 0) {
+            throw new IllegalArgumentException("key 0 is not allowed");
+        }
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        Table<V> t = this.table;
+        int mask = t.mask;
+        int i = hash(key) & mask;
+        while (true) {
+            long k = t.keys.get(i);
+            if (k == key) {
+                V previous = t.values.getAndSet(i, value);
+                if (previous == null) {
+                    size++;
+                }
+                return previous;
+            }
+            if (k == 0) {
+                // the value must be visible before the key
+                t.values.set(i, value);
+                t.keys.set(i, key);
+                size++;
+                if (++used > (t.capacity() >> 2) * 3) {
+                    rehash();
+                }
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    public V remove(long key) {
+        Table<V> t = this.table;
+        int mask = t.mask;
+        int i = hash(key) & mask;
+        while (true) {
+            long k = t.keys.get(i);
+            if (k == key) {
+                // the key remains in the table, in order not to break the chain of probes
+                V previous = t.values.getAndSet(i, null);
+                if (previous != null) {
+                    size--;
+                }
+                return previous;
+            }
+            if (k == 0) {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        this.table = new Table<>(MIN_CAPACITY);
+        this.size = 0;
+        this.used = 0;
+    }
+
+    private void rehash() {
+        Table<V> t = this.table;
+        Table<V> newTable = new Table<>(capacityFor(size));
+        int newUsed = 0;
+        for (int i = 0; i < t.capacity(); i++) {
+            V value = t.values.get(i);
+            if (value != null) {
+                long key = t.keys.get(i);
+                int j = hash(key) & newTable.mask;
+                while (newTable.keys.get(j) != 0) {
+                    j = (j + 1) & newTable.mask;
+                }
+                newTable.values.lazySet(j, value);
+                newTable.keys.lazySet(j, key);
+                newUsed++;
+            }
+        }
+        this.used = newUsed;
+        // volatile write, readers will see the new table fully populated
+        this.table = newTable;
+    }
+
+    /**
+     * A view over the values of the map. The iterator supports removal, which
+     * is a modification of the map
+     *
+     * @return
+     */
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new ValuesIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private final class ValuesIterator implements Iterator<V> {
+
+        private final Table<V> t = table;
+        private int next = -1;
+        private int current = -1;
+
+        ValuesIterator() {
+            advance();
+        }
+
+        private void advance() {
+            int i = next + 1;
+            while (i < t.capacity() && t.values.get(i) == null) {
+                i++;
+            }
+            next = i;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < t.capacity();
+        }
+
+        @Override
+        public V next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            current = next;
+            V value = t.values.get(current);
+            advance();
+            return value;
+        }
+
+        @Override
+        public void remove() {
+            if (current < 0) {
+                throw new IllegalStateException();
+            }
+            LongObjectHashMap.this.remove(t.keys.get(current));
+            current = -1;
+        }
+    }
+}
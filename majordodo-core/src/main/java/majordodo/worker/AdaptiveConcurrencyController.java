@@ -0,0 +1,210 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.worker;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import majordodo.task.Task;
+
+/**
+ * Adapts the number of concurrent tasks of each tasktype to the measured
+ * latency of the tasks (gradient style). Starting from the number of
+ * processors, the limit of a tasktype grows while its latency stays near the
+ * best latency observed and the limit is actually reached (more tasks are
+ * waiting), and shrinks in proportion to the increase of latency. I/O bound
+ * tasktypes grow towards the configured maximum, while CPU bound tasktypes
+ * settle a bit over the number of processors. The configured
+ * maxThreadsByTaskType are upper bounds, the limits never go under
+ * minThreads. When the load of the host exceeds maxSystemLoad all the limits
+ * are decreased
+ *
+ * @author enrico.olivelli
+ */
+public class AdaptiveConcurrencyController {
+
+    private static final Logger LOGGER = Logger.getLogger(AdaptiveConcurrencyController.class.getName());
+
+    /**
+     * Multiplicative decrease applied when the host is overloaded
+     */
+    private static final double OVERLOAD_BACKOFF = 0.9;
+    /**
+     * Maximum decrease for a single adjustment
+     */
+    private static final double MIN_GRADIENT = 0.5;
+    /**
+     * The best latency slowly follows the actual latency, in order to adapt
+     * to changes of the workload
+     */
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private static final class TaskTypeStatus {
+
+        final int maxLimit;
+        int limit;
+        int running;
+        boolean saturated;
+        long finished;
+        long totalLatency;
+        double baselineLatency = Double.MAX_VALUE;
+
+        TaskTypeStatus(int maxLimit, int limit) {
+            this.maxLimit = maxLimit;
+            this.limit = limit;
+        }
+    }
+
+    private final Map<String, TaskTypeStatus> taskTypes = new HashMap<>();
+    private final int minThreads;
+    private final double maxSystemLoad;
+    private volatile Map<String, Integer> limits;
+
+    /**
+     *
+     * @param maxThreadsByTaskType upper bounds for each tasktype
+     * @param minThreads lower bound for each tasktype
+     * @param initialThreads starting limit, usually the number of processors
+     * @param maxSystemLoadPercent load of the host (system load average per
+     * processor, in percent) over which limits are decreased, zero disables
+     * the check
+     */
+    public AdaptiveConcurrencyController(Map<String, Integer> maxThreadsByTaskType, int minThreads, int initialThreads, int maxSystemLoadPercent) {
+        this.minThreads = Math.max(1, minThreads);
+        this.maxSystemLoad = maxSystemLoadPercent / 100.0;
+        for (Map.Entry<String, Integer> entry : maxThreadsByTaskType.entrySet()) {
+            int max = Math.max(this.minThreads, entry.getValue());
+            int initial = Math.max(this.minThreads, Math.min(initialThreads, max));
+            taskTypes.put(entry.getKey(), new TaskTypeStatus(max, initial));
+        }
+        this.limits = snapshotLimits();
+    }
+
+    private Map<String, Integer> snapshotLimits() {
+        Map<String, Integer> res = new HashMap<>();
+        taskTypes.forEach((type, status) -> res.put(type, status.limit));
+        return Collections.unmodifiableMap(res);
+    }
+
+    /**
+     * Actual limits, to be advertised to the broker in place of the
+     * configured maxThreadsByTaskType
+     *
+     * @return
+     */
+    public Map<String, Integer> getLimits() {
+        return limits;
+    }
+
+    private TaskTypeStatus resolve(String taskType) {
+        TaskTypeStatus status = taskTypes.get(taskType);
+        if (status == null) {
+            // accepted as 'any' task
+            status = taskTypes.get(Task.TASKTYPE_ANY);
+        }
+        return status;
+    }
+
+    public synchronized void taskStarted(String taskType) {
+        TaskTypeStatus status = resolve(taskType);
+        if (status == null) {
+            return;
+        }
+        status.running++;
+        if (status.running >= status.limit) {
+            status.saturated = true;
+        }
+    }
+
+    public synchronized void taskFinished(String taskType, long latencyNanos) {
+        TaskTypeStatus status = resolve(taskType);
+        if (status == null) {
+            return;
+        }
+        status.running = Math.max(0, status.running - 1);
+        status.finished++;
+        status.totalLatency += latencyNanos;
+    }
+
+    /**
+     * Adjusts the limits using the latency measured since the previous call
+     *
+     * @return true if any limit changed
+     */
+    public boolean adjust() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        double load = os.getSystemLoadAverage();
+        return adjust(load < 0 ? -1 : load / os.getAvailableProcessors());
+    }
+
+    /**
+     * Adjusts the limits using the latency measured since the previous call
+     *
+     * @param systemLoad load average per processor, negative if not available
+     * @return true if any limit changed
+     */
+    synchronized boolean adjust(double systemLoad) {
+        boolean overloaded = maxSystemLoad > 0 && systemLoad > maxSystemLoad;
+        boolean changed = false;
+        for (Map.Entry<String, TaskTypeStatus> entry : taskTypes.entrySet()) {
+            TaskTypeStatus status = entry.getValue();
+            int newLimit = status.limit;
+            if (overloaded) {
+                newLimit = (int) (status.limit * OVERLOAD_BACKOFF);
+            } else if (status.finished > 0) {
+                double latency = (double) status.totalLatency / status.finished;
+                if (latency < status.baselineLatency) {
+                    status.baselineLatency = latency;
+                } else {
+                    status.baselineLatency += (latency - status.baselineLatency) * BASELINE_DRIFT;
+                }
+                double gradient = Math.max(MIN_GRADIENT, Math.min(1, status.baselineLatency / latency));
+                double headroom = status.saturated ? Math.sqrt(status.limit) : 0;
+                newLimit = (int) Math.ceil(status.limit * gradient + headroom);
+                if (gradient < 1 && newLimit > status.limit) {
+                    // never grow while latency is increasing
+                    newLimit = status.limit;
+                }
+                if (LOGGER.isLoggable(Level.FINE)) {
+                    LOGGER.log(Level.FINE, "tasktype {0}: {1} tasks, latency {2} ms (best {3} ms), limit {4} -> {5}",
+                        new Object[]{entry.getKey(), status.finished, latency / 1000000, status.baselineLatency / 1000000, status.limit, newLimit});
+                }
+            }
+            newLimit = Math.max(minThreads, Math.min(status.maxLimit, newLimit));
+            if (newLimit != status.limit) {
+                status.limit = newLimit;
+                changed = true;
+            }
+            status.finished = 0;
+            status.totalLatency = 0;
+            status.saturated = status.running >= status.limit;
+        }
+        if (changed) {
+            limits = snapshotLimits();
+            LOGGER.log(Level.INFO, "new limits by tasktype {0}, system load {1}", new Object[]{limits, systemLoad});
+        }
+        return changed;
+    }
+
+}
@@ -0,0 +1,290 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import majordodo.executors.BatchTaskExecutor;
+import majordodo.executors.BatchTaskResult;
+import majordodo.executors.TaskExecutor;
+
+/**
+ * Real execution of a batch of tasks of the same tasktype, on a single thread.
+ * Each task is reported individually, but all the results are queued together
+ * so that they reach the broker in a single notification
+ *
+ * @author enrico.olivelli
+ */
+public class BatchExecutorRunnable implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(BatchExecutorRunnable.class.getName());
+
+    private final WorkerCore core;
+    private final String taskType;
+    private final List<Map<String, Object>> tasks;
+    private final ExecutorRunnable.TaskExecutionCallback callback;
+    private final Map<Long, Long> maxExecutionTimes;
+    private final Set<Long> completed = ConcurrentHashMap.newKeySet();
+    private Thread thread;
+    private volatile BatchTaskExecutor executor;
+    private volatile TaskExecutor currentExecutor;
+    private Long currentTaskId;
+    private volatile ScheduledFuture<?> timeout;
+
+    /**
+     *
+     * @param core
+     * @param taskType
+     * @param tasks
+     * @param callback
+     * @param maxExecutionTimes maximum execution time of each task, by
+     * taskid, zero means no limit
+     */
+    public BatchExecutorRunnable(WorkerCore core, String taskType, List<Map<String, Object>> tasks, ExecutorRunnable.TaskExecutionCallback callback, Map<Long, Long> maxExecutionTimes) {
+        this.core = core;
+        this.taskType = taskType;
+        this.tasks = tasks;
+        this.callback = callback;
+        this.maxExecutionTimes = maxExecutionTimes;
+    }
+
+    private static Long taskId(Map<String, Object> parameters) {
+        return (Long) parameters.get("taskid");
+    }
+
+    /**
+     * Starts counting the maximum execution time of the batch, when it is
+     * submitted. The batch is cancelled as a whole, when no task of the batch
+     * could still be running
+     */
+    void startExecutionTimeout() {
+        long maxExecutionTime = 0;
+        for (Map<String, Object> parameters : tasks) {
+            long taskMaxExecutionTime = maxExecutionTimes.getOrDefault(taskId(parameters), 0L);
+            if (taskMaxExecutionTime <= 0) {
+                return;
+            }
+            maxExecutionTime = Math.max(maxExecutionTime, taskMaxExecutionTime);
+        }
+        timeout = core.scheduleExecutionTimeout(this, maxExecutionTime);
+    }
+
+    private void stopExecutionTimeout() {
+        ScheduledFuture<?> _timeout = timeout;
+        if (_timeout != null) {
+            _timeout.cancel(false);
+        }
+    }
+
+    @Override
+    public void run() {
+        long _start = System.nanoTime();
+        List<Map<String, Object>> toExecute = new ArrayList<>();
+        synchronized (this) {
+            thread = Thread.currentThread();
+            for (Map<String, Object> parameters : tasks) {
+                // tasks cancelled before start have already been reported
+                if (!completed.contains(taskId(parameters))) {
+                    callback.taskStatusChanged(taskId(parameters), parameters, TaskExecutorStatus.RUNNING, null, null);
+                    toExecute.add(parameters);
+                }
+            }
+        }
+        List<FinishedTaskNotification> results = new ArrayList<>();
+        try {
+            if (toExecute.isEmpty()) {
+                return;
+            }
+            executor = core.createBatchTaskExecutor(taskType, toExecute.get(0));
+            if (executor != null) {
+                executeBatch(toExecute, results);
+            } else {
+                // each task has its own timeout
+                stopExecutionTimeout();
+                executeOneByOne(toExecute, results);
+            }
+        } finally {
+            stopExecutionTimeout();
+            synchronized (this) {
+                thread = null;
+                // do not leak our interrupt to the next task of the pooled thread
+                Thread.interrupted();
+            }
+            if (!results.isEmpty()) {
+                core.batchFinished(toExecute, results);
+            }
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                long _end = System.nanoTime();
+                LOGGER.log(Level.FINEST, "batch time " + taskType + " " + toExecute.size() + " tasks " + (_end - _start) + " ns");
+            }
+        }
+    }
+
+    private void executeBatch(List<Map<String, Object>> toExecute, List<FinishedTaskNotification> results) {
+        try {
+            List<BatchTaskResult> batchResults = executor.executeTasks(toExecute);
+            if (batchResults == null || batchResults.size() != toExecute.size()) {
+                throw new IllegalStateException("executor returned " + (batchResults == null ? "no" : batchResults.size())
+                    + " results for " + toExecute.size() + " tasks of type " + taskType);
+            }
+            for (int i = 0; i < toExecute.size(); i++) {
+                BatchTaskResult result = batchResults.get(i);
+                if (result == null) {
+                    complete(toExecute.get(i), TaskExecutorStatus.ERROR, null, new IllegalStateException("no result for task"), results);
+                } else if (result.getError() != null) {
+                    complete(toExecute.get(i), TaskExecutorStatus.ERROR, null, result.getError(), results);
+                } else {
+                    complete(toExecute.get(i), TaskExecutorStatus.FINISHED, result.getResult(), null, results);
+                }
+            }
+        } catch (Throwable t) {
+            if (completed.size() < tasks.size()) {
+                LOGGER.log(Level.SEVERE, "error while executing batch of " + toExecute.size() + " tasks of type " + taskType, t);
+            }
+            for (Map<String, Object> parameters : toExecute) {
+                complete(parameters, TaskExecutorStatus.ERROR, null, t, results);
+            }
+        }
+    }
+
+    /**
+     * Fallback for factories which do not support batches for the tasktype,
+     * the following tasks of the tasktype will not be batched
+     */
+    private void executeOneByOne(List<Map<String, Object>> toExecute, List<FinishedTaskNotification> results) {
+        for (Map<String, Object> parameters : toExecute) {
+            Long taskId = taskId(parameters);
+            synchronized (this) {
+                if (completed.contains(taskId)) {
+                    continue;
+                }
+                currentTaskId = taskId;
+            }
+            ScheduledFuture<?> taskTimeout = null;
+            try {
+                long maxExecutionTime = maxExecutionTimes.getOrDefault(taskId, 0L);
+                if (maxExecutionTime > 0) {
+                    taskTimeout = core.scheduleExecutionTimeout(this, taskId, maxExecutionTime);
+                }
+                currentExecutor = core.createTaskExecutor(taskType, parameters);
+                String result = currentExecutor.executeTask(parameters);
+                complete(parameters, TaskExecutorStatus.FINISHED, result, null, results);
+            } catch (Throwable t) {
+                if (!completed.contains(taskId(parameters))) {
+                    LOGGER.log(Level.SEVERE, "error while executing task " + parameters, t);
+                }
+                complete(parameters, TaskExecutorStatus.ERROR, null, t, results);
+            } finally {
+                if (taskTimeout != null) {
+                    taskTimeout.cancel(false);
+                }
+                synchronized (this) {
+                    currentTaskId = null;
+                    currentExecutor = null;
+                    // an interrupt for this task must not reach the next one
+                    Thread.interrupted();
+                }
+            }
+        }
+    }
+
+    private void complete(Map<String, Object> parameters, String finalStatus, String result, Throwable error, List<FinishedTaskNotification> results) {
+        Long taskId = taskId(parameters);
+        if (completed.add(taskId)) {
+            results.add(new FinishedTaskNotification(taskId, finalStatus, result, error));
+        } else {
+            LOGGER.log(Level.INFO, "task {0} was cancelled, discarding result {1}", new Object[]{taskId, finalStatus});
+        }
+    }
+
+    /**
+     * Cancels a single task of the batch, which is reported as failed at once.
+     * The execution is interrupted only when every task of the batch has been
+     * cancelled, or when the task is running alone because the batch is
+     * executed one task at a time
+     *
+     * @param taskId
+     * @param reason
+     * @return false if the task was already completed
+     */
+    public boolean cancel(Long taskId, String reason) {
+        Map<String, Object> parameters = null;
+        for (Map<String, Object> task : tasks) {
+            if (taskId.equals(taskId(task))) {
+                parameters = task;
+            }
+        }
+        BatchTaskExecutor _executor;
+        TaskExecutor _currentExecutor;
+        synchronized (this) {
+            // never notify the end of a task before its start
+            if (parameters == null || !completed.add(taskId)) {
+                return false;
+            }
+            LOGGER.log(Level.SEVERE, "cancelling task {0}: {1}", new Object[]{taskId, reason});
+            callback.taskStatusChanged(taskId, parameters, TaskExecutorStatus.ERROR, reason, null);
+            if (completed.size() < tasks.size() && !taskId.equals(currentTaskId)) {
+                return true;
+            }
+            if (thread != null) {
+                thread.interrupt();
+            }
+            _executor = executor;
+            _currentExecutor = currentExecutor;
+        }
+        try {
+            if (_executor != null) {
+                _executor.cancel();
+            }
+            if (_currentExecutor != null) {
+                _currentExecutor.cancel();
+            }
+        } catch (Throwable t) {
+            LOGGER.log(Level.SEVERE, "error while cancelling batch of type " + taskType, t);
+        }
+        return true;
+    }
+
+    /**
+     * Cancels every task of the batch
+     *
+     * @param reason
+     */
+    public void cancel(String reason) {
+        for (Map<String, Object> task : tasks) {
+            cancel(taskId(task), reason);
+        }
+    }
+
+    public List<Long> getTaskIds() {
+        List<Long> res = new ArrayList<>(tasks.size());
+        for (Map<String, Object> task : tasks) {
+            res.add(taskId(task));
+        }
+        return res;
+    }
+
+}
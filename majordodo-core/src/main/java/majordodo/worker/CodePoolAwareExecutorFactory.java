@@ -21,6 +21,7 @@ package majordodo.worker;
 
 import java.util.Map;
 import majordodo.codepools.CodePoolClassloadersManager;
+import majordodo.executors.BatchTaskExecutor;
 import majordodo.executors.TaskExecutor;
 import majordodo.executors.TaskExecutorFactory;
 
@@ -65,4 +66,25 @@ public class CodePoolAwareExecutorFactory implements TaskExecutorFactory {
 
     }
 
+    @Override
+    public BatchTaskExecutor createBatchTaskExecutor(String taskType, Map<String, Object> parameters) {
+        String codePoolId = (String) parameters.get("codepool");
+        if (codePoolId == null) {
+            return inner.createBatchTaskExecutor(taskType, parameters);
+        }
+        try {
+            ClassLoader cl = classloadersManager.getCodePoolClassloader(codePoolId);
+            ClassLoader tccl = Thread.currentThread().getContextClassLoader();
+            Thread.currentThread().setContextClassLoader(cl);
+            try {
+                return inner.createBatchTaskExecutor(taskType, parameters);
+            } finally {
+                Thread.currentThread().setContextClassLoader(tccl);
+            }
+        } catch (Exception error) {
+            // tasks will be executed one by one, reporting the error
+            return null;
+        }
+    }
+
 }
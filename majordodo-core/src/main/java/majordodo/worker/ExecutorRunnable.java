@@ -21,6 +21,8 @@ package majordodo.worker;
 
 import majordodo.executors.TaskExecutor;
 import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,13 +37,23 @@ public class ExecutorRunnable implements Runnable {
     private Long taskId;
     private Map<String, Object> parameters;
     private TaskExecutionCallback callback;
+    private final long maxExecutionTime;
+    private final AtomicBoolean completed = new AtomicBoolean();
+    private Thread thread;
+    private volatile TaskExecutor executor;
+    private volatile ScheduledFuture<?> timeout;
     private static final Logger LOGGER = Logger.getLogger(ExecutorRunnable.class.getName());
 
     public ExecutorRunnable(WorkerCore core, Long taskId, Map<String, Object> parameters, TaskExecutionCallback callback) {
+        this(core, taskId, parameters, callback, 0);
+    }
+
+    public ExecutorRunnable(WorkerCore core, Long taskId, Map<String, Object> parameters, TaskExecutionCallback callback, long maxExecutionTime) {
         this.core = core;
         this.taskId = taskId;
         this.parameters = parameters;
         this.callback = callback;
+        this.maxExecutionTime = maxExecutionTime;
     }
 
     public static interface TaskExecutionCallback {
@@ -49,23 +61,95 @@ public class ExecutorRunnable implements Runnable {
         public void taskStatusChanged(long taskId, Map<String, Object> parameters, String finalStatus, String results, Throwable error);
     }
 
+    /**
+     * Starts counting the maximum execution time, when the task is submitted.
+     * Usually the task starts at once, but it may wait for a thread still
+     * blocked by a cancelled task which ignores interruption
+     */
+    void startExecutionTimeout() {
+        if (maxExecutionTime > 0) {
+            timeout = core.scheduleExecutionTimeout(this, maxExecutionTime);
+        }
+    }
+
     @Override
     public void run() {
         long _start = System.nanoTime();
+        synchronized (this) {
+            if (completed.get()) {
+                // cancelled before start
+                return;
+            }
+            thread = Thread.currentThread();
+            // a cancel will notify the end of the task after this point
+            callback.taskStatusChanged(taskId, parameters, TaskExecutorStatus.RUNNING, null, null);
+        }
         try {
             String taskType = (String) parameters.get("tasktype");
-            callback.taskStatusChanged(taskId, parameters, TaskExecutorStatus.RUNNING, null, null);
-            TaskExecutor executor = core.createTaskExecutor(taskType, parameters);
+            executor = core.createTaskExecutor(taskType, parameters);
             String result = executor.executeTask(parameters);
-            callback.taskStatusChanged(taskId, parameters, TaskExecutorStatus.FINISHED, result, null);
+            complete(TaskExecutorStatus.FINISHED, result, null);
         } catch (Throwable t) {
-            LOGGER.log(Level.SEVERE, "error while executing task " + parameters, t);
-            callback.taskStatusChanged(taskId, parameters, TaskExecutorStatus.ERROR, null, t);
+            if (!completed.get()) {
+                LOGGER.log(Level.SEVERE, "error while executing task " + parameters, t);
+            }
+            complete(TaskExecutorStatus.ERROR, null, t);
         } finally {
+            ScheduledFuture<?> _timeout = timeout;
+            if (_timeout != null) {
+                _timeout.cancel(false);
+            }
+            synchronized (this) {
+                thread = null;
+                // do not leak our interrupt to the next task of the pooled thread
+                Thread.interrupted();
+            }
             if (LOGGER.isLoggable(Level.FINEST)) {
                 long _end = System.nanoTime();
                 LOGGER.log(Level.FINEST, "task time " + parameters + " " + (_end - _start) + " ns");
             }
         }
     }
+
+    private void complete(String finalStatus, String result, Throwable error) {
+        if (completed.compareAndSet(false, true)) {
+            callback.taskStatusChanged(taskId, parameters, finalStatus, result, error);
+        } else {
+            LOGGER.log(Level.INFO, "task {0} was cancelled, discarding result {1}", new Object[]{taskId, finalStatus});
+        }
+    }
+
+    /**
+     * Cancels the execution: the thread is interrupted and the task is
+     * reported as failed at once, so that its slot is given back to the broker
+     * without waiting for the task to react to the interruption
+     *
+     * @param reason
+     * @return false if the task was already completed
+     */
+    public boolean cancel(String reason) {
+        if (!completed.compareAndSet(false, true)) {
+            return false;
+        }
+        LOGGER.log(Level.SEVERE, "cancelling task {0}: {1}", new Object[]{taskId, reason});
+        synchronized (this) {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+        TaskExecutor _executor = executor;
+        if (_executor != null) {
+            try {
+                _executor.cancel();
+            } catch (Throwable t) {
+                LOGGER.log(Level.SEVERE, "error while cancelling task " + taskId, t);
+            }
+        }
+        callback.taskStatusChanged(taskId, parameters, TaskExecutorStatus.ERROR, reason, null);
+        return true;
+    }
+
+    public Long getTaskId() {
+        return taskId;
+    }
 }
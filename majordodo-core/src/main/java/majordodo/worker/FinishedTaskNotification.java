@@ -33,12 +33,14 @@ public class FinishedTaskNotification {
     public final String finalStatus;
     public final String results;
     public final Throwable error;
+    public final long timestamp;
 
     public FinishedTaskNotification(long taskId, String finalStatus, String results, Throwable error) {
         this.taskId = taskId;
         this.finalStatus = finalStatus;
         this.results = results;
         this.error = error;
+        this.timestamp = System.currentTimeMillis();
     }
 
     @Override
@@ -30,4 +30,9 @@ public class TaskExecutorStatus {
     public static final String NEEDS_RECOVERY = "needs_recovery";
     public static final String ERROR = "error";
     public static final String RUNNING = "running";
+    /**
+     * The task has been given back to the broker without being executed, it
+     * does not count as an attempt
+     */
+    public static final String RELEASED = "released";
 }
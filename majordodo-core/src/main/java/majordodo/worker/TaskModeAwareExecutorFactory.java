@@ -26,6 +26,7 @@ import java.io.ObjectStreamClass;
 import java.net.URLClassLoader;
 import java.util.Base64;
 import java.util.Map;
+import majordodo.executors.BatchTaskExecutor;
 import majordodo.executors.TaskExecutor;
 import majordodo.executors.TaskExecutorFactory;
 import majordodo.task.Task;
@@ -89,4 +90,14 @@ public class TaskModeAwareExecutorFactory implements TaskExecutorFactory {
 
     }
 
+    @Override
+    public BatchTaskExecutor createBatchTaskExecutor(String taskType, Map<String, Object> parameters) {
+        String mode = (String) parameters.getOrDefault("mode", Task.MODE_DEFAULT);
+        if (mode.equals(Task.MODE_EXECUTE_FACTORY)) {
+            return inner.createBatchTaskExecutor(taskType, parameters);
+        }
+        // every task carries its own executor
+        return null;
+    }
+
 }
@@ -0,0 +1,95 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.worker;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import majordodo.task.Task;
+
+/**
+ * Runs each tasktype on its own bounded pool of threads (bulkhead), sized
+ * from maxThreadsByTaskType. Tasktypes without a limit share the pool of the
+ * 'any' tasktype. A slow tasktype cannot take threads from the others and
+ * idle threads are reused for a while before being released
+ *
+ * @author enrico.olivelli
+ */
+public class TaskTypeBulkheadsExecutionStrategy implements TaskExecutionStrategy {
+
+    private static final Logger LOGGER = Logger.getLogger(TaskTypeBulkheadsExecutionStrategy.class.getName());
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private final WorkerCoreConfiguration config;
+    private final String workerId;
+    private final Map<String, ThreadPoolExecutor> pools = new ConcurrentHashMap<>();
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    public TaskTypeBulkheadsExecutionStrategy(WorkerCoreConfiguration config, String workerId) {
+        this.config = config;
+        this.workerId = workerId;
+    }
+
+    @Override
+    public void execute(String taskType, Runnable task) {
+        String poolName = config.getMaxThreadsByTaskType().containsKey(taskType) ? taskType : Task.TASKTYPE_ANY;
+        ThreadPoolExecutor pool = pools.computeIfAbsent(poolName, this::createPool);
+        int size = poolSize(poolName);
+        if (pool.getMaximumPoolSize() != size) {
+            // the configuration changed
+            if (size > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(size);
+                pool.setCorePoolSize(size);
+            } else {
+                pool.setCorePoolSize(size);
+                pool.setMaximumPoolSize(size);
+            }
+        }
+        pool.execute(task);
+    }
+
+    private int poolSize(String poolName) {
+        Integer size = config.getMaxThreadsByTaskType().get(poolName);
+        if (size == null || size <= 0 || size > config.getMaxThreads()) {
+            return Math.max(1, config.getMaxThreads());
+        }
+        return size;
+    }
+
+    private ThreadPoolExecutor createPool(String poolName) {
+        int size = poolSize(poolName);
+        LOGGER.log(Level.INFO, "creating pool for tasktype {0}, {1} threads", new Object[]{poolName, size});
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(size, size, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(), (Runnable r) -> new Thread(r, "dodo-worker-thread-" + workerId + "-" + poolName + "-" + threadCount.incrementAndGet()));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    @Override
+    public void shutdown() {
+        pools.values().forEach(ThreadPoolExecutor::shutdown);
+    }
+
+}
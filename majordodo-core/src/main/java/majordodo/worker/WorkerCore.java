@@ -20,6 +20,9 @@
 package majordodo.worker;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -27,6 +30,7 @@ import majordodo.network.BrokerRejectedConnectionException;
 import majordodo.network.BrokerNotAvailableException;
 import majordodo.network.BrokerLocator;
 import majordodo.network.ConnectionRequestInfo;
+import majordodo.executors.BatchTaskExecutor;
 import majordodo.executors.TaskExecutor;
 import majordodo.executors.TaskExecutorFactory;
 import majordodo.network.Channel;
@@ -35,15 +39,22 @@ import majordodo.network.Message;
 import majordodo.network.SendResultCallback;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -60,11 +71,41 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
 
     private static final Logger LOGGER = Logger.getLogger(WorkerCore.class.getName());
 
-    private final ExecutorService threadpool;
+    private final TaskExecutionStrategy executionStrategy;
     private final String processId;
     private final String workerId;
     private final String location;
     private final Map<Long, String> runningTasks = new HashMap<>();
+    /**
+     * Tasks assigned by the broker but not yet started, guarded by
+     * runningTasksLock
+     */
+    private final Map<Long, Message> prefetchedTasks = new LinkedHashMap<>();
+    /**
+     * Executions of running tasks, used for cancellation, guarded by
+     * runningTasksLock
+     */
+    private final Map<Long, ExecutorRunnable> runningExecutions = new HashMap<>();
+    /**
+     * Batches of running tasks, by taskid, guarded by runningTasksLock
+     */
+    private final Map<Long, BatchExecutorRunnable> runningBatches = new HashMap<>();
+    /**
+     * Running tasks which do not occupy a thread, because they share the
+     * thread of another task of their batch, guarded by runningTasksLock
+     */
+    private final Set<Long> batchedTasks = new HashSet<>();
+    /**
+     * Keys of batches for which the factory has no BatchTaskExecutor, their
+     * tasks are no more batched
+     */
+    private final Set<String> unbatchableKeys = ConcurrentHashMap.newKeySet();
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final AdaptiveConcurrencyController concurrencyController;
+    /**
+     * Start time of running tasks, for the latency of tasks
+     */
+    private final Map<Long, Long> taskStartTimes = new ConcurrentHashMap<>();
     private final ReentrantReadWriteLock runningTasksLock = new ReentrantReadWriteLock(true);
     private final BrokerLocator brokerLocator;
     private final Thread coreThread;
@@ -143,6 +184,7 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
         runningTasksLock.readLock().lock();
         try {
             res.addAll(runningTasks.keySet());
+            res.addAll(prefetchedTasks.keySet());
         } finally {
             runningTasksLock.readLock().unlock();
         }
@@ -164,16 +206,22 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
         this.executorFactory = executorFactory;
     }
 
-    private void ping() {
+    /**
+     * Sends a ping to the broker, if needed
+     *
+     * @return the time to wait before the next ping, in milliseconds
+     */
+    private long ping() {
         long now = System.currentTimeMillis();
         long delta = now - lastPingSent;
         if (delta < config.getMaxKeepAliveTime()) {
-            return;
+            return config.getMaxKeepAliveTime() - delta;
         }
         lastPingSent = now;
         Channel _channel = channel;
         if (_channel != null) {
-            _channel.sendOneWayMessage(Message.WORKER_PING(processId, config.getGroups(), config.getExcludedGroups(), config.getMaxThreadsByTaskType(), config.getMaxThreads(), config.getResourcesLimits()),
+            _channel.sendOneWayMessage(Message.WORKER_PING(processId, config.getGroups(), config.getExcludedGroups(), getMaxThreadsByTaskType(), config.getMaxThreads(), config.getPrefetchTasks(), config.getResourcesLimits(),
+                getSystemLoad(), getFreeMemory(), (long) recentTaskLatency),
                 (Message originalMessage, Throwable error) -> {
                     if (error != null) {
                         if (!stopped) {
@@ -185,10 +233,44 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
         } else {
             LOGGER.log(Level.FINER, "ping not connected");
         }
+        return config.getMaxKeepAliveTime();
     }
 
     private WorkerCoreConfiguration config;
 
+    /**
+     * System load average per processor, in percent, -1 if not available
+     */
+    private static int getSystemLoad() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        double load = os.getSystemLoadAverage();
+        if (load < 0) {
+            return -1;
+        }
+        return (int) (load * 100 / os.getAvailableProcessors());
+    }
+
+    private static long getFreeMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    /**
+     * Exponentially weighted moving average of the execution time of tasks, in
+     * milliseconds, reported to the broker
+     */
+    private volatile double recentTaskLatency;
+    private static final double TASK_LATENCY_WEIGHT = 0.1;
+
+    private synchronized void updateTaskLatency(long latencyNanos) {
+        double latency = latencyNanos / 1000000.0;
+        if (recentTaskLatency <= 0) {
+            recentTaskLatency = latency;
+        } else {
+            recentTaskLatency += (latency - recentTaskLatency) * TASK_LATENCY_WEIGHT;
+        }
+    }
+
     public WorkerCore(
         WorkerCoreConfiguration config,
         String processId,
@@ -201,15 +283,22 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
             };
         }
         this.listener = listener;
-        this.threadpool = Executors.newCachedThreadPool(new ThreadFactory() {
-
-            @Override
-            public Thread newThread(Runnable r) {
-                return new Thread(r, "dodo-worker-thread-" + workerId);
-            }
-        });
         this.processId = processId;
         this.workerId = config.getWorkerId();
+        this.executionStrategy = createExecutionStrategy(config, workerId);
+        this.scheduler = new ScheduledThreadPoolExecutor(1, (Runnable r) -> {
+            Thread t = new Thread(r, "dodo-worker-scheduler-" + workerId);
+            t.setDaemon(true);
+            return t;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        if (config.isAdaptiveConcurrency()) {
+            this.concurrencyController = new AdaptiveConcurrencyController(config.getMaxThreadsByTaskType(),
+                config.getAdaptiveConcurrencyMinThreads(), Runtime.getRuntime().availableProcessors(),
+                config.getAdaptiveConcurrencyMaxSystemLoad());
+        } else {
+            this.concurrencyController = null;
+        }
         this.location = config.getLocation();
         this.brokerLocator = brokerLocator;
         this.coreThread = new Thread(new ConnectionManager(), "dodo-worker-connection-manager-" + workerId);
@@ -244,6 +333,16 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
                     ), classloadersManager);
             }
         }
+        if (concurrencyController != null) {
+            long interval = config.getAdaptiveConcurrencyInterval();
+            scheduler.scheduleWithFixedDelay(() -> {
+                if (concurrencyController.adjust()) {
+                    // advertise the new limits at once
+                    lastPingSent = 0;
+                    wakeUp();
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
         this.coreThread.start();
         JVMWorkersRegistry.registerWorker(workerId, this);
     }
@@ -258,6 +357,9 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
         if (message.type == Message.TYPE_TASK_ASSIGNED) {
             startTask(message);
         }
+        if (message.type == Message.TYPE_CANCEL_TASK) {
+            cancelTask((Long) message.parameters.get("taskid"), "task cancelled by the broker");
+        }
     }
 
     @Override
@@ -268,8 +370,36 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
     }
 
     BlockingQueue<FinishedTaskNotification> pendingFinishedTaskNotifications = new LinkedBlockingQueue<>();
-    private long lastFinishedTaskNotificationSent;
-    private long lastPingSent;
+    private volatile long retryFinishedTaskNotificationsAfter;
+    private volatile long lastPingSent;
+    private final Object wakeUpSignal = new Object();
+    private boolean wakeUpRequested;
+
+    /**
+     * Wakes up the connection manager, for instance because there are new
+     * notifications to be sent to the broker
+     */
+    private void wakeUp() {
+        synchronized (wakeUpSignal) {
+            wakeUpRequested = true;
+            wakeUpSignal.notifyAll();
+        }
+    }
+
+    private void waitForWakeUp(long timeout) throws InterruptedException {
+        synchronized (wakeUpSignal) {
+            if (!wakeUpRequested && timeout > 0) {
+                wakeUpSignal.wait(timeout);
+            }
+            wakeUpRequested = false;
+        }
+    }
+
+    /**
+     * Maximum time the connection manager sleeps, external checks are
+     * performed at least with this period
+     */
+    private static final long MAX_CONNECTION_MANAGER_WAIT = 1000;
 
     ExecutorRunnable.TaskExecutionCallback executionCallback = new ExecutorRunnable.TaskExecutionCallback() {
         @Override
@@ -278,23 +408,86 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
             switch (finalStatus) {
                 case TaskExecutorStatus.ERROR:
                 case TaskExecutorStatus.FINISHED:
+                    taskEnded(taskId, parameters);
                     runningTasksLock.writeLock().lock();
                     try {
-                        runningTasks.remove(taskId);
+                        releaseTask(taskId);
                     } finally {
                         runningTasksLock.writeLock().unlock();
                     }
                     pendingFinishedTaskNotifications.add(new FinishedTaskNotification(taskId, finalStatus, results, error));
+                    wakeUp();
+                    startPrefetchedTasks();
                     break;
                 case TaskExecutorStatus.RUNNING:
+                    taskStartTimes.put(taskId, System.nanoTime());
+                    if (concurrencyController != null) {
+                        concurrencyController.taskStarted((String) parameters.get("tasktype"));
+                    }
                     break;
             }
         }
 
     };
 
-    private void notifyTasksFinished(List<FinishedTaskNotification> notifications) {
+    private void taskEnded(long taskId, Map<String, Object> parameters) {
+        Long start = taskStartTimes.remove(taskId);
+        if (start != null) {
+            long latency = System.nanoTime() - start;
+            updateTaskLatency(latency);
+            if (concurrencyController != null) {
+                concurrencyController.taskFinished((String) parameters.get("tasktype"), latency);
+            }
+        }
+    }
+
+    /**
+     * Must be called holding the write lock on runningTasksLock
+     */
+    private void releaseTask(Long taskId) {
+        runningTasks.remove(taskId);
+        runningExecutions.remove(taskId);
+        BatchExecutorRunnable batch = runningBatches.remove(taskId);
+        if (batch != null && !batchedTasks.remove(taskId)) {
+            // the task was accounted for the thread of the batch, which is still busy with the other tasks
+            for (Long other : batch.getTaskIds()) {
+                if (batchedTasks.remove(other)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Called at the end of a batch, the notifications are queued together in
+     * order to be sent to the broker with a single message
+     */
+    void batchFinished(List<Map<String, Object>> tasks, List<FinishedTaskNotification> notifications) {
+        for (Map<String, Object> parameters : tasks) {
+            taskEnded((Long) parameters.get("taskid"), parameters);
+        }
+        runningTasksLock.writeLock().lock();
+        try {
+            for (FinishedTaskNotification notification : notifications) {
+                releaseTask(notification.taskId);
+            }
+        } finally {
+            runningTasksLock.writeLock().unlock();
+        }
+        pendingFinishedTaskNotifications.addAll(notifications);
+        wakeUp();
+        startPrefetchedTasks();
+    }
+
+    /**
+     * Sends the notifications of finished tasks to the broker
+     *
+     * @param notifications
+     * @return a latch which is released when the broker has answered
+     */
+    private CountDownLatch notifyTasksFinished(List<FinishedTaskNotification> notifications) {
         LOGGER.log(Level.FINEST, "notifyTasksFinished {0}", notifications);
+        CountDownLatch answered = new CountDownLatch(1);
         Channel _channel = channel;
         if (_channel != null) {
             List<Map<String, Object>> tasksData = new ArrayList<>();
@@ -314,11 +507,14 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
 
                 @Override
                 public void replyReceived(Message originalMessage, Message msg, Throwable error) {
+                    answered.countDown();
                     if (error != null) {
                         LOGGER.log(Level.SEVERE, "re-enqueing notification of task finish, due to broker comunication failure", error);
+                        retryFinishedTaskNotificationsAfter = System.currentTimeMillis() + config.getMaxWaitPendingFinishedTaskNotifications();
                         pendingFinishedTaskNotifications.addAll(notifications);
                     } else if (msg.type != Message.TYPE_ACK) {
                         LOGGER.log(Level.SEVERE, "re-enqueing notification of task finish, due to broker error anwser {0}", msg);
+                        retryFinishedTaskNotificationsAfter = System.currentTimeMillis() + config.getMaxWaitPendingFinishedTaskNotifications();
                         pendingFinishedTaskNotifications.addAll(notifications);
                     }
                 }
@@ -326,7 +522,9 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
         } else {
             LOGGER.log(Level.SEVERE, "re-enqueing notification of task finish, due to broker connection failure");
             pendingFinishedTaskNotifications.addAll(notifications);
+            answered.countDown();
         }
+        return answered;
     }
 
     private void startTask(Message message) {
@@ -334,21 +532,265 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
         String tasktype = (String) message.parameters.get("tasktype");
         runningTasksLock.writeLock().lock();
         try {
-            runningTasks.put(taskid, tasktype);
+            if (config.getPrefetchTasks() > 0) {
+                // the broker can assign more tasks than our threads, start them only if there is space
+                prefetchedTasks.put(taskid, message);
+            } else {
+                runningTasks.put(taskid, tasktype);
+            }
+        } finally {
+            runningTasksLock.writeLock().unlock();
+        }
+        if (config.getPrefetchTasks() > 0) {
+            startPrefetchedTasks();
+        } else {
+            executeTask(taskid, message);
+        }
+    }
+
+    private void executeTask(Long taskid, Message message) {
+        String tasktype = (String) message.parameters.get("tasktype");
+        // executors own their parameters, the message may be shared with the broker (see JVMChannel)
+        Map<String, Object> parameters = new HashMap<>(message.parameters);
+        ExecutorRunnable runnable = new ExecutorRunnable(this, taskid, parameters, executionCallback, getMaxExecutionTime(tasktype, message));
+        runningTasksLock.writeLock().lock();
+        try {
+            runningExecutions.put(taskid, runnable);
+        } finally {
+            runningTasksLock.writeLock().unlock();
+        }
+        runnable.startExecutionTimeout();
+        executionStrategy.execute(tasktype, runnable);
+    }
+
+    private void executeBatch(List<Message> batch) {
+        String tasktype = (String) batch.get(0).parameters.get("tasktype");
+        List<Map<String, Object>> tasks = new ArrayList<>(batch.size());
+        Map<Long, Long> maxExecutionTimes = new HashMap<>();
+        for (Message message : batch) {
+            tasks.add(new HashMap<>(message.parameters));
+            maxExecutionTimes.put((Long) message.parameters.get("taskid"), getMaxExecutionTime(tasktype, message));
+        }
+        BatchExecutorRunnable runnable = new BatchExecutorRunnable(this, tasktype, tasks, executionCallback, maxExecutionTimes);
+        runningTasksLock.writeLock().lock();
+        try {
+            for (Map<String, Object> parameters : tasks) {
+                runningBatches.put((Long) parameters.get("taskid"), runnable);
+            }
+        } finally {
+            runningTasksLock.writeLock().unlock();
+        }
+        runnable.startExecutionTimeout();
+        executionStrategy.execute(tasktype, runnable);
+    }
+
+    /**
+     * The value submitted with the task wins over the configuration of the
+     * tasktype, which wins over the default of the worker
+     */
+    private long getMaxExecutionTime(String tasktype, Message message) {
+        Number fromTask = (Number) message.parameters.get("maxExecutionTime");
+        if (fromTask != null && fromTask.longValue() > 0) {
+            return fromTask.longValue();
+        }
+        Long fromTaskType = config.getMaxExecutionTimeByTaskType().get(tasktype);
+        if (fromTaskType != null) {
+            return fromTaskType;
+        }
+        return config.getMaxExecutionTime();
+    }
+
+    ScheduledFuture<?> scheduleExecutionTimeout(ExecutorRunnable runnable, long maxExecutionTime) {
+        return scheduler.schedule(() -> {
+            runnable.cancel("task " + runnable.getTaskId() + " timed out after " + maxExecutionTime + " ms");
+        }, maxExecutionTime, TimeUnit.MILLISECONDS);
+    }
+
+    ScheduledFuture<?> scheduleExecutionTimeout(BatchExecutorRunnable runnable, long maxExecutionTime) {
+        return scheduler.schedule(() -> {
+            runnable.cancel("batch of tasks " + runnable.getTaskIds() + " timed out after " + maxExecutionTime + " ms");
+        }, maxExecutionTime, TimeUnit.MILLISECONDS);
+    }
+
+    ScheduledFuture<?> scheduleExecutionTimeout(BatchExecutorRunnable runnable, Long taskId, long maxExecutionTime) {
+        return scheduler.schedule(() -> {
+            runnable.cancel(taskId, "task " + taskId + " timed out after " + maxExecutionTime + " ms");
+        }, maxExecutionTime, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Cancels a task, the slot is released immediately even if the task does
+     * not react to the interruption
+     *
+     * @param taskid
+     * @param reason
+     */
+    private void cancelTask(Long taskid, String reason) {
+        ExecutorRunnable runnable;
+        BatchExecutorRunnable batch;
+        runningTasksLock.writeLock().lock();
+        try {
+            if (prefetchedTasks.remove(taskid) != null) {
+                LOGGER.log(Level.SEVERE, "task {0} cancelled before start: {1}", new Object[]{taskid, reason});
+                pendingFinishedTaskNotifications.add(new FinishedTaskNotification(taskid, TaskExecutorStatus.ERROR, reason, null));
+                wakeUp();
+                return;
+            }
+            runnable = runningExecutions.get(taskid);
+            batch = runningBatches.get(taskid);
+        } finally {
+            runningTasksLock.writeLock().unlock();
+        }
+        if (batch != null) {
+            if (!batch.cancel(taskid, reason)) {
+                LOGGER.log(Level.SEVERE, "cannot cancel task {0}, it is not running", taskid);
+            }
+        } else if (runnable == null || !runnable.cancel(reason)) {
+            LOGGER.log(Level.SEVERE, "cannot cancel task {0}, it is not running", taskid);
+        }
+    }
+
+    static TaskExecutionStrategy createExecutionStrategy(WorkerCoreConfiguration config, String workerId) {
+        String mode = config.getExecutionMode();
+        if (WorkerCoreConfiguration.EXECUTION_MODE_TASKTYPE.equals(mode)) {
+            return new TaskTypeBulkheadsExecutionStrategy(config, workerId);
+        }
+        if (WorkerCoreConfiguration.EXECUTION_MODE_VIRTUAL.equals(mode)) {
+            try {
+                // JDK 21+, we are still compiled for Java 8
+                Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return new SharedExecutorExecutionStrategy((ExecutorService) method.invoke(null));
+            } catch (ReflectiveOperationException err) {
+                LOGGER.log(Level.SEVERE, "virtual threads are not available on this JVM, using executionMode=" + WorkerCoreConfiguration.EXECUTION_MODE_SHARED + ": " + err);
+            }
+        } else if (mode != null && !WorkerCoreConfiguration.EXECUTION_MODE_SHARED.equals(mode)) {
+            throw new IllegalArgumentException("invalid executionMode " + mode);
+        }
+        return new SharedExecutorExecutionStrategy(Executors.newCachedThreadPool(new ThreadFactory() {
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "dodo-worker-thread-" + workerId);
+            }
+        }));
+    }
+
+    /**
+     * Starts the prefetched tasks, in the order of assignment, as long as
+     * maxThreads and the limits by tasktype allow it. For tasktypes with a
+     * batch size the following prefetched tasks of the same tasktype join the
+     * batch of the first one, without taking other threads
+     */
+    private void startPrefetchedTasks() {
+        if (stopped) {
+            return;
+        }
+        List<List<Message>> toStart = new ArrayList<>();
+        runningTasksLock.writeLock().lock();
+        try {
+            int runningThreads = runningTasks.size() - batchedTasks.size();
+            Map<String, List<Message>> openBatches = new HashMap<>();
+            for (Iterator<Message> it = prefetchedTasks.values().iterator(); it.hasNext();) {
+                Message message = it.next();
+                Long taskid = (Long) message.parameters.get("taskid");
+                String tasktype = (String) message.parameters.get("tasktype");
+                int batchSize = config.getBatchSizeByTaskType().getOrDefault(tasktype, 1);
+                String batchKey = batchSize > 1 ? batchKey(message.parameters) : null;
+                if (batchKey != null && unbatchableKeys.contains(batchKey)) {
+                    batchSize = 1;
+                }
+                if (batchSize > 1) {
+                    List<Message> batch = openBatches.get(batchKey);
+                    if (batch != null && batch.size() < batchSize) {
+                        it.remove();
+                        runningTasks.put(taskid, tasktype);
+                        batchedTasks.add(taskid);
+                        batch.add(message);
+                        continue;
+                    }
+                }
+                if (runningThreads >= config.getMaxThreads()) {
+                    if (openBatches.isEmpty()) {
+                        break;
+                    }
+                    continue;
+                }
+                if (canStartTask(tasktype)) {
+                    it.remove();
+                    runningTasks.put(taskid, tasktype);
+                    runningThreads++;
+                    List<Message> batch = new ArrayList<>();
+                    batch.add(message);
+                    toStart.add(batch);
+                    if (batchSize > 1) {
+                        openBatches.put(batchKey, batch);
+                    }
+                }
+            }
+        } finally {
+            runningTasksLock.writeLock().unlock();
+        }
+        for (List<Message> batch : toStart) {
+            if (batch.size() == 1) {
+                Message message = batch.get(0);
+                executeTask((Long) message.parameters.get("taskid"), message);
+            } else {
+                executeBatch(batch);
+            }
+        }
+    }
+
+    /**
+     * Tasks of a batch share the same executor, so they must share the
+     * tasktype, the codepool and the mode
+     */
+    private static String batchKey(Map<String, Object> parameters) {
+        return parameters.get("tasktype") + "/" + parameters.get("codepool") + "/" + parameters.get("mode");
+    }
+
+    private boolean canStartTask(String tasktype) {
+        Integer limit = getMaxThreadsByTaskType().get(tasktype);
+        if (limit == null) {
+            // accepted as 'any' task, only maxThreads applies
+            return true;
+        }
+        int running = 0;
+        for (Map.Entry<Long, String> task : runningTasks.entrySet()) {
+            if (task.getValue().equals(tasktype) && !batchedTasks.contains(task.getKey())) {
+                running++;
+            }
+        }
+        return running < limit;
+    }
+
+    /**
+     * Gives back to the broker the tasks which have been prefetched but never
+     * started, the broker will schedule them again without counting an attempt
+     */
+    private void releasePrefetchedTasks() {
+        runningTasksLock.writeLock().lock();
+        try {
+            for (Long taskid : prefetchedTasks.keySet()) {
+                LOGGER.log(Level.SEVERE, "task {0} was prefetched but not started, releasing it", taskid);
+                pendingFinishedTaskNotifications.add(new FinishedTaskNotification(taskid, TaskExecutorStatus.RELEASED, "worker " + workerId + " shutting down, task not started", null));
+            }
+            prefetchedTasks.clear();
         } finally {
             runningTasksLock.writeLock().unlock();
         }
-        ExecutorRunnable runnable = new ExecutorRunnable(this, taskid, message.parameters, executionCallback);
-        threadpool.submit(runnable);
     }
 
     public void stop() {
         stopped = true;
+        wakeUp();
         try {
             coreThread.join();
         } catch (InterruptedException ex) {
             ex.printStackTrace();
         }
+        // running tasks are not interrupted
+        executionStrategy.shutdown();
+        scheduler.shutdownNow();
         if (classloadersManager != null) {
             classloadersManager.close();
         }
@@ -364,6 +806,17 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
         return executorFactory.createTaskExecutor(taskType, parameters);
     }
 
+    BatchTaskExecutor createBatchTaskExecutor(String taskType, Map<String, Object> parameters) {
+        BatchTaskExecutor executor = executorFactory.createBatchTaskExecutor(taskType, parameters);
+        if (executor == null) {
+            String batchKey = batchKey(parameters);
+            if (unbatchableKeys.add(batchKey)) {
+                LOGGER.log(Level.INFO, "no batch executor for {0}, its tasks will be executed one by one", batchKey);
+            }
+        }
+        return executor;
+    }
+
     private class ConnectionManager implements Runnable {
 
         @Override
@@ -392,14 +845,9 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
                         continue;
                     }
 
-                    try {
-                        sendPendingNotifications(false);
-                    } catch (InterruptedException exit) {
-                        LOGGER.log(Level.SEVERE, "exit loop " + exit);
-                        break;
-                    }
+                    long nextNotification = sendPendingNotifications(false);
 
-                    ping();
+                    long nextPing = ping();
 
                     if (externalProcessChecker != null) {
                         try {
@@ -409,6 +857,13 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
                             killWorkerHandler.killWorker(WorkerCore.this);
                         }
                     }
+
+                    try {
+                        waitForWakeUp(Math.min(MAX_CONNECTION_MANAGER_WAIT, Math.min(nextNotification, nextPing)));
+                    } catch (InterruptedException exit) {
+                        LOGGER.log(Level.SEVERE, "exit loop " + exit);
+                        break;
+                    }
                 } catch (Throwable error) {
                     LOGGER.log(Level.SEVERE, "error on main WorkerCore loop:" + error, error);
                 }
@@ -417,10 +872,7 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
 
             Channel _channel = channel;
             if (_channel != null) {
-                try {
-                    sendPendingNotifications(true);
-                } catch (InterruptedException ignore) {
-                }
+                // the broker stops assigning tasks before receiving the prefetched ones back
                 _channel.sendOneWayMessage(Message.WORKER_SHUTDOWN(processId), new SendResultCallback() {
 
                     @Override
@@ -428,21 +880,63 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
                         // ignore
                     }
                 });
+                releasePrefetchedTasks();
+                sendLastNotifications();
                 disconnect();
             }
 
         }
 
-        private void sendPendingNotifications(boolean force) throws InterruptedException {
-            long now = System.currentTimeMillis();
-            long delta = now - lastFinishedTaskNotificationSent;
-            int count = pendingFinishedTaskNotifications.size();
-            if (!force && (count < config.getMaxPendingFinishedTaskNotifications() && delta < config.getMaxWaitPendingFinishedTaskNotifications())) {
-                LOGGER.log(Level.FINEST, "sendPendingNotifications count {0} elapsed {1}", new Object[]{count, delta + " ms"});
-                Thread.sleep(100);
+        /**
+         * Sends all the pending notifications and waits for the answer of the
+         * broker, notifications which are still in flight when the channel is
+         * closed would be lost
+         */
+        private void sendLastNotifications() {
+            List<FinishedTaskNotification> batch = new ArrayList<>();
+            FinishedTaskNotification notification = pendingFinishedTaskNotifications.poll();
+            while (notification != null) {
+                batch.add(notification);
+                notification = pendingFinishedTaskNotifications.poll();
+            }
+            if (batch.isEmpty()) {
                 return;
             }
-            lastFinishedTaskNotificationSent = now;
+            try {
+                if (!notifyTasksFinished(batch).await(config.getNetworkTimeout(), TimeUnit.MILLISECONDS)) {
+                    LOGGER.log(Level.SEVERE, "no answer from the broker about the last {0} notifications", batch.size());
+                }
+            } catch (InterruptedException err) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Sends the notifications of finished tasks. Notifications are sent as
+         * soon as the worker is idle, or the queue is full, otherwise they
+         * linger in order to be sent together with the next ones
+         *
+         * @param force
+         * @return the time to wait before the next check, in milliseconds
+         */
+        private long sendPendingNotifications(boolean force) {
+            FinishedTaskNotification first = pendingFinishedTaskNotifications.peek();
+            if (first == null) {
+                return Long.MAX_VALUE;
+            }
+            if (!force) {
+                long now = System.currentTimeMillis();
+                if (now < retryFinishedTaskNotificationsAfter) {
+                    return retryFinishedTaskNotificationsAfter - now;
+                }
+                int count = pendingFinishedTaskNotifications.size();
+                long linger = Math.min(config.getFinishedTaskNotificationsLinger(), config.getMaxWaitPendingFinishedTaskNotifications());
+                long deadline = first.timestamp + linger;
+                if (count < config.getMaxPendingFinishedTaskNotifications() && now < deadline && !isIdle()) {
+                    LOGGER.log(Level.FINEST, "sendPendingNotifications count {0} lingering {1}", new Object[]{count, (deadline - now) + " ms"});
+                    return deadline - now;
+                }
+            }
             int max = 1000;
             List<FinishedTaskNotification> batch = new ArrayList<>();
             FinishedTaskNotification notification = pendingFinishedTaskNotifications.poll();
@@ -454,12 +948,22 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
                 notification = pendingFinishedTaskNotifications.poll();
             }
             if (batch.isEmpty()) {
-                return;
+                return Long.MAX_VALUE;
             }
             long _start = System.currentTimeMillis();
             notifyTasksFinished(batch);
             long _stop = System.currentTimeMillis();
             LOGGER.log(Level.FINE, "pending notifications sent {0} remaining {1}, {2} ms", new Object[]{batch.size(), pendingFinishedTaskNotifications.size(), _stop - _start});
+            return pendingFinishedTaskNotifications.isEmpty() ? Long.MAX_VALUE : 0;
+        }
+
+        private boolean isIdle() {
+            runningTasksLock.readLock().lock();
+            try {
+                return runningTasks.isEmpty();
+            } finally {
+                runningTasksLock.readLock().unlock();
+            }
         }
     }
 
@@ -522,8 +1026,16 @@ public class WorkerCore implements ChannelEventListener, ConnectionRequestInfo,
         return config.getMaxThreads();
     }
 
+    @Override
+    public int getPrefetchTasks() {
+        return config.getPrefetchTasks();
+    }
+
     @Override
     public Map<String, Integer> getMaxThreadsByTaskType() {
+        if (concurrencyController != null) {
+            return concurrencyController.getLimits();
+        }
         return config.getMaxThreadsByTaskType();
     }
 
@@ -35,6 +35,22 @@ import majordodo.utils.ReflectionUtils;
  */
 public class WorkerCoreConfiguration {
 
+    /**
+     * All the tasks run on a single pool of threads, which grows on demand
+     */
+    public static final String EXECUTION_MODE_SHARED = "shared";
+    /**
+     * Each tasktype runs on its own pool of threads, sized from
+     * maxThreadsByTaskType
+     */
+    public static final String EXECUTION_MODE_TASKTYPE = "tasktype";
+    /**
+     * Each task runs on a new virtual thread, suited for executors which
+     * mostly wait for I/O. It requires a JDK with virtual threads, otherwise
+     * the shared mode is used
+     */
+    public static final String EXECUTION_MODE_VIRTUAL = "virtual";
+
     private int maxThreads;
     private String workerId;
     private String location;
@@ -75,6 +91,152 @@ public class WorkerCoreConfiguration {
         this.maxThreads = maxThreads;
     }
 
+    /**
+     * Number of tasks which the broker can assign to this worker on top of
+     * maxThreads (and of the limits by tasktype). Such tasks wait in a local
+     * queue and start as soon as a thread is free, without waiting for a round
+     * trip with the broker. Zero disables prefetching
+     */
+    private int prefetchTasks = 0;
+
+    private String executionMode = EXECUTION_MODE_SHARED;
+
+    private long maxExecutionTime = 0;
+
+    private boolean adaptiveConcurrency = false;
+    private int adaptiveConcurrencyMinThreads = 1;
+    private long adaptiveConcurrencyInterval = 5000;
+    private int adaptiveConcurrencyMaxSystemLoad = 100;
+
+    /**
+     * Adapt the number of concurrent tasks of each tasktype to the measured
+     * latency of tasks and to the load of the host, the maxThreadsByTaskType
+     * are used as upper bounds
+     *
+     * @return
+     * @see AdaptiveConcurrencyController
+     */
+    public boolean isAdaptiveConcurrency() {
+        return adaptiveConcurrency;
+    }
+
+    public void setAdaptiveConcurrency(boolean adaptiveConcurrency) {
+        this.adaptiveConcurrency = adaptiveConcurrency;
+    }
+
+    /**
+     * Lower bound of the limits computed by adaptive concurrency
+     *
+     * @return
+     */
+    public int getAdaptiveConcurrencyMinThreads() {
+        return adaptiveConcurrencyMinThreads;
+    }
+
+    public void setAdaptiveConcurrencyMinThreads(int adaptiveConcurrencyMinThreads) {
+        this.adaptiveConcurrencyMinThreads = adaptiveConcurrencyMinThreads;
+    }
+
+    /**
+     * Period of the adjustments of adaptive concurrency, in milliseconds
+     *
+     * @return
+     */
+    public long getAdaptiveConcurrencyInterval() {
+        return adaptiveConcurrencyInterval;
+    }
+
+    public void setAdaptiveConcurrencyInterval(long adaptiveConcurrencyInterval) {
+        this.adaptiveConcurrencyInterval = adaptiveConcurrencyInterval;
+    }
+
+    /**
+     * System load average per processor, in percent, over which adaptive
+     * concurrency decreases all the limits. Zero disables the check
+     *
+     * @return
+     */
+    public int getAdaptiveConcurrencyMaxSystemLoad() {
+        return adaptiveConcurrencyMaxSystemLoad;
+    }
+
+    public void setAdaptiveConcurrencyMaxSystemLoad(int adaptiveConcurrencyMaxSystemLoad) {
+        this.adaptiveConcurrencyMaxSystemLoad = adaptiveConcurrencyMaxSystemLoad;
+    }
+    private Map<String, Long> maxExecutionTimeByTaskType = new HashMap<>();
+    private Map<String, Integer> batchSizeByTaskType = new HashMap<>();
+
+    /**
+     * Default maximum execution time of a task, in milliseconds. When the time
+     * elapses the executing thread is interrupted and the task is reported to
+     * the broker as failed. Zero means no limit. A value submitted together
+     * with the task takes precedence
+     *
+     * @return
+     * @see #getMaxExecutionTimeByTaskType()
+     */
+    public long getMaxExecutionTime() {
+        return maxExecutionTime;
+    }
+
+    public void setMaxExecutionTime(long maxExecutionTime) {
+        this.maxExecutionTime = maxExecutionTime;
+    }
+
+    /**
+     * Maximum execution time by tasktype, in milliseconds, overrides
+     * maxExecutionTime
+     *
+     * @return
+     */
+    public Map<String, Long> getMaxExecutionTimeByTaskType() {
+        return maxExecutionTimeByTaskType;
+    }
+
+    public void setMaxExecutionTimeByTaskType(Map<String, Long> maxExecutionTimeByTaskType) {
+        this.maxExecutionTimeByTaskType = maxExecutionTimeByTaskType;
+    }
+
+    /**
+     * Maximum number of prefetched tasks of a tasktype which are executed
+     * together, with a single call to a
+     * {@link majordodo.executors.BatchTaskExecutor} on a single thread.
+     * Tasktypes not listed here are executed one by one. Batches are built from
+     * the queue of prefetched tasks, so prefetchTasks should be at least as
+     * large as the batch size
+     *
+     * @return
+     */
+    public Map<String, Integer> getBatchSizeByTaskType() {
+        return batchSizeByTaskType;
+    }
+
+    public void setBatchSizeByTaskType(Map<String, Integer> batchSizeByTaskType) {
+        this.batchSizeByTaskType = batchSizeByTaskType;
+    }
+
+    /**
+     * How tasks are mapped to threads, see EXECUTION_MODE_SHARED,
+     * EXECUTION_MODE_TASKTYPE and EXECUTION_MODE_VIRTUAL
+     *
+     * @return
+     */
+    public String getExecutionMode() {
+        return executionMode;
+    }
+
+    public void setExecutionMode(String executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    public int getPrefetchTasks() {
+        return prefetchTasks;
+    }
+
+    public void setPrefetchTasks(int prefetchTasks) {
+        this.prefetchTasks = prefetchTasks;
+    }
+
     /**
      * Directory for temporary directories for CodePools
      *
@@ -226,6 +388,22 @@ public class WorkerCoreConfiguration {
         this.maxWaitPendingFinishedTaskNotifications = maxWaitPendingFinishedTaskNotifications;
     }
 
+    /**
+     * Time a notification of a finished task can wait for other notifications,
+     * in order to send them in a single message. Notifications are sent at
+     * once when the worker has no more running tasks. It cannot exceed
+     * maxWaitPendingFinishedTaskNotifications
+     */
+    private long finishedTaskNotificationsLinger = 0;
+
+    public long getFinishedTaskNotificationsLinger() {
+        return finishedTaskNotificationsLinger;
+    }
+
+    public void setFinishedTaskNotificationsLinger(long finishedTaskNotificationsLinger) {
+        this.finishedTaskNotificationsLinger = finishedTaskNotificationsLinger;
+    }
+
     /**
      * Maximum time to wait before issuing a ping (anche configuration change)
      * to the broker
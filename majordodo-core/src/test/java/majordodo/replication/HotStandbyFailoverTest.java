@@ -0,0 +1,179 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.replication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Level;
+import java.util.logging.SimpleFormatter;
+import majordodo.clientfacade.AddTaskRequest;
+import majordodo.clientfacade.BrokerStatusView;
+import majordodo.network.BrokerHostData;
+import majordodo.network.netty.NettyChannelAcceptor;
+import majordodo.task.AssignedTask;
+import majordodo.task.Broker;
+import majordodo.task.BrokerConfiguration;
+import majordodo.task.ResourceUsageCounters;
+import majordodo.task.Task;
+import majordodo.task.TaskProperties;
+import majordodo.task.TaskPropertiesMapperFunction;
+import majordodo.task.TasksHeap;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Failover to a follower in hot standby mode
+ *
+ * @author enrico.olivelli
+ */
+public class HotStandbyFailoverTest {
+
+    @Before
+    public void setupLogger() throws Exception {
+        Level level = Level.SEVERE;
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                System.err.println("uncaughtException from thread " + t.getName() + ": " + e);
+                e.printStackTrace();
+            }
+        });
+        java.util.logging.LogManager.getLogManager().reset();
+        ConsoleHandler ch = new ConsoleHandler();
+        ch.setLevel(level);
+        SimpleFormatter f = new SimpleFormatter();
+        ch.setFormatter(f);
+        java.util.logging.Logger.getLogger("").setLevel(level);
+        java.util.logging.Logger.getLogger("").addHandler(ch);
+    }
+
+    private static final String TASKTYPE_MYTYPE = "mytype";
+    private static final String userId = "queue1";
+    private static final String RESOURCE = "db1";
+    private static final int numTasks = 5000;
+    private static final int runningTasks = 10;
+
+    protected TaskPropertiesMapperFunction createTaskPropertiesMapperFunction() {
+        return (long taskid, String taskType, String userid) -> {
+            return new TaskProperties(1, new String[]{RESOURCE});
+        };
+    }
+
+    @Rule
+    public TemporaryFolder folderSnapshots = new TemporaryFolder();
+    @Rule
+    public TemporaryFolder folderZk = new TemporaryFolder();
+
+    @Test
+    public void failoverTest() throws Exception {
+
+        try (ZKTestEnv zkServer = new ZKTestEnv(folderZk.getRoot().toPath());) {
+            zkServer.startBookie();
+
+            String host = "localhost";
+            int port = 7000;
+            String host2 = "localhost";
+            int port2 = 7001;
+
+            BrokerConfiguration brokerConfig = new BrokerConfiguration();
+            brokerConfig.setMaxWorkerIdleTime(5000);
+            brokerConfig.setHotStandby(true);
+
+            Map<String, Integer> availableSpace = new HashMap<>();
+            availableSpace.put(Task.TASKTYPE_ANY, runningTasks);
+
+            Broker broker1 = new Broker(brokerConfig, new ReplicatedCommitLog(zkServer.getAddress(), zkServer.getTimeout(), zkServer.getPath(), folderSnapshots.getRoot().toPath(), BrokerHostData.formatHostdata(new BrokerHostData(host, port, "", false, null)), false), new TasksHeap(numTasks * 2, createTaskPropertiesMapperFunction()));
+            broker1.startAsWritable();
+            try (NettyChannelAcceptor server = new NettyChannelAcceptor(broker1.getAcceptor(), host, port)) {
+                server.start();
+
+                try (Broker broker2 = new Broker(brokerConfig, new ReplicatedCommitLog(zkServer.getAddress(), zkServer.getTimeout(), zkServer.getPath(), folderSnapshots.getRoot().toPath(), BrokerHostData.formatHostdata(new BrokerHostData(host2, port2, "", false, null)), false), new TasksHeap(numTasks * 2, createTaskPropertiesMapperFunction()));) {
+                    broker2.start();
+
+                    List<AddTaskRequest> requests = new ArrayList<>();
+                    for (int i = 0; i < numTasks; i++) {
+                        requests.add(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "param", 0, 0, null, 0, null, null));
+                    }
+                    broker1.getClient().submitTasks(requests);
+                    broker1.workerConnected("worker1", "pid1", "localhost", Collections.emptySet(), System.currentTimeMillis());
+                    List<AssignedTask> assigned = broker1.assignTasksToWorker(runningTasks, availableSpace, Arrays.asList(Task.GROUP_ANY), Collections.emptySet(), "worker1", Collections.emptyMap(), new ResourceUsageCounters());
+                    assertEquals(runningTasks, assigned.size());
+                    long lastAssignedTaskId = assigned.get(runningTasks - 1).taskid;
+
+                    // need to write at least another entry to the ledger, if not the second broker could not see the last entries
+                    broker1.noop();
+
+                    // the follower keeps its heap up to date
+                    boolean ok = false;
+                    for (int i = 0; i < 20; i++) {
+                        Integer used = broker2.getGlobalResourceUsageCounters().getCountersView().get(RESOURCE);
+                        if (used != null && used == runningTasks
+                            && broker2.getHeapStatusView().getTasks().size() == numTasks - runningTasks) {
+                            ok = true;
+                            break;
+                        }
+                        Thread.sleep(1000);
+                    }
+                    assertTrue(ok);
+
+                    long start = System.currentTimeMillis();
+                    server.close();
+                    broker1.close();
+
+                    for (int i = 0; i < 100; i++) {
+                        if (broker2.createBrokerStatusView().getTakeoverTime() >= 0) {
+                            break;
+                        }
+                        Thread.sleep(100);
+                    }
+                    assertTrue(broker2.isWritable());
+                    System.out.println("failover completed in " + (System.currentTimeMillis() - start) + " ms");
+
+                    BrokerStatusView status = broker2.createBrokerStatusView();
+                    System.out.println("takeover time: " + status.getTakeoverTime() + " ms");
+                    assertTrue(status.getTakeoverTime() >= 0);
+                    assertEquals(numTasks - runningTasks, broker2.getHeapStatusView().getTasks().size());
+                    assertEquals(runningTasks, broker2.getGlobalResourceUsageCounters().getCountersView().get(RESOURCE).intValue());
+
+                    assigned = broker2.assignTasksToWorker(runningTasks, availableSpace, Arrays.asList(Task.GROUP_ANY), Collections.emptySet(), "worker2", Collections.emptyMap(), new ResourceUsageCounters());
+                    assertEquals(runningTasks, assigned.size());
+                    // tasks are still scheduled in order of submission
+                    assertEquals(lastAssignedTaskId + 1, assigned.get(0).taskid);
+                    status = broker2.createBrokerStatusView();
+                    System.out.println("time to first assignment: " + status.getTimeToFirstAssignment() + " ms");
+                    assertTrue(status.getTimeToFirstAssignment() >= status.getTakeoverTime());
+                }
+            } finally {
+                broker1.close();
+            }
+        }
+
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.replication;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import majordodo.task.BrokerStatusSnapshot;
+import majordodo.task.LogSequenceNumber;
+import majordodo.task.StatusEdit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests for log entries which contain more than one edit
+ *
+ * @author enrico.olivelli
+ */
+public class PackedEntriesTest {
+
+    @Rule
+    public TemporaryFolder folderSnapshots = new TemporaryFolder();
+    @Rule
+    public TemporaryFolder folderZk = new TemporaryFolder();
+
+    private static List<StatusEdit> createBatch(long firstTaskId, int size) {
+        List<StatusEdit> edits = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            edits.add(StatusEdit.ADD_TASK(firstTaskId + i, "mytask", "param" + i, "myuser", 0, 0, null, 0, null, null));
+        }
+        return edits;
+    }
+
+    private static List<LogSequenceNumber> recover(ReplicatedCommitLog log, LogSequenceNumber from, List<StatusEdit> edits) throws Exception {
+        List<LogSequenceNumber> res = new ArrayList<>();
+        log.recovery(from, (a, b) -> {
+            if (!res.isEmpty()) {
+                assertTrue(a.after(res.get(res.size() - 1)));
+            }
+            res.add(a);
+            edits.add(b);
+        }, false);
+        return res;
+    }
+
+    @Test
+    public void test() throws Exception {
+        try (ZKTestEnv zkServer = new ZKTestEnv(folderZk.getRoot().toPath());) {
+            zkServer.startBookie();
+            List<LogSequenceNumber> written = new ArrayList<>();
+            try (ReplicatedCommitLog log = new ReplicatedCommitLog(zkServer.getAddress(), 40000, "/dodo", folderSnapshots.getRoot().toPath(), null, false);) {
+                BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+                log.setWriteLegacyFormat(false);
+                log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                }, false);
+                log.startWriting();
+                written.add(log.logStatusEdit(StatusEdit.NOOP()));
+                List<LogSequenceNumber> batch = log.logStatusEditBatch(createBatch(1, 1000));
+                assertEquals(1000, batch.size());
+                // the whole batch is in the same entry
+                for (int i = 0; i < batch.size(); i++) {
+                    assertEquals(batch.get(0).sequenceNumber, batch.get(i).sequenceNumber);
+                    assertEquals(i + 1, batch.get(i).subSequenceNumber);
+                }
+                assertEquals(batch.get(999).toString(), log.getLastSequenceNumber().toString());
+                written.addAll(batch);
+
+                // batches bigger than maxPackedEntrySize are split
+                log.setMaxPackedEntrySize(1024);
+                batch = log.logStatusEditBatch(createBatch(1001, 1000));
+                Set<Long> entries = new HashSet<>();
+                batch.forEach(n -> entries.add(n.sequenceNumber));
+                assertTrue(entries.size() > 1);
+                written.addAll(batch);
+
+                written.add(log.logStatusEdit(StatusEdit.NOOP()));
+                // last entry is not visible to readers until another entry is written
+                log.logStatusEdit(StatusEdit.NOOP());
+
+                try (ReplicatedCommitLog log2 = new ReplicatedCommitLog(zkServer.getAddress(), 40000, "/dodo", folderSnapshots.getRoot().toPath(), null, false);) {
+                    log2.loadBrokerStatusSnapshot();
+                    List<StatusEdit> edits = new ArrayList<>();
+                    List<LogSequenceNumber> recovered = recover(log2, new LogSequenceNumber(-1, -1), edits);
+                    assertEquals(written.size(), recovered.size());
+                    for (int i = 0; i < written.size(); i++) {
+                        assertEquals(written.get(i).toString(), recovered.get(i).toString());
+                    }
+                    assertEquals(StatusEdit.TYPE_NOOP, edits.get(0).editType);
+                    for (int i = 1; i <= 2000; i++) {
+                        assertEquals(i, edits.get(i).taskId);
+                    }
+
+                    // recovery from the middle of a packed entry
+                    LogSequenceNumber middle = written.get(500);
+                    edits.clear();
+                    recovered = recover(log2, middle, edits);
+                    assertEquals(written.size() - 501, recovered.size());
+                    assertEquals(written.get(501).toString(), recovered.get(0).toString());
+                    assertEquals(501, edits.get(0).taskId);
+
+                    // follower which starts from the middle of a packed entry
+                    List<LogSequenceNumber> followed = new ArrayList<>();
+                    log2.followTheLeader(middle, (a, b) -> {
+                        followed.add(a);
+                    });
+                    assertEquals(written.size() - 501, followed.size());
+                    assertEquals(written.get(501).toString(), followed.get(0).toString());
+                    // nothing new
+                    followed.clear();
+                    log2.followTheLeader(log2.getLastSequenceNumber(), (a, b) -> {
+                        followed.add(a);
+                    });
+                    assertTrue(followed.isEmpty());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNoopEditsAreNotAccounted() throws Exception {
+        try (ZKTestEnv zkServer = new ZKTestEnv(folderZk.getRoot().toPath());) {
+            zkServer.startBookie();
+            try (ReplicatedCommitLog log = new ReplicatedCommitLog(zkServer.getAddress(), 40000, "/dodo", folderSnapshots.getRoot().toPath(), null, false);) {
+                log.setWriteLegacyFormat(false);
+                BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+                log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                }, false);
+                log.startWriting();
+                long edits = log.getEditsSinceCheckpoint();
+                long bytes = log.getBytesSinceCheckpoint();
+                log.logStatusEditBatch(Arrays.asList(StatusEdit.NOOP(), StatusEdit.NOOP()));
+                assertEquals(edits, log.getEditsSinceCheckpoint());
+                assertEquals(bytes, log.getBytesSinceCheckpoint());
+
+                List<StatusEdit> batch = new ArrayList<>(createBatch(1, 2));
+                batch.add(StatusEdit.NOOP());
+                log.logStatusEditBatch(batch);
+                assertEquals(edits + 2, log.getEditsSinceCheckpoint());
+                assertTrue(log.getBytesSinceCheckpoint() > bytes);
+            }
+        }
+    }
+
+    @Test
+    public void testLegacyFormat() throws Exception {
+        try (ZKTestEnv zkServer = new ZKTestEnv(folderZk.getRoot().toPath());) {
+            zkServer.startBookie();
+            try (ReplicatedCommitLog log = new ReplicatedCommitLog(zkServer.getAddress(), 40000, "/dodo", folderSnapshots.getRoot().toPath(), null, false);) {
+                assertTrue(log.isWriteLegacyFormat());
+                BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+                log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                }, false);
+                log.startWriting();
+                List<LogSequenceNumber> batch = log.logStatusEditBatch(createBatch(1, 10));
+                // no packed entries, old brokers would not be able to read them
+                Set<Long> entries = new HashSet<>();
+                for (LogSequenceNumber n : batch) {
+                    assertEquals(0, n.subSequenceNumber);
+                    entries.add(n.sequenceNumber);
+                }
+                assertEquals(10, entries.size());
+                // last entry is not visible to readers until another entry is written
+                log.logStatusEdit(StatusEdit.NOOP());
+
+                try (ReplicatedCommitLog log2 = new ReplicatedCommitLog(zkServer.getAddress(), 40000, "/dodo", folderSnapshots.getRoot().toPath(), null, false);) {
+                    log2.loadBrokerStatusSnapshot();
+                    List<StatusEdit> edits = new ArrayList<>();
+                    recover(log2, new LogSequenceNumber(-1, -1), edits);
+                    assertEquals(10, edits.size());
+                    for (int i = 0; i < 10; i++) {
+                        assertEquals(i + 1, edits.get(i).taskId);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void benchPackedEntries() throws Exception {
+        try (ZKTestEnv zkServer = new ZKTestEnv(folderZk.getRoot().toPath());) {
+            zkServer.startBookie();
+            try (ReplicatedCommitLog log = new ReplicatedCommitLog(zkServer.getAddress(), 40000, "/dodo", folderSnapshots.getRoot().toPath(), null, false);) {
+                BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+                log.setWriteLegacyFormat(false);
+                log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                }, false);
+                log.startWriting();
+                int batchSize = 1000;
+                int rounds = 20;
+                long taskId = 1;
+                for (int maxPackedEntrySize : new int[]{0, 1024 * 1024, 0, 1024 * 1024}) {
+                    log.setMaxPackedEntrySize(maxPackedEntrySize);
+                    long bytesBefore = log.getWrittenBytes();
+                    Set<Long> entries = new HashSet<>();
+                    long _start = System.nanoTime();
+                    for (int i = 0; i < rounds; i++) {
+                        List<StatusEdit> batch = createBatch(taskId, batchSize);
+                        taskId += batchSize;
+                        log.logStatusEditBatch(batch).forEach(n -> entries.add(n.sequenceNumber));
+                    }
+                    long _stop = System.nanoTime();
+                    System.out.println("maxPackedEntrySize " + maxPackedEntrySize + ": " + rounds + " batches of " + batchSize + " edits, "
+                        + entries.size() + " entries, " + (log.getWrittenBytes() - bytesBefore) + " bytes, "
+                        + ((_stop - _start) / rounds / 1000) + " us per batch");
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,287 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import majordodo.clientfacade.AddTaskRequest;
+import majordodo.clientfacade.TaskStatusView;
+import majordodo.executors.BatchTaskExecutor;
+import majordodo.executors.BatchTaskResult;
+import majordodo.executors.TaskExecutor;
+import majordodo.executors.TaskExecutorFactory;
+import majordodo.worker.WorkerCore;
+import majordodo.worker.WorkerCoreConfiguration;
+import majordodo.worker.WorkerStatusListener;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests for the execution of prefetched tasks in batches
+ *
+ * @author enrico.olivelli
+ */
+public class BatchTaskExecutorTest extends BasicBrokerEnv {
+
+    private static final String TASKTYPE_MYTYPE = "mytype";
+    private static final String userId = "queue1";
+    private static final int group = 12345;
+    private static final String WORKERID = "workerid";
+    private static final int TASKS = 30;
+
+    private WorkerCoreConfiguration createConfiguration(int maxThreads, int prefetchTasks, int batchSize) {
+        Map<String, Integer> tags = new HashMap<>();
+        tags.put(TASKTYPE_MYTYPE, maxThreads);
+        WorkerCoreConfiguration config = new WorkerCoreConfiguration();
+        config.setWorkerId(WORKERID);
+        config.setMaxThreads(maxThreads);
+        config.setPrefetchTasks(prefetchTasks);
+        config.setMaxThreadsByTaskType(tags);
+        Map<String, Integer> batchSizes = new HashMap<>();
+        batchSizes.put(TASKTYPE_MYTYPE, batchSize);
+        config.setBatchSizeByTaskType(batchSizes);
+        config.setGroups(Arrays.asList(group));
+        return config;
+    }
+
+    private WorkerStatusListener connectedListener(CountDownLatch connectedLatch) {
+        return new WorkerStatusListener() {
+
+            @Override
+            public void connectionEvent(String event, WorkerCore core) {
+                if (event.equals(WorkerStatusListener.EVENT_CONNECTED)) {
+                    connectedLatch.countDown();
+                }
+            }
+
+        };
+    }
+
+    @Test
+    public void testBatches() throws Exception {
+        declareGroupForUser(userId, group);
+        CountDownLatch connectedLatch = new CountDownLatch(1);
+        AtomicInteger batches = new AtomicInteger();
+        AtomicInteger batchedTasks = new AtomicInteger();
+        AtomicInteger singleTasks = new AtomicInteger();
+        AtomicInteger maxBatchSize = new AtomicInteger();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        try (WorkerCore core = new WorkerCore(createConfiguration(2, 20, 10), "here", getBrokerLocator(), connectedListener(connectedLatch));) {
+            core.setExecutorFactory(new TaskExecutorFactory() {
+                @Override
+                public TaskExecutor createTaskExecutor(String taskType, Map<String, Object> parameters) {
+                    return new TaskExecutor() {
+                        @Override
+                        public String executeTask(Map<String, Object> parameters) throws Exception {
+                            singleTasks.incrementAndGet();
+                            Thread.sleep(20);
+                            return "single";
+                        }
+                    };
+                }
+
+                @Override
+                public BatchTaskExecutor createBatchTaskExecutor(String taskType, Map<String, Object> parameters) {
+                    return new BatchTaskExecutor() {
+                        @Override
+                        public List<BatchTaskResult> executeTasks(List<Map<String, Object>> tasks) throws Exception {
+                            int now = running.incrementAndGet();
+                            maxRunning.accumulateAndGet(now, Math::max);
+                            batches.incrementAndGet();
+                            batchedTasks.addAndGet(tasks.size());
+                            maxBatchSize.accumulateAndGet(tasks.size(), Math::max);
+                            Thread.sleep(20);
+                            List<BatchTaskResult> results = new ArrayList<>();
+                            for (Map<String, Object> task : tasks) {
+                                if ("fail".equals(task.get("parameter"))) {
+                                    results.add(BatchTaskResult.error(new Exception("failed")));
+                                } else {
+                                    results.add(BatchTaskResult.finished("batch"));
+                                }
+                            }
+                            running.decrementAndGet();
+                            return results;
+                        }
+                    };
+                }
+            });
+            core.start();
+            assertTrue(connectedLatch.await(10, TimeUnit.SECONDS));
+
+            List<Long> tasks = new ArrayList<>();
+            for (int i = 0; i < TASKS; i++) {
+                String parameter = i == TASKS / 2 ? "fail" : "param";
+                tasks.add(getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, parameter, 1, 0, null, 0, null, null)).getTaskId());
+            }
+            long failed = tasks.get(TASKS / 2);
+            for (long taskId : tasks) {
+                waitForStatus(taskId, taskId == failed ? Task.STATUS_ERROR : Task.STATUS_FINISHED);
+            }
+            System.out.println("batches " + batches + " batchedTasks " + batchedTasks + " singleTasks " + singleTasks + " maxBatchSize " + maxBatchSize);
+            // batches never exceed the batch size and do not take more than maxThreads threads
+            assertTrue(batches.get() > 0);
+            assertTrue(maxBatchSize.get() > 1);
+            assertTrue(maxBatchSize.get() <= 10);
+            assertTrue(maxRunning.get() <= 2);
+            assertEquals(TASKS, batchedTasks.get() + singleTasks.get());
+            // the failure of a task does not affect the other tasks of its batch
+            for (long taskId : tasks) {
+                TaskStatusView task = getClient().getTask(taskId);
+                if (taskId != failed) {
+                    assertTrue(task.getResult().equals("batch") || task.getResult().equals("single"));
+                }
+            }
+            assertTrue(core.getRunningTaskIds().isEmpty());
+        }
+    }
+
+    @Test
+    public void testBatchNotSupportedByFactory() throws Exception {
+        declareGroupForUser(userId, group);
+        CountDownLatch connectedLatch = new CountDownLatch(1);
+        AtomicInteger executed = new AtomicInteger();
+        try (WorkerCore core = new WorkerCore(createConfiguration(1, 20, 10), "here", getBrokerLocator(), connectedListener(connectedLatch));) {
+            core.setExecutorFactory((String tasktype, Map<String, Object> parameters) -> new TaskExecutor() {
+
+                @Override
+                public String executeTask(Map<String, Object> parameters) throws Exception {
+                    executed.incrementAndGet();
+                    Thread.sleep(5);
+                    return "";
+                }
+
+            });
+            core.start();
+            assertTrue(connectedLatch.await(10, TimeUnit.SECONDS));
+
+            List<Long> tasks = new ArrayList<>();
+            for (int i = 0; i < TASKS; i++) {
+                tasks.add(getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "param", 1, 0, null, 0, null, null)).getTaskId());
+            }
+            // tasks are executed one after the other
+            for (long taskId : tasks) {
+                waitForStatus(taskId, Task.STATUS_FINISHED);
+            }
+            assertEquals(TASKS, executed.get());
+        }
+    }
+
+    @Test
+    public void testBatchNotSupportedByFactoryTimeoutOfEachTask() throws Exception {
+        declareGroupForUser(userId, group);
+        CountDownLatch connectedLatch = new CountDownLatch(1);
+        AtomicInteger executed = new AtomicInteger();
+        try (WorkerCore core = new WorkerCore(createConfiguration(2, 20, 10), "here", getBrokerLocator(), connectedListener(connectedLatch));) {
+            core.setExecutorFactory((String tasktype, Map<String, Object> parameters) -> new TaskExecutor() {
+
+                @Override
+                public String executeTask(Map<String, Object> parameters) throws Exception {
+                    executed.incrementAndGet();
+                    Thread.sleep(100);
+                    return "";
+                }
+
+            });
+            core.start();
+            assertTrue(connectedLatch.await(10, TimeUnit.SECONDS));
+
+            List<Long> tasks = new ArrayList<>();
+            for (int i = 0; i < TASKS; i++) {
+                tasks.add(getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "param", 1, 0, null, 0, null, null, 500)).getTaskId());
+            }
+            // tasks executed one after the other on the same thread do not share the timeout
+            for (long taskId : tasks) {
+                waitForStatus(taskId, Task.STATUS_FINISHED);
+            }
+            assertEquals(TASKS, executed.get());
+            assertTrue(core.getRunningTaskIds().isEmpty());
+        }
+    }
+
+    @Test
+    public void testBatchTimeout() throws Exception {
+        declareGroupForUser(userId, group);
+        CountDownLatch connectedLatch = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        try (WorkerCore core = new WorkerCore(createConfiguration(1, 20, 10), "here", getBrokerLocator(), connectedListener(connectedLatch));) {
+            core.setExecutorFactory(new TaskExecutorFactory() {
+                @Override
+                public TaskExecutor createTaskExecutor(String taskType, Map<String, Object> parameters) {
+                    return new TaskExecutor() {
+                        @Override
+                        public String executeTask(Map<String, Object> parameters) throws Exception {
+                            // the first task may start alone
+                            Thread.sleep(60000);
+                            return "";
+                        }
+                    };
+                }
+
+                @Override
+                public BatchTaskExecutor createBatchTaskExecutor(String taskType, Map<String, Object> parameters) {
+                    return new BatchTaskExecutor() {
+                        @Override
+                        public List<BatchTaskResult> executeTasks(List<Map<String, Object>> tasks) throws Exception {
+                            try {
+                                Thread.sleep(60000);
+                            } catch (InterruptedException err) {
+                                interrupted.countDown();
+                                throw err;
+                            }
+                            return null;
+                        }
+                    };
+                }
+            });
+            core.start();
+            assertTrue(connectedLatch.await(10, TimeUnit.SECONDS));
+
+            List<Long> tasks = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                tasks.add(getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "param", 1, 0, null, 0, null, null, 500)).getTaskId());
+            }
+            for (long taskId : tasks) {
+                waitForStatus(taskId, Task.STATUS_ERROR);
+            }
+            assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+            assertTrue(core.getRunningTaskIds().isEmpty());
+        }
+    }
+
+    private void waitForStatus(long taskId, int status) throws Exception {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < deadline) {
+            if (getClient().getTask(taskId).getStatus() == status) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new Exception("task " + taskId + " did not reach status " + Task.statusToString(status));
+    }
+
+}
@@ -27,6 +27,9 @@ import java.util.zip.GZIPInputStream;
 import majordodo.codepools.CodePool;
 import org.junit.Assert;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import org.junit.Test;
 
 /**
@@ -130,6 +133,87 @@ public class BrokerStatusSerializerTest {
         InputStream data = BrokerStatusSerializerTest.class.getClassLoader().getResourceAsStream("examplesnap.json.gz");
         GZIPInputStream gzip = new GZIPInputStream(data);
         BrokerStatusSnapshot snap = BrokerStatusSnapshot.deserializeSnapshot(gzip);
-        BrokerStatusSnapshot.serializeSnapshot(snap, new ByteArrayOutputStream());
+
+        // the snapshot written with or without the dictionary contains the same tasks
+        for (boolean useDictionary : new boolean[]{false, true}) {
+            ByteArrayOutputStream oo = new ByteArrayOutputStream();
+            BrokerStatusSnapshot.serializeSnapshot(snap, oo, useDictionary);
+            BrokerStatusSnapshot snapAfter = BrokerStatusSnapshot.deserializeSnapshot(new ByteArrayInputStream(oo.toByteArray()));
+            assertEquals(snap.getTasks().size(), snapAfter.getTasks().size());
+            for (int i = 0; i < snap.getTasks().size(); i++) {
+                assertEquals(snap.getTasks().get(i).toString(), snapAfter.getTasks().get(i).toString());
+                assertEquals(snap.getTasks().get(i).getResources(), snapAfter.getTasks().get(i).getResources());
+            }
+        }
+    }
+
+    @Test
+    public void testDictionary() throws Exception {
+        BrokerStatusSnapshot snapBefore = new BrokerStatusSnapshot(17, 18, new LogSequenceNumber(101, 102));
+        for (int i = 0; i < 10; i++) {
+            Task task = new Task();
+            task.setTaskId(i + 1);
+            task.setType(new String("type" + (i % 2)));
+            task.setUserId(new String("user1"));
+            task.setResources(i % 2 == 0 ? "db1,db2" : null);
+            task.setMode(Task.MODE_EXECUTE_OBJECT);
+            task.setCodepool("pool1");
+            if (i < 5) {
+                task.setWorkerId("worker1");
+            }
+            snapBefore.getTasks().add(task);
+        }
+        Task prepared = new Task();
+        prepared.setTaskId(11);
+        prepared.setType("preparedtype");
+        prepared.setUserId("user1");
+        Transaction tx1 = new Transaction(1, 2432);
+        tx1.getPreparedTasks().add(prepared);
+        snapBefore.getTransactions().add(tx1);
+
+        // by default the snapshot can be read by older brokers
+        ByteArrayOutputStream oo = new ByteArrayOutputStream();
+        BrokerStatusSnapshot.serializeSnapshot(snapBefore, oo);
+        String json = oo.toString("utf-8");
+        assertFalse(json.contains("dictionary"));
+        assertFalse(json.contains("Ref\""));
+        BrokerStatusSnapshot snap = BrokerStatusSnapshot.deserializeSnapshot(new ByteArrayInputStream(oo.toByteArray()));
+        assertEquals(10, snap.getTasks().size());
+        assertEquals("worker1", snap.getTasks().get(0).getWorkerId());
+        assertEquals("preparedtype", snap.getTransactions().get(0).getPreparedTasks().get(0).getType());
+
+        oo = new ByteArrayOutputStream();
+        BrokerStatusSnapshot.serializeSnapshot(snapBefore, oo, true);
+        json = oo.toString("utf-8");
+        System.out.println("ser:" + json);
+        // each string is written only once
+        assertEquals(json.indexOf("user1"), json.lastIndexOf("user1"));
+
+        snap = BrokerStatusSnapshot.deserializeSnapshot(new ByteArrayInputStream(oo.toByteArray()));
+        assertEquals(10, snap.getTasks().size());
+        for (int i = 0; i < 10; i++) {
+            Task before = snapBefore.getTasks().get(i);
+            Task after = snap.getTasks().get(i);
+            assertEquals(before.getType(), after.getType());
+            assertEquals(before.getUserId(), after.getUserId());
+            assertEquals(before.getWorkerId(), after.getWorkerId());
+            assertEquals(before.getResources(), after.getResources());
+            assertEquals(before.getMode(), after.getMode());
+            assertEquals(before.getCodepool(), after.getCodepool());
+            // strings are shared among tasks
+            assertSame(snap.getTasks().get(0).getUserId(), after.getUserId());
+        }
+        assertEquals("preparedtype", snap.getTransactions().get(0).getPreparedTasks().get(0).getType());
+
+        // legacy format, without dictionary
+        String legacy = "{\"ledgerid\":1,\"sequenceNumber\":2,\"maxTaskId\":1,\"maxTransactionId\":0,"
+            + "\"tasks\":[{\"id\":1,\"status\":0,\"maxattempts\":1,\"attempts\":0,\"executionDeadline\":0,"
+            + "\"userId\":\"user1\",\"resources\":\"db1\",\"createdTimestamp\":5,\"type\":\"type1\"}]}";
+        snap = BrokerStatusSnapshot.deserializeSnapshot(new ByteArrayInputStream(legacy.getBytes("utf-8")));
+        Task task = snap.getTasks().get(0);
+        assertEquals("type1", task.getType());
+        assertEquals("user1", task.getUserId());
+        assertEquals("db1", task.getResources());
+        assertNull(task.getWorkerId());
     }
 }
@@ -0,0 +1,111 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Memoization of TaskPropertiesMapperFunction and incremental recomputeGroups
+ *
+ * @author enrico.olivelli
+ */
+public class CachingTaskPropertiesMapperFunctionTest {
+
+    private static final String TASKTYPE_MYTASK1 = "MYTASK1";
+    private static final String USERID1 = "myuser1";
+    private static final String USERID2 = "myuser2";
+
+    private final Map<String, Integer> groups = new HashMap<>();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final TaskPropertiesMapperFunction function = (long taskid, String taskType, String userid) -> {
+        calls.incrementAndGet();
+        return new TaskProperties(groups.getOrDefault(userid, 0), null);
+    };
+
+    @Test
+    public void testCache() throws Exception {
+        groups.put(USERID1, 1);
+        CachingTaskPropertiesMapperFunction instance = new CachingTaskPropertiesMapperFunction(function);
+        assertEquals(1, instance.getTaskProperties(1, TASKTYPE_MYTASK1, USERID1).groupId);
+        assertEquals(1, instance.getTaskProperties(2, TASKTYPE_MYTASK1, USERID1).groupId);
+        assertEquals(1, calls.get());
+
+        groups.put(USERID1, 2);
+        assertEquals(1, instance.getTaskProperties(3, TASKTYPE_MYTASK1, USERID1).groupId);
+        instance.invalidate(TASKTYPE_MYTASK1, USERID1);
+        assertEquals(2, instance.getTaskProperties(4, TASKTYPE_MYTASK1, USERID1).groupId);
+        assertEquals(2, calls.get());
+
+        instance.invalidate();
+        assertEquals(0, instance.size());
+    }
+
+    @Test
+    public void testRecomputeGroups() throws Exception {
+        groups.put(USERID1, 1);
+        groups.put(USERID2, 2);
+        CachingTaskPropertiesMapperFunction mapper = new CachingTaskPropertiesMapperFunction(function);
+        TasksHeap heap = new TasksHeap(100, mapper);
+        for (int i = 1; i <= 50; i++) {
+            heap.insertTask(i, TASKTYPE_MYTASK1, i % 2 == 0 ? USERID1 : USERID2);
+        }
+        assertEquals(2, calls.get());
+
+        // one call per key
+        groups.put(USERID1, 3);
+        heap.recomputeGroups();
+        assertEquals(4, calls.get());
+        Map<Integer, AtomicInteger> countByGroup = new HashMap<>();
+        heap.scan(entry -> countByGroup.computeIfAbsent(entry.groupid, k -> new AtomicInteger()).incrementAndGet());
+        assertEquals(25, countByGroup.get(3).get());
+        assertEquals(25, countByGroup.get(2).get());
+
+        // new tasks use the refreshed value
+        heap.insertTask(51, TASKTYPE_MYTASK1, USERID1);
+        assertEquals(4, calls.get());
+        heap.scan(entry -> {
+            if (entry.taskid == 51) {
+                assertEquals(3, entry.groupid);
+            }
+        });
+    }
+
+    @Test
+    public void testRecomputeGroupsWithoutCache() throws Exception {
+        groups.put(USERID1, 1);
+        TasksHeap heap = new TasksHeap(100, function);
+        for (int i = 1; i <= 50; i++) {
+            heap.insertTask(i, TASKTYPE_MYTASK1, USERID1);
+        }
+        groups.put(USERID1, 5);
+        heap.recomputeGroups();
+        AtomicInteger count = new AtomicInteger();
+        heap.scan(entry -> {
+            assertEquals(5, entry.groupid);
+            count.incrementAndGet();
+        });
+        assertEquals(50, count.get());
+    }
+
+}
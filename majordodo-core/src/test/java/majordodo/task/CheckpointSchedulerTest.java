@@ -0,0 +1,84 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import majordodo.clientfacade.AddTaskRequest;
+import majordodo.clientfacade.BrokerStatusView;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Size based triggers of checkpoints
+ *
+ * @author enrico.olivelli
+ */
+public class CheckpointSchedulerTest extends BasicBrokerEnv {
+
+    private static final int MAX_EDITS = 100;
+
+    @Override
+    protected BrokerConfiguration createBrokerConfiguration() {
+        BrokerConfiguration configuration = new BrokerConfiguration();
+        configuration.setCheckpointMaxEdits(MAX_EDITS);
+        configuration.setCheckpointCheckPeriod(10);
+        configuration.setCheckpointTime(1000 * 60 * 60);
+        return configuration;
+    }
+
+    private void waitForCheckpoints(int count) throws Exception {
+        for (int i = 0; i < 500; i++) {
+            if (broker.getBrokerStatus().getCheckpointsCount() >= count) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        assertEquals(count, broker.getBrokerStatus().getCheckpointsCount());
+    }
+
+    @Test
+    public void test() throws Exception {
+        // checkpoint at leadership takeover
+        waitForCheckpoints(1);
+        BrokerStatus status = broker.getBrokerStatus();
+        BrokerConfiguration timeBasedConfiguration = createBrokerConfiguration();
+        timeBasedConfiguration.setCheckpointTime(1);
+        CheckpointScheduler scheduler = new CheckpointScheduler(timeBasedConfiguration, broker);
+        assertEquals(0, status.getEditsSinceCheckpoint());
+        assertEquals(0, status.getEstimatedReplayTime());
+
+        // nothing changed, the time based trigger does not checkpoint
+        Thread.sleep(100);
+        assertNull(scheduler.checkpointReason());
+        assertEquals(1, status.getCheckpointsCount());
+
+        for (int i = 0; i < MAX_EDITS; i++) {
+            broker.getClient().submitTask(new AddTaskRequest(0, "mytype", "myuser", "param", 0, 0, null, 0, null, null));
+        }
+        waitForCheckpoints(2);
+        assertTrue(status.getEditsSinceCheckpoint() < MAX_EDITS);
+
+        BrokerStatusView view = broker.createBrokerStatusView();
+        assertEquals(status.getEditsSinceCheckpoint(), view.getEditsSinceCheckpoint());
+        assertTrue(view.getLastCheckpointTime() > 0);
+    }
+
+}
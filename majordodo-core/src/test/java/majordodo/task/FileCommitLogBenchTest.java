@@ -0,0 +1,95 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Throughput of FileCommitLog
+ *
+ * @author enrico.olivelli
+ */
+public class FileCommitLogBenchTest {
+
+    @Rule
+    public TemporaryFolder folderSnapshots = new TemporaryFolder();
+    @Rule
+    public TemporaryFolder folderLogs = new TemporaryFolder();
+
+    private static final int EDITS_PER_THREAD = 2000;
+
+    @Test
+    public void bench() throws Exception {
+        long taskId = 0;
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), folderLogs.getRoot().toPath(), 1024 * 1024);) {
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+            }, false);
+            log.startWriting();
+            for (int threads : new int[]{1, 16, 64, 1, 16, 64}) {
+                AtomicLong nextTaskId = new AtomicLong(taskId);
+                long syncsBefore = log.getSyncCount();
+                List<Thread> writers = new ArrayList<>();
+                long _start = System.nanoTime();
+                for (int i = 0; i < threads; i++) {
+                    Thread t = new Thread(() -> {
+                        try {
+                            for (int j = 0; j < EDITS_PER_THREAD; j++) {
+                                log.logStatusEdit(StatusEdit.ADD_TASK(nextTaskId.incrementAndGet(), "mytype", "param", "myuser", 0, 0, null, 0, null, null));
+                            }
+                        } catch (LogNotAvailableException err) {
+                            throw new RuntimeException(err);
+                        }
+                    });
+                    writers.add(t);
+                    t.start();
+                }
+                for (Thread t : writers) {
+                    t.join();
+                }
+                long _stop = System.nanoTime();
+                taskId = nextTaskId.get();
+                double seconds = (_stop - _start) / 1000000000.0;
+                long edits = (long) threads * EDITS_PER_THREAD;
+                long syncs = log.getSyncCount() - syncsBefore;
+                System.out.println(threads + " threads: " + (long) (edits / seconds) + " edits/s, " + (long) (syncs / seconds) + " fsyncs/s (" + syncs + " fsyncs for " + edits + " edits)");
+            }
+        }
+
+        long total = taskId;
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), folderLogs.getRoot().toPath(), 1024 * 1024);) {
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            AtomicLong count = new AtomicLong();
+            long _start = System.nanoTime();
+            log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                count.incrementAndGet();
+            }, false);
+            long _stop = System.nanoTime();
+            assertEquals(total, count.get());
+            System.out.println("recovery of " + count.get() + " edits: " + (_stop - _start) / 1000000 + " ms");
+        }
+    }
+}
@@ -24,7 +24,11 @@ import majordodo.task.FileCommitLog;
 import majordodo.task.LogSequenceNumber;
 import majordodo.task.Task;
 import majordodo.task.StatusEdit;
-import com.sun.javafx.scene.control.skin.VirtualFlow;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -33,6 +37,7 @@ import java.util.concurrent.atomic.AtomicLong;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.junit.Assert.assertNotNull;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -95,4 +100,174 @@ public class FileCommitLogSimpleTest {
 
     }
 
+    @Test
+    public void testMaxExecutionTime() throws Exception {
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), folderLogs.getRoot().toPath(), 1024 * 1024);) {
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                fail();
+            }, false);
+            log.startWriting();
+            log.logStatusEdit(StatusEdit.ADD_TASK(1, "mytype", "param1", "myuser", 0, 0, null, 0, null, null, 1000));
+            log.logStatusEdit(StatusEdit.ADD_TASK(2, "mytype", "param2", "myuser", 0, 0, null, 0, null, null));
+        }
+        List<StatusEdit> edits = recover(1024 * 1024);
+        assertEquals(2, edits.size());
+        assertEquals(1000, edits.get(0).maxExecutionTime);
+        assertEquals(0, edits.get(1).maxExecutionTime);
+    }
+
+    private static Path lastLogFile(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Files.list(directory).filter(p -> p.toString().endsWith(".txlog")).forEach(files::add);
+        files.sort(null);
+        return files.get(files.size() - 1);
+    }
+
+    private static void corruptLastEntry(Path file) throws IOException {
+        byte[] content = Files.readAllBytes(file);
+        int last = content.length - 1;
+        while (content[last] == 0) {
+            last--;
+        }
+        content[last] = (byte) ~content[last];
+        Files.write(file, content);
+    }
+
+    private List<StatusEdit> recover(long maxLogFileSize) throws Exception {
+        List<StatusEdit> edits = new ArrayList<>();
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), folderLogs.getRoot().toPath(), maxLogFileSize);) {
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                edits.add(b);
+            }, false);
+        }
+        return edits;
+    }
+
+    @Test
+    public void testTornWrite() throws Exception {
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), folderLogs.getRoot().toPath(), 1024 * 1024);) {
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                fail();
+            }, false);
+            log.startWriting();
+            log.logStatusEdit(StatusEdit.ADD_TASK(1, "mytype", "param1", "myuser", 0, 0, null, 0, null, null));
+            log.logStatusEdit(StatusEdit.ADD_TASK(2, "mytype", "param2", "myuser", 0, 0, null, 0, null, null));
+            log.logStatusEdit(StatusEdit.ADD_TASK(3, "mytype", "param3", "myuser", 0, 0, null, 0, null, null));
+        }
+        assertEquals(3, recover(1024 * 1024).size());
+
+        // the last entry of the last file was never acked, it is discarded
+        corruptLastEntry(lastLogFile(folderLogs.getRoot().toPath()));
+        List<StatusEdit> edits = recover(1024 * 1024);
+        assertEquals(2, edits.size());
+        assertEquals(1, edits.get(0).taskId);
+        assertEquals(2, edits.get(1).taskId);
+    }
+
+    @Test
+    public void testCorruptedFile() throws Exception {
+        // very small files, every entry goes to a new file
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), folderLogs.getRoot().toPath(), 10);) {
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                fail();
+            }, false);
+            log.startWriting();
+            log.logStatusEdit(StatusEdit.ADD_TASK(1, "mytype", "param1", "myuser", 0, 0, null, 0, null, null));
+            log.logStatusEdit(StatusEdit.ADD_TASK(2, "mytype", "param2", "myuser", 0, 0, null, 0, null, null));
+        }
+        assertEquals(2, recover(10).size());
+
+        List<Path> files = new ArrayList<>();
+        Files.list(folderLogs.getRoot().toPath()).filter(p -> p.toString().endsWith(".txlog")).forEach(files::add);
+        files.sort(null);
+        // the first file is left empty, as the first entry does not fit into it
+        assertEquals(3, files.size());
+        corruptLastEntry(files.get(1));
+        try {
+            recover(10);
+            fail();
+        } catch (LogNotAvailableException expected) {
+            assertNotNull(expected.getCause());
+        }
+    }
+
+    @Test
+    public void testReopenEmptyLog() throws Exception {
+        // the broker dies before writing anything to the new file
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), folderLogs.getRoot().toPath(), 1024 * 1024);) {
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                fail();
+            }, false);
+            log.startWriting();
+            long deadline = System.currentTimeMillis() + 10000;
+            while (System.currentTimeMillis() < deadline
+                && (Files.list(folderLogs.getRoot().toPath()).count() == 0
+                || Files.size(lastLogFile(folderLogs.getRoot().toPath())) < 1024 * 1024)) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, recover(1024 * 1024).size());
+        }
+        assertEquals(0, recover(1024 * 1024).size());
+    }
+
+    @Test
+    public void testSegmentWithoutHeader() throws Exception {
+        // a preallocated file whose header was never written
+        Path file = folderLogs.getRoot().toPath().resolve(String.format("%016x", 1) + ".txlog");
+        Files.write(file, new byte[1024 * 1024]);
+        assertEquals(0, recover(1024 * 1024).size());
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), folderLogs.getRoot().toPath(), 1024 * 1024);) {
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                fail();
+            }, false);
+            log.startWriting();
+            LogSequenceNumber lsn = log.logStatusEdit(StatusEdit.ADD_TASK(1, "mytype", "param1", "myuser", 0, 0, null, 0, null, null));
+            assertEquals(2, lsn.ledgerId);
+        }
+        // the empty file is no more the last one
+        List<StatusEdit> edits = recover(1024 * 1024);
+        assertEquals(1, edits.size());
+        assertEquals(1, edits.get(0).taskId);
+    }
+
+    @Test
+    public void testLegacyFormat() throws Exception {
+        StatusEdit edit1 = StatusEdit.ADD_TASK(1, "mytype", "param1", "myuser", 0, 0, null, 0, null, null);
+        StatusEdit edit2 = StatusEdit.ASSIGN_TASK_TO_WORKER(1, "worker1", 1, "db1,db2");
+        Path file = folderLogs.getRoot().toPath().resolve(String.format("%016x", 1) + ".txlog");
+        try (OutputStream out = Files.newOutputStream(file);
+            DataOutputStream dout = new DataOutputStream(out)) {
+            long seq = 0;
+            for (StatusEdit edit : new StatusEdit[]{edit1, edit2}) {
+                byte[] data = edit.serializeLegacyFormat();
+                dout.writeByte(13);
+                dout.writeLong(seq++);
+                dout.writeInt(data.length);
+                dout.write(data);
+                dout.writeByte(25);
+            }
+        }
+        List<StatusEdit> edits = recover(1024 * 1024);
+        assertEquals(2, edits.size());
+        assertEquals(StatusEdit.TYPE_ADD_TASK, edits.get(0).editType);
+        assertEquals("db1,db2", edits.get(1).resources);
+
+        // new entries go to a new file, in the new format
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), folderLogs.getRoot().toPath(), 1024 * 1024);) {
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+            }, false);
+            log.startWriting();
+            LogSequenceNumber lsn = log.logStatusEdit(StatusEdit.ADD_TASK(2, "mytype", "param2", "myuser", 0, 0, null, 0, null, null));
+            assertEquals(2, lsn.ledgerId);
+        }
+        assertEquals(3, recover(1024 * 1024).size());
+    }
+
 }
@@ -0,0 +1,114 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import majordodo.clientfacade.AddTaskRequest;
+import majordodo.clientfacade.TaskStatusView;
+import majordodo.executors.TaskExecutor;
+import majordodo.worker.WorkerCore;
+import majordodo.worker.WorkerCoreConfiguration;
+import majordodo.worker.WorkerStatusListener;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * The broker is notified of finished tasks as soon as the worker is idle
+ *
+ * @author enrico.olivelli
+ */
+public class FinishedTaskNotificationLatencyTest extends BasicBrokerEnv {
+
+    private static final String TASKTYPE_MYTYPE = "mytype";
+    private static final String userId = "queue1";
+    private static final int group = 12345;
+    private static final int COUNT = 10;
+
+    @Test
+    public void test() throws Exception {
+        declareGroupForUser(userId, group);
+        CountDownLatch connectedLatch = new CountDownLatch(1);
+        WorkerStatusListener listener = new WorkerStatusListener() {
+
+            @Override
+            public void connectionEvent(String event, WorkerCore core) {
+                if (event.equals(WorkerStatusListener.EVENT_CONNECTED)) {
+                    connectedLatch.countDown();
+                }
+            }
+
+        };
+        Map<String, Integer> tags = new HashMap<>();
+        tags.put(TASKTYPE_MYTYPE, 1);
+        WorkerCoreConfiguration config = new WorkerCoreConfiguration();
+        config.setWorkerId("workerid");
+        config.setMaxThreadsByTaskType(tags);
+        config.setGroups(Arrays.asList(group));
+        // with the default values a notification could wait up to 1 second
+        config.setMaxPendingFinishedTaskNotifications(10);
+        config.setMaxWaitPendingFinishedTaskNotifications(1000);
+        Map<Long, Long> executionEnd = new ConcurrentHashMap<>();
+        try (WorkerCore core = new WorkerCore(config, "here", getBrokerLocator(), listener);) {
+            core.start();
+            assertTrue(connectedLatch.await(10, TimeUnit.SECONDS));
+            core.setExecutorFactory((String tasktype, Map<String, Object> parameters) -> new TaskExecutor() {
+
+                @Override
+                public String executeTask(Map<String, Object> parameters) throws Exception {
+                    executionEnd.put((Long) parameters.get("taskid"), System.nanoTime());
+                    return "";
+                }
+
+            });
+
+            long totalNotificationLatency = 0;
+            long totalTurnaround = 0;
+            for (int i = 0; i < COUNT; i++) {
+                long submitted = System.nanoTime();
+                long taskId = getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "param", 0, 0, null, 0, null, null)).getTaskId();
+                long finished = waitForFinished(taskId);
+                totalNotificationLatency += finished - executionEnd.get(taskId);
+                totalTurnaround += finished - submitted;
+            }
+            long avgNotificationLatency = TimeUnit.NANOSECONDS.toMillis(totalNotificationLatency / COUNT);
+            long avgTurnaround = TimeUnit.NANOSECONDS.toMillis(totalTurnaround / COUNT);
+            System.out.println("average turnaround " + avgTurnaround + " ms, average notification latency " + avgNotificationLatency + " ms");
+            assertTrue(avgNotificationLatency < 200);
+        }
+    }
+
+    private long waitForFinished(long taskId) throws Exception {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < deadline) {
+            TaskStatusView task = getClient().getTask(taskId);
+            if (task.getStatus() == Task.STATUS_FINISHED) {
+                return System.nanoTime();
+            }
+            Thread.sleep(2);
+        }
+        throw new Exception("task " + taskId + " did not finish");
+    }
+
+}
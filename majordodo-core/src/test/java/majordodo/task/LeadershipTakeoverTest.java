@@ -0,0 +1,112 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import majordodo.clientfacade.BrokerStatusView;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Takeover of the leadership with a big snapshot
+ *
+ * @author enrico.olivelli
+ */
+public class LeadershipTakeoverTest extends BasicBrokerEnv {
+
+    static final String taskType1 = "type1";
+    static final String userid1 = "testuser1";
+    static final String worker1 = "worker1";
+    static final String worker2 = "worker2";
+    static final int waitingTasks = 100000;
+    static final int runningTasksPerWorker = 10;
+
+    @Override
+    protected StatusChangesLog createStatusChangesLog() {
+        long taskId = 0;
+        BrokerStatusSnapshot snapshot = new BrokerStatusSnapshot(0, 0, new LogSequenceNumber(0, 0));
+        for (int i = 0; i < waitingTasks; i++) {
+            snapshot.getTasks().add(createTask(++taskId, Task.STATUS_WAITING, null));
+        }
+        for (String workerId : Arrays.asList(worker1, worker2)) {
+            for (int i = 0; i < runningTasksPerWorker; i++) {
+                Task task = createTask(++taskId, Task.STATUS_RUNNING, workerId);
+                task.setSlot("slot" + taskId);
+                snapshot.getTasks().add(task);
+            }
+        }
+        snapshot.setMaxTaskId(taskId);
+
+        WorkerStatus alive = new WorkerStatus();
+        alive.setWorkerId(worker1);
+        alive.setStatus(WorkerStatus.STATUS_CONNECTED);
+        snapshot.getWorkers().add(alive);
+        WorkerStatus dead = new WorkerStatus();
+        dead.setWorkerId(worker2);
+        dead.setStatus(WorkerStatus.STATUS_DEAD);
+        snapshot.getWorkers().add(dead);
+        return new MemoryCommitLog(Collections.emptyList(), snapshot);
+    }
+
+    private static Task createTask(long taskId, int status, String workerId) {
+        Task task = new Task();
+        task.setTaskId(taskId);
+        task.setType(taskType1);
+        task.setUserId(userid1);
+        task.setStatus(status);
+        task.setWorkerId(workerId);
+        task.setMaxattempts(0);
+        task.setAttempts(status == Task.STATUS_RUNNING ? 1 : 0);
+        task.setCreatedTimestamp(System.currentTimeMillis());
+        return task;
+    }
+
+    @Test
+    public void test() throws Exception {
+        BrokerStatusView status = broker.createBrokerStatusView();
+        System.out.println("takeover time: " + status.getTakeoverTime() + " ms");
+        assertTrue(status.getLeaderSince() > 0);
+        assertTrue(status.getTakeoverTime() >= 0);
+        assertEquals(-1, status.getTimeToFirstAssignment());
+
+        // tasks of the dead worker are put again in the heap, tasks of the alive worker are still running
+        assertEquals(waitingTasks + runningTasksPerWorker, broker.getHeapStatusView().getTasks().size());
+        assertEquals(runningTasksPerWorker, broker.getBrokerStatus().getRunningTasksAssignedToWorker(worker1).size());
+        assertEquals(0, broker.getBrokerStatus().getRunningTasksAssignedToWorker(worker2).size());
+        assertEquals(runningTasksPerWorker * 2, broker.getBrokerStatus().getActualSlots().size());
+
+        Map<String, Integer> availableSpace = new HashMap<>();
+        availableSpace.put(Task.TASKTYPE_ANY, 10);
+        List<AssignedTask> assigned = broker.assignTasksToWorker(10, availableSpace, Arrays.asList(Task.GROUP_ANY), Collections.emptySet(), worker1, Collections.emptyMap(), new ResourceUsageCounters());
+        assertEquals(10, assigned.size());
+        // tasks are scheduled in order of submission
+        assertEquals(1, assigned.get(0).taskid);
+
+        status = broker.createBrokerStatusView();
+        System.out.println("time to first assignment: " + status.getTimeToFirstAssignment() + " ms");
+        assertTrue(status.getTimeToFirstAssignment() >= status.getTakeoverTime());
+    }
+
+}
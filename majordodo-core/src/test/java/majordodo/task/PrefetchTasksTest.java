@@ -0,0 +1,248 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import majordodo.clientfacade.AddTaskRequest;
+import majordodo.executors.TaskExecutor;
+import majordodo.worker.WorkerCore;
+import majordodo.worker.WorkerCoreConfiguration;
+import majordodo.worker.WorkerStatusListener;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests for the prefetch of tasks: the broker assigns more tasks than the
+ * threads of the worker, which queues them locally
+ *
+ * @author enrico.olivelli
+ */
+public class PrefetchTasksTest extends BasicBrokerEnv {
+
+    private static final String TASKTYPE_MYTYPE = "mytype";
+    private static final String userId = "queue1";
+    private static final int group = 12345;
+    private static final String WORKERID = "workerid";
+
+    private WorkerCoreConfiguration createConfiguration(int maxThreads, int prefetchTasks) {
+        Map<String, Integer> tags = new HashMap<>();
+        tags.put(TASKTYPE_MYTYPE, maxThreads);
+        WorkerCoreConfiguration config = new WorkerCoreConfiguration();
+        config.setWorkerId(WORKERID);
+        config.setMaxThreads(maxThreads);
+        config.setPrefetchTasks(prefetchTasks);
+        config.setMaxThreadsByTaskType(tags);
+        config.setGroups(Arrays.asList(group));
+        return config;
+    }
+
+    private int tasksAssignedToWorker() {
+        return broker.getBrokerStatus().applyRunningTasksFilterToAssignTasksRequest(WORKERID, new HashMap<>());
+    }
+
+    private WorkerStatusListener connectedListener(CountDownLatch connectedLatch) {
+        return new WorkerStatusListener() {
+
+            @Override
+            public void connectionEvent(String event, WorkerCore core) {
+                if (event.equals(WorkerStatusListener.EVENT_CONNECTED)) {
+                    connectedLatch.countDown();
+                }
+            }
+
+        };
+    }
+
+    @Test
+    public void testPrefetch() throws Exception {
+        declareGroupForUser(userId, group);
+        CountDownLatch connectedLatch = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger maxAssigned = new AtomicInteger();
+        try (WorkerCore core = new WorkerCore(createConfiguration(2, 3), "here", getBrokerLocator(), connectedListener(connectedLatch));) {
+            core.setExecutorFactory((String tasktype, Map<String, Object> parameters) -> new TaskExecutor() {
+
+                @Override
+                public String executeTask(Map<String, Object> parameters) throws Exception {
+                    int now = running.incrementAndGet();
+                    maxRunning.accumulateAndGet(now, Math::max);
+                    maxAssigned.accumulateAndGet(tasksAssignedToWorker(), Math::max);
+                    Thread.sleep(20);
+                    running.decrementAndGet();
+                    return "";
+                }
+
+            });
+            core.start();
+            assertTrue(connectedLatch.await(10, TimeUnit.SECONDS));
+
+            List<Long> tasks = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                tasks.add(getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "param", 0, 0, null, 0, null, null)).getTaskId());
+            }
+            for (long taskId : tasks) {
+                waitForStatus(taskId, Task.STATUS_FINISHED);
+            }
+            System.out.println("maxRunning " + maxRunning + " maxAssigned " + maxAssigned);
+            // the worker never runs more than maxThreads tasks, but the broker assigns up to maxThreads + prefetchTasks
+            assertTrue(maxRunning.get() <= 2);
+            assertTrue(maxAssigned.get() > 2);
+            assertTrue(maxAssigned.get() <= 5);
+        }
+    }
+
+    @Test
+    public void testPrefetchedTasksReleasedOnShutdown() throws Exception {
+        declareGroupForUser(userId, group);
+        CountDownLatch connectedLatch = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger started = new AtomicInteger();
+        List<Long> tasks = new ArrayList<>();
+        try (WorkerCore core = new WorkerCore(createConfiguration(1, 2), "here", getBrokerLocator(), connectedListener(connectedLatch));) {
+            core.setExecutorFactory((String tasktype, Map<String, Object> parameters) -> new TaskExecutor() {
+
+                @Override
+                public String executeTask(Map<String, Object> parameters) throws Exception {
+                    started.incrementAndGet();
+                    release.await();
+                    return "";
+                }
+
+            });
+            core.start();
+            assertTrue(connectedLatch.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                tasks.add(getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "param", 0, 0, null, 0, null, null)).getTaskId());
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while ((tasksAssignedToWorker() < 3 || core.getRunningTaskIds().size() < 3 || started.get() < 1) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(3, tasksAssignedToWorker());
+            assertEquals(3, core.getRunningTaskIds().size());
+            assertEquals(1, started.get());
+        }
+        // the two tasks which never started are given back to the broker at once
+        long deadline = System.currentTimeMillis() + 10000;
+        while (countTasks(tasks, Task.STATUS_WAITING) < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, countTasks(tasks, Task.STATUS_WAITING));
+        assertEquals(1, countTasks(tasks, Task.STATUS_RUNNING));
+        assertEquals(1, started.get());
+        release.countDown();
+    }
+
+    @Test
+    public void testReleasedTasksDoNotCountAsAttempts() throws Exception {
+        declareGroupForUser(userId, group);
+        CountDownLatch connectedLatch = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger started = new AtomicInteger();
+        List<Long> tasks = new ArrayList<>();
+        try (WorkerCore core = new WorkerCore(createConfiguration(1, 2), "here", getBrokerLocator(), connectedListener(connectedLatch));) {
+            core.setExecutorFactory((String tasktype, Map<String, Object> parameters) -> new TaskExecutor() {
+
+                @Override
+                public String executeTask(Map<String, Object> parameters) throws Exception {
+                    started.incrementAndGet();
+                    release.await();
+                    return "";
+                }
+
+            });
+            core.start();
+            assertTrue(connectedLatch.await(10, TimeUnit.SECONDS));
+            // a single attempt for each task
+            for (int i = 0; i < 3; i++) {
+                tasks.add(getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "param", 1, 0, null, 0, null, null)).getTaskId());
+            }
+            long deadline = System.currentTimeMillis() + 10000;
+            while ((tasksAssignedToWorker() < 3 || core.getRunningTaskIds().size() < 3 || started.get() < 1) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(3, tasksAssignedToWorker());
+        }
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (countTasks(tasks, Task.STATUS_WAITING) < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        // the released tasks did not use their only attempt
+        assertEquals(2, countTasks(tasks, Task.STATUS_WAITING));
+        assertEquals(0, countTasks(tasks, Task.STATUS_ERROR));
+        List<Long> released = new ArrayList<>();
+        for (long taskId : tasks) {
+            if (getClient().getTask(taskId).getStatus() == Task.STATUS_WAITING) {
+                assertEquals(0, getClient().getTask(taskId).getAttempts());
+                released.add(taskId);
+            }
+        }
+
+        CountDownLatch connectedLatch2 = new CountDownLatch(1);
+        try (WorkerCore core = new WorkerCore(createConfiguration(1, 2), "here2", getBrokerLocator(), connectedListener(connectedLatch2));) {
+            core.setExecutorFactory((String tasktype, Map<String, Object> parameters) -> new TaskExecutor() {
+
+                @Override
+                public String executeTask(Map<String, Object> parameters) throws Exception {
+                    return "";
+                }
+
+            });
+            core.start();
+            assertTrue(connectedLatch2.await(10, TimeUnit.SECONDS));
+            for (long taskId : released) {
+                waitForStatus(taskId, Task.STATUS_FINISHED);
+                assertEquals(1, getClient().getTask(taskId).getAttempts());
+            }
+        }
+    }
+
+    private int countTasks(List<Long> tasks, int status) {
+        int count = 0;
+        for (long taskId : tasks) {
+            if (getClient().getTask(taskId).getStatus() == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void waitForStatus(long taskId, int status) throws Exception {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < deadline) {
+            if (getClient().getTask(taskId).getStatus() == status) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new Exception("task " + taskId + " did not reach status " + Task.statusToString(status));
+    }
+
+}
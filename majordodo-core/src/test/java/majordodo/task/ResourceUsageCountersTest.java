@@ -0,0 +1,92 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * Tests for concurrent updates of ResourceUsageCounters
+ *
+ * @author enrico.olivelli
+ */
+public class ResourceUsageCountersTest {
+
+    @Test
+    public void testConcurrentUpdates() throws Exception {
+        ResourceIds resourceIds = new ResourceIds();
+        ResourceUsageCounters counters = new ResourceUsageCounters(resourceIds);
+        int[] resources = resourceIds.resolveList("testres1,testres2");
+        int[] other = resourceIds.resolveList("testres2");
+        assertEquals(resourceIds.resolve("testres2"), other[0]);
+        ExecutorService threadpool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(threadpool.submit(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        counters.useResources(resources);
+                        counters.useResources(other);
+                        counters.releaseResources(resources);
+                        // a view can be taken at any time
+                        counters.getCountersView();
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get();
+            }
+        } finally {
+            threadpool.shutdown();
+        }
+        Map<String, Integer> view = counters.getCountersView();
+        assertEquals(0, view.get("testres1").intValue());
+        assertEquals(80000, view.get("testres2").intValue());
+        assertEquals(80000, counters.getCount(other[0]));
+
+        counters.clear();
+        assertEquals(0, counters.getCountersView().get("testres2").intValue());
+        assertFalse(new ResourceUsageCounters().getCountersView().containsKey("testres2"));
+    }
+
+    @Test
+    public void testIdsAreScopedToTheRegistry() throws Exception {
+        ResourceIds first = new ResourceIds();
+        ResourceIds second = new ResourceIds();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i + 1, first.resolve("res" + i));
+        }
+        assertEquals(1000, first.getMaxId());
+        assertEquals("res999", first.getName(1000));
+        assertEquals(0, second.getMaxId());
+        assertEquals(1, second.resolve("res999"));
+        assertEquals("res999", second.getName(1));
+        assertNull(second.getName(2));
+    }
+
+}
@@ -212,8 +212,6 @@ public class ResourcesReleaseTest {
                     }
                     assertTrue(disconnectedLatch.await(10, TimeUnit.SECONDS));
 
-                    // a little dirty, this function should be called inside TasksHeap writeLock
-                    broker.getGlobalResourceUsageCounters().updateResourceCounters();
                     assertEquals(0, broker.getGlobalResourceUsageCounters().getCountersView().get(RESOURCE).intValue());
 
                 }
@@ -304,8 +302,6 @@ public class ResourcesReleaseTest {
                 }
                 assertTrue(okFinishedForBroker);
 
-                // a little dirty, this function should be called inside TasksHeap writeLock
-                broker.getGlobalResourceUsageCounters().updateResourceCounters();
                 assertEquals(0, broker.getGlobalResourceUsageCounters().getCountersView().get(RESOURCE).intValue());
 
             }
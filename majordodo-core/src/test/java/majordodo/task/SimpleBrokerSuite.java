@@ -106,6 +106,50 @@ public abstract class SimpleBrokerSuite extends BasicBrokerEnv {
         assertTrue(disconnectedLatch.await(10, TimeUnit.SECONDS));
     }
 
+    @Test
+    public void executorModifiesParametersTest() throws Exception {
+
+        CountDownLatch connectedLatch = new CountDownLatch(1);
+        WorkerStatusListener listener = new WorkerStatusListener() {
+
+            @Override
+            public void connectionEvent(String event, WorkerCore core) {
+                if (event.equals(WorkerStatusListener.EVENT_CONNECTED)) {
+                    connectedLatch.countDown();
+                }
+            }
+
+        };
+        Map<String, Integer> tags = new HashMap<>();
+        tags.put(TASKTYPE_MYTYPE, 1);
+        WorkerCoreConfiguration config = new WorkerCoreConfiguration();
+        config.setWorkerId("workerid");
+        config.setMaxThreadsByTaskType(tags);
+        config.setGroups(Arrays.asList(group));
+        try (WorkerCore core = new WorkerCore(config, "here", getBrokerLocator(), listener);) {
+            core.setExecutorFactory((String tasktype, Map<String, Object> parameters) -> new TaskExecutor() {
+
+                @Override
+                public String executeTask(Map<String, Object> parameters) throws Exception {
+                    // the parameters belong to the executor, whatever the channel
+                    parameters.put("parameter", "modified");
+                    return (String) parameters.get("parameter");
+                }
+
+            });
+            core.start();
+            assertTrue(connectedLatch.await(10, TimeUnit.SECONDS));
+
+            long taskId = getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "param", 1, 0, null, 0, null, null)).getTaskId();
+            long deadline = System.currentTimeMillis() + 30000;
+            while (getClient().getTask(taskId).getStatus() != Task.STATUS_FINISHED && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(Task.STATUS_FINISHED, getClient().getTask(taskId).getStatus());
+            assertEquals("modified", getClient().getTask(taskId).getResult());
+        }
+    }
+
     @Test
     public void manyTasks_max1() throws Exception {
 
@@ -147,9 +191,9 @@ public abstract class SimpleBrokerSuite extends BasicBrokerEnv {
                 @Override
                 public String executeTask(Map<String, Object> parameters) throws Exception {
 
-                    allTaskExecuted.countDown();
                     long taskid = (Long) parameters.get("taskid");
                     todo.remove(taskid);
+                    allTaskExecuted.countDown();
                     return "";
                 }
 
@@ -210,9 +254,9 @@ public abstract class SimpleBrokerSuite extends BasicBrokerEnv {
                 @Override
                 public String executeTask(Map<String, Object> parameters) throws Exception {
 
-                    allTaskExecuted.countDown();
                     long taskid = (Long) parameters.get("taskid");
                     todo.remove(taskid);
+                    allTaskExecuted.countDown();
                     return "";
                 }
 
@@ -281,9 +325,9 @@ public abstract class SimpleBrokerSuite extends BasicBrokerEnv {
                 @Override
                 public String executeTask(Map<String, Object> parameters) throws Exception {
 
-                    allTaskExecuted.countDown();
                     long taskid = (Long) parameters.get("taskid");
                     todo.remove(taskid);
+                    allTaskExecuted.countDown();
                     return "";
                 }
 
@@ -354,9 +398,9 @@ public abstract class SimpleBrokerSuite extends BasicBrokerEnv {
                 @Override
                 public String executeTask(Map<String, Object> parameters) throws Exception {
 
-                    allTaskExecuted.countDown();
                     long taskid = (Long) parameters.get("taskid");
                     todo.remove(taskid);
+                    allTaskExecuted.countDown();
                     return "";
                 }
 
@@ -413,9 +457,9 @@ public abstract class SimpleBrokerSuite extends BasicBrokerEnv {
                 @Override
                 public String executeTask(Map<String, Object> parameters) throws Exception {
 
-                    allTaskExecuted.countDown();
                     long taskid = (Long) parameters.get("taskid");
                     todo.remove(taskid);
+                    allTaskExecuted.countDown();
                     return "";
                 }
 
@@ -479,9 +523,9 @@ public abstract class SimpleBrokerSuite extends BasicBrokerEnv {
                 @Override
                 public String executeTask(Map<String, Object> parameters) throws Exception {
 
-                    allTaskExecuted.countDown();
                     long taskid = (Long) parameters.get("taskid");
                     todo.remove(taskid);
+                    allTaskExecuted.countDown();
                     return "";
                 }
 
@@ -557,9 +601,9 @@ public abstract class SimpleBrokerSuite extends BasicBrokerEnv {
                 @Override
                 public String executeTask(Map<String, Object> parameters) throws Exception {
 
-                    allTaskExecuted.countDown();
                     long taskid = (Long) parameters.get("taskid");
                     todo.remove(taskid);
+                    allTaskExecuted.countDown();
                     return "";
                 }
 
@@ -615,9 +659,9 @@ public abstract class SimpleBrokerSuite extends BasicBrokerEnv {
                 @Override
                 public String executeTask(Map<String, Object> parameters) throws Exception {
 
-                    allTaskExecuted.countDown();
                     long taskid = (Long) parameters.get("taskid");
                     todo.remove(taskid);
+                    allTaskExecuted.countDown();
                     return "";
                 }
 
@@ -677,9 +721,9 @@ public abstract class SimpleBrokerSuite extends BasicBrokerEnv {
                 @Override
                 public String executeTask(Map<String, Object> parameters) throws Exception {
 
-                    allTaskExecuted.countDown();
                     long taskid = (Long) parameters.get("taskid");
                     todo.remove(taskid);
+                    allTaskExecuted.countDown();
                     return "";
                 }
 
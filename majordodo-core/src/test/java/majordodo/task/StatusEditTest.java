@@ -0,0 +1,146 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests for the binary format of StatusEdit
+ *
+ * @author enrico.olivelli
+ */
+public class StatusEditTest {
+
+    private static List<StatusEdit> allEdits() {
+        return Arrays.asList(
+            StatusEdit.ADD_TASK(1, "type1", "paramè中😀", "user1", 3, 12345, "slot1", 1, "pool1", Task.MODE_EXECUTE_OBJECT),
+            StatusEdit.ADD_TASK(2, "type1", null, "user1", 0, 0, null, 0, null, null),
+            StatusEdit.ADD_TASK(3, "type1", "param", "user1", 3, 12345, "slot1", 1, "pool1", Task.MODE_EXECUTE_OBJECT, 5000),
+            StatusEdit.PREPARE_ADD_TASK(7, 3, "type1", "param", "user1", 3, 12345, "slot1", 1, null, null),
+            StatusEdit.PREPARE_ADD_TASK(7, 4, "type1", "param", "user1", 3, 12345, "slot1", 1, "pool1", Task.MODE_EXECUTE_OBJECT, 5000),
+            StatusEdit.WORKER_CONNECTED("worker1", "pid", "localhost:7000", new HashSet<>(Arrays.asList(1L, 2L, Long.MAX_VALUE)), 1234),
+            StatusEdit.WORKER_CONNECTED("worker1", "pid", "localhost:7000", new HashSet<>(), 1234),
+            StatusEdit.WORKER_DISCONNECTED("worker1", 1234),
+            StatusEdit.WORKER_DIED("worker1", 1234),
+            StatusEdit.ASSIGN_TASK_TO_WORKER(1, "worker1", 2, "db1,db2"),
+            StatusEdit.ASSIGN_TASK_TO_WORKER(1, "worker1", 2, null),
+            StatusEdit.TASK_STATUS_CHANGE(1, "worker1", Task.STATUS_FINISHED, "result"),
+            StatusEdit.TASK_STATUS_CHANGE(1, null, Task.STATUS_WAITING, null),
+            StatusEdit.TASK_RELEASED(1, "worker1", 2, "released"),
+            StatusEdit.BEGIN_TRANSACTION(7, 1234),
+            StatusEdit.COMMIT_TRANSACTION(7),
+            StatusEdit.ROLLBACK_TRANSACTION(7),
+            StatusEdit.NOOP(),
+            StatusEdit.DELETE_CODEPOOL("pool1"),
+            StatusEdit.CREATE_CODEPOOL("pool1", 1234, new byte[]{1, 2, 3}, 5000)
+        );
+    }
+
+    private static void assertSameEdit(StatusEdit expected, StatusEdit actual) {
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(expected.resources, actual.resources);
+        assertEquals(expected.codepool, actual.codepool);
+        assertEquals(expected.mode, actual.mode);
+        assertArrayEquals(expected.payload, actual.payload);
+    }
+
+    @Test
+    public void testActualFormatIsCompatibleWithLegacyFormat() throws Exception {
+        for (StatusEdit edit : allEdits()) {
+            byte[] legacy = edit.serializeLegacyFormat();
+            byte[] actual = edit.serialize();
+            assertEquals(StatusEdit.FORMAT_V2, actual[0]);
+            assertEquals(edit.serializedSize(), actual.length);
+            assertTrue(actual.length <= legacy.length);
+            // the same values are read from both formats
+            assertSameEdit(StatusEdit.read(legacy), StatusEdit.read(actual));
+        }
+    }
+
+    @Test
+    public void testMaxExecutionTimeInLegacyFormat() throws Exception {
+        StatusEdit add = StatusEdit.ADD_TASK(1, "type1", "param", "user1", 3, 12345, "slot1", 1, "pool1", Task.MODE_EXECUTE_OBJECT, 5000);
+        StatusEdit prepare = StatusEdit.PREPARE_ADD_TASK(7, 1, "type1", "param", "user1", 3, 12345, "slot1", 1, "pool1", Task.MODE_EXECUTE_OBJECT, 5000);
+        for (StatusEdit edit : Arrays.asList(add, prepare)) {
+            StatusEdit read = StatusEdit.read(edit.serializeLegacyFormat());
+            assertSameEdit(edit, read);
+            assertEquals(5000, read.maxExecutionTime);
+        }
+        // without a maximum execution time the edit is the one written by older brokers
+        StatusEdit noMaxExecutionTime = StatusEdit.ADD_TASK(1, "type1", "param", "user1", 3, 12345, "slot1", 1, "pool1", Task.MODE_EXECUTE_OBJECT);
+        assertEquals(add.serializeLegacyFormat().length - 8, noMaxExecutionTime.serializeLegacyFormat().length);
+        assertEquals(0, StatusEdit.read(noMaxExecutionTime.serializeLegacyFormat()).maxExecutionTime);
+    }
+
+    @Test
+    public void testSerializeToBuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        int[] offsets = new int[allEdits().size() + 1];
+        int i = 0;
+        for (StatusEdit edit : allEdits()) {
+            edit.serializeTo(buffer);
+            offsets[++i] = buffer.position();
+        }
+        i = 0;
+        for (StatusEdit edit : allEdits()) {
+            StatusEdit read = StatusEdit.read(buffer.array(), offsets[i], offsets[i + 1] - offsets[i]);
+            assertSameEdit(StatusEdit.read(edit.serializeLegacyFormat()), read);
+            i++;
+        }
+    }
+
+    @Test
+    public void testLongStrings() throws Exception {
+        // writeUTF was limited to 64KB
+        char[] chars = new char[100000];
+        Arrays.fill(chars, 'è');
+        String parameter = new String(chars);
+        StatusEdit edit = StatusEdit.ADD_TASK(1, "type1", parameter, "user1", 3, 12345, null, 1, null, null);
+        byte[] data = edit.serialize();
+        assertEquals(parameter, StatusEdit.read(data).parameter);
+    }
+
+    @Test
+    public void benchSerialize() throws Exception {
+        StatusEdit edit = StatusEdit.ADD_TASK(123456789, "mytasktype", "some parameter for the task", "myuser", 3, 0, null, 0, null, null);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        int count = 2000000;
+        for (int j = 0; j < 3; j++) {
+            long _start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                edit.serializeLegacyFormat();
+            }
+            long _legacy = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                buffer.clear();
+                edit.serializeTo(buffer);
+            }
+            long _stop = System.nanoTime();
+            System.out.println("serialize " + count + " edits: legacy " + (_legacy - _start) / 1000000 + " ms, actual " + (_stop - _legacy) / 1000000 + " ms");
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import majordodo.clientfacade.AddTaskRequest;
+import majordodo.executors.TaskExecutor;
+import majordodo.worker.WorkerCore;
+import majordodo.worker.WorkerCoreConfiguration;
+import majordodo.worker.WorkerStatusListener;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests for the maximum execution time of tasks and for the cancellation of
+ * running tasks
+ *
+ * @author enrico.olivelli
+ */
+public class TaskExecutionTimeoutTest extends BasicBrokerEnv {
+
+    private static final String TASKTYPE_MYTYPE = "mytype";
+    private static final String userId = "queue1";
+    private static final int group = 12345;
+    private static final String WORKERID = "workerid";
+
+    private WorkerCoreConfiguration createConfiguration() {
+        Map<String, Integer> tags = new HashMap<>();
+        tags.put(TASKTYPE_MYTYPE, 1);
+        WorkerCoreConfiguration config = new WorkerCoreConfiguration();
+        config.setWorkerId(WORKERID);
+        config.setMaxThreads(1);
+        config.setMaxThreadsByTaskType(tags);
+        config.setGroups(Arrays.asList(group));
+        return config;
+    }
+
+    private WorkerStatusListener connectedListener(CountDownLatch connectedLatch) {
+        return new WorkerStatusListener() {
+
+            @Override
+            public void connectionEvent(String event, WorkerCore core) {
+                if (event.equals(WorkerStatusListener.EVENT_CONNECTED)) {
+                    connectedLatch.countDown();
+                }
+            }
+
+        };
+    }
+
+    /**
+     * Tasks with parameter "hang" wait until they are interrupted
+     */
+    private static class HangingTaskExecutor extends TaskExecutor {
+
+        private final CountDownLatch started;
+        private final CountDownLatch interrupted;
+
+        HangingTaskExecutor(CountDownLatch started, CountDownLatch interrupted) {
+            this.started = started;
+            this.interrupted = interrupted;
+        }
+
+        @Override
+        public String executeTask(Map<String, Object> parameters) throws Exception {
+            if (parameters.get("parameter").equals("hang")) {
+                started.countDown();
+                try {
+                    Thread.sleep(Long.MAX_VALUE);
+                } catch (InterruptedException err) {
+                    interrupted.countDown();
+                    throw err;
+                }
+            }
+            return "ok";
+        }
+    }
+
+    @Test
+    public void testMaxExecutionTimeFromTask() throws Exception {
+        declareGroupForUser(userId, group);
+        CountDownLatch connectedLatch = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        try (WorkerCore core = new WorkerCore(createConfiguration(), "here", getBrokerLocator(), connectedListener(connectedLatch));) {
+            core.setExecutorFactory((String tasktype, Map<String, Object> parameters) -> new HangingTaskExecutor(started, interrupted));
+            core.start();
+            assertTrue(connectedLatch.await(10, TimeUnit.SECONDS));
+
+            long hanging = getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "hang", 1, 0, null, 0, null, null, 200)).getTaskId();
+            waitForStatus(hanging, Task.STATUS_ERROR);
+            assertTrue(getClient().getTask(hanging).getResult().contains("timed out"));
+            assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+
+            // the only thread of the worker is free again
+            long other = getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "param", 1, 0, null, 0, null, null)).getTaskId();
+            waitForStatus(other, Task.STATUS_FINISHED);
+        }
+    }
+
+    @Test
+    public void testMaxExecutionTimeByTaskTypeNotCooperativeTask() throws Exception {
+        declareGroupForUser(userId, group);
+        CountDownLatch connectedLatch = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean cancelled = new AtomicBoolean();
+        WorkerCoreConfiguration config = createConfiguration();
+        config.getMaxExecutionTimeByTaskType().put(TASKTYPE_MYTYPE, 200L);
+        try (WorkerCore core = new WorkerCore(config, "here", getBrokerLocator(), connectedListener(connectedLatch));) {
+            core.setExecutorFactory((String tasktype, Map<String, Object> parameters) -> new TaskExecutor() {
+
+                @Override
+                public String executeTask(Map<String, Object> parameters) throws Exception {
+                    if (parameters.get("parameter").equals("hang")) {
+                        // ignores interruption
+                        boolean released = false;
+                        while (!released) {
+                            try {
+                                released = release.await(10, TimeUnit.SECONDS);
+                            } catch (InterruptedException ignore) {
+                            }
+                        }
+                    }
+                    return "ok";
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled.set(true);
+                }
+
+            });
+            core.start();
+            assertTrue(connectedLatch.await(10, TimeUnit.SECONDS));
+
+            long hanging = getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "hang", 1, 0, null, 0, null, null)).getTaskId();
+            waitForStatus(hanging, Task.STATUS_ERROR);
+            assertTrue(cancelled.get());
+
+            // the slot is given back even if the task is still blocked
+            long other = getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "param", 1, 0, null, 0, null, null)).getTaskId();
+            waitForStatus(other, Task.STATUS_FINISHED);
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void testMaxExecutionTimeNotCooperativeTaskOnTaskTypePool() throws Exception {
+        declareGroupForUser(userId, group);
+        CountDownLatch connectedLatch = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        WorkerCoreConfiguration config = createConfiguration();
+        config.setExecutionMode(WorkerCoreConfiguration.EXECUTION_MODE_TASKTYPE);
+        config.getMaxExecutionTimeByTaskType().put(TASKTYPE_MYTYPE, 200L);
+        try (WorkerCore core = new WorkerCore(config, "here", getBrokerLocator(), connectedListener(connectedLatch));) {
+            core.setExecutorFactory((String tasktype, Map<String, Object> parameters) -> new TaskExecutor() {
+
+                @Override
+                public String executeTask(Map<String, Object> parameters) throws Exception {
+                    if (parameters.get("parameter").equals("hang")) {
+                        // ignores interruption
+                        boolean released = false;
+                        while (!released) {
+                            try {
+                                released = release.await(10, TimeUnit.SECONDS);
+                            } catch (InterruptedException ignore) {
+                            }
+                        }
+                    }
+                    return "ok";
+                }
+
+            });
+            core.start();
+            assertTrue(connectedLatch.await(10, TimeUnit.SECONDS));
+            try {
+                long hanging = getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "hang", 1, 0, null, 0, null, null)).getTaskId();
+                waitForStatus(hanging, Task.STATUS_ERROR);
+
+                // the only thread of the pool is still blocked, the next task times out while waiting for it
+                long waiting = getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "param", 1, 0, null, 0, null, null)).getTaskId();
+                waitForStatus(waiting, Task.STATUS_ERROR);
+                assertTrue(getClient().getTask(waiting).getResult().contains("timed out"));
+            } finally {
+                release.countDown();
+            }
+
+            long other = getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "param", 1, 0, null, 0, null, null)).getTaskId();
+            waitForStatus(other, Task.STATUS_FINISHED);
+        }
+    }
+
+    @Test
+    public void testCancelTask() throws Exception {
+        declareGroupForUser(userId, group);
+        CountDownLatch connectedLatch = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        try (WorkerCore core = new WorkerCore(createConfiguration(), "here", getBrokerLocator(), connectedListener(connectedLatch));) {
+            core.setExecutorFactory((String tasktype, Map<String, Object> parameters) -> new HangingTaskExecutor(started, interrupted));
+            core.start();
+            assertTrue(connectedLatch.await(10, TimeUnit.SECONDS));
+
+            // unlimited attempts, but a cancelled task is never retried
+            long hanging = getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "hang", 0, 0, null, 0, null, null)).getTaskId();
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertTrue(getClient().cancelTask(hanging));
+            waitForStatus(hanging, Task.STATUS_ERROR);
+            assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+            assertFalse(getClient().cancelTask(hanging));
+
+            long other = getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "param", 1, 0, null, 0, null, null)).getTaskId();
+            waitForStatus(other, Task.STATUS_FINISHED);
+            assertEquals(Task.STATUS_ERROR, getClient().getTask(hanging).getStatus());
+        }
+    }
+
+    @Test
+    public void testCancelTaskWorkerDiedBeforeReporting() throws Exception {
+        declareGroupForUser(userId, group);
+        CountDownLatch connectedLatch = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch cancelling = new CountDownLatch(1);
+        CountDownLatch releaseCancel = new CountDownLatch(1);
+        try (WorkerCore core = new WorkerCore(createConfiguration(), "here", getBrokerLocator(), connectedListener(connectedLatch));) {
+            core.setExecutorFactory((String tasktype, Map<String, Object> parameters) -> new HangingTaskExecutor(started, interrupted) {
+
+                @Override
+                public void cancel() {
+                    // the outcome of the cancellation is not reported until the latch is released
+                    cancelling.countDown();
+                    try {
+                        releaseCancel.await(30, TimeUnit.SECONDS);
+                    } catch (InterruptedException err) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+            });
+            core.start();
+            assertTrue(connectedLatch.await(10, TimeUnit.SECONDS));
+            try {
+                long hanging = getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "hang", 0, 0, null, 0, null, null)).getTaskId();
+                assertTrue(started.await(10, TimeUnit.SECONDS));
+                assertTrue(getClient().cancelTask(hanging));
+                assertTrue(cancelling.await(10, TimeUnit.SECONDS));
+
+                // the worker is declared dead before reporting, the task is recovered and not treated as cancelled
+                broker.declareWorkerDead(WORKERID, System.currentTimeMillis());
+                broker.tasksNeedsRecoveryDueToWorkerDeath(Arrays.asList(hanging), WORKERID);
+                assertNotEquals(Task.STATUS_ERROR, getClient().getTask(hanging).getStatus());
+            } finally {
+                releaseCancel.countDown();
+            }
+        }
+    }
+
+    @Test
+    public void testCancelTaskReleasedByWorker() throws Exception {
+        declareGroupForUser(userId, group);
+        CountDownLatch connectedLatch = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        CountDownLatch cancelling = new CountDownLatch(1);
+        CountDownLatch releaseCancel = new CountDownLatch(1);
+        WorkerCoreConfiguration config = createConfiguration();
+        config.setPrefetchTasks(1);
+        try (WorkerCore core = new WorkerCore(config, "here", getBrokerLocator(), connectedListener(connectedLatch));) {
+            core.setExecutorFactory((String tasktype, Map<String, Object> parameters) -> new HangingTaskExecutor(started, interrupted) {
+
+                @Override
+                public void cancel() {
+                    // the worker does not handle other messages until the latch is released
+                    cancelling.countDown();
+                    try {
+                        releaseCancel.await(30, TimeUnit.SECONDS);
+                    } catch (InterruptedException err) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+            });
+            core.start();
+            assertTrue(connectedLatch.await(10, TimeUnit.SECONDS));
+            try {
+                long hanging = getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "hang", 0, 0, null, 0, null, null)).getTaskId();
+                assertTrue(started.await(10, TimeUnit.SECONDS));
+                long prefetched = getClient().submitTask(new AddTaskRequest(0, TASKTYPE_MYTYPE, userId, "param", 0, 0, null, 0, null, null)).getTaskId();
+                waitForStatus(prefetched, Task.STATUS_RUNNING);
+
+                assertTrue(getClient().cancelTask(hanging));
+                assertTrue(cancelling.await(10, TimeUnit.SECONDS));
+                assertTrue(getClient().cancelTask(prefetched));
+
+                // the worker gives the task back before receiving the cancel request
+                broker.tasksFinished(WORKERID, Arrays.asList(new TaskFinishedData(prefetched, "task not started", Task.STATUS_WAITING)));
+                assertEquals(Task.STATUS_ERROR, getClient().getTask(prefetched).getStatus());
+            } finally {
+                releaseCancel.countDown();
+            }
+        }
+    }
+
+    private void waitForStatus(long taskId, int status) throws Exception {
+        long deadline = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < deadline) {
+            if (getClient().getTask(taskId).getStatus() == status) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        throw new Exception("task " + taskId + " did not reach status " + Task.statusToString(status));
+    }
+
+}
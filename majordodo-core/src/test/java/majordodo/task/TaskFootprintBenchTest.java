@@ -0,0 +1,138 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import org.junit.Test;
+
+/**
+ * Measures the heap footprint of retained tasks
+ *
+ * @author enrico.olivelli
+ */
+public class TaskFootprintBenchTest {
+
+    private static final int NUM_TASKS = 1000000;
+
+    /**
+     * The Task as it was before the introduction of the TaskDictionary
+     */
+    private static final class LegacyTask {
+
+        String type;
+        String parameter;
+        String result;
+        long createdTimestamp;
+        int status;
+        long taskId;
+        String userId;
+        String workerId;
+        int maxattempts;
+        int attempts;
+        long executionDeadline;
+        String slot;
+        String codepool;
+        String mode;
+        String resources;
+    }
+
+    // every edit read from the log carries its own copy of the strings
+    private static String type(int i) {
+        return new String("type" + (i % 300));
+    }
+
+    private static String user(int i) {
+        return new String("user" + (i % 500));
+    }
+
+    private static String worker(int i) {
+        return new String("worker" + (i % 50));
+    }
+
+    private static String resources(int i) {
+        return new String("db" + (i % 20) + ",db" + (i % 7));
+    }
+
+    private static String mode() {
+        return new String(Task.MODE_EXECUTE_FACTORY);
+    }
+
+    private static long usedMemory() throws Exception {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    public void footprint() throws Exception {
+        long legacy = measureLegacyTasks();
+        TaskDictionary dictionary = new TaskDictionary();
+        long compact = measureCompactTasks(dictionary);
+        System.out.println("legacy task: " + legacy + " bytes per task, compact task: " + compact + " bytes per task, "
+            + dictionary.size() + " strings in dictionary");
+    }
+
+    private static long measureLegacyTasks() throws Exception {
+        long before = usedMemory();
+        LegacyTask[] tasks = new LegacyTask[NUM_TASKS];
+        for (int i = 0; i < NUM_TASKS; i++) {
+            LegacyTask task = new LegacyTask();
+            task.taskId = i + 1;
+            task.type = type(i);
+            task.userId = user(i);
+            task.workerId = worker(i);
+            task.resources = resources(i);
+            task.mode = mode();
+            task.status = Task.STATUS_RUNNING;
+            task.createdTimestamp = System.currentTimeMillis();
+            task.maxattempts = 1;
+            task.attempts = 1;
+            tasks[i] = task;
+        }
+        long after = usedMemory();
+        System.out.println("legacy tasks: " + tasks.length);
+        return (after - before) / NUM_TASKS;
+    }
+
+    private static long measureCompactTasks(TaskDictionary dictionary) throws Exception {
+        long before = usedMemory();
+        Task[] tasks = new Task[NUM_TASKS];
+        for (int i = 0; i < NUM_TASKS; i++) {
+            Task task = new Task();
+            task.setTaskId(i + 1);
+            task.setType(dictionary.canonical(type(i)));
+            // interned by BrokerStatus
+            task.setUserId(user(i).intern());
+            task.setWorkerId(dictionary.canonical(worker(i)));
+            task.setResources(resources(i).intern());
+            task.setMode(dictionary.canonical(mode()));
+            task.setStatus(Task.STATUS_RUNNING);
+            task.setCreatedTimestamp(System.currentTimeMillis());
+            task.setMaxattempts(1);
+            task.setAttempts(1);
+            tasks[i] = task;
+        }
+        long after = usedMemory();
+        System.out.println("compact tasks: " + tasks.length);
+        return (after - before) / NUM_TASKS;
+    }
+}
@@ -19,9 +19,11 @@
  */
 package majordodo.task;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import org.junit.Test;
 
@@ -88,4 +90,65 @@ public class TasksHeapBenchTest {
 
     }
 
+    @Test
+    public void batchInsertTests() throws Exception {
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 100000; i++) {
+            Task task = new Task();
+            task.setTaskId(i + 1);
+            task.setType(TASKTYPE_MYTASK1);
+            task.setUserId(USERID1);
+            tasks.add(task);
+        }
+        {
+            TasksHeap instance = new TasksHeap(1000, DEFAULT_FUNCTION);
+            long _start = System.currentTimeMillis();
+            for (Task task : tasks) {
+                instance.insertTask(task.getTaskId(), task.getType(), task.getUserId());
+            }
+            long _stop = System.currentTimeMillis();
+            System.out.println("insertTask Time: " + (_stop - _start) + " ms");
+        }
+        {
+            TasksHeap instance = new TasksHeap(1000, DEFAULT_FUNCTION);
+            long _start = System.currentTimeMillis();
+            instance.insertTasks(tasks);
+            long _stop = System.currentTimeMillis();
+            System.out.println("insertTasks Time: " + (_stop - _start) + " ms");
+        }
+    }
+
+    @Test
+    public void schedulingRoundTests() throws Exception {
+        int numWorkers = 300;
+        Map<String, Integer> availableSpace = new HashMap<>();
+        availableSpace.put(Task.TASKTYPE_ANY, 2);
+        {
+            TasksHeap instance = new TasksHeap(100000, DEFAULT_FUNCTION);
+            for (int i = 0; i < 100000; i++) {
+                instance.insertTask(i + 1, TASKTYPE_MYTASK1, USERID1);
+            }
+            long _start = System.currentTimeMillis();
+            for (int i = 0; i < numWorkers; i++) {
+                instance.takeTasks(2, Arrays.asList(Task.GROUP_ANY), Collections.emptySet(), availableSpace, Collections.emptyMap(), new ResourceUsageCounters(), Collections.emptyMap(), new ResourceUsageCounters());
+            }
+            long _stop = System.currentTimeMillis();
+            System.out.println("takeTasks for " + numWorkers + " workers Time: " + (_stop - _start) + " ms");
+        }
+        {
+            TasksHeap instance = new TasksHeap(100000, DEFAULT_FUNCTION);
+            for (int i = 0; i < 100000; i++) {
+                instance.insertTask(i + 1, TASKTYPE_MYTASK1, USERID1);
+            }
+            List<WorkerSchedulingRequest> requests = new ArrayList<>();
+            for (int i = 0; i < numWorkers; i++) {
+                requests.add(new WorkerSchedulingRequest("worker" + i, 2, availableSpace, Arrays.asList(Task.GROUP_ANY), Collections.emptySet(), Collections.emptyMap(), new ResourceUsageCounters()));
+            }
+            long _start = System.currentTimeMillis();
+            instance.takeTasksForWorkers(requests, Collections.emptyMap(), new ResourceUsageCounters());
+            long _stop = System.currentTimeMillis();
+            System.out.println("takeTasksForWorkers for " + numWorkers + " workers Time: " + (_stop - _start) + " ms");
+        }
+    }
+
 }
@@ -0,0 +1,150 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * Tests for TasksHeap#takeTasksForWorkers
+ *
+ * @author enrico.olivelli
+ */
+public class TasksHeapGlobalRoundTest {
+
+    private static final String TASKTYPE_MYTASK1 = "MYTASK1";
+    private static final String TASKTYPE_MYTASK2 = "MYTASK2";
+    private static final String USERID1 = "myuser1";
+    private static final String USERID2 = "myuser2";
+    private static final String USERID3 = "myuser3";
+    private static final int GROUPID1 = 9713;
+    private static final int GROUPID2 = 972;
+    private static final String RESOURCE1 = "globalroundres1";
+
+    private final TaskPropertiesMapperFunction DEFAULT_FUNCTION = (long taskid, String taskType, String userid) -> {
+        switch (userid) {
+            case USERID1:
+                return new TaskProperties(GROUPID1, null);
+            case USERID2:
+                return new TaskProperties(GROUPID2, null);
+            default:
+                return new TaskProperties(GROUPID2, new String[]{RESOURCE1});
+        }
+    };
+
+    private static WorkerSchedulingRequest request(String workerId, int max, Map<String, Integer> availableSpace, List<Integer> groups) {
+        return new WorkerSchedulingRequest(workerId, max, availableSpace, groups, Collections.emptySet(), Collections.emptyMap(), new ResourceUsageCounters());
+    }
+
+    private static List<Long> taskIds(List<AssignedTask> tasks) {
+        List<Long> result = new ArrayList<>();
+        if (tasks != null) {
+            tasks.forEach(t -> result.add(t.taskid));
+        }
+        return result;
+    }
+
+    @Test
+    public void testRoundRobinOldestFirst() throws Exception {
+        TasksHeap instance = new TasksHeap(100, DEFAULT_FUNCTION);
+        for (long taskid = 1; taskid <= 10; taskid++) {
+            instance.insertTask(taskid, TASKTYPE_MYTASK1, USERID1);
+        }
+        Map<String, Integer> availableSpace = Collections.singletonMap(Task.TASKTYPE_ANY, 3);
+        List<WorkerSchedulingRequest> requests = Arrays.asList(
+            request("w1", 3, availableSpace, Arrays.asList(Task.GROUP_ANY)),
+            request("w2", 3, availableSpace, Arrays.asList(Task.GROUP_ANY)));
+        Map<String, List<AssignedTask>> result = instance.takeTasksForWorkers(requests, Collections.emptyMap(), new ResourceUsageCounters());
+        assertEquals(Arrays.asList(1L, 3L, 5L), taskIds(result.get("w1")));
+        assertEquals(Arrays.asList(2L, 4L, 6L), taskIds(result.get("w2")));
+
+        // assigned tasks are no more in the heap
+        result = instance.takeTasksForWorkers(requests, Collections.emptyMap(), new ResourceUsageCounters());
+        assertEquals(Arrays.asList(7L, 9L), taskIds(result.get("w1")));
+        assertEquals(Arrays.asList(8L, 10L), taskIds(result.get("w2")));
+        assertEquals(0, instance.getActualsize() - instance.getFragmentation());
+    }
+
+    @Test
+    public void testGroupPriorityAndTaskTypes() throws Exception {
+        TasksHeap instance = new TasksHeap(100, DEFAULT_FUNCTION);
+        instance.insertTask(1, TASKTYPE_MYTASK1, USERID1);
+        instance.insertTask(2, TASKTYPE_MYTASK2, USERID2);
+        instance.insertTask(3, TASKTYPE_MYTASK1, USERID2);
+        instance.insertTask(4, TASKTYPE_MYTASK2, USERID1);
+
+        Map<String, Integer> onlyType2 = new HashMap<>();
+        onlyType2.put(TASKTYPE_MYTASK2, 1);
+        List<WorkerSchedulingRequest> requests = Arrays.asList(
+            // group2 first
+            request("w1", 2, Collections.singletonMap(Task.TASKTYPE_ANY, 2), Arrays.asList(GROUPID2, GROUPID1)),
+            request("w2", 1, onlyType2, Arrays.asList(GROUPID1)),
+            request("w3", 1, Collections.singletonMap(Task.TASKTYPE_ANY, 1), Arrays.asList(12345)));
+        Map<String, List<AssignedTask>> result = instance.takeTasksForWorkers(requests, Collections.emptyMap(), new ResourceUsageCounters());
+        assertEquals(Arrays.asList(2L, 3L), taskIds(result.get("w1")));
+        assertEquals(Arrays.asList(4L), taskIds(result.get("w2")));
+        assertNull(result.get("w3"));
+    }
+
+    @Test
+    public void testGlobalResourceLimits() throws Exception {
+        TasksHeap instance = new TasksHeap(100, DEFAULT_FUNCTION);
+        for (long taskid = 1; taskid <= 10; taskid++) {
+            instance.insertTask(taskid, TASKTYPE_MYTASK1, USERID3);
+        }
+        Map<String, Integer> availableSpace = Collections.singletonMap(Task.TASKTYPE_ANY, 10);
+        List<WorkerSchedulingRequest> requests = Arrays.asList(
+            request("w1", 10, availableSpace, Arrays.asList(Task.GROUP_ANY)),
+            request("w2", 10, availableSpace, Arrays.asList(Task.GROUP_ANY)));
+        ResourceUsageCounters globalCounters = new ResourceUsageCounters(instance.getResourceIds());
+        globalCounters.useResources(new int[]{instance.getResourceIds().resolve(RESOURCE1)});
+        Map<String, List<AssignedTask>> result = instance.takeTasksForWorkers(requests, Collections.singletonMap(RESOURCE1, 4), globalCounters);
+        assertEquals(Arrays.asList(1L, 3L), taskIds(result.get("w1")));
+        assertEquals(Arrays.asList(2L), taskIds(result.get("w2")));
+    }
+
+    @Test
+    public void testLeastLoaded() throws Exception {
+        TasksHeap instance = new TasksHeap(100, DEFAULT_FUNCTION);
+        for (long taskid = 1; taskid <= 6; taskid++) {
+            instance.insertTask(taskid, TASKTYPE_MYTASK1, USERID1);
+        }
+        Map<String, Integer> availableSpace = Collections.singletonMap(Task.TASKTYPE_ANY, 10);
+        List<WorkerSchedulingRequest> requests = Arrays.asList(
+            // slow worker
+            new WorkerSchedulingRequest("w1", 10, availableSpace, Arrays.asList(Task.GROUP_ANY), Collections.emptySet(), Collections.emptyMap(), new ResourceUsageCounters(),
+                0, new WorkerLoad(50, -1, 30)),
+            // fast worker, with tasks already running
+            new WorkerSchedulingRequest("w2", 8, availableSpace, Arrays.asList(Task.GROUP_ANY), Collections.emptySet(), Collections.emptyMap(), new ResourceUsageCounters(),
+                2, new WorkerLoad(50, -1, 10)));
+        Map<String, List<AssignedTask>> result = instance.takeTasksForWorkers(requests, Collections.emptyMap(), new ResourceUsageCounters(), new LeastLoadedWorkerSelectionPolicy());
+        // scores are (running + 1) / 10 * latency, w1 goes from 3 to 6, w2 goes from 3 up to 7
+        assertEquals(Arrays.asList(1L, 5L), taskIds(result.get("w1")));
+        assertEquals(Arrays.asList(2L, 3L, 4L, 6L), taskIds(result.get("w2")));
+    }
+
+}
@@ -26,7 +26,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
-import majordodo.utils.IntCounter;
 import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
@@ -155,10 +154,10 @@ public class TasksHeapLimitsTest {
         for (int i = 0; i < 1000; i++) {
             instance.insertTask(newTaskId.incrementAndGet(), TASKTYPE_MYTASK1, USERID1);
         }
-        ResourceUsageCounters globalCounters = new ResourceUsageCounters();
-        ResourceUsageCounters workerCounters = new ResourceUsageCounters();
-        workerCounters.counters.put(RESOURCE1, new IntCounter(2));
-        globalCounters.counters.put(RESOURCE1, new IntCounter(3));
+        ResourceUsageCounters globalCounters = new ResourceUsageCounters(instance.getResourceIds());
+        ResourceUsageCounters workerCounters = new ResourceUsageCounters(instance.getResourceIds());
+        useResource(instance.getResourceIds(), workerCounters, RESOURCE1, 2);
+        useResource(instance.getResourceIds(), globalCounters, RESOURCE1, 3);
         Map<String, Integer> workerLimitsConfiguration = new HashMap<>();
         workerLimitsConfiguration.put(RESOURCE1, 7);
         workerLimitsConfiguration.put(RESOURCE2, 10);
@@ -179,10 +178,10 @@ public class TasksHeapLimitsTest {
         for (int i = 0; i < 1000; i++) {
             instance.insertTask(newTaskId.incrementAndGet(), TASKTYPE_MYTASK1, USERID1);
         }
-        ResourceUsageCounters globalCounters = new ResourceUsageCounters();
-        ResourceUsageCounters workerCounters = new ResourceUsageCounters();
-        workerCounters.counters.put(RESOURCE1, new IntCounter(7));
-        globalCounters.counters.put(RESOURCE1, new IntCounter(8));
+        ResourceUsageCounters globalCounters = new ResourceUsageCounters(instance.getResourceIds());
+        ResourceUsageCounters workerCounters = new ResourceUsageCounters(instance.getResourceIds());
+        useResource(instance.getResourceIds(), workerCounters, RESOURCE1, 7);
+        useResource(instance.getResourceIds(), globalCounters, RESOURCE1, 8);
         Map<String, Integer> workerLimitsConfiguration = new HashMap<>();
         workerLimitsConfiguration.put(RESOURCE1, 7);
         workerLimitsConfiguration.put(RESOURCE2, 10);
@@ -194,4 +193,11 @@ public class TasksHeapLimitsTest {
         assertEquals(0, taskids.size());
     }
 
+    private static void useResource(ResourceIds resourceIds, ResourceUsageCounters counters, String resource, int count) {
+        int[] ids = {resourceIds.resolve(resource)};
+        for (int i = 0; i < count; i++) {
+            counters.useResources(ids);
+        }
+    }
+
 }
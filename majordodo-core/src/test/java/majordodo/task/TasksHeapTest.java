@@ -19,6 +19,7 @@
  */
 package majordodo.task;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -199,4 +200,33 @@ public class TasksHeapTest {
 
     }
 
+    @Test
+    public void testInsertTasks() throws Exception {
+        TasksHeap instance = new TasksHeap(1, DEFAULT_FUNCTION);
+        Map< String, Integer> availableSpace = new HashMap<>();
+        availableSpace.put(TASKTYPE_MYTASK1, 3);
+        availableSpace.put(TASKTYPE_MYTASK2, 1);
+        AtomicLong newTaskId = new AtomicLong(0);
+        List<Task> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Task task = new Task();
+            task.setTaskId(newTaskId.incrementAndGet());
+            task.setType(i % 2 == 0 ? TASKTYPE_MYTASK1 : TASKTYPE_MYTASK2);
+            task.setUserId(i < 5 ? USERID1 : USERID2);
+            tasks.add(task);
+        }
+        instance.insertTasks(tasks);
+        assertEquals(10, instance.getActualsize());
+        assertEquals(10, instance.getSize());
+
+        {
+            List<AssignedTask> taskids = instance.takeTasks(3, Arrays.asList(GROUPID2), Collections.emptySet(), availableSpace, Collections.emptyMap(), new ResourceUsageCounters(), Collections.emptyMap(), new ResourceUsageCounters());
+            assertEquals(3, taskids.size());
+            assertEquals(6, taskids.get(0).taskid);
+            assertEquals(7, taskids.get(1).taskid);
+            assertEquals(9, taskids.get(2).taskid);
+        }
+
+    }
+
 }
@@ -0,0 +1,213 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.task;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Simulation of global scheduling rounds with heterogeneous workers: slow
+ * workers (4x latency) and fast workers with the same number of threads.
+ * Time is simulated, one scheduling round every millisecond.
+ *
+ * When the cluster is saturated the makespan of the whole run is bound by the
+ * capacity of the cluster, whatever the policy. The policy makes a difference
+ * on the makespan of small jobs (bursts of tasks which do not fill the
+ * cluster), which can be completed by the fast workers alone
+ *
+ * @author enrico.olivelli
+ */
+public class WorkerSelectionBenchTest {
+
+    private static final String TASKTYPE = "mytype";
+    private static final String USERID = "myuser";
+    private static final int THREADS = 4;
+    private static final int TASKS = 4000;
+    private static final long SLOW_LATENCY = 40;
+    private static final long FAST_LATENCY = 10;
+
+    private static final class SimulatedWorker {
+
+        final String workerId;
+        final long latency;
+        int running;
+        boolean reportedLatency;
+        long busyTime;
+
+        SimulatedWorker(String workerId, long latency) {
+            this.workerId = workerId;
+            this.latency = latency;
+        }
+    }
+
+    private static final class Completion implements Comparable<Completion> {
+
+        final long time;
+        final SimulatedWorker worker;
+
+        Completion(long time, SimulatedWorker worker) {
+            this.time = time;
+            this.worker = worker;
+        }
+
+        @Override
+        public int compareTo(Completion o) {
+            return Long.compare(time, o.time);
+        }
+    }
+
+    private static final class Result {
+
+        long makespan;
+        double meanCompletionTime;
+        double meanBurstMakespan;
+
+        @Override
+        public String toString() {
+            return "makespan " + makespan + " ms, mean completion time " + String.format("%.1f", meanCompletionTime) + " ms"
+                + ", mean burst makespan " + String.format("%.1f", meanBurstMakespan) + " ms";
+        }
+    }
+
+    /**
+     *
+     * @param policy
+     * @param arrivalInterval a burst of tasks is submitted every
+     * arrivalInterval milliseconds, 0 means all the tasks at once
+     * @param burstSize number of tasks of each burst
+     * @return
+     */
+    private static Result simulate(WorkerSelectionPolicy policy, int arrivalInterval, int burstSize) {
+        TasksHeap heap = new TasksHeap(TASKS * 2, (long taskid, String taskType, String userid) -> new TaskProperties(1, null));
+        // slow workers come first, this is the worst case for round robin
+        List<SimulatedWorker> workers = Arrays.asList(
+            new SimulatedWorker("slow1", SLOW_LATENCY),
+            new SimulatedWorker("slow2", SLOW_LATENCY),
+            new SimulatedWorker("fast1", FAST_LATENCY),
+            new SimulatedWorker("fast2", FAST_LATENCY));
+        PriorityQueue<Completion> completions = new PriorityQueue<>();
+        long[] submitTime = new long[TASKS + 1];
+        int bursts = arrivalInterval <= 0 ? 1 : (TASKS + burstSize - 1) / burstSize;
+        long[] burstEnd = new long[bursts];
+        long submitted = 0;
+        long completed = 0;
+        long totalCompletionTime = 0;
+        long now = 0;
+        Result result = new Result();
+        while (completed < TASKS) {
+            while (!completions.isEmpty() && completions.peek().time <= now) {
+                Completion completion = completions.poll();
+                completion.worker.running--;
+                completion.worker.reportedLatency = true;
+            }
+            int toSubmit = arrivalInterval <= 0 ? TASKS : (now % arrivalInterval == 0 ? burstSize : 0);
+            while (toSubmit-- > 0 && submitted < TASKS) {
+                submitted++;
+                heap.insertTask(submitted, TASKTYPE, USERID);
+                submitTime[(int) submitted] = now;
+            }
+            List<WorkerSchedulingRequest> requests = new ArrayList<>();
+            for (SimulatedWorker worker : workers) {
+                int free = THREADS - worker.running;
+                if (free > 0) {
+                    // the latency is known after the first ping following the first finished task
+                    WorkerLoad load = new WorkerLoad(-1, -1, worker.reportedLatency ? worker.latency : 0);
+                    requests.add(new WorkerSchedulingRequest(worker.workerId, free, Collections.singletonMap(Task.TASKTYPE_ANY, free),
+                        Arrays.asList(Task.GROUP_ANY), Collections.emptySet(), Collections.emptyMap(), new ResourceUsageCounters(),
+                        worker.running, load));
+                }
+            }
+            if (!requests.isEmpty()) {
+                Map<String, List<AssignedTask>> assigned = heap.takeTasksForWorkers(requests, Collections.emptyMap(), new ResourceUsageCounters(), policy);
+                for (SimulatedWorker worker : workers) {
+                    List<AssignedTask> tasks = assigned.get(worker.workerId);
+                    if (tasks == null) {
+                        continue;
+                    }
+                    for (AssignedTask task : tasks) {
+                        long end = now + worker.latency;
+                        worker.running++;
+                        worker.busyTime += worker.latency;
+                        completions.add(new Completion(end, worker));
+                        completed++;
+                        totalCompletionTime += end - submitTime[(int) task.taskid];
+                        result.makespan = Math.max(result.makespan, end);
+                        int burst = arrivalInterval <= 0 ? 0 : (int) ((task.taskid - 1) / burstSize);
+                        burstEnd[burst] = Math.max(burstEnd[burst], end);
+                    }
+                }
+            }
+            now++;
+        }
+        result.meanCompletionTime = (double) totalCompletionTime / TASKS;
+        long totalBurstMakespan = 0;
+        for (int i = 0; i < bursts; i++) {
+            totalBurstMakespan += burstEnd[i] - submitTime[i * (arrivalInterval <= 0 ? 1 : burstSize) + 1];
+        }
+        result.meanBurstMakespan = (double) totalBurstMakespan / bursts;
+        return result;
+    }
+
+    private static Result[] run(String scenario, int arrivalInterval, int burstSize) {
+        Result roundRobin = simulate(null, arrivalInterval, burstSize);
+        Result leastLoaded = simulate(new LeastLoadedWorkerSelectionPolicy(), arrivalInterval, burstSize);
+        Result powerOfTwo = simulate(new PowerOfTwoChoicesWorkerSelectionPolicy(new Random(1234)), arrivalInterval, burstSize);
+        System.out.println(scenario + " roundrobin:        " + roundRobin);
+        System.out.println(scenario + " leastloaded:       " + leastLoaded);
+        System.out.println(scenario + " poweroftwochoices: " + powerOfTwo);
+        assertTrue(leastLoaded.makespan <= roundRobin.makespan);
+        assertTrue(leastLoaded.meanCompletionTime <= roundRobin.meanCompletionTime);
+        return new Result[]{roundRobin, leastLoaded, powerOfTwo};
+    }
+
+    @Test
+    public void testBurst() throws Exception {
+        run("burst", 0, TASKS);
+    }
+
+    @Test
+    public void testFullLoad() throws Exception {
+        // the cluster can complete about one task per millisecond
+        run("fullload", 1, 1);
+    }
+
+    @Test
+    public void testHalfLoad() throws Exception {
+        // fast workers alone could sustain this load
+        run("halfload", 2, 1);
+    }
+
+    @Test
+    public void testSmallJobs() throws Exception {
+        // jobs of 6 tasks, the fast workers alone have 8 threads
+        Result[] results = run("smalljobs", 100, 6);
+        Result roundRobin = results[0];
+        Result leastLoaded = results[1];
+        assertTrue(leastLoaded.meanBurstMakespan * 2 < roundRobin.meanBurstMakespan);
+    }
+
+}
@@ -0,0 +1,233 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.utils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Tests and benchmarks for LongObjectHashMap
+ *
+ * @author enrico.olivelli
+ */
+public class LongObjectHashMapTest {
+
+    @Test
+    public void testPutGetRemove() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        Map<Long, String> expected = new HashMap<>();
+        for (long i = 1; i <= 10000; i++) {
+            assertNull(map.put(i, "v" + i));
+            expected.put(i, "v" + i);
+        }
+        assertEquals(10000, map.size());
+        assertEquals("v1", map.put(1, "x1"));
+        expected.put(1L, "x1");
+        for (long i = 2; i <= 10000; i += 2) {
+            assertEquals("v" + i, map.remove(i));
+            expected.remove(i);
+        }
+        assertNull(map.remove(2));
+        assertNull(map.remove(20000));
+        assertEquals(expected.size(), map.size());
+        for (long i = 1; i <= 20000; i++) {
+            assertEquals(expected.get(i), map.get(i));
+        }
+        // re-insert removed keys
+        for (long i = 2; i <= 10000; i += 2) {
+            assertNull(map.put(i, "y" + i));
+        }
+        assertEquals(10000, map.size());
+        assertEquals("y2", map.get(2));
+    }
+
+    @Test
+    public void testIterationAndRemoval() {
+        LongObjectHashMap<Long> map = new LongObjectHashMap<>();
+        for (long i = 1; i <= 1000; i++) {
+            map.put(i, i);
+        }
+        Set<Long> seen = new HashSet<>();
+        for (Iterator<Long> it = map.values().iterator(); it.hasNext();) {
+            Long value = it.next();
+            assertTrue(seen.add(value));
+            if (value % 3 == 0) {
+                it.remove();
+            }
+        }
+        assertEquals(1000, seen.size());
+        assertEquals(1000 - 333, map.size());
+        assertEquals(1000 - 333, map.values().stream().count());
+        assertNull(map.get(3));
+        assertSame(map.get(4), map.get(4));
+    }
+
+    @Test
+    public void testTombstonesDoNotGrowTheTable() {
+        LongObjectHashMap<String> map = new LongObjectHashMap<>();
+        // continuous insert/remove, as happens with tasks which are submitted and purged
+        for (long i = 1; i <= 1000000; i++) {
+            map.put(i, "v");
+            if (i > 100) {
+                map.remove(i - 100);
+            }
+        }
+        assertEquals(100, map.size());
+        for (long i = 1000000 - 99; i <= 1000000; i++) {
+            assertEquals("v", map.get(i));
+        }
+    }
+
+    private static final int BENCH_ENTRIES = 2000000;
+    private static final int BENCH_READERS = 4;
+    private static final long BENCH_DURATION = 2000;
+
+    private interface BenchMap {
+
+        Object get(long key);
+
+        void put(long key, Object value);
+
+        void remove(long key);
+    }
+
+    @Test
+    public void benchMixedGetAndUpdate() throws Exception {
+        ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        Map<Long, Object> hashMap = new HashMap<>();
+        BenchMap locked = new BenchMap() {
+            @Override
+            public Object get(long key) {
+                lock.readLock().lock();
+                try {
+                    return hashMap.get(key);
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+
+            @Override
+            public void put(long key, Object value) {
+                lock.writeLock().lock();
+                try {
+                    hashMap.put(key, value);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+
+            @Override
+            public void remove(long key) {
+                lock.writeLock().lock();
+                try {
+                    hashMap.remove(key);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        };
+        LongObjectHashMap<Object> longMap = new LongObjectHashMap<>();
+        BenchMap lockFree = new BenchMap() {
+            @Override
+            public Object get(long key) {
+                return longMap.get(key);
+            }
+
+            @Override
+            public void put(long key, Object value) {
+                lock.writeLock().lock();
+                try {
+                    longMap.put(key, value);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+
+            @Override
+            public void remove(long key) {
+                lock.writeLock().lock();
+                try {
+                    longMap.remove(key);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            }
+        };
+        bench("HashMap+ReentrantReadWriteLock", locked);
+        bench("LongObjectHashMap", lockFree);
+    }
+
+    private static void bench(String name, BenchMap map) throws Exception {
+        Object value = new Object();
+        long _start = System.currentTimeMillis();
+        for (long i = 1; i <= BENCH_ENTRIES; i++) {
+            map.put(i, value);
+        }
+        System.out.println(name + ": loaded " + BENCH_ENTRIES + " entries in " + (System.currentTimeMillis() - _start) + " ms");
+
+        AtomicBoolean stop = new AtomicBoolean();
+        LongAdder reads = new LongAdder();
+        LongAdder writes = new LongAdder();
+        Thread[] readers = new Thread[BENCH_READERS];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long count = 0;
+                while (!stop.get()) {
+                    if (map.get(1 + random.nextInt(BENCH_ENTRIES)) != null) {
+                        count++;
+                    }
+                }
+                reads.add(count);
+            });
+            readers[i].start();
+        }
+        // the writer simulates tasks which are submitted and purged
+        Thread writer = new Thread(() -> {
+            long next = BENCH_ENTRIES + 1;
+            long oldest = 1;
+            while (!stop.get()) {
+                map.put(next++, value);
+                map.remove(oldest++);
+                writes.add(2);
+            }
+        });
+        writer.start();
+        Thread.sleep(BENCH_DURATION);
+        stop.set(true);
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        System.out.println(name + ": " + (reads.sum() * 1000 / BENCH_DURATION) + " gets/s, " + (writes.sum() * 1000 / BENCH_DURATION) + " updates/s with " + BENCH_READERS + " readers and 1 writer");
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.worker;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import majordodo.task.Task;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Simulation of workers with CPU bound and I/O bound tasktypes, the limits
+ * computed by the controller must converge
+ *
+ * @author enrico.olivelli
+ */
+public class AdaptiveConcurrencyControllerTest {
+
+    private static final String TASKTYPE_CPU = "cpu";
+    private static final String TASKTYPE_IO = "io";
+    private static final int PROCESSORS = 4;
+    private static final int MAX_THREADS = 64;
+    private static final long BASE_LATENCY = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static AdaptiveConcurrencyController createController(String... taskTypes) {
+        Map<String, Integer> maxThreadsByTaskType = new HashMap<>();
+        for (String taskType : taskTypes) {
+            maxThreadsByTaskType.put(taskType, MAX_THREADS);
+        }
+        return new AdaptiveConcurrencyController(maxThreadsByTaskType, 1, PROCESSORS, 100);
+    }
+
+    /**
+     * One period of the controller: each tasktype runs as many tasks as
+     * allowed (there is always a backlog on the broker). CPU bound tasks
+     * share the processors, so their latency grows with concurrency, while the
+     * latency of I/O bound tasks does not depend on concurrency
+     */
+    private static void simulatePeriod(AdaptiveConcurrencyController controller, double systemLoad) {
+        Map<String, Integer> limits = controller.getLimits();
+        int cpuRunning = limits.getOrDefault(TASKTYPE_CPU, 0);
+        for (Map.Entry<String, Integer> entry : limits.entrySet()) {
+            String taskType = entry.getKey();
+            int running = entry.getValue();
+            long latency = BASE_LATENCY;
+            if (taskType.equals(TASKTYPE_CPU)) {
+                latency = (long) (BASE_LATENCY * Math.max(1, (double) cpuRunning / PROCESSORS));
+            }
+            for (int i = 0; i < running; i++) {
+                controller.taskStarted(taskType);
+            }
+            for (int i = 0; i < running; i++) {
+                controller.taskFinished(taskType, latency);
+            }
+        }
+        controller.adjust(systemLoad);
+    }
+
+    @Test
+    public void testConvergence() throws Exception {
+        AdaptiveConcurrencyController controller = createController(TASKTYPE_CPU, TASKTYPE_IO);
+        assertEquals(PROCESSORS, controller.getLimits().get(TASKTYPE_CPU).intValue());
+        assertEquals(PROCESSORS, controller.getLimits().get(TASKTYPE_IO).intValue());
+        for (int i = 0; i < 50; i++) {
+            simulatePeriod(controller, 0.5);
+            System.out.println("period " + i + " limits " + controller.getLimits());
+        }
+        int cpuLimit = controller.getLimits().get(TASKTYPE_CPU);
+        // CPU bound tasks stay near the number of processors
+        assertTrue(cpuLimit >= PROCESSORS);
+        assertTrue(cpuLimit <= 2 * PROCESSORS);
+        // I/O bound tasks use every allowed thread
+        assertEquals(MAX_THREADS, controller.getLimits().get(TASKTYPE_IO).intValue());
+
+        // stable
+        for (int i = 0; i < 20; i++) {
+            simulatePeriod(controller, 0.5);
+            assertTrue(Math.abs(controller.getLimits().get(TASKTYPE_CPU) - cpuLimit) <= 1);
+            assertEquals(MAX_THREADS, controller.getLimits().get(TASKTYPE_IO).intValue());
+        }
+    }
+
+    @Test
+    public void testSystemOverload() throws Exception {
+        AdaptiveConcurrencyController controller = createController(TASKTYPE_IO);
+        for (int i = 0; i < 50; i++) {
+            simulatePeriod(controller, 0.5);
+        }
+        assertEquals(MAX_THREADS, controller.getLimits().get(TASKTYPE_IO).intValue());
+        int previous = MAX_THREADS;
+        for (int i = 0; i < 5; i++) {
+            simulatePeriod(controller, 3);
+            int limit = controller.getLimits().get(TASKTYPE_IO);
+            assertTrue(limit < previous);
+            previous = limit;
+        }
+        // the host is no more overloaded
+        for (int i = 0; i < 50; i++) {
+            simulatePeriod(controller, 0.5);
+        }
+        assertEquals(MAX_THREADS, controller.getLimits().get(TASKTYPE_IO).intValue());
+    }
+
+    @Test
+    public void testNoGrowthWithoutBacklog() throws Exception {
+        AdaptiveConcurrencyController controller = createController(TASKTYPE_IO);
+        for (int i = 0; i < 20; i++) {
+            // a single task at a time
+            controller.taskStarted(TASKTYPE_IO);
+            controller.taskFinished(TASKTYPE_IO, BASE_LATENCY);
+            controller.adjust(0.5);
+        }
+        assertEquals(PROCESSORS, controller.getLimits().get(TASKTYPE_IO).intValue());
+    }
+
+    @Test
+    public void testAnyTaskType() throws Exception {
+        AdaptiveConcurrencyController controller = createController(Task.TASKTYPE_ANY);
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j < controller.getLimits().get(Task.TASKTYPE_ANY); j++) {
+                controller.taskStarted("othertype");
+            }
+            for (int j = 0; j < controller.getLimits().get(Task.TASKTYPE_ANY); j++) {
+                controller.taskFinished("othertype", BASE_LATENCY);
+            }
+            controller.adjust(-1);
+        }
+        assertEquals(MAX_THREADS, controller.getLimits().get(Task.TASKTYPE_ANY).intValue());
+    }
+
+}
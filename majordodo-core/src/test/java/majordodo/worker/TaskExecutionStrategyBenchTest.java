@@ -0,0 +1,128 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.worker;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Compares the execution modes of the worker with a mix of CPU bound and
+ * blocking tasks. The broker is emulated by limiting the number of tasks in
+ * flight to maxThreads
+ *
+ * @author enrico.olivelli
+ */
+public class TaskExecutionStrategyBenchTest {
+
+    private static final String TASKTYPE_CPU = "cpu";
+    private static final String TASKTYPE_IO = "io";
+    private static final int MAX_THREADS = 32;
+    private static final int CPU_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int CPU_TASKS = 2000;
+    private static final int IO_TASKS = 1000;
+    private static final int ROUNDS = 3;
+
+    private static volatile long sink;
+
+    private static void cpuTask() {
+        long res = 0;
+        for (int i = 0; i < 200000; i++) {
+            res += (res ^ i) * 31;
+        }
+        sink = res;
+    }
+
+    private static void ioTask() throws InterruptedException {
+        Thread.sleep(10);
+    }
+
+    @Test
+    public void bench() throws Exception {
+        for (String mode : new String[]{WorkerCoreConfiguration.EXECUTION_MODE_SHARED,
+            WorkerCoreConfiguration.EXECUTION_MODE_TASKTYPE,
+            WorkerCoreConfiguration.EXECUTION_MODE_VIRTUAL}) {
+            for (int i = 0; i < ROUNDS; i++) {
+                run(mode);
+            }
+        }
+    }
+
+    private void run(String mode) throws Exception {
+        Map<String, Integer> maxThreadsByTaskType = new HashMap<>();
+        maxThreadsByTaskType.put(TASKTYPE_CPU, CPU_THREADS);
+        maxThreadsByTaskType.put(TASKTYPE_IO, MAX_THREADS - CPU_THREADS);
+        WorkerCoreConfiguration config = new WorkerCoreConfiguration();
+        config.setMaxThreads(MAX_THREADS);
+        config.setMaxThreadsByTaskType(maxThreadsByTaskType);
+        config.setExecutionMode(mode);
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long threadsBefore = threads.getTotalStartedThreadCount();
+        TaskExecutionStrategy strategy = WorkerCore.createExecutionStrategy(config, "bench");
+        // the broker never assigns more than maxThreads tasks
+        Semaphore inFlight = new Semaphore(MAX_THREADS);
+        CountDownLatch done = new CountDownLatch(CPU_TASKS + IO_TASKS);
+        AtomicLong cpuLatency = new AtomicLong();
+        long _start = System.nanoTime();
+        int cpu = 0;
+        int io = 0;
+        while (cpu < CPU_TASKS || io < IO_TASKS) {
+            boolean cpuBound = io >= IO_TASKS || (cpu < CPU_TASKS && cpu <= io * 2);
+            inFlight.acquire();
+            long submitted = System.nanoTime();
+            if (cpuBound) {
+                cpu++;
+                strategy.execute(TASKTYPE_CPU, () -> {
+                    cpuTask();
+                    cpuLatency.addAndGet(System.nanoTime() - submitted);
+                    inFlight.release();
+                    done.countDown();
+                });
+            } else {
+                io++;
+                strategy.execute(TASKTYPE_IO, () -> {
+                    try {
+                        ioTask();
+                    } catch (InterruptedException err) {
+                        Thread.currentThread().interrupt();
+                    }
+                    inFlight.release();
+                    done.countDown();
+                });
+            }
+        }
+        assertTrue(done.await(2, TimeUnit.MINUTES));
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - _start);
+        strategy.shutdown();
+        long startedThreads = threads.getTotalStartedThreadCount() - threadsBefore;
+        System.out.println("mode " + mode + " (" + strategy.getClass().getSimpleName() + "): "
+            + elapsed + " ms, "
+            + "average cpu task latency " + TimeUnit.NANOSECONDS.toMicros(cpuLatency.get() / CPU_TASKS) + " us, "
+            + "started threads " + startedThreads);
+    }
+}
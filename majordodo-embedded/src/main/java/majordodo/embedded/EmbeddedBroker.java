@@ -131,6 +131,9 @@ public class EmbeddedBroker implements AutoCloseable {
         }
         String host = configuration.getStringProperty(EmbeddedBrokerConfiguration.KEY_HOST, "localhost");
         int workerthreads = configuration.getIntProperty(EmbeddedBrokerConfiguration.KEY_BROKERWORKERTHREADS, 16);
+        boolean epoll = configuration.getBooleanProperty(EmbeddedBrokerConfiguration.KEY_BROKEREPOLL, false);
+        int writeBufferLowWaterMark = configuration.getIntProperty(EmbeddedBrokerConfiguration.KEY_BROKERWRITEBUFFERLOWWATERMARK, 0);
+        int writeBufferHighWaterMark = configuration.getIntProperty(EmbeddedBrokerConfiguration.KEY_BROKERWRITEBUFFERHIGHWATERMARK, 0);
         int port = configuration.getIntProperty(EmbeddedBrokerConfiguration.KEY_PORT, 7862);
         boolean ssl = configuration.getBooleanProperty(EmbeddedBrokerConfiguration.KEY_SSL, false);
         boolean requireAuthentication = configuration.getBooleanProperty(EmbeddedBrokerConfiguration.KEY_REQUIREAUTHENTICATION, EmbeddedBrokerConfiguration.KEY_REQUIREAUTHENTICATION_DEFAULT);
@@ -181,10 +184,12 @@ public class EmbeddedBroker implements AutoCloseable {
                 int writeQuorumSize = configuration.getIntProperty(EmbeddedBrokerConfiguration.KEY_BK_WRITEQUORUMSIZE, _statusChangesLog.getWriteQuorumSize());
                 int ackQuorumSize = configuration.getIntProperty(EmbeddedBrokerConfiguration.KEY_BK_ACKQUORUMSIZE, _statusChangesLog.getAckQuorumSize());
                 long ledgersRetentionPeriod = configuration.getLongProperty(EmbeddedBrokerConfiguration.KEY_BK_LEDGERSRETENTIONPERIOD, _statusChangesLog.getLedgersRetentionPeriod());
+                int maxPackedEntrySize = configuration.getIntProperty(EmbeddedBrokerConfiguration.KEY_BK_MAXPACKEDENTRYSIZE, _statusChangesLog.getMaxPackedEntrySize());
                 _statusChangesLog.setAckQuorumSize(ackQuorumSize);
                 _statusChangesLog.setEnsemble(ensemble);
                 _statusChangesLog.setLedgersRetentionPeriod(ledgersRetentionPeriod);
                 _statusChangesLog.setWriteQuorumSize(writeQuorumSize);
+                _statusChangesLog.setMaxPackedEntrySize(maxPackedEntrySize);
 
                 break;
             }
@@ -214,6 +219,9 @@ public class EmbeddedBroker implements AutoCloseable {
                 server.setSslCertPassword(certpassword);
                 server.setSsl(ssl);
                 server.setWorkerThreads(workerthreads);
+                server.setEpoll(epoll);
+                server.setWriteBufferLowWaterMark(writeBufferLowWaterMark);
+                server.setWriteBufferHighWaterMark(writeBufferHighWaterMark);
                 break;
             default:
                 throw new IllegalArgumentException("Unsupported mode " + mode);
@@ -46,8 +46,12 @@ public class EmbeddedBrokerConfiguration extends AbstractEmbeddedServiceConfigur
     public static final String KEY_BK_WRITEQUORUMSIZE = "bookkeeper.writequorumsize";
     public static final String KEY_BK_ACKQUORUMSIZE = "bookkeeper.ackquorumsize";
     public static final String KEY_BK_LEDGERSRETENTIONPERIOD = "bookkeeper.ledgersretentionperiod";
+    public static final String KEY_BK_MAXPACKEDENTRYSIZE = "bookkeeper.maxpackedentrysize";
     
     public static final String KEY_BROKERWORKERTHREADS = "broker.worker.threads";
+    public static final String KEY_BROKEREPOLL = "broker.epoll";
+    public static final String KEY_BROKERWRITEBUFFERLOWWATERMARK = "broker.writebuffer.lowwatermark";
+    public static final String KEY_BROKERWRITEBUFFERHIGHWATERMARK = "broker.writebuffer.highwatermark";
     public static final String KEY_REQUIREAUTHENTICATION = "broker.requireauthentication";
     public static final boolean KEY_REQUIREAUTHENTICATION_DEFAULT = true;
 
@@ -82,6 +82,7 @@ public class EmbeddedWorker {
         int zkSessionTimeout = configuration.getIntProperty(EmbeddedWorkerConfiguration.KEY_ZKSESSIONTIMEOUT, 40000);
         Supplier<ZooKeeper> supplier = (Supplier<ZooKeeper>) configuration.getProperty(EmbeddedWorkerConfiguration.KEY_ZKCLIENTSUPPLIER, null);
         boolean sslUnsecure = configuration.getBooleanProperty(EmbeddedWorkerConfiguration.KEY_SSL_UNSECURE, true);
+        boolean epoll = configuration.getBooleanProperty(EmbeddedWorkerConfiguration.KEY_EPOLL, false);
 
         switch (mode) {
             case EmbeddedWorkerConfiguration.MODE_JVMONLY:
@@ -91,6 +92,7 @@ public class EmbeddedWorker {
                 brokerLocator = new NettyBrokerLocator(host, port, ssl);
 
                 ((NettyBrokerLocator) brokerLocator).setSslUnsecure(sslUnsecure);
+                ((NettyBrokerLocator) brokerLocator).setEpoll(epoll);
                 break;
             case EmbeddedWorkerConfiguration.MODE_CLUSTERED:
                 if (supplier != null) {
@@ -99,6 +101,7 @@ public class EmbeddedWorker {
                     brokerLocator = new ZKBrokerLocator(zkAdress, zkSessionTimeout, zkPath);
                 }
                 ((ZKBrokerLocator) brokerLocator).setSslUnsecure(sslUnsecure);
+                ((ZKBrokerLocator) brokerLocator).setEpoll(epoll);
                 break;
             default:
                 throw new IllegalArgumentException("Unsupported mode " + mode);
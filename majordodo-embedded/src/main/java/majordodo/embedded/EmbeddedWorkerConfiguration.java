@@ -31,4 +31,5 @@ public class EmbeddedWorkerConfiguration extends AbstractEmbeddedServiceConfigur
     public static final String KEY_SSL = "worker.broker.ssl";
 
     public static final String KEY_SSL_UNSECURE = "worker.broker.ssl.unsecure";
+    public static final String KEY_EPOLL = "worker.epoll";
 }
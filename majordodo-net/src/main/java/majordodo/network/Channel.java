@@ -81,6 +81,16 @@ public abstract class Channel implements AutoCloseable {
 
     public abstract boolean isValid();
 
+    /**
+     * Tells whether the channel can accept new messages without queueing them
+     * in memory
+     *
+     * @return
+     */
+    public boolean isWritable() {
+        return true;
+    }
+
     public String getName() {
         return name;
     }
@@ -52,6 +52,14 @@ public interface ConnectionRequestInfo {
 
     public int getMaxThreads();
 
+    /**
+     * Number of tasks which the worker is able to queue locally, on top of
+     * the tasks which are actually running
+     *
+     * @return
+     */
+    public int getPrefetchTasks();
+
     public Map<String, Integer> getMaxThreadsByTaskType();
 
     public List<Integer> getGroups();
@@ -63,6 +63,12 @@ public final class Message {
         return new Message(workerProcessId, TYPE_TASK_ASSIGNED, taskParameters);
     }
 
+    public static Message CANCEL_TASK(String workerProcessId, long taskId) {
+        HashMap<String, Object> parameters = new HashMap<>();
+        parameters.put("taskid", taskId);
+        return new Message(workerProcessId, TYPE_CANCEL_TASK, parameters);
+    }
+
     public static Message KILL_WORKER(String workerProcessId) {
         return new Message(workerProcessId, TYPE_KILL_WORKER, null);
     }
@@ -111,6 +117,7 @@ public final class Message {
         String sharedSecret,
         Set<Long> actualRunningTasks,
         int maxThreads,
+        int prefetchTasks,
         Map<String, Integer> maxThreadsByTaskType,
         List<Integer> groups,
         Set<Integer> excludedGroups,
@@ -124,6 +131,7 @@ public final class Message {
         params.put("location", location);
         params.put("secret", sharedSecret);
         params.put("maxThreads", maxThreads);
+        params.put("prefetchTasks", prefetchTasks);
         params.put("maxThreadsByTaskType", maxThreadsByTaskType);
         params.put("groups", groups);
         params.put("resources", resources);
@@ -139,15 +147,20 @@ public final class Message {
         return new Message(processId, TYPE_TASK_FINISHED, params);
     }
 
-    public static Message WORKER_PING(String processId, List<Integer> groups, Set<Integer> excludedGroups, Map<String, Integer> maxThreadsByTaskType, int max, Map<String, Integer> resources) {
+    public static Message WORKER_PING(String processId, List<Integer> groups, Set<Integer> excludedGroups, Map<String, Integer> maxThreadsByTaskType, int max, int prefetchTasks, Map<String, Integer> resources,
+        int systemLoad, long freeMemory, long taskLatency) {
         Map<String, Object> params = new HashMap<>();
 
         params.put("processId", processId);
         params.put("groups", groups);
         params.put("maxThreadsByTaskType", maxThreadsByTaskType);
         params.put("maxThreads", max);
+        params.put("prefetchTasks", prefetchTasks);
         params.put("excludedGroups", excludedGroups);
         params.put("resources", resources);
+        params.put("systemLoad", systemLoad);
+        params.put("freeMemory", freeMemory);
+        params.put("taskLatency", taskLatency);
         return new Message(processId, TYPE_WORKER_PING, params);
     }
 
@@ -174,6 +187,7 @@ public final class Message {
     public static final int TYPE_SNAPSHOT_DOWNLOAD_RESPONSE = 10;
     public static final int TYPE_DOWNLOAD_CODEPOOL = 11;
     public static final int TYPE_DOWNLOAD_CODEPOOL_RESPONSE = 12;
+    public static final int TYPE_CANCEL_TASK = 13;
 
     public static final int TYPE_SASL_TOKEN_MESSAGE_REQUEST = 100;
     public static final int TYPE_SASL_TOKEN_SERVER_RESPONSE = 101;
@@ -205,6 +219,8 @@ public final class Message {
                 return "TYPE_DOWNLOAD_CODEPOOL";
             case TYPE_DOWNLOAD_CODEPOOL_RESPONSE:
                 return "TYPE_DOWNLOAD_CODEPOOL_RESPONSE";
+            case TYPE_CANCEL_TASK:
+                return "TYPE_CANCEL_TASK";
             case TYPE_SASL_TOKEN_MESSAGE_REQUEST:
                 return "SASL_TOKEN_MESSAGE_REQUEST";
             case TYPE_SASL_TOKEN_SERVER_RESPONSE:
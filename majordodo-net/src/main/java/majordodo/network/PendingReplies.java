@@ -0,0 +1,162 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.network;
+
+import io.netty.util.HashedWheelTimer;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Tracks the messages which are waiting for a reply. Message ids are
+ * generated from a per-channel counter and deadlines are handled by a timer
+ * wheel shared by all the channels of the JVM
+ *
+ * @author enrico.olivelli
+ */
+public final class PendingReplies {
+
+    /**
+     * A message waiting for its reply
+     */
+    public static final class PendingReply {
+
+        private final Message original;
+        private final ReplyCallback callback;
+        private volatile Timeout timeout;
+
+        private PendingReply(Message original, ReplyCallback callback) {
+            this.original = original;
+            this.callback = callback;
+        }
+
+        public Message getOriginal() {
+            return original;
+        }
+
+        public ReplyCallback getCallback() {
+            return callback;
+        }
+
+        private void cancelTimeout() {
+            Timeout _timeout = timeout;
+            if (_timeout != null) {
+                _timeout.cancel();
+            }
+        }
+
+    }
+
+    private static final class TimerHolder {
+
+        private static final Timer TIMER = new HashedWheelTimer(new DefaultThreadFactory("dodo-reply-timeout", true), 100, TimeUnit.MILLISECONDS, 512);
+    }
+
+    private final Map<Long, PendingReply> pending = new ConcurrentHashMap<>();
+    private final AtomicLong idGenerator = new AtomicLong();
+    private final Consumer<PendingReply> timeoutHandler;
+
+    /**
+     *
+     * @param timeoutHandler called from the timer thread when a reply does not
+     * arrive in time, it must not block
+     */
+    public PendingReplies(Consumer<PendingReply> timeoutHandler) {
+        this.timeoutHandler = timeoutHandler;
+    }
+
+    public String nextMessageId() {
+        return Long.toString(idGenerator.incrementAndGet());
+    }
+
+    /**
+     * Starts waiting for the reply to a message, the id of the message must
+     * have been generated by {@link #nextMessageId() }
+     *
+     * @param message
+     * @param timeout
+     * @param callback
+     */
+    public void register(Message message, long timeout, ReplyCallback callback) {
+        long id = Long.parseLong(message.getMessageId());
+        PendingReply reply = new PendingReply(message, callback);
+        pending.put(id, reply);
+        if (timeout > 0) {
+            reply.timeout = TimerHolder.TIMER.newTimeout((Timeout t) -> {
+                if (pending.remove(id, reply)) {
+                    timeoutHandler.accept(reply);
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops waiting for the reply
+     *
+     * @param messageId
+     * @return null if no one is waiting for a reply for the given id
+     */
+    public PendingReply remove(String messageId) {
+        if (messageId == null) {
+            return null;
+        }
+        long id;
+        try {
+            id = Long.parseLong(messageId);
+        } catch (NumberFormatException notGeneratedHere) {
+            return null;
+        }
+        PendingReply reply = pending.remove(id);
+        if (reply != null) {
+            reply.cancelTimeout();
+        }
+        return reply;
+    }
+
+    /**
+     * Stops waiting for any reply, usually because the channel has been
+     * closed
+     *
+     * @return
+     */
+    public List<PendingReply> removeAll() {
+        List<PendingReply> result = new ArrayList<>();
+        for (Long id : new ArrayList<>(pending.keySet())) {
+            PendingReply reply = pending.remove(id);
+            if (reply != null) {
+                reply.cancelTimeout();
+                result.add(reply);
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+}
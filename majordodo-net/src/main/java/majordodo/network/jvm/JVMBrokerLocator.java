@@ -39,6 +39,7 @@ public class JVMBrokerLocator implements BrokerLocator {
 
     private final JVMBrokerSupportInterface broker;
     private final String brokerId;
+    private boolean copyMessages;
 
     public JVMBrokerLocator(String brokerId) {
         this.brokerId = brokerId;
@@ -49,14 +50,29 @@ public class JVMBrokerLocator implements BrokerLocator {
         }
     }
 
+    public boolean isCopyMessages() {
+        return copyMessages;
+    }
+
+    /**
+     * Encode and decode every message as it would be done on the network,
+     * useful to test wire compatibility. By default messages are passed
+     * without any copy
+     *
+     * @param copyMessages
+     */
+    public void setCopyMessages(boolean copyMessages) {
+        this.copyMessages = copyMessages;
+    }
+
     @Override
     public Channel connect(ChannelEventListener worker, ConnectionRequestInfo workerInfo) throws InterruptedException, BrokerRejectedConnectionException, BrokerNotAvailableException {
         if (broker == null || !broker.isRunning()) {
             throw new BrokerNotAvailableException(new Exception("embedded broker " + brokerId + " is not running"));
         }
-        JVMChannel workerSide = new JVMChannel();
+        JVMChannel workerSide = new JVMChannel(copyMessages);
         workerSide.setMessagesReceiver(worker);
-        JVMChannel brokerSide = new JVMChannel();
+        JVMChannel brokerSide = new JVMChannel(copyMessages);
         broker.getAcceptor().createConnection(brokerSide);
         brokerSide.setOtherSide(workerSide);
         workerSide.setOtherSide(brokerSide);
@@ -67,7 +83,7 @@ public class JVMBrokerLocator implements BrokerLocator {
             throw new BrokerRejectedConnectionException("auth failed:" + err, err);
         }
 
-        Message acceptMessage = Message.CONNECTION_REQUEST(workerInfo.getWorkerId(), workerInfo.getProcessId(), workerInfo.getLocation(), workerInfo.getSharedSecret(), workerInfo.getRunningTaskIds(), workerInfo.getMaxThreads(), workerInfo.getMaxThreadsByTaskType(), workerInfo.getGroups(), workerInfo.getExcludedGroups(), workerInfo.getResourceLimits(), workerInfo.getClientType());
+        Message acceptMessage = Message.CONNECTION_REQUEST(workerInfo.getWorkerId(), workerInfo.getProcessId(), workerInfo.getLocation(), workerInfo.getSharedSecret(), workerInfo.getRunningTaskIds(), workerInfo.getMaxThreads(), workerInfo.getPrefetchTasks(), workerInfo.getMaxThreadsByTaskType(), workerInfo.getGroups(), workerInfo.getExcludedGroups(), workerInfo.getResourceLimits(), workerInfo.getClientType());
         try {
             Message connectionResponse = workerSide.sendMessageWithReply(acceptMessage, 10000);
             if (connectionResponse.type == Message.TYPE_ACK) {
@@ -21,35 +21,49 @@ package majordodo.network.jvm;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
-import io.netty.buffer.UnpooledHeapByteBuf;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import majordodo.network.Channel;
 import majordodo.network.Message;
+import majordodo.network.PendingReplies;
 import majordodo.network.ReplyCallback;
 import majordodo.network.SendResultCallback;
-import java.util.Map;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Queue;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import majordodo.network.netty.DodoMessageUtils;
 
 /**
- * In-JVM comunications
+ * In-JVM comunications. By default messages are passed to the other side as
+ * read-only views, without any copy: the view is backed by the parameters of
+ * the original message, so the sender must not modify the message (nor the
+ * values of its parameters) after sending it. When copyMessages is enabled
+ * each message is encoded and decoded as it would be on the network, this is
+ * useful in order to test wire compatibility.
+ *
+ * Messages which are not replies are delivered to the receiver in the same
+ * order they were sent, using a pool of threads shared by all the channels
  *
  * @author enrico.olivelli
  */
 public class JVMChannel extends Channel {
 
-     private static final Logger LOGGER = Logger.getLogger(JVMChannel.class.getName());
+    private static final Logger LOGGER = Logger.getLogger(JVMChannel.class.getName());
+    private static final ExecutorService SHARED_EXECUTOR = Executors.newCachedThreadPool(new DefaultThreadFactory("dodo-jvm-channel", true));
+
     private volatile boolean active = false;
-    private final Map<String, ReplyCallback> pendingReplyMessages = new ConcurrentHashMap<>();
-    private final Map<String, Message> pendingReplyMessagesSource = new ConcurrentHashMap<>();
+    private final PendingReplies pendingReplies = new PendingReplies(this::replyTimedOut);
+    private final boolean copyMessages;
+    private final Queue<Runnable> inbound = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean inboundScheduled = new AtomicBoolean();
     private JVMChannel otherSide;
-    private final ExecutorService callbackexecutor = Executors.newCachedThreadPool();
-    private final ExecutorService executionserializer = Executors.newFixedThreadPool(1);
     private String id = UUID.randomUUID().toString();
 
     @Override
@@ -58,6 +72,15 @@ public class JVMChannel extends Channel {
     }
 
     public JVMChannel() {
+        this(false);
+    }
+
+    public JVMChannel(boolean copyMessages) {
+        this.copyMessages = copyMessages;
+    }
+
+    public boolean isCopyMessages() {
+        return copyMessages;
     }
 
     private Message cloneMessage(Message message) {
@@ -66,14 +89,31 @@ public class JVMChannel extends Channel {
         return DodoMessageUtils.decodeMessage(buf);
     }
 
+    /**
+     * Creates the instance which will be seen by the receiver. Without
+     * copyMessages the parameters are a live, shallow, read-only view of the
+     * original ones, the receiver cannot modify them but it sees any later
+     * change made by the sender
+     */
+    private Message prepareMessage(Message message) {
+        if (copyMessages) {
+            return cloneMessage(message);
+        }
+        Message view = new Message(message.workerProcessId, message.type,
+            message.parameters != null ? Collections.unmodifiableMap(message.parameters) : null);
+        view.messageId = message.messageId;
+        view.replyMessageId = message.replyMessageId;
+        return view;
+    }
+
     private void receiveMessageFromPeer(Message message) {
-        final Message _message = cloneMessage(message);
-        if (_message.getReplyMessageId() != null) {
-            handleReply(_message);
+        if (message.getReplyMessageId() != null) {
+            // replies are not ordered, a receiver may be waiting for them
+            handleReply(message);
         } else {
-            submitCallback(() -> {
+            executeInOrder(() -> {
                 try {
-                    messagesReceiver.messageReceived(_message);
+                    messagesReceiver.messageReceived(message);
                 } catch (Throwable t) {
                     LOGGER.log(Level.SEVERE, this + ": error " + t, t);
                     close();
@@ -82,6 +122,32 @@ public class JVMChannel extends Channel {
         }
     }
 
+    private void executeInOrder(Runnable r) {
+        inbound.add(r);
+        scheduleInbound();
+    }
+
+    private void scheduleInbound() {
+        if (inboundScheduled.compareAndSet(false, true)) {
+            try {
+                SHARED_EXECUTOR.execute(this::drainInbound);
+            } catch (RejectedExecutionException discard) {
+                inboundScheduled.set(false);
+            }
+        }
+    }
+
+    private void drainInbound() {
+        Runnable r;
+        while ((r = inbound.poll()) != null) {
+            r.run();
+        }
+        inboundScheduled.set(false);
+        if (!inbound.isEmpty()) {
+            scheduleInbound();
+        }
+    }
+
     public void setOtherSide(JVMChannel brokerSide) {
         this.otherSide = brokerSide;
         this.active = true;
@@ -89,82 +155,62 @@ public class JVMChannel extends Channel {
 
     @Override
     public void sendOneWayMessage(Message message, SendResultCallback callback) {
-        message.setMessageId(UUID.randomUUID().toString());
-        Message _message = cloneMessage(message);
-//        System.out.println("[JVM] sendOneWayMessage " + message);
-        if (!active || executionserializer.isShutdown()) {
+        if (!active) {
             return;
         }
-        executionserializer.submit(() -> {
-            otherSide.receiveMessageFromPeer(_message);
-            submitCallback(() -> {
-                callback.messageSent(_message, null);
-            });
-        });
-
+        message.setMessageId(pendingReplies.nextMessageId());
+        Message _message = prepareMessage(message);
+        otherSide.receiveMessageFromPeer(_message);
+        callback.messageSent(_message, null);
     }
 
     private void handleReply(Message anwermessage) {
-
-        final ReplyCallback callback = pendingReplyMessages.get(anwermessage.getReplyMessageId());
-//        System.out.println("[JVM] handleReply " + anwermessage + " callback=" + callback + ", pendingReplyMessages=" + pendingReplyMessages);
-        if (callback != null) {
-            pendingReplyMessages.remove(anwermessage.getReplyMessageId());
-            Message original = pendingReplyMessagesSource.remove(anwermessage.getReplyMessageId());
-            if (original != null) {
-                submitCallback(() -> {
-                    callback.replyReceived(original, anwermessage, null);
-                });
-            }
+        PendingReplies.PendingReply pending = pendingReplies.remove(anwermessage.getReplyMessageId());
+        if (pending != null) {
+            submitCallback(() -> {
+                pending.getCallback().replyReceived(pending.getOriginal(), anwermessage, null);
+            });
         }
     }
 
+    private void replyTimedOut(PendingReplies.PendingReply pending) {
+        LOGGER.log(Level.SEVERE, this + " message " + pending.getOriginal().getMessageId() + " without reply");
+        submitCallback(() -> {
+            pending.getCallback().replyReceived(pending.getOriginal(), null, new IOException(this + " reply timeout expired"));
+        });
+    }
+
     @Override
     public void sendReplyMessage(Message inAnswerTo, Message message) {
-        message.setMessageId(UUID.randomUUID().toString());
-        Message _message = cloneMessage(message);
-        if (executionserializer.isShutdown()) {
-            LOGGER.log(Level.SEVERE,"channel shutdown, discarding reply message " + _message);
+        if (!active) {
+            LOGGER.log(Level.SEVERE, "channel not active, discarding reply message " + message);
             return;
         }
-        executionserializer.submit(() -> {
-//        System.out.println("[JVM] sendReplyMessage inAnswerTo=" + inAnswerTo.getMessageId() + " newmessage=" + message);
-            if (!active) {
-                LOGGER.log(Level.SEVERE,"channel not active, discarding reply message " + _message);
-                return;
-            }
-            _message.setReplyMessageId(inAnswerTo.messageId);
-            otherSide.receiveMessageFromPeer(_message);
-        });
+        message.setMessageId(pendingReplies.nextMessageId());
+        message.setReplyMessageId(inAnswerTo.messageId);
+        Message _message = prepareMessage(message);
+        otherSide.receiveMessageFromPeer(_message);
     }
 
     private void submitCallback(Runnable r) {
         try {
-            callbackexecutor.submit(r);
+            SHARED_EXECUTOR.submit(r);
         } catch (RejectedExecutionException discard) {
         }
     }
 
     @Override
     public void sendMessageWithAsyncReply(Message message, long timeout, ReplyCallback callback) {
-        message.setMessageId(UUID.randomUUID().toString());
-        Message _message = cloneMessage(message);
-        if (executionserializer.isShutdown()) {
-            LOGGER.log(Level.SEVERE,"[JVM] channel shutdown, discarding sendMessageWithAsyncReply");
+        message.setMessageId(pendingReplies.nextMessageId());
+        Message _message = prepareMessage(message);
+        if (!active) {
+            submitCallback(() -> {
+                callback.replyReceived(_message, null, new Exception("connection is not active"));
+            });
             return;
         }
-        executionserializer.submit(() -> {
-//        System.out.println("[JVM] sendMessageWithAsyncReply " + message);
-            if (!active) {
-                callbackexecutor.submit(() -> {
-                    callback.replyReceived(_message, null, new Exception("connection is not active"));
-                });
-                return;
-            }
-            pendingReplyMessages.put(_message.getMessageId(), callback);
-            pendingReplyMessagesSource.put(_message.getMessageId(), _message);
-            otherSide.receiveMessageFromPeer(_message);
-        });
+        pendingReplies.register(_message, timeout, callback);
+        otherSide.receiveMessageFromPeer(_message);
     }
 
     @Override
@@ -181,21 +227,15 @@ public class JVMChannel extends Channel {
         closed = true;
         LOGGER.log(Level.SEVERE, this + ": closing");
         active = false;
-        pendingReplyMessages.forEach((key, callback) -> {
+        for (PendingReplies.PendingReply pending : pendingReplies.removeAll()) {
             submitCallback(() -> {
-                Message original = pendingReplyMessagesSource.remove(key);
-                if (original != null) {
-                    callback.replyReceived(original, null, new Exception("comunication channel closed"));
-                }
+                pending.getCallback().replyReceived(pending.getOriginal(), null, new Exception("comunication channel closed"));
             });
-        });
-        pendingReplyMessages.clear();
+        }
 
         if (otherSide.active) {
             otherSide.close();
         }
-        executionserializer.shutdown();
-        callbackexecutor.shutdown();
         messagesReceiver.channelClosed();
     }
 
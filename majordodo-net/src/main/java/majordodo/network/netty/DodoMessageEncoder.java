@@ -36,9 +36,9 @@ public class DodoMessageEncoder extends ChannelOutboundHandlerAdapter {
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
         Message m = (Message) msg;
-        ByteBuf encoded = ctx.alloc().buffer();
-        DodoMessageUtils.encodeMessage(encoded, m);
-        ctx.writeAndFlush(encoded, promise);
+        ByteBuf encoded = DodoMessageUtils.encodeMessage(ctx.alloc(), m);
+        // flushing is up to the caller, see NettyChannel#sendOneWayMessage
+        ctx.write(encoded, promise);
     }
 
     @Override
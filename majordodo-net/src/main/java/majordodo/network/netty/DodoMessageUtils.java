@@ -21,6 +21,9 @@ package majordodo.network.netty;
 
 import majordodo.network.Message;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -51,6 +54,59 @@ public class DodoMessageUtils {
     private static final byte OPCODE_LIST_VALUE = 12;
     private static final byte OPCODE_BYTEARRAY_VALUE = 13;
 
+    /**
+     * byte arrays greater than this size are not copied into the outbound
+     * buffer, they are wrapped and added as components of the encoded message
+     */
+    static final int ZERO_COPY_THRESHOLD = 64 * 1024;
+
+    /**
+     * Destination of the encoding, when an allocator is available large byte
+     * arrays are not copied, the result is a composite buffer of the encoded
+     * chunks interleaved with the wrapped arrays
+     */
+    private static final class Output {
+
+        private final ByteBufAllocator alloc;
+        private ByteBuf current;
+        private CompositeByteBuf composite;
+
+        private Output(ByteBufAllocator alloc, ByteBuf current) {
+            this.alloc = alloc;
+            this.current = current;
+        }
+
+        private ByteBuf buf() {
+            return current;
+        }
+
+        private void writeBytes(byte[] data) {
+            if (alloc == null || data.length < ZERO_COPY_THRESHOLD) {
+                current.writeBytes(data);
+                return;
+            }
+            if (composite == null) {
+                composite = alloc.compositeBuffer(Integer.MAX_VALUE);
+            }
+            addComponent(current);
+            addComponent(Unpooled.wrappedBuffer(data));
+            current = alloc.buffer();
+        }
+
+        private void addComponent(ByteBuf component) {
+            composite.addComponent(component);
+            composite.writerIndex(composite.writerIndex() + component.readableBytes());
+        }
+
+        private ByteBuf finish() {
+            if (composite == null) {
+                return current;
+            }
+            addComponent(current);
+            return composite;
+        }
+    }
+
     private static void writeUTF8String(ByteBuf buf, String s) {
         byte[] asarray = s.getBytes(StandardCharsets.UTF_8);
         buf.writeInt(asarray.length);
@@ -59,12 +115,42 @@ public class DodoMessageUtils {
 
     private static String readUTF8String(ByteBuf buf) {
         int len = buf.readInt();
+        if (buf.hasArray()) {
+            // decode directly from the backing array, without an intermediate copy
+            String s = new String(buf.array(), buf.arrayOffset() + buf.readerIndex(), len, StandardCharsets.UTF_8);
+            buf.skipBytes(len);
+            return s;
+        }
         byte[] s = new byte[len];
         buf.readBytes(s);
         return new String(s, StandardCharsets.UTF_8);
     }
 
+    /**
+     * Encodes the message into a new buffer, large byte array parameters are
+     * not copied
+     *
+     * @param alloc
+     * @param m
+     * @return
+     */
+    public static ByteBuf encodeMessage(ByteBufAllocator alloc, Message m) {
+        Output out = new Output(alloc, alloc.buffer());
+        try {
+            encodeMessage(out, m);
+        } catch (RuntimeException err) {
+            out.finish().release();
+            throw err;
+        }
+        return out.finish();
+    }
+
     public static void encodeMessage(ByteBuf encoded, Message m) {
+        encodeMessage(new Output(null, encoded), m);
+    }
+
+    private static void encodeMessage(Output out, Message m) {
+        ByteBuf encoded = out.buf();
         encoded.writeByte(VERSION);
         encoded.writeInt(m.type);
         writeUTF8String(encoded, m.messageId);
@@ -80,14 +166,16 @@ public class DodoMessageUtils {
             encoded.writeByte(OPCODE_PARAMETERS);
             encoded.writeInt(m.parameters.size());
             for (Map.Entry<String, Object> p : m.parameters.entrySet()) {
-                writeEncodedSimpleValue(encoded, p.getKey());
-                writeEncodedSimpleValue(encoded, p.getValue());
+                writeEncodedSimpleValue(out, p.getKey());
+                writeEncodedSimpleValue(out, p.getValue());
             }
         }
 
     }
 
-    private static void writeEncodedSimpleValue(ByteBuf encoded, Object o) {
+    private static void writeEncodedSimpleValue(Output out, Object o) {
+        // the current buffer changes after a large byte array
+        ByteBuf encoded = out.buf();
         if (o == null) {
             encoded.writeByte(OPCODE_NULL_VALUE);
         } else if (o instanceof String) {
@@ -104,28 +192,28 @@ public class DodoMessageUtils {
             encoded.writeByte(OPCODE_SET_VALUE);
             encoded.writeInt(set.size());
             for (Object o2 : set) {
-                writeEncodedSimpleValue(encoded, o2);
+                writeEncodedSimpleValue(out, o2);
             }
         } else if (o instanceof List) {
             List set = (List) o;
             encoded.writeByte(OPCODE_LIST_VALUE);
             encoded.writeInt(set.size());
             for (Object o2 : set) {
-                writeEncodedSimpleValue(encoded, o2);
+                writeEncodedSimpleValue(out, o2);
             }
 
         } else if (o instanceof byte[]) {
             byte[] set = (byte[]) o;
             encoded.writeByte(OPCODE_BYTEARRAY_VALUE);
             encoded.writeInt(set.length);
-            encoded.writeBytes(set);
+            out.writeBytes(set);
         } else if (o instanceof Map) {
             Map set = (Map) o;
             encoded.writeByte(OPCODE_MAP_VALUE);
             encoded.writeInt(set.size());
             for (Map.Entry entry : (Iterable<Entry>) set.entrySet()) {
-                writeEncodedSimpleValue(encoded, entry.getKey());
-                writeEncodedSimpleValue(encoded, entry.getValue());
+                writeEncodedSimpleValue(out, entry.getKey());
+                writeEncodedSimpleValue(out, entry.getValue());
             }
         } else {
             throw new RuntimeException("unsupported class " + o.getClass());
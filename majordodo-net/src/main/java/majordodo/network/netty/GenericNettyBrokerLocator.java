@@ -52,6 +52,21 @@ public abstract class GenericNettyBrokerLocator implements BrokerLocator {
         this.sslUnsecure = sslUnsecure;
     }
 
+    private boolean epoll;
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    /**
+     * Use the native epoll transport, if available
+     *
+     * @param epoll
+     */
+    public void setEpoll(boolean epoll) {
+        this.epoll = epoll;
+    }
+
     @Override
     public Channel connect(ChannelEventListener messageReceiver, ConnectionRequestInfo workerInfo) throws InterruptedException, BrokerNotAvailableException, BrokerRejectedConnectionException {
         boolean ok = false;
@@ -71,6 +86,7 @@ public abstract class GenericNettyBrokerLocator implements BrokerLocator {
             connector.setHost(host);
             connector.setSsl(broker.isSsl());
             connector.setSslUnsecure(sslUnsecure);
+            connector.setEpoll(epoll);
             NettyChannel channel;
             try {
                 channel = connector.connect();
@@ -83,7 +99,7 @@ public abstract class GenericNettyBrokerLocator implements BrokerLocator {
                 throw new BrokerRejectedConnectionException("auth failed:" + err, err);
             }
 
-            Message acceptMessage = Message.CONNECTION_REQUEST(workerInfo.getWorkerId(), workerInfo.getProcessId(), workerInfo.getLocation(), workerInfo.getSharedSecret(), workerInfo.getRunningTaskIds(), workerInfo.getMaxThreads(), workerInfo.getMaxThreadsByTaskType(), workerInfo.getGroups(), workerInfo.getExcludedGroups(), workerInfo.getResourceLimits(), workerInfo.getClientType());
+            Message acceptMessage = Message.CONNECTION_REQUEST(workerInfo.getWorkerId(), workerInfo.getProcessId(), workerInfo.getLocation(), workerInfo.getSharedSecret(), workerInfo.getRunningTaskIds(), workerInfo.getMaxThreads(), workerInfo.getPrefetchTasks(), workerInfo.getMaxThreadsByTaskType(), workerInfo.getGroups(), workerInfo.getExcludedGroups(), workerInfo.getResourceLimits(), workerInfo.getClientType());
             try {
                 Message connectionResponse = channel.sendMessageWithReply(acceptMessage, 10000);
                 if (connectionResponse.type == Message.TYPE_ACK) {
@@ -21,17 +21,15 @@ package majordodo.network.netty;
 
 import majordodo.network.Channel;
 import majordodo.network.Message;
+import majordodo.network.PendingReplies;
 import majordodo.network.ReplyCallback;
 import majordodo.network.SendResultCallback;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.EventLoop;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
@@ -50,18 +48,18 @@ public class NettyChannel extends Channel {
     private static final Logger LOGGER = Logger.getLogger(NettyChannel.class.getName());
     private static final AtomicLong idGenerator = new AtomicLong();
 
-    private final Map<String, ReplyCallback> pendingReplyMessages = new ConcurrentHashMap<>();
-    private final Map<String, Message> pendingReplyMessagesSource = new ConcurrentHashMap<>();
-    private final Map<String, Long> pendingReplyMessagesDeadline = new ConcurrentHashMap<>();
+    private final PendingReplies pendingReplies = new PendingReplies(this::replyTimedOut);
     private final ExecutorService callbackexecutor;
     private final NettyConnector connector;
     private boolean ioErrors = false;
     private final long id = idGenerator.incrementAndGet();
     private final boolean disconnectOnReplyTimeout;
+    // accessed only from the event loop
+    private boolean flushPending;
 
     @Override
     public String toString() {
-        return "NettyChannel{name=" + name + ", id=" + id + ", socket=" + socket + " pending " + pendingReplyMessages.size() + " msgs}";
+        return "NettyChannel{name=" + name + ", id=" + id + ", socket=" + socket + " pending " + pendingReplies.size() + " msgs}";
     }
 
     public NettyChannel(String name, SocketChannel socket, ExecutorService callbackexecutor, NettyConnector connector) {
@@ -88,13 +86,10 @@ public class NettyChannel extends Channel {
     }
 
     private void handleReply(Message anwermessage) {
-        final ReplyCallback callback = pendingReplyMessages.get(anwermessage.getReplyMessageId());
-        pendingReplyMessages.remove(anwermessage.getReplyMessageId());
-        pendingReplyMessagesDeadline.remove(anwermessage.getReplyMessageId());
-        Message original = pendingReplyMessagesSource.remove(anwermessage.getReplyMessageId());
-        if (callback != null && original != null) {
+        PendingReplies.PendingReply pending = pendingReplies.remove(anwermessage.getReplyMessageId());
+        if (pending != null) {
             submitCallback(() -> {
-                callback.replyReceived(original, anwermessage, null);
+                pending.getCallback().replyReceived(pending.getOriginal(), anwermessage, null);
             });
         }
     }
@@ -102,14 +97,15 @@ public class NettyChannel extends Channel {
     @Override
     public void sendOneWayMessage(Message message, SendResultCallback callback) {
         if (message.getMessageId() == null) {
-            message.setMessageId(UUID.randomUUID().toString());
+            message.setMessageId(pendingReplies.nextMessageId());
         }
         SocketChannel _socket = this.socket;
         if (_socket == null || !_socket.isOpen()) {
             callback.messageSent(message, new Exception(this + " connection is closed"));
             return;
         }
-        _socket.writeAndFlush(message).addListener(new GenericFutureListener() {
+        ChannelPromise promise = _socket.newPromise();
+        promise.addListener(new GenericFutureListener() {
 
             @Override
             public void operationComplete(Future future) throws Exception {
@@ -123,12 +119,53 @@ public class NettyChannel extends Channel {
             }
 
         });
+        EventLoop eventLoop = _socket.eventLoop();
+        if (eventLoop.inEventLoop()) {
+            writeAndScheduleFlush(_socket, message, promise);
+        } else {
+            try {
+                eventLoop.execute(() -> {
+                    writeAndScheduleFlush(_socket, message, promise);
+                });
+            } catch (RejectedExecutionException stopped) {
+                callback.messageSent(message, new Exception(this + " connection is closed", stopped));
+            }
+        }
+    }
+
+    /**
+     * Writes the message without flushing, a single flush is issued for all
+     * the messages written during the same event loop tick. This method must
+     * be called from the event loop of the socket
+     */
+    private void writeAndScheduleFlush(SocketChannel _socket, Message message, ChannelPromise promise) {
+        _socket.write(message, promise);
+        if (!flushPending) {
+            flushPending = true;
+            _socket.eventLoop().execute(() -> {
+                flushPending = false;
+                _socket.flush();
+            });
+        }
+    }
+
+    /**
+     * The channel is not writable when the outbound buffer of the socket is
+     * over the high water mark, senders should hold back new messages until
+     * it drains below the low water mark
+     *
+     * @return
+     */
+    @Override
+    public boolean isWritable() {
+        SocketChannel _socket = socket;
+        return _socket != null && _socket.isWritable();
     }
 
     @Override
     public void sendReplyMessage(Message inAnswerTo, Message message) {
         if (message.getMessageId() == null) {
-            message.setMessageId(UUID.randomUUID().toString());
+            message.setMessageId(pendingReplies.nextMessageId());
         }
         if (this.socket == null) {
             LOGGER.log(Level.SEVERE, this + " channel not active, discarding reply message " + message);
@@ -146,57 +183,38 @@ public class NettyChannel extends Channel {
         });
     }
 
-    private void processPendingReplyMessagesDeadline() {
-        List<String> messagesWithNoReply = new ArrayList<>();
-        long now = System.currentTimeMillis();
-        pendingReplyMessagesDeadline.forEach((messageId, deadline) -> {
-            if (deadline < now) {
-                messagesWithNoReply.add(messageId);
-            }
-        });
-        if (messagesWithNoReply.isEmpty()) {
-            return;
-        }
-        if (DISCONNECT_ON_PENDING_REPLY_TIMEOUT && disconnectOnReplyTimeout) {
-            LOGGER.log(Level.SEVERE, this + " found " + messagesWithNoReply.size() + " without reply, channel will be closed");
+    private void replyTimedOut(PendingReplies.PendingReply pending) {
+        boolean disconnect = DISCONNECT_ON_PENDING_REPLY_TIMEOUT && disconnectOnReplyTimeout;
+        if (disconnect) {
+            LOGGER.log(Level.SEVERE, this + " message " + pending.getOriginal().getMessageId() + " without reply, channel will be closed");
             ioErrors = true;
         } else {
-            LOGGER.log(Level.SEVERE, this + " found " + messagesWithNoReply.size() + " without reply");
-        }
-        for (String messageId : messagesWithNoReply) {
-            Message original = pendingReplyMessagesSource.remove(messageId);
-            ReplyCallback callback = pendingReplyMessages.remove(messageId);
-            pendingReplyMessagesDeadline.remove(messageId);
-            if (original != null && callback != null) {
-                submitCallback(() -> {
-                    callback.replyReceived(original, null, new IOException(this + " reply timeout expired"));
-                });
-            }
+            LOGGER.log(Level.SEVERE, this + " message " + pending.getOriginal().getMessageId() + " without reply");
         }
-        if (DISCONNECT_ON_PENDING_REPLY_TIMEOUT && disconnectOnReplyTimeout) {
-            close();
+        submitCallback(() -> {
+            pending.getCallback().replyReceived(pending.getOriginal(), null, new IOException(this + " reply timeout expired"));
+        });
+        if (disconnect) {
+            // closing waits for the socket, do not block the timer
+            submitCallback(this::close);
         }
     }
 
     @Override
     public void sendMessageWithAsyncReply(Message message, long timeout, ReplyCallback callback) {
-        if (message.getMessageId() == null) {
-            message.setMessageId(UUID.randomUUID().toString());
-        }
+        message.setMessageId(pendingReplies.nextMessageId());
         if (!isValid()) {
             submitCallback(() -> {
                 callback.replyReceived(message, null, new Exception(this + " connection is not active"));
             });
             return;
         }
-        pendingReplyMessages.put(message.getMessageId(), callback);
-        pendingReplyMessagesSource.put(message.getMessageId(), message);
-        pendingReplyMessagesDeadline.put(message.getMessageId(), System.currentTimeMillis() + timeout);
+        pendingReplies.register(message, timeout, callback);
         sendOneWayMessage(message, new SendResultCallback() {
 
             @Override
             public void messageSent(Message originalMessage, Throwable error) {
-                if (error != null) {
+                if (error != null && pendingReplies.remove(originalMessage.getMessageId()) != null) {
                     LOGGER.log(Level.SEVERE, this + ": error while sending reply message to " + originalMessage, error);
                     submitCallback(() -> {
                         callback.replyReceived(message, null, new Exception(this + ": error while sending reply message to " + originalMessage, error));
@@ -232,18 +250,13 @@ public class NettyChannel extends Channel {
             }
         }
 
-        pendingReplyMessages.forEach((key, callback) -> {
-            Message original = pendingReplyMessagesSource.remove(key);
-            LOGGER.log(Level.SEVERE, this + " message " + key + " was not replied (" + original + ") callback:" + callback);
-            if (original != null) {
-                submitCallback(() -> {
-                    callback.replyReceived(original, null, new IOException("comunication channel is closed. Cannot wait for pending messages, socket=" + socketDescription));
-                });
-            }
-        });
-        pendingReplyMessages.clear();
-        pendingReplyMessagesSource.clear();
-        pendingReplyMessagesDeadline.clear();
+        for (PendingReplies.PendingReply pending : pendingReplies.removeAll()) {
+            Message original = pending.getOriginal();
+            LOGGER.log(Level.SEVERE, this + " message " + original.getMessageId() + " was not replied (" + original + ") callback:" + pending.getCallback());
+            submitCallback(() -> {
+                pending.getCallback().replyReceived(original, null, new IOException("comunication channel is closed. Cannot wait for pending messages, socket=" + socketDescription));
+            });
+        }
 
         if (connector != null) {
             connector.close();
@@ -280,8 +293,8 @@ public class NettyChannel extends Channel {
 
     @Override
     public void channelIdle() {
+        // reply deadlines are handled by PendingReplies
         LOGGER.log(Level.FINEST, "{0} channelIdle", this);
-        processPendingReplyMessagesDeadline();
     }
 
     public String getName() {
@@ -26,15 +26,14 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.ssl.JdkSslServerContext;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.SelfSignedCertificate;
+import io.netty.util.concurrent.DefaultThreadFactory;
 import java.io.File;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
@@ -63,8 +62,53 @@ public class NettyChannelAcceptor implements AutoCloseable {
     private File sslCertFile;
     private String sslCertPassword;
     private int workerThreads = 16;
+    private boolean epoll;
+    private int writeBufferLowWaterMark;
+    private int writeBufferHighWaterMark;
     private final ExecutorService callbackExecutor = Executors.newCachedThreadPool();
 
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    /**
+     * Low water mark of the outbound buffer of each connection, in bytes. Zero
+     * means the Netty default
+     *
+     * @param writeBufferLowWaterMark
+     */
+    public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    /**
+     * High water mark of the outbound buffer of each connection, in bytes,
+     * when the buffer grows over this value the channel is no more writable.
+     * Zero means the Netty default
+     *
+     * @param writeBufferHighWaterMark
+     */
+    public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    /**
+     * Use the native epoll transport, if available
+     *
+     * @param epoll
+     */
+    public void setEpoll(boolean epoll) {
+        this.epoll = epoll;
+    }
+
     public int getWorkerThreads() {
         return workerThreads;
     }
@@ -164,14 +208,17 @@ public class NettyChannelAcceptor implements AutoCloseable {
             }
 
         }
-        bossGroup = new NioEventLoopGroup(workerThreads);
-        workerGroup = new NioEventLoopGroup(workerThreads);
+        // only one thread is used for accepting connections
+        bossGroup = NettyTransport.newEventLoopGroup(1, epoll, new DefaultThreadFactory("dodo-broker-boss"));
+        workerGroup = NettyTransport.newEventLoopGroup(workerThreads, epoll, new DefaultThreadFactory("dodo-broker-io"));
+        LOGGER.log(Level.SEVERE, "starting acceptor, epoll requested: " + epoll + ", available: " + NettyTransport.isEpollAvailable());
         ServerBootstrap b = new ServerBootstrap();
         b.group(bossGroup, workerGroup)
-                .channel(NioServerSocketChannel.class)
+                .channel(NettyTransport.serverChannelClass(bossGroup))
                 .childHandler(new ChannelInitializer<SocketChannel>() {
                     @Override
                     public void initChannel(SocketChannel ch) throws Exception {
+                        NettyTransport.configureWriteBufferWaterMarks(ch.config(), writeBufferLowWaterMark, writeBufferHighWaterMark);
                         NettyChannel session = new NettyChannel("client", ch, callbackExecutor, null);
                         if (acceptor != null) {
                             acceptor.createConnection(session);
@@ -26,16 +26,13 @@ import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
 import io.netty.handler.codec.LengthFieldPrepender;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -50,11 +47,55 @@ public class NettyConnector implements AutoCloseable {
     private String host = "localhost";
     private NettyChannel channel;
     private Channel socketchannel;
-    private EventLoopGroup group;
+    private SharedClientResources resources;
     private SslContext sslCtx;
     private boolean ssl;
     private boolean sslUnsecure = true;
-    private final ExecutorService callbackExecutor = Executors.newCachedThreadPool();
+    private boolean epoll;
+    private int writeBufferLowWaterMark;
+    private int writeBufferHighWaterMark;
+
+    public int getWriteBufferLowWaterMark() {
+        return writeBufferLowWaterMark;
+    }
+
+    /**
+     * Low water mark of the outbound buffer of each connection, in bytes. Zero
+     * means the Netty default
+     *
+     * @param writeBufferLowWaterMark
+     */
+    public void setWriteBufferLowWaterMark(int writeBufferLowWaterMark) {
+        this.writeBufferLowWaterMark = writeBufferLowWaterMark;
+    }
+
+    public int getWriteBufferHighWaterMark() {
+        return writeBufferHighWaterMark;
+    }
+
+    /**
+     * High water mark of the outbound buffer of each connection, in bytes,
+     * when the buffer grows over this value the channel is no more writable.
+     * Zero means the Netty default
+     *
+     * @param writeBufferHighWaterMark
+     */
+    public void setWriteBufferHighWaterMark(int writeBufferHighWaterMark) {
+        this.writeBufferHighWaterMark = writeBufferHighWaterMark;
+    }
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    /**
+     * Use the native epoll transport, if available
+     *
+     * @param epoll
+     */
+    public void setEpoll(boolean epoll) {
+        this.epoll = epoll;
+    }
 
     public boolean isSslUnsecure() {
         return sslUnsecure;
@@ -98,16 +139,21 @@ public class NettyConnector implements AutoCloseable {
                 this.sslCtx = SslContextBuilder.forClient().build();
             }
         }
-        group = new NioEventLoopGroup();
+        if (resources == null) {
+            resources = SharedClientResources.acquire(epoll);
+        }
+        EventLoopGroup group = resources.getGroup();
+        ExecutorService callbackExecutor = resources.getCallbackExecutor();
         LOG.log(Level.SEVERE, "Trying to connect to broker at " + host + ":" + port + " ssl:" + ssl + ", sslUnsecure:" + sslUnsecure);
 
         Bootstrap b = new Bootstrap();
         b.group(group)
-            .channel(NioSocketChannel.class)
+            .channel(NettyTransport.socketChannelClass(group))
             .option(ChannelOption.TCP_NODELAY, true)
             .handler(new ChannelInitializer<SocketChannel>() {
                 @Override
                 public void initChannel(SocketChannel ch) throws Exception {
+                    NettyTransport.configureWriteBufferWaterMarks(ch.config(), writeBufferLowWaterMark, writeBufferHighWaterMark);
                     channel = new NettyChannel(host + ":" + port, ch, callbackExecutor, NettyConnector.this);
                     channel.setMessagesReceiver(receiver);
                     channel.setRemoteHost(host);
@@ -146,16 +192,13 @@ public class NettyConnector implements AutoCloseable {
                 socketchannel = null;
             }
         }
-        if (group != null) {
+        if (resources != null) {
             try {
-                group.shutdownGracefully();
+                resources.release();
             } finally {
-                group = null;
+                resources = null;
             }
         }
-        if (callbackExecutor != null) {
-            callbackExecutor.shutdown();
-        }
     }
 
     public void setHost(String host) {
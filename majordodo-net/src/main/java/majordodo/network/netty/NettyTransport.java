@@ -0,0 +1,129 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.network.netty;
+
+import io.netty.channel.ChannelConfig;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Selection of the Netty transport. The native epoll transport is used only if
+ * requested and if netty-transport-native-epoll is on the classpath, it is
+ * loaded by reflection so that it is an optional dependency
+ *
+ * @author enrico.olivelli
+ */
+final class NettyTransport {
+
+    private static final Logger LOGGER = Logger.getLogger(NettyTransport.class.getName());
+
+    private static final String EPOLL_PACKAGE = "io.netty.channel.epoll.";
+    private static final boolean EPOLL_AVAILABLE = detectEpoll();
+
+    private NettyTransport() {
+    }
+
+    private static boolean detectEpoll() {
+        try {
+            Class<?> epoll = Class.forName(EPOLL_PACKAGE + "Epoll");
+            return (Boolean) epoll.getMethod("isAvailable").invoke(null);
+        } catch (Throwable notAvailable) {
+            return false;
+        }
+    }
+
+    static boolean isEpollAvailable() {
+        return EPOLL_AVAILABLE;
+    }
+
+    static EventLoopGroup newEventLoopGroup(int threads, boolean epoll, ThreadFactory threadFactory) {
+        if (epoll) {
+            if (EPOLL_AVAILABLE) {
+                try {
+                    return (EventLoopGroup) Class.forName(EPOLL_PACKAGE + "EpollEventLoopGroup")
+                        .getConstructor(int.class, ThreadFactory.class)
+                        .newInstance(threads, threadFactory);
+                } catch (ReflectiveOperationException err) {
+                    LOGGER.log(Level.SEVERE, "cannot create epoll event loop, falling back to nio", err);
+                }
+            } else {
+                LOGGER.log(Level.SEVERE, "epoll transport is not available, falling back to nio");
+            }
+        }
+        return new NioEventLoopGroup(threads, threadFactory);
+    }
+
+    private static boolean isEpoll(EventLoopGroup group) {
+        return !(group instanceof NioEventLoopGroup);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Class<? extends ServerChannel> serverChannelClass(EventLoopGroup group) {
+        if (isEpoll(group)) {
+            try {
+                return (Class<? extends ServerChannel>) Class.forName(EPOLL_PACKAGE + "EpollServerSocketChannel");
+            } catch (ClassNotFoundException err) {
+                throw new IllegalStateException(err);
+            }
+        }
+        return NioServerSocketChannel.class;
+    }
+
+    @SuppressWarnings("unchecked")
+    static Class<? extends SocketChannel> socketChannelClass(EventLoopGroup group) {
+        if (isEpoll(group)) {
+            try {
+                return (Class<? extends SocketChannel>) Class.forName(EPOLL_PACKAGE + "EpollSocketChannel");
+            } catch (ClassNotFoundException err) {
+                throw new IllegalStateException(err);
+            }
+        }
+        return NioSocketChannel.class;
+    }
+
+    /**
+     * Applies the write buffer water marks, a value of zero keeps the Netty
+     * default. The order of the updates matters as Netty refuses a low water
+     * mark greater than the current high water mark and vice versa
+     */
+    static void configureWriteBufferWaterMarks(ChannelConfig config, int low, int high) {
+        if (high > 0 && high < config.getWriteBufferLowWaterMark()) {
+            if (low > 0) {
+                config.setWriteBufferLowWaterMark(low);
+            }
+            config.setWriteBufferHighWaterMark(high);
+        } else {
+            if (high > 0) {
+                config.setWriteBufferHighWaterMark(high);
+            }
+            if (low > 0) {
+                config.setWriteBufferLowWaterMark(low);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.network.netty;
+
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Event loop group and callback executor shared by all the client side
+ * connections. Resources are reference counted and released when the last
+ * connector is closed
+ *
+ * @author enrico.olivelli
+ */
+final class SharedClientResources {
+
+    private static final Map<Boolean, SharedClientResources> INSTANCES = new HashMap<>();
+
+    private final boolean epoll;
+    private final EventLoopGroup group;
+    private final ExecutorService callbackExecutor;
+    private int refCount;
+
+    private SharedClientResources(boolean epoll) {
+        this.epoll = epoll;
+        // 0 means 'Netty default'
+        this.group = NettyTransport.newEventLoopGroup(0, epoll, new DefaultThreadFactory("dodo-client"));
+        this.callbackExecutor = Executors.newCachedThreadPool(new DefaultThreadFactory("dodo-client-callback"));
+    }
+
+    static synchronized SharedClientResources acquire(boolean epoll) {
+        SharedClientResources res = INSTANCES.get(epoll);
+        if (res == null) {
+            res = new SharedClientResources(epoll);
+            INSTANCES.put(epoll, res);
+        }
+        res.refCount++;
+        return res;
+    }
+
+    void release() {
+        synchronized (SharedClientResources.class) {
+            if (--refCount > 0) {
+                return;
+            }
+            INSTANCES.remove(epoll);
+        }
+        group.shutdownGracefully();
+        callbackExecutor.shutdown();
+    }
+
+    EventLoopGroup getGroup() {
+        return group;
+    }
+
+    ExecutorService getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    static synchronized int getRefCount(boolean epoll) {
+        SharedClientResources res = INSTANCES.get(epoll);
+        return res == null ? 0 : res.refCount;
+    }
+
+}
@@ -22,11 +22,16 @@ package dodo.network.netty;
 import majordodo.network.netty.DodoMessageUtils;
 import majordodo.network.Message;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import org.junit.Assume;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -85,4 +90,43 @@ public class DodoMessageUtilsTest {
         assertEquals(read.parameters.get("pp_set"), m.parameters.get("pp_set"));
     }
 
+    @Test
+    public void testEncodeLargeByteArray() {
+        byte[] data = new byte[4 * 1024 * 1024];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Message m = Message.DOWNLOAD_CODEPOOL_RESPONSE(data);
+        m.messageId = "c";
+        ByteBufAllocator alloc = new UnpooledByteBufAllocator(false);
+
+        ByteBuf encoded = DodoMessageUtils.encodeMessage(alloc, m);
+        try {
+            Message read = DodoMessageUtils.decodeMessage(encoded);
+            assertEquals(m.messageId, read.messageId);
+            assertTrue(Arrays.equals(data, (byte[]) read.parameters.get("data")));
+        } finally {
+            encoded.release();
+        }
+
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long start = threads.getThreadAllocatedBytes(threadId);
+        ByteBuf copied = alloc.buffer();
+        DodoMessageUtils.encodeMessage(copied, m);
+        long copyAllocation = threads.getThreadAllocatedBytes(threadId) - start;
+        copied.release();
+
+        start = threads.getThreadAllocatedBytes(threadId);
+        ByteBuf wrapped = DodoMessageUtils.encodeMessage(alloc, m);
+        long zeroCopyAllocation = threads.getThreadAllocatedBytes(threadId) - start;
+        wrapped.release();
+
+        System.out.println("encoding of a " + data.length + " bytes code pool, allocated bytes: copy " + copyAllocation + ", zero-copy " + zeroCopyAllocation);
+        assertTrue(copyAllocation >= data.length);
+        assertTrue(zeroCopyAllocation < data.length / 16);
+    }
+
 }
@@ -0,0 +1,86 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.network;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import org.junit.Test;
+
+/**
+ * Tests for the pending replies table
+ *
+ * @author enrico.olivelli
+ */
+public class PendingRepliesTest {
+
+    private static final ReplyCallback NO_OP = (Message originalMessage, Message message, Throwable error) -> {
+    };
+
+    @Test
+    public void test() throws Exception {
+        BlockingQueue<PendingReplies.PendingReply> expired = new ArrayBlockingQueue<>(10);
+        PendingReplies replies = new PendingReplies(expired::add);
+
+        Message replied = Message.KILL_WORKER("test");
+        replied.setMessageId(replies.nextMessageId());
+        Message notReplied = Message.KILL_WORKER("test");
+        notReplied.setMessageId(replies.nextMessageId());
+        assertNotEquals(replied.getMessageId(), notReplied.getMessageId());
+
+        replies.register(replied, 200, NO_OP);
+        replies.register(notReplied, 200, NO_OP);
+        assertEquals(2, replies.size());
+
+        PendingReplies.PendingReply reply = replies.remove(replied.getMessageId());
+        assertNotNull(reply);
+        assertSame(replied, reply.getOriginal());
+        assertNull(replies.remove(replied.getMessageId()));
+        assertNull(replies.remove("not-a-number"));
+        assertNull(replies.remove(null));
+
+        PendingReplies.PendingReply timedOut = expired.poll(10, TimeUnit.SECONDS);
+        assertNotNull(timedOut);
+        assertSame(notReplied, timedOut.getOriginal());
+        assertEquals(0, replies.size());
+        // the cancelled deadline never fires
+        assertNull(expired.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testRemoveAll() throws Exception {
+        BlockingQueue<PendingReplies.PendingReply> expired = new ArrayBlockingQueue<>(10);
+        PendingReplies replies = new PendingReplies(expired::add);
+        for (int i = 0; i < 5; i++) {
+            Message message = Message.KILL_WORKER("test");
+            message.setMessageId(replies.nextMessageId());
+            replies.register(message, 200, NO_OP);
+        }
+        assertEquals(5, replies.removeAll().size());
+        assertEquals(0, replies.size());
+        assertNull(expired.poll(500, TimeUnit.MILLISECONDS));
+    }
+
+}
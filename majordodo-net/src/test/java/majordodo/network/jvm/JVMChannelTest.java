@@ -0,0 +1,118 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.network.jvm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import majordodo.network.ChannelEventListener;
+import majordodo.network.Message;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Tests for in-JVM channels
+ *
+ * @author enrico.olivelli
+ */
+public class JVMChannelTest {
+
+    private static final int COUNT = 1000;
+
+    @Test
+    public void testNoCopy() throws Exception {
+        List<Message> received = exchange(false);
+        byte[] data = (byte[]) received.get(0).parameters.get("data");
+        assertSame(DATA, data);
+        try {
+            received.get(0).parameters.put("other", "value");
+            fail();
+        } catch (UnsupportedOperationException expected) {
+        }
+    }
+
+    @Test
+    public void testCopyMessages() throws Exception {
+        List<Message> received = exchange(true);
+        byte[] data = (byte[]) received.get(0).parameters.get("data");
+        assertNotSame(DATA, data);
+        assertEquals(DATA.length, data.length);
+    }
+
+    private static final byte[] DATA = new byte[]{1, 2, 3};
+
+    private List<Message> exchange(boolean copyMessages) throws Exception {
+        List<Message> received = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch allReceived = new CountDownLatch(COUNT);
+        JVMChannel brokerSide = new JVMChannel(copyMessages);
+        JVMChannel workerSide = new JVMChannel(copyMessages);
+        brokerSide.setMessagesReceiver(new ChannelEventListener() {
+            @Override
+            public void messageReceived(Message message) {
+                if (message.type == Message.TYPE_KILL_WORKER) {
+                    brokerSide.sendReplyMessage(message, Message.ACK("broker"));
+                } else {
+                    received.add(message);
+                    allReceived.countDown();
+                }
+            }
+
+            @Override
+            public void channelClosed() {
+            }
+        });
+        workerSide.setMessagesReceiver(new ChannelEventListener() {
+            @Override
+            public void messageReceived(Message message) {
+            }
+
+            @Override
+            public void channelClosed() {
+            }
+        });
+        brokerSide.setOtherSide(workerSide);
+        workerSide.setOtherSide(brokerSide);
+        try {
+            for (int i = 0; i < COUNT; i++) {
+                Message message = Message.DOWNLOAD_CODEPOOL_RESPONSE(DATA);
+                message.parameters.put("index", i);
+                workerSide.sendOneWayMessage(message, (Message originalMessage, Throwable error) -> {
+                });
+            }
+            assertTrue(allReceived.await(10, TimeUnit.SECONDS));
+            // delivery respects the order of the sends
+            for (int i = 0; i < COUNT; i++) {
+                assertEquals(i, received.get(i).parameters.get("index"));
+            }
+            Message reply = workerSide.sendMessageWithReply(Message.KILL_WORKER("worker"), 10000);
+            assertEquals(Message.TYPE_ACK, reply.type);
+        } finally {
+            workerSide.close();
+        }
+        return received;
+    }
+
+}
@@ -0,0 +1,98 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.network.netty;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import majordodo.network.Channel;
+import majordodo.network.ChannelEventListener;
+import majordodo.network.Message;
+import majordodo.network.ServerSideConnectionAcceptor;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * Writes are flushed once per event loop tick and the channel reports when
+ * the outbound buffer is over the high water mark
+ *
+ * @author enrico.olivelli
+ */
+public class NettyChannelWritabilityTest {
+
+    @Test
+    public void test() throws Exception {
+        ServerSideConnectionAcceptor acceptor = (Channel channel) -> {
+            channel.setMessagesReceiver(new ChannelEventListener() {
+                @Override
+                public void messageReceived(Message message) {
+                    channel.sendReplyMessage(message, Message.ACK("ok"));
+                }
+
+                @Override
+                public void channelClosed() {
+                }
+            });
+            return () -> 1;
+        };
+        try (NettyChannelAcceptor server = new NettyChannelAcceptor(acceptor);) {
+            server.setHost("0.0.0.0");
+            server.start();
+            try (NettyConnector connector = new NettyConnector(new ChannelEventListener() {
+                @Override
+                public void messageReceived(Message message) {
+                }
+
+                @Override
+                public void channelClosed() {
+                }
+            })) {
+                connector.setWriteBufferLowWaterMark(8);
+                connector.setWriteBufferHighWaterMark(16);
+                NettyChannel channel = connector.connect();
+                assertTrue(channel.isWritable());
+
+                int count = 100;
+                CountDownLatch replies = new CountDownLatch(count);
+                AtomicInteger errors = new AtomicInteger();
+                // from the event loop messages are only written, the flush happens at the next tick
+                boolean writableAfterBurst = channel.socket.eventLoop().submit(() -> {
+                    for (int i = 0; i < count; i++) {
+                        channel.sendMessageWithAsyncReply(Message.KILL_WORKER("test"), 10000, (Message originalMessage, Message message, Throwable error) -> {
+                            if (error != null || message.type != Message.TYPE_ACK) {
+                                errors.incrementAndGet();
+                            }
+                            replies.countDown();
+                        });
+                    }
+                    return channel.isWritable();
+                }).get();
+                assertFalse(writableAfterBurst);
+
+                assertTrue(replies.await(10, TimeUnit.SECONDS));
+                assertEquals(0, errors.get());
+                assertTrue(channel.isWritable());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.network.netty;
+
+import java.util.ArrayList;
+import java.util.List;
+import majordodo.network.Channel;
+import majordodo.network.ChannelEventListener;
+import majordodo.network.Message;
+import majordodo.network.ServerSideConnectionAcceptor;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Client side connections share the same event loop group
+ *
+ * @author enrico.olivelli
+ */
+public class SharedClientResourcesTest {
+
+    private static final ChannelEventListener NO_OP = new ChannelEventListener() {
+        @Override
+        public void messageReceived(Message message) {
+        }
+
+        @Override
+        public void channelClosed() {
+        }
+    };
+
+    @Test
+    public void test() throws Exception {
+        ServerSideConnectionAcceptor acceptor = (Channel channel) -> {
+            channel.setMessagesReceiver(new ChannelEventListener() {
+                @Override
+                public void messageReceived(Message message) {
+                    channel.sendReplyMessage(message, Message.ACK("ok"));
+                }
+
+                @Override
+                public void channelClosed() {
+                }
+            });
+            return () -> 1;
+        };
+        try (NettyChannelAcceptor server = new NettyChannelAcceptor(acceptor);) {
+            server.setHost("0.0.0.0");
+            server.start();
+            List<NettyConnector> connectors = new ArrayList<>();
+            try {
+                for (int i = 0; i < 5; i++) {
+                    NettyConnector connector = new NettyConnector(NO_OP);
+                    connectors.add(connector);
+                    NettyChannel channel = connector.connect();
+                    Message reply = channel.sendMessageWithReply(Message.KILL_WORKER("test"), 10000);
+                    assertEquals(Message.TYPE_ACK, reply.type);
+                }
+                assertEquals(5, SharedClientResources.getRefCount(false));
+            } finally {
+                for (NettyConnector connector : connectors) {
+                    connector.close();
+                }
+            }
+            assertEquals(0, SharedClientResources.getRefCount(false));
+
+            // resources are created again when needed
+            try (NettyConnector connector = new NettyConnector(NO_OP)) {
+                NettyChannel channel = connector.connect();
+                Message reply = channel.sendMessageWithReply(Message.KILL_WORKER("test"), 10000);
+                assertEquals(Message.TYPE_ACK, reply.type);
+                assertEquals(1, SharedClientResources.getRefCount(false));
+            }
+        }
+    }
+
+    @Test
+    public void testEpollFallback() throws Exception {
+        ServerSideConnectionAcceptor acceptor = (Channel channel) -> {
+            channel.setMessagesReceiver(new ChannelEventListener() {
+                @Override
+                public void messageReceived(Message message) {
+                    channel.sendReplyMessage(message, Message.ACK("ok"));
+                }
+
+                @Override
+                public void channelClosed() {
+                }
+            });
+            return () -> 1;
+        };
+        // when native epoll is not on the classpath nio is used
+        try (NettyChannelAcceptor server = new NettyChannelAcceptor(acceptor);) {
+            server.setHost("0.0.0.0");
+            server.setEpoll(true);
+            server.start();
+            try (NettyConnector connector = new NettyConnector(NO_OP)) {
+                connector.setEpoll(true);
+                NettyChannel channel = connector.connect();
+                Message reply = channel.sendMessageWithReply(Message.KILL_WORKER("test"), 10000);
+                assertEquals(Message.TYPE_ACK, reply.type);
+            }
+        }
+    }
+
+}
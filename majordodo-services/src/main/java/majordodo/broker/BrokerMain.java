@@ -20,6 +20,7 @@
 package majordodo.broker;
 
 import majordodo.task.FileCommitLog;
+import majordodo.task.CachingTaskPropertiesMapperFunction;
 import majordodo.task.TaskPropertiesMapperFunction;
 import majordodo.task.StatusChangesLog;
 import majordodo.task.TasksHeap;
@@ -175,9 +176,13 @@ public class BrokerMain implements AutoCloseable {
         int httpport = Integer.parseInt(configuration.getProperty("broker.http.port", "7364"));
         int taskheapsize = Integer.parseInt(configuration.getProperty("broker.tasksheap.size", "1000000"));
         String assigner = configuration.getProperty("tasks.taskpropertiesmapperfunction", "");
+        boolean cacheTaskProperties = Boolean.parseBoolean(configuration.getProperty("tasks.taskpropertiesmapperfunction.cache", "false"));
         String sharedsecret = configuration.getProperty("sharedsecret", "dodo");
         String clusteringmode = configuration.getProperty("clustering.mode", "singleserver");
         int workerthreads = Integer.parseInt(configuration.getProperty("io.worker.threads", "16"));
+        boolean epoll = Boolean.parseBoolean(configuration.getProperty("io.epoll", "false"));
+        int writeBufferLowWaterMark = Integer.parseInt(configuration.getProperty("io.writebuffer.lowwatermark", "0"));
+        int writeBufferHighWaterMark = Integer.parseInt(configuration.getProperty("io.writebuffer.highwatermark", "0"));
 
         String adminuser = configuration.getProperty("admin.username", "admin");
         String adminpassword = configuration.getProperty("admin.password", "password");
@@ -190,6 +195,9 @@ public class BrokerMain implements AutoCloseable {
             mapper = (TaskPropertiesMapperFunction) Class.forName(assigner).newInstance();
             System.out.println("TaskPropertiesMapperFunction Mapper:" + mapper);
         }
+        if (cacheTaskProperties) {
+            mapper = new CachingTaskPropertiesMapperFunction(mapper);
+        }
         String httppath = "/majordodo";
         Map<String, String> additionalInfo = new HashMap<>();
         String clientapiurl = "http://" + host + ":" + httpport + httppath;
@@ -222,10 +230,14 @@ public class BrokerMain implements AutoCloseable {
                 int writeQuorumSize = Integer.parseInt(configuration.getProperty("bookkeeper.writequorumsize", _log.getWriteQuorumSize() + ""));
                 int ackQuorumSize = Integer.parseInt(configuration.getProperty("bookkeeper.ackquorumsize", _log.getAckQuorumSize() + ""));
                 long ledgersRetentionPeriod = Long.parseLong(configuration.getProperty("bookkeeper.ledgersretentionperiod", _log.getLedgersRetentionPeriod() + ""));
+                int maxPackedEntrySize = Integer.parseInt(configuration.getProperty("bookkeeper.maxpackedentrysize", _log.getMaxPackedEntrySize() + ""));
+                boolean writeLegacyFormat = Boolean.parseBoolean(configuration.getProperty("bookkeeper.writelegacyformat", _log.isWriteLegacyFormat() + ""));
                 _log.setAckQuorumSize(ackQuorumSize);
                 _log.setEnsemble(ensemble);
                 _log.setLedgersRetentionPeriod(ledgersRetentionPeriod);
                 _log.setWriteQuorumSize(writeQuorumSize);
+                _log.setMaxPackedEntrySize(maxPackedEntrySize);
+                _log.setWriteLegacyFormat(writeLegacyFormat);
                 break;
             }
             default:
@@ -249,6 +261,9 @@ public class BrokerMain implements AutoCloseable {
         System.out.println("Listening for workers connections on " + host + ":" + port + " ssl=" + ssl);
         this.server = new NettyChannelAcceptor(broker.getAcceptor());
         this.server.setWorkerThreads(workerthreads);
+        this.server.setEpoll(epoll);
+        this.server.setWriteBufferLowWaterMark(writeBufferLowWaterMark);
+        this.server.setWriteBufferHighWaterMark(writeBufferHighWaterMark);
         server.setHost(host);
         server.setPort(port);
         server.setSsl(ssl);
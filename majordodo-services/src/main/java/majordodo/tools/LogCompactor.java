@@ -0,0 +1,94 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.tools;
+
+import majordodo.task.BrokerStatus;
+import majordodo.task.LogNotAvailableException;
+import majordodo.task.StatusChangesLog;
+
+/**
+ * Offline compaction: loads the latest snapshot, replays the log, drops
+ * expired finished tasks and writes a fresh snapshot, without starting a
+ * broker
+ *
+ * @author enrico.olivelli
+ */
+public class LogCompactor {
+
+    private final StatusChangesLog log;
+    private final int finishedTasksRetention;
+
+    private long replayedEdits;
+    private long replayTime;
+    private int tasksBefore;
+    private int tasksAfter;
+
+    public LogCompactor(StatusChangesLog log, int finishedTasksRetention) {
+        this.log = log;
+        this.finishedTasksRetention = finishedTasksRetention;
+    }
+
+    public void compact() throws LogNotAvailableException {
+        PipelinedRecoveryLog pipelinedLog = new PipelinedRecoveryLog(log);
+        BrokerStatus status = new BrokerStatus(pipelinedLog);
+        long _start = System.currentTimeMillis();
+        status.recover();
+        replayTime = System.currentTimeMillis() - _start;
+        replayedEdits = pipelinedLog.getReplayedEdits();
+        tasksBefore = status.getTasksAtBoot().size();
+
+        // the log is not writable, so waiting tasks are not expired, finished tasks are only dropped from the snapshot
+        status.purgeFinishedTasksAndSignalExpiredTasks(finishedTasksRetention, 0);
+        tasksAfter = status.getTasksAtBoot().size();
+        // abandoned transactions and code pools cannot be purged, as this would need to write to the log
+        log.checkpoint(status.createSnapshot());
+    }
+
+    public long getReplayedEdits() {
+        return replayedEdits;
+    }
+
+    /**
+     * Time spent to load the snapshot and replay the log, in milliseconds
+     *
+     * @return
+     */
+    public long getReplayTime() {
+        return replayTime;
+    }
+
+    /**
+     * Replay throughput, in edits per second
+     *
+     * @return
+     */
+    public long getReplayThroughput() {
+        return replayedEdits * 1000 / Math.max(1, replayTime);
+    }
+
+    public int getTasksBefore() {
+        return tasksBefore;
+    }
+
+    public int getTasksAfter() {
+        return tasksAfter;
+    }
+
+}
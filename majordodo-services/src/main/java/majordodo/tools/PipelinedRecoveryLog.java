@@ -0,0 +1,162 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.tools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.BiConsumer;
+import majordodo.task.BrokerStatusSnapshot;
+import majordodo.task.LogNotAvailableException;
+import majordodo.task.LogSequenceNumber;
+import majordodo.task.StatusChangesLog;
+import majordodo.task.StatusEdit;
+
+/**
+ * Wraps a log in order to read and decode entries on a dedicated thread while
+ * the caller thread applies them. Only recovery and checkpoints are supported
+ *
+ * @author enrico.olivelli
+ */
+class PipelinedRecoveryLog extends StatusChangesLog {
+
+    private static final int BATCH_SIZE = 1000;
+    private static final int MAX_PENDING_BATCHES = 64;
+
+    private final StatusChangesLog log;
+    private volatile long replayedEdits;
+
+    PipelinedRecoveryLog(StatusChangesLog log) {
+        this.log = log;
+    }
+
+    private static final class Batch {
+
+        final List<LogSequenceNumber> numbers = new ArrayList<>(BATCH_SIZE);
+        final List<StatusEdit> edits = new ArrayList<>(BATCH_SIZE);
+        Throwable error;
+        boolean last;
+    }
+
+    /**
+     * Number of edits replayed by the last recovery
+     *
+     * @return
+     */
+    long getReplayedEdits() {
+        return replayedEdits;
+    }
+
+    @Override
+    public void recovery(LogSequenceNumber snapshotSequenceNumber, BiConsumer<LogSequenceNumber, StatusEdit> consumer, boolean fencing) throws LogNotAvailableException {
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(MAX_PENDING_BATCHES);
+        Thread reader = new Thread(() -> {
+            Batch[] current = {new Batch()};
+            try {
+                log.recovery(snapshotSequenceNumber, (number, edit) -> {
+                    Batch batch = current[0];
+                    batch.numbers.add(number);
+                    batch.edits.add(edit);
+                    if (batch.edits.size() >= BATCH_SIZE) {
+                        put(queue, batch);
+                        current[0] = new Batch();
+                    }
+                }, fencing);
+            } catch (Throwable error) {
+                current[0].error = error;
+            }
+            current[0].last = true;
+            put(queue, current[0]);
+        }, "dodo-tools-log-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        long count = 0;
+        try {
+            while (true) {
+                Batch batch = queue.take();
+                for (int i = 0; i < batch.edits.size(); i++) {
+                    consumer.accept(batch.numbers.get(i), batch.edits.get(i));
+                }
+                count += batch.edits.size();
+                if (batch.error instanceof LogNotAvailableException) {
+                    throw (LogNotAvailableException) batch.error;
+                } else if (batch.error != null) {
+                    throw new LogNotAvailableException(batch.error);
+                }
+                if (batch.last) {
+                    break;
+                }
+            }
+            reader.join();
+        } catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+            throw new LogNotAvailableException(err);
+        } finally {
+            replayedEdits = count;
+        }
+    }
+
+    private static void put(BlockingQueue<Batch> queue, Batch batch) {
+        try {
+            queue.put(batch);
+        } catch (InterruptedException err) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(err);
+        }
+    }
+
+    @Override
+    public LogSequenceNumber logStatusEdit(StatusEdit edit) throws LogNotAvailableException {
+        throw new LogNotAvailableException("log is read only");
+    }
+
+    @Override
+    public void checkpoint(BrokerStatusSnapshot snapshotData) throws LogNotAvailableException {
+        log.checkpoint(snapshotData);
+    }
+
+    @Override
+    public BrokerStatusSnapshot loadBrokerStatusSnapshot() throws LogNotAvailableException {
+        return log.loadBrokerStatusSnapshot();
+    }
+
+    @Override
+    public LogSequenceNumber getLastSequenceNumber() {
+        return log.getLastSequenceNumber();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return log.isClosed();
+    }
+
+    @Override
+    public boolean isWritable() {
+        return false;
+    }
+
+    @Override
+    public boolean isLeader() {
+        return false;
+    }
+
+}
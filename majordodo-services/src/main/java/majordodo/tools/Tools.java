@@ -36,6 +36,7 @@ import majordodo.network.BrokerHostData;
 import majordodo.replication.LedgersInfo;
 import majordodo.replication.ReplicatedCommitLog;
 import majordodo.task.Broker;
+import majordodo.task.BrokerConfiguration;
 import majordodo.task.FileCommitLog;
 import majordodo.task.LogSequenceNumber;
 import majordodo.task.StatusChangesLog;
@@ -43,6 +44,7 @@ import majordodo.task.StatusEdit;
 
 /**
  * Utility for dumping a Replicated Commit Log to disk for debugging purposes
+ * and for offline compaction of snapshots
  *
  * @author enrico.olivelli
  */
@@ -52,7 +54,7 @@ public class Tools {
         try {
             Properties configuration = new Properties();
             if (args.length < 2) {
-                System.out.println("Usage: tools.sh dumplogs|clear [LEDGERID] [OUTPUTFILE]");
+                System.out.println("Usage: tools.sh dumplogs|clear|compact [LEDGERID] [OUTPUTFILE]");
                 return;
             }
             File configFile = new File(args[0]);
@@ -73,8 +75,10 @@ public class Tools {
                     break;
                 case "clear":
                     break;
+                case "compact":
+                    break;
                 default:
-                    throw new RuntimeException("bad command " + command + ", only dumplogs|clear");
+                    throw new RuntimeException("bad command " + command + ", only dumplogs|clear|compact");
             }
 
             String sharedsecret = configuration.getProperty("sharedsecret", "dodo");
@@ -132,18 +136,25 @@ public class Tools {
                             System.out.println("Dumping contents of ledger " + ledgerId + " to file " + outputfilename);
                             try (PrintWriter writer = new PrintWriter(new File(outputfilename), "utf-8")) {
                                 log.recovery(new LogSequenceNumber(ledgerId, 0), (LogSequenceNumber t, StatusEdit u) -> {
-                                    writer.println(t.ledgerId + "," + t.sequenceNumber + ',' + u.toFormattedString(formatter));
+                                    writer.println(t + "," + u.toFormattedString(formatter));
                                 }, false);
                             }
                         } else {
                             System.out.println("Dumping contents of ledger " + ledgerId + " to stdout");
                             log.recovery(new LogSequenceNumber(ledgerId, 0), (LogSequenceNumber t, StatusEdit u) -> {
-                                System.out.println(t.ledgerId + "," + t.sequenceNumber + ',' + u.toFormattedString(formatter));
+                                System.out.println(t + "," + u.toFormattedString(formatter));
                             }, false);
                         }
                     }
                 } else if (command.equals("clear")) {
                     log.clear();
+                } else if (command.equals("compact")) {
+                    int finishedTasksRetention = Integer.parseInt(configuration.getProperty("finishedTasksRetention", new BrokerConfiguration().getFinishedTasksRetention() + ""));
+                    System.out.println("Compacting snapshot, finished tasks retention " + finishedTasksRetention + " ms");
+                    LogCompactor compactor = new LogCompactor(log, finishedTasksRetention);
+                    compactor.compact();
+                    System.out.println("Replayed " + compactor.getReplayedEdits() + " edits in " + compactor.getReplayTime() + " ms (" + compactor.getReplayThroughput() + " edits/s)");
+                    System.out.println("Tasks: " + compactor.getTasksBefore() + " before, " + compactor.getTasksAfter() + " after compaction");
                 }
             } finally {
                 log.close();
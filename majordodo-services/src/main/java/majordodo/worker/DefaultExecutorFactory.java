@@ -25,6 +25,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import majordodo.executors.BatchTaskExecutor;
 import majordodo.executors.TaskExecutor;
 import majordodo.executors.TaskExecutorFactory;
 import majordodo.executors.TaskExecutorFactoryImplementation;
@@ -56,6 +57,17 @@ public class DefaultExecutorFactory implements TaskExecutorFactory {
         return new TaskExecutor();
     }
 
+    @Override
+    public BatchTaskExecutor createBatchTaskExecutor(String taskType, Map<String, Object> parameters) {
+        for (TaskExecutorFactory factory : factories) {
+            BatchTaskExecutor e = factory.createBatchTaskExecutor(taskType, parameters);
+            if (e != null) {
+                return e;
+            }
+        }
+        return null;
+    }
+
     private void discoverFromClasspath() {
         try {
             Reflections reflections = new Reflections();
@@ -104,6 +104,7 @@ public class WorkerMain implements AutoCloseable {
         BrokerLocator brokerLocator;
         String mode = configuration.getProperty("clustering.mode", "singleserver");
         boolean sslUnsecure = Boolean.parseBoolean(configuration.getProperty("broker.ssl.unsecure", "true"));
+        boolean epoll = Boolean.parseBoolean(configuration.getProperty("io.epoll", "false"));
         switch (mode) {
             case "singleserver":
                 String host = configuration.getProperty("broker.host", "localhost");
@@ -111,6 +112,7 @@ public class WorkerMain implements AutoCloseable {
                 boolean ssl = Boolean.parseBoolean(configuration.getProperty("broker.ssl", "true"));
                 brokerLocator = new NettyBrokerLocator(host, port, ssl);
                 ((NettyBrokerLocator) brokerLocator).setSslUnsecure(sslUnsecure);
+                ((NettyBrokerLocator) brokerLocator).setEpoll(epoll);
                 break;
             case "clustered":
                 String zkAddress = configuration.getProperty("zk.address", "localhost:1281");
@@ -118,6 +120,7 @@ public class WorkerMain implements AutoCloseable {
                 String zkPath = configuration.getProperty("zk.path", "/majordodo");
                 brokerLocator = new ZKBrokerLocator(zkAddress, zkSessionTimeout, zkPath);
                 ((ZKBrokerLocator) brokerLocator).setSslUnsecure(sslUnsecure);
+                ((ZKBrokerLocator) brokerLocator).setEpoll(epoll);
                 break;
             default:
                 throw new RuntimeException("invalid clustering.mode=" + mode);
@@ -135,6 +138,8 @@ public class WorkerMain implements AutoCloseable {
         String processid = ManagementFactory.getRuntimeMXBean().getName();
         String location = InetAddress.getLocalHost().getCanonicalHostName();
         Map<String, Integer> maximumThreadPerTaskType = new HashMap<>();
+        Map<String, Long> maxExecutionTimePerTaskType = new HashMap<>();
+        Map<String, Integer> batchSizePerTaskType = new HashMap<>();
         boolean notag = true;
         for (Object key : configuration.keySet()) {
             String k = key.toString();
@@ -144,6 +149,14 @@ public class WorkerMain implements AutoCloseable {
                 int maxThreadPerTag = Integer.parseInt(configuration.getProperty(key + ""));
                 maximumThreadPerTaskType.put(tasktype, maxThreadPerTag);
             }
+            if (k.startsWith("tasktype.") && k.endsWith(".maxexecutiontime")) {
+                String tasktype = k.replace("tasktype.", "").replace(".maxexecutiontime", "");
+                maxExecutionTimePerTaskType.put(tasktype, Long.parseLong(configuration.getProperty(key + "")));
+            }
+            if (k.startsWith("tasktype.") && k.endsWith(".batchsize")) {
+                String tasktype = k.replace("tasktype.", "").replace(".batchsize", "");
+                batchSizePerTaskType.put(tasktype, Integer.parseInt(configuration.getProperty(key + "")));
+            }
         }
         if (notag) {
             System.out.println("No configuration line tasktype.xxx.maxthreads found, defaulting to tasktype 'any', with max threads = 100");
@@ -173,6 +186,8 @@ public class WorkerMain implements AutoCloseable {
         }
         config.setWorkerId(workerid);
         config.setMaxThreadsByTaskType(maximumThreadPerTaskType);
+        config.setMaxExecutionTimeByTaskType(maxExecutionTimePerTaskType);
+        config.setBatchSizeByTaskType(batchSizePerTaskType);
         config.setGroups(groupsList);
         config.setLocation(location);
         Map<String, Object> props = new HashMap<>();
@@ -0,0 +1,84 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.tools;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import majordodo.task.BrokerStatusSnapshot;
+import majordodo.task.FileCommitLog;
+import majordodo.task.StatusEdit;
+import majordodo.task.Task;
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Offline compaction of snapshots
+ *
+ * @author enrico.olivelli
+ */
+public class LogCompactorTest {
+
+    @Rule
+    public TemporaryFolder folderSnapshots = new TemporaryFolder();
+    @Rule
+    public TemporaryFolder folderLogs = new TemporaryFolder();
+
+    private static final int TASKS = 10000;
+
+    @Test
+    public void test() throws Exception {
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), folderLogs.getRoot().toPath(), 1024 * 1024);) {
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+            }, false);
+            log.startWriting();
+            for (int i = 1; i <= TASKS; i++) {
+                log.logStatusEdit(StatusEdit.ADD_TASK(i, "mytype", "param", "myuser", 0, 0, null, 0, null, null));
+                if (i % 2 == 0) {
+                    log.logStatusEdit(StatusEdit.TASK_STATUS_CHANGE(i, null, Task.STATUS_FINISHED, "theresult"));
+                }
+            }
+        }
+        Thread.sleep(10);
+
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), folderLogs.getRoot().toPath(), 1024 * 1024);) {
+            LogCompactor compactor = new LogCompactor(log, 0);
+            compactor.compact();
+            System.out.println("replayed " + compactor.getReplayedEdits() + " edits in " + compactor.getReplayTime() + " ms (" + compactor.getReplayThroughput() + " edits/s)");
+            assertEquals(TASKS + TASKS / 2, compactor.getReplayedEdits());
+            assertEquals(TASKS, compactor.getTasksBefore());
+            assertEquals(TASKS / 2, compactor.getTasksAfter());
+        }
+
+        // the broker restarts from the compacted snapshot, with no log to replay
+        try (FileCommitLog log = new FileCommitLog(folderSnapshots.getRoot().toPath(), folderLogs.getRoot().toPath(), 1024 * 1024);) {
+            BrokerStatusSnapshot snapshot = log.loadBrokerStatusSnapshot();
+            assertEquals(TASKS / 2, snapshot.getTasks().size());
+            assertEquals(TASKS, snapshot.getMaxTaskId());
+            AtomicInteger replayed = new AtomicInteger();
+            log.recovery(snapshot.getActualLogSequenceNumber(), (a, b) -> {
+                replayed.incrementAndGet();
+            }, false);
+            assertEquals(0, replayed.get());
+        }
+    }
+
+}
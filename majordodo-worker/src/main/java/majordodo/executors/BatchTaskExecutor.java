@@ -0,0 +1,59 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.executors;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Execution of many tasks of the same tasktype with a single call, for
+ * high-volume small tasks (for instance tasks which write a few rows on a
+ * database can share a single transaction). Tasks are grouped by the worker
+ * when tasktype.xxx.batchsize is configured
+ *
+ * @author enrico.olivelli
+ * @see TaskExecutorFactory#createBatchTaskExecutor(java.lang.String,
+ * java.util.Map)
+ */
+public class BatchTaskExecutor {
+
+    /**
+     * Implement the batch. The result of each task is reported to the broker
+     * individually, so some tasks of the batch can fail while others succeed.
+     * Any Exception thrown by this method will be treated as an "error" of
+     * every task of the batch
+     *
+     * @param tasks parameters of each task, as in
+     * {@link TaskExecutor#executeTask(java.util.Map)}
+     * @return the result of each task, in the same order of the tasks
+     * @throws Exception
+     */
+    public List<BatchTaskResult> executeTasks(List<Map<String, Object>> tasks) throws Exception {
+        throw new UnsupportedOperationException("batch execution not implemented for this tasktype, tasks:" + tasks);
+    }
+
+    /**
+     * Called when the execution of the whole batch is cancelled, see
+     * {@link TaskExecutor#cancel()}
+     */
+    public void cancel() {
+    }
+
+}
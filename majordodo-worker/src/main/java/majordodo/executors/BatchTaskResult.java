@@ -0,0 +1,74 @@
+/*
+ Licensed to Diennea S.r.l. under one
+ or more contributor license agreements. See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership. Diennea S.r.l. licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+
+ */
+package majordodo.executors;
+
+/**
+ * Result of a task executed by a {@link BatchTaskExecutor}
+ *
+ * @author enrico.olivelli
+ */
+public final class BatchTaskResult {
+
+    private final String result;
+    private final Throwable error;
+
+    private BatchTaskResult(String result, Throwable error) {
+        this.result = result;
+        this.error = error;
+    }
+
+    /**
+     * The task finished successfully
+     *
+     * @param result
+     * @return
+     */
+    public static BatchTaskResult finished(String result) {
+        return new BatchTaskResult(result, null);
+    }
+
+    /**
+     * The task failed, it will be re-submitted for recovery as for errors
+     * thrown by {@link TaskExecutor#executeTask(java.util.Map)}
+     *
+     * @param error
+     * @return
+     */
+    public static BatchTaskResult error(Throwable error) {
+        if (error == null) {
+            throw new IllegalArgumentException("error cannot be null");
+        }
+        return new BatchTaskResult(null, error);
+    }
+
+    public String getResult() {
+        return result;
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchTaskResult{" + "result=" + result + ", error=" + error + '}';
+    }
+
+}
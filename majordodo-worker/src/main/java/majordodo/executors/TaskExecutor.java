@@ -53,4 +53,13 @@ public class TaskExecutor {
         throw new UnsupportedOperationException("task execution not implemented for this tasktype, parameters:" + parameters);
     }
 
+    /**
+     * Called when the execution is cancelled, because the maximum execution time elapsed or because the broker requested it.
+     * The thread which is running {@link #executeTask(java.util.Map) } is interrupted as well, tasks which do not react to
+     * interruption (for instance blocked on a socket) should override this method and abort the execution.
+     * This method is called from another thread, the result of the task is discarded
+     */
+    public void cancel() {
+    }
+
 }
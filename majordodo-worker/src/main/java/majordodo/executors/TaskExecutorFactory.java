@@ -33,4 +33,19 @@ public interface TaskExecutorFactory {
 
     public TaskExecutor createTaskExecutor(String taskType, Map<String, Object> parameters);
 
+    /**
+     * Creates an executor for a batch of tasks of the given tasktype, tasks
+     * are grouped by the worker only for the tasktypes configured with
+     * tasktype.xxx.batchsize
+     *
+     * @param taskType
+     * @param parameters parameters of the first task of the batch, every task
+     * of the batch has the same tasktype, codepool and mode
+     * @return null if the tasktype does not support batches, in this case the
+     * tasks of the batch are executed one after the other
+     */
+    public default BatchTaskExecutor createBatchTaskExecutor(String taskType, Map<String, Object> parameters) {
+        return null;
+    }
+
 }